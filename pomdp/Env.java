@@ -52,7 +52,10 @@ public class Env {
     }
 
     private static double runOfflineJoint(List<GridAgent> agents, String sMethodName, String sModelName, int maxIterations, int maxSteps) {
-        agents.forEach(a -> a.initRun(sModelName));
+        PlanningExecutor.getInstance().plan(agents, agent -> {
+            agent.initRun(sModelName);
+            return null;
+        });
         GridJointAgent jointAgent = new GridJointAgent();
         jointAgent.initOfflineRun(agents);
         return jointAgent.solve(sMethodName, 100.0, maxIterations, maxSteps);
@@ -65,10 +68,10 @@ public class Env {
         int status = SUCCESS;
         PotentialCollisionData potentialCollision = null;
         boolean collisionDetected;
-        for (GridAgent agent : agents) {
+        PlanningExecutor.getInstance().plan(agents, agent -> {
             agent.initRun(sModelName);
-            agent.solve(sMethodName, 100.0, maxIterations, maxSteps);
-        }
+            return agent.solve(sMethodName, 100.0, maxIterations, maxSteps);
+        });
         agents.forEach(agent -> System.out.println("Agent " + agent.getID() + " starts at " + agent.getStartStateString()));
         iStep = 0;
         TrackLogger.getInstance().freeLog(0, printLetteredEnv(agents));
@@ -118,10 +121,10 @@ public class Env {
         final int SUCCESS = 0, TIMEOUT = 1, GIVENUP = 2;
         int status = SUCCESS;
 
-        for (GridAgent agent : agents) {
+        PlanningExecutor.getInstance().plan(agents, agent -> {
             agent.initRun(sModelName);
-            agent.solve(sMethodName, 100.0, solverIterations, maxSteps);
-        }
+            return agent.solve(sMethodName, 100.0, solverIterations, maxSteps);
+        });
         agents.forEach(agent -> agent.log("Env", 0, "runForbidden", true, "Agent " + agent.getID() + " starts at " + agent.getStartStateString()));
 
         for (int iStep = 0; iStep < maxSteps && !AllDone(agents); iStep++) {
@@ -191,13 +194,12 @@ public class Env {
 //                agent.step();
 //            }
 
-            for (GridAgent agent : agents) {
-                if (agent.finishEscaping()) {
-                    agent.clearForbiddenStates();
-                    agent.initRun(sModelName);
-                    agent.solve(sMethodName, 100.0, solverIterations, maxSteps);
-                }
-            }
+            List<GridAgent> escaped = agents.stream().filter(GridAgent::finishEscaping).collect(Collectors.toList());
+            escaped.forEach(GridAgent::clearForbiddenStates);
+            PlanningExecutor.getInstance().plan(escaped, agent -> {
+                agent.initRun(sModelName);
+                return agent.solve(sMethodName, 100.0, solverIterations, maxSteps);
+            });
 
             mightCollide = findNextSafeStep(agents, sMethodName, sModelName, solverIterations, maxSteps, initialTimer);
 
@@ -242,15 +244,16 @@ public class Env {
             // adds all the dominant's possible states to nonDominant's forbidden states
             for (GridAgent a: agents) {
                 if (a != nonDominant) {
-                    a.clearExpandedBeliefs();
                     for (int iPotentialStep = 0; iPotentialStep <= inConflict.getCollisionStep(); iPotentialStep++) {
-                        nonDominant.addForbiddenStates(a.getPossibleStates());
-                        a.expandBeliefsStep(iPotentialStep);
+                        nonDominant.addForbiddenStates(a.getReachability().getStates(iPotentialStep));
                     }
                 }
             }
-            nonDominant.initRun(sModelName);
-            solvedADR = nonDominant.solve(sMethodName, 100.0, solverIterations, maxSteps);
+            // each replan depends on the conflicts left by the previous one, so these stay one at a time
+            solvedADR = PlanningExecutor.getInstance().plan(nonDominant, agent -> {
+                agent.initRun(sModelName);
+                return agent.solve(sMethodName, 100.0, solverIterations, maxSteps);
+            });
             if (solvedADR >= 0) {
                 nonDominant.setForbiddenTimer(initialTimer);
                 nonDominant.log("Env", 0, "runForbidden", false, "finished finding forbidden states");
@@ -319,16 +322,7 @@ public class Env {
 //
 //        return potentialCollision;
 
-        List<PotentialCollisionData> collisions = new ArrayList<>();
-        for (int iAgent1 = 0; iAgent1 < agents.size(); iAgent1++) {
-            for (int iAgent2 = iAgent1 + 1; iAgent2 < agents.size(); iAgent2++) {
-                PotentialCollisionData collisionData = checkCollision(agents.get(iAgent1), agents.get(iAgent2));
-                if (!collisionData.isEmpty()) {
-                    collisions.add(collisionData);
-                }
-                System.out.println();
-            }
-        }
+        List<PotentialCollisionData> collisions = findPairCollisions(agents);
         if (collisions.size() == 0) {
             return potentialCollision;
         }
@@ -353,36 +347,87 @@ public class Env {
         return collisions.get(0);
     }
 
-    private static PotentialCollisionData checkCollision(GridAgent gridAgent1, GridAgent gridAgent2) {
-        PotentialCollisionData potentialCollision = new PotentialCollisionData();
-        final int TIMEOUT = 10;
-        Set<Integer> collisionStates;
-        gridAgent1.clearExpandedBeliefs();
-        gridAgent2.clearExpandedBeliefs();
-        int agentMovingActionCounter = 0, otherMovingActionCounter = 0;
-        int iStep = 0;
-        while (Math.min(agentMovingActionCounter, otherMovingActionCounter) <= gridAgent1.getDistanceThreshold() && Math.max(agentMovingActionCounter, otherMovingActionCounter) <= 2 * gridAgent1.getDistanceThreshold() && iStep <= TIMEOUT) {
-            collisionStates = getCollisionStates(gridAgent1, gridAgent2);
-            if (collisionStates.size() > 0) {
-//                for (int collisionState : collisionStates) {
-//                    gridAgent1.log("Env", 0, "mightCollidingAgents", true, "Agent " + gridAgent1.getID() + " and agent " + gridAgent2.getID() + " may collide in " + gridAgent1.getGrid().parseState(collisionState));
-//                    gridAgent2.getAgentLogger().log("Env", 0, "mightCollidingAgents", false, "Agent " + gridAgent1.getID() + " and agent " + gridAgent2.getID() + " may collide in " + gridAgent1.getGrid().parseState(collisionState));
-//                }
-                potentialCollision.addAgent(gridAgent1);
-                potentialCollision.addAgent(gridAgent2);
-                potentialCollision.addCollisionStates(collisionStates);
-                potentialCollision.setCollisionStep(iStep);
-                return potentialCollision;
+    /**
+     * Finds, for every pair of agents, the first horizon at which their reachable states overlap. A pair is followed while
+     * the agent that moved least moved at most distanceThreshold times and the other at most twice that, up to PAIR_TIMEOUT steps.
+     * Each agent's reachable states are expanded once and shared by all its pairs; every horizon is checked in one pass
+     * over an occupancy index (state -> agents that may be there).
+     * @return the colliding pairs in (i, j) order, i < j
+     */
+    private static List<PotentialCollisionData> findPairCollisions(List<GridAgent> agents) {
+        final int PAIR_TIMEOUT = 10;
+        int cAgents = agents.size();
+        if (cAgents > Long.SIZE) {
+            throw new IllegalArgumentException("Collision detection supports at most " + Long.SIZE + " agents, got " + cAgents);
+        }
+        ReachabilityTrace[] traces = new ReachabilityTrace[cAgents];
+        for (int iAgent = 0; iAgent < cAgents; iAgent++) {
+            traces[iAgent] = agents.get(iAgent).getReachability();
+        }
+        // moved[i] - movements of agent i before the current horizon
+        int[] moved = new int[cAgents];
+        PotentialCollisionData[][] pairCollisions = new PotentialCollisionData[cAgents][cAgents];
+        boolean[][] pairActive = new boolean[cAgents][cAgents];
+        Map<Integer, Long> occupancy = new HashMap<>();
+
+        for (int iStep = 0; iStep <= PAIR_TIMEOUT; iStep++) {
+            long activeAgents = 0;
+            for (int i = 0; i < cAgents; i++) {
+                for (int j = i + 1; j < cAgents; j++) {
+                    int threshold = agents.get(i).getDistanceThreshold();
+                    pairActive[i][j] = pairCollisions[i][j] == null && Math.min(moved[i], moved[j]) <= threshold && Math.max(moved[i], moved[j]) <= 2 * threshold;
+                    if (pairActive[i][j]) {
+                        activeAgents |= (1L << i) | (1L << j);
+                    }
+                }
             }
-            if (gridAgent1.expandBeliefsStep(iStep)) {
-                agentMovingActionCounter++;
+            if (activeAgents == 0) {
+                break;
             }
-            if (gridAgent2.expandBeliefsStep(iStep)) {
-                otherMovingActionCounter++;
+
+            occupancy.clear();
+            for (int iAgent = 0; iAgent < cAgents; iAgent++) {
+                if ((activeAgents & (1L << iAgent)) != 0) {
+                    long bit = 1L << iAgent;
+                    traces[iAgent].getStates(iStep).stream().forEach(iState -> occupancy.merge(iState, bit, (a, b) -> a | b));
+                }
+            }
+            for (Map.Entry<Integer, Long> e : occupancy.entrySet()) {
+                long occupants = e.getValue();
+                if (Long.bitCount(occupants) < 2) {
+                    continue;
+                }
+                for (int i = 0; i < cAgents; i++) {
+                    for (int j = i + 1; j < cAgents; j++) {
+                        if (pairActive[i][j] && (occupants & (1L << i)) != 0 && (occupants & (1L << j)) != 0) {
+                            if (pairCollisions[i][j] == null) {
+                                pairCollisions[i][j] = new PotentialCollisionData();
+                                pairCollisions[i][j].addAgent(agents.get(i));
+                                pairCollisions[i][j].addAgent(agents.get(j));
+                                pairCollisions[i][j].setCollisionStep(iStep);
+                            }
+                            pairCollisions[i][j].addCollisionStates(Collections.singleton(e.getKey()));
+                        }
+                    }
+                }
+            }
+
+            for (int iAgent = 0; iAgent < cAgents; iAgent++) {
+                if (iStep < PAIR_TIMEOUT && (activeAgents & (1L << iAgent)) != 0 && traces[iAgent].hasMoved(iStep)) {
+                    moved[iAgent]++;
+                }
             }
-            iStep++;
         }
-        return potentialCollision;
+
+        List<PotentialCollisionData> collisions = new ArrayList<>();
+        for (int i = 0; i < cAgents; i++) {
+            for (int j = i + 1; j < cAgents; j++) {
+                if (pairCollisions[i][j] != null) {
+                    collisions.add(pairCollisions[i][j]);
+                }
+            }
+        }
+        return collisions;
     }
 
     private static void logCollision(PotentialCollisionData data) {
@@ -478,15 +523,6 @@ public class Env {
         return collisionStates;
     }
 
-    private static Set<Integer> getCollisionStates(GridAgent agent1, GridAgent agent2) {
-        Set<Integer> collisionStates = agent1.getPossibleStates();
-        System.out.println("Agent " + agent1.getID() + " possible states: " + collisionStates.stream().map(state -> agent1.getGrid().parseState(state)).collect(Collectors.toList()).toString());
-        Set<Integer> possibleStates = agent2.getPossibleStates();
-        System.out.println("Agent " + agent2.getID() + " possible states: " + possibleStates.stream().map(state -> agent1.getGrid().parseState(state)).collect(Collectors.toList()).toString());
-        collisionStates.retainAll(possibleStates);
-        return collisionStates;
-    }
-
     private static String printLetteredEnv(List<GridAgent> agents) {
         int rows = agents.get(0).getGrid().getRows();
         int cols = agents.get(0).getGrid().getCols();
@@ -16,13 +16,15 @@ public class GridAgent implements Comparable<GridAgent>{
     private static char autoInc = 'a';
     private BeaconDistanceGrid grid;
     private PolicyStrategy mainPolicy, escapePolicy, tempPolicy;
-    private Map<Integer, Boolean> forbiddenStates, tempForbiddenStates;
+    private final ForbiddenStates forbiddenStates, tempForbiddenStates;
     private BeliefState currentBelief;
     private int currentState;
     private int cSameStates;
     private final int distanceThreshold;
     private final char id;
     private Set<BeliefState> expandedBeliefs;
+    // reachable states per horizon, dropped whenever something that drives the future policy changes
+    private ReachabilityTrace reachability;
     private int START_STATE, END_STATE;
     private boolean isExpandedBeliefsRelevant;
     private int forbiddenTimer;
@@ -38,8 +40,8 @@ public class GridAgent implements Comparable<GridAgent>{
     private boolean timedOut;
 
     public GridAgent(int distanceThreshold) {
-        forbiddenStates = new HashMap<>();
-        tempForbiddenStates = new HashMap<>();
+        forbiddenStates = new ForbiddenStates();
+        tempForbiddenStates = new ForbiddenStates();
         this.distanceThreshold = distanceThreshold;
         id = autoInc++;
         expandedBeliefs = new HashSet<>();
@@ -67,6 +69,7 @@ public class GridAgent implements Comparable<GridAgent>{
         forbiddenStates.clear();
         solved = false;
         timedOut = false;
+        invalidateReachability();
     }
 
     public double getSumOfDiscountedRewards() {
@@ -122,6 +125,7 @@ public class GridAgent implements Comparable<GridAgent>{
 
     public void setForbiddenTimer(int forbiddenTimer) {
         this.forbiddenTimer = forbiddenTimer;
+        invalidateReachability();
     }
 
     public String getStartStateString() {
@@ -130,18 +134,26 @@ public class GridAgent implements Comparable<GridAgent>{
 
     public void clearForbiddenStates() {
         forbiddenStates.clear();
+        invalidateReachability();
     }
 
     public void addForbiddenState(int iState) {
-        forbiddenStates.put(iState, true);
+        forbiddenStates.add(iState);
+        invalidateReachability();
     }
 
     public void addForbiddenStates(Set<Integer> iStates) {
-        iStates.forEach(iState -> forbiddenStates.put(iState, true));
+        forbiddenStates.addAll(iStates);
+        invalidateReachability();
+    }
+
+    public void addForbiddenStates(BitSet iStates) {
+        forbiddenStates.addAll(iStates);
+        invalidateReachability();
     }
 
     public boolean isForbidden(int iState) {
-        return forbiddenStates.getOrDefault(iState, false);
+        return forbiddenStates.contains(iState);
     }
 
     public boolean isExpandedBeliefRelevant() {
@@ -153,8 +165,7 @@ public class GridAgent implements Comparable<GridAgent>{
     }
 
     public void load(String fileName) throws InvalidModelFileFormatException, IOException {
-        grid.load(fileName, id);
-        grid.setNOOP(grid.getActionIndex("noop"));
+        grid = GridModelCache.getInstance().getGrid(fileName, id);
         START_STATE = grid.getStartState(id);
         END_STATE = grid.getEndState();
     }
@@ -182,12 +193,17 @@ public class GridAgent implements Comparable<GridAgent>{
 
     // returns if the step changed the agent's belief state
     public boolean expandBeliefsStep(int iStep) {
+        Set<BeliefState> next = new HashSet<>();
+        boolean hasMoved = expandBeliefsStep(expandedBeliefs, iStep, next);
+        expandedBeliefs = next;
+        return hasMoved;
+    }
+
+    // expands beliefs by the actions the policy in use iStep steps from now picks, into next
+    boolean expandBeliefsStep(Set<BeliefState> beliefs, int iStep, Set<BeliefState> next) {
         boolean hasMoved = false;
         int iAction;
-        Queue<BeliefState> temp = new ArrayDeque<>(expandedBeliefs);
-        expandedBeliefs.clear();
-        while (!temp.isEmpty()) {
-            BeliefState belief = temp.remove();
+        for (BeliefState belief : beliefs) {
             iAction = getRelevantFuturePolicy(iStep).getAction(belief);
             if (iAction == -1) {
                 continue;
@@ -196,9 +212,20 @@ public class GridAgent implements Comparable<GridAgent>{
             if (iAction <= 3) {
                 hasMoved = true;
             }
-            expandedBeliefs.addAll(expandBelief(belief, iAction));
+            next.addAll(expandBelief(belief, iAction));
+        }
+        return hasMoved || next.stream().allMatch(b -> b.valueAt(grid.DONE) > 0);
+    }
+
+    public ReachabilityTrace getReachability() {
+        if (reachability == null) {
+            reachability = new ReachabilityTrace(this);
         }
-        return hasMoved || expandedBeliefs.stream().allMatch(b -> b.valueAt(grid.DONE) > 0);
+        return reachability;
+    }
+
+    private void invalidateReachability() {
+        reachability = null;
     }
 
     public void expandBeliefs(int steps) {
@@ -226,11 +253,17 @@ public class GridAgent implements Comparable<GridAgent>{
 
     public Set<Integer> getPossibleStates() {
         Set<Integer> possibleStates = new HashSet<>();
-        for (int iState = 0; iState < grid.getStateCount(); iState++) {
-            for (BeliefState belief : expandedBeliefs) {
-                if (belief.valueAt(iState) > 0 && iState != grid.DONE) {
-                    possibleStates.add(iState);
-                    break;
+        getPossibleStates(expandedBeliefs).stream().forEach(possibleStates::add);
+        return possibleStates;
+    }
+
+    // states with positive probability in any of the beliefs, DONE excluded
+    BitSet getPossibleStates(Set<BeliefState> beliefs) {
+        BitSet possibleStates = new BitSet(grid.getStateCount());
+        for (BeliefState belief : beliefs) {
+            for (Map.Entry<Integer, Double> e : belief.getNonZeroEntries()) {
+                if (e.getValue() > 0 && e.getKey() != grid.DONE) {
+                    possibleStates.set(e.getKey());
                 }
             }
         }
@@ -342,6 +375,7 @@ public class GridAgent implements Comparable<GridAgent>{
         }
 
         irrelevantExpandedBeliefs();
+        invalidateReachability();
         if (reduceTimer) {
             decreaseTimer();
         }
@@ -430,8 +464,21 @@ public class GridAgent implements Comparable<GridAgent>{
         ValueIteration viAlgorithm = AlgorithmsFactory.getAlgorithm( methodName, grid );
         try{
             assert viAlgorithm != null;
-            viAlgorithm.valueIteration( cMaxIterations, ExecutionProperties.getEpsilon(), dTargetADR );
+            // replans start from the policy in use, without its vectors that the new forbidden states may invalidate
+            PolicyStrategy priorPolicy = getRelevantPolicy();
+            int cIterations = cMaxIterations;
+            if (ExecutionProperties.useWarmStart() && viAlgorithm.supportsWarmStart() && priorPolicy instanceof ValueIteration) {
+                viAlgorithm.initValueFunctionFrom(priorPolicy.getValueFunction(), ((ValueIteration) priorPolicy).getSolvedForbiddenStates());
+                cIterations = Math.min(cMaxIterations, ExecutionProperties.getWarmStartIterations());
+            }
+            viAlgorithm.valueIteration( cIterations, ExecutionProperties.getEpsilon(), dTargetADR );
             dDiscountedReward = grid.computeAverageDiscountedReward( 200, maxSteps, viAlgorithm, true , ExecutionProperties.useHighLevelMultiThread() || ExecutionProperties.useMultiThread() );
+            // a warm start that did not reach the target continues, from its value function, up to the cold start cap
+            if (cIterations < cMaxIterations && dDiscountedReward < dTargetADR) {
+                Logger.getInstance().log( "GridAgent", 0, "solve", "Warm start ADR = " + dDiscountedReward + " below " + dTargetADR + ", continuing" );
+                viAlgorithm.valueIteration( cMaxIterations - cIterations, ExecutionProperties.getEpsilon(), dTargetADR );
+                dDiscountedReward = grid.computeAverageDiscountedReward( 200, maxSteps, viAlgorithm, true , ExecutionProperties.useHighLevelMultiThread() || ExecutionProperties.useMultiThread() );
+            }
             Logger.getInstance().log( "GridAgent", 0, "main", "ADR = " + dDiscountedReward );
 
             if (dDiscountedReward >= 0) {
@@ -473,6 +520,7 @@ public class GridAgent implements Comparable<GridAgent>{
             System.out.print( "Stack trace: " );
             err.printStackTrace();
         }
+        invalidateReachability();
         return dDiscountedReward;
     }
 
@@ -486,22 +534,22 @@ public class GridAgent implements Comparable<GridAgent>{
             this.escapePolicy = tempPolicy;
         }
         tempPolicy = null;
+        invalidateReachability();
     }
 
     public void saveForbiddenStates() {
-        tempForbiddenStates.clear();
-        tempForbiddenStates.putAll(forbiddenStates);
+        tempForbiddenStates.copyFrom(forbiddenStates);
     }
 
     public void restoreForbiddenStates() {
-        forbiddenStates.clear();
-        forbiddenStates.putAll(tempForbiddenStates);
+        forbiddenStates.copyFrom(tempForbiddenStates);
         grid.setForbiddenStates(forbiddenStates);
+        invalidateReachability();
     }
 
     public int localize() {
         int steps = 0;
-        for (int senseAction : grid.getSensingActions()) {
+        for (int senseAction : grid.getSensingActionArray()) {
             step(senseAction, false);
             steps++;
         }
@@ -511,6 +559,7 @@ public class GridAgent implements Comparable<GridAgent>{
     public void setNullPolicy() {
         mainPolicy = new NullPolicy(grid);
         isTimed = false;
+        invalidateReachability();
     }
 
     public int distanceTo(int state) {
@@ -522,11 +571,7 @@ public class GridAgent implements Comparable<GridAgent>{
     }
 
     public List<Integer> getForbiddenStates() {
-        List<Integer> forbidden = new ArrayList<>();
-        forbiddenStates.forEach((s, isForbidden) -> {
-            if(isForbidden) forbidden.add(s);
-        });
-        return forbidden;
+        return forbiddenStates.toList();
     }
 
     public int getCurrentState() {
@@ -536,40 +581,42 @@ public class GridAgent implements Comparable<GridAgent>{
     public void printGrid() {
         int rows = grid.getRows();
         int cols = grid.getCols();
+        // built as one string so grids printed from parallel planners don't interleave
+        StringBuilder sb = new StringBuilder();
 
-        System.out.println("Legend:");
-        System.out.println("    #: Wall");
-        System.out.println("    <number>: beacon with influence range <number>");
-        System.out.println("    <lower-case letter>: agent <lower-case letter> current state");
-        System.out.println("    <upper-case letter>: agent <lower-case letter> goal");
-        System.out.println("    *: forbidden state\n");
+        sb.append("Legend:").append("\n");
+        sb.append("    #: Wall").append("\n");
+        sb.append("    <number>: beacon with influence range <number>").append("\n");
+        sb.append("    <lower-case letter>: agent <lower-case letter> current state").append("\n");
+        sb.append("    <upper-case letter>: agent <lower-case letter> goal").append("\n");
+        sb.append("    *: forbidden state\n").append("\n");
 
-        System.out.print("    #");
+        sb.append("    #");
         for (int j = 0; j < cols+1; j++) {
-            System.out.print("#");
+            sb.append("#");
         }
-        System.out.println();
+        sb.append("\n");
 
         for (int i = 0; i < rows; i++) {
-            System.out.print("    #");
+            sb.append("    #");
             for (int j = 0; j < cols; j++) {
                 boolean clear = true;
                 if (grid.locationToState(i, j) == grid.HOLE) {
-                    System.out.print("#");
+                    sb.append("#");
                     clear = false;
                 }
                 else if (grid.locationToState(i, j) == grid.getEndState()) {
-                    System.out.print(Character.toUpperCase(id));
+                    sb.append(Character.toUpperCase(id));
                     clear = false;
                 }
                 else if (grid.locationToState(i, j) == currentState) {
-                    System.out.print(Character.toLowerCase(id));
+                    sb.append(Character.toLowerCase(id));
                     clear = false;
                 }
                 else {
                     for (Beacon b : grid.getBeacons()){
                         if (b.getLoc().equals(Point.getPoint(i, j))) {
-                            System.out.print(b.getRange());
+                            sb.append(b.getRange());
                             clear = false;
                             break;
                         }
@@ -577,28 +624,27 @@ public class GridAgent implements Comparable<GridAgent>{
                 }
                 if (clear) {
                     if (isForbidden(grid.locationToState(i, j))) {
-                        System.out.print("*");
+                        sb.append("*");
                     }
                     else {
-                        System.out.print(" ");
+                        sb.append(" ");
                     }
                 }
             }
-            System.out.println("#");
+            sb.append("#").append("\n");
         }
 
-        System.out.print("    #");
+        sb.append("    #");
         for (int j = 0; j < cols+1; j++) {
-            System.out.print("#");
+            sb.append("#");
         }
-        System.out.println("\n");
+        sb.append("\n\n");
+        System.out.print(sb);
     }
 
     public void initRun(String sModelName) {
-        grid = new BeaconDistanceGrid(2);
         try {
             load(ExecutionProperties.getPath() + sModelName + ".POMDP");
-            grid.setOrigin(Point.getPoint(0, 0));
             if (currentBelief == null) {
                 currentState = START_STATE;
                 double[] newBelief = new double[grid.getStateCount()];
@@ -613,7 +659,7 @@ public class GridAgent implements Comparable<GridAgent>{
         }
         cSameStates = 0;
         grid.setForbiddenStates(forbiddenStates);
-        Runtime.getRuntime().gc();
+        invalidateReachability();
         System.out.println("Agent " + id + " initialized");
     }
 
@@ -441,13 +441,9 @@ public class GridJointAgent {
         else
             cSameStates++;
 
-        List<Integer> iActions = grid.decodeAction(iAction);
-        List<Integer> iNextStates = grid.decodeState(currentNextState);
-        List<Integer> iObservations = grid.decodeObservation(currentObservation);
-
         for (int iAgent = 0; iAgent < numOfAgents; iAgent++) {
             if (!isDone[iAgent]) {
-                isDone[iAgent] = agents.get(iAgent).step(iActions.get(iAgent), toBigGrid(iNextStates.get(iAgent)), iObservations.get(iAgent));
+                isDone[iAgent] = agents.get(iAgent).step(grid.getActionValue(iAction, iAgent), toBigGrid(grid.getStateValue(currentNextState, iAgent)), grid.getObservationValue(currentObservation, iAgent));
             }
         }
 
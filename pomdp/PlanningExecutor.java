@@ -0,0 +1,78 @@
+package pomdp;
+
+import pomdp.utilities.ExecutionProperties;
+import pomdp.utilities.RandomGenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Runs the planning of independent agents (initRun and solve) on worker threads and joins the results.
+ * Every task runs with the agent's own random generator bound to its thread, so an agent plans the same way
+ * whether it runs alone, in parallel with other agents or on the calling thread.
+ */
+public class PlanningExecutor {
+    private static PlanningExecutor instance = null;
+
+    private final ExecutorService executor;
+
+    private PlanningExecutor(int cThreads) {
+        executor = Executors.newFixedThreadPool(cThreads, r -> {
+            Thread t = new Thread(r, "planner");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static synchronized PlanningExecutor getInstance() {
+        if (instance == null) {
+            instance = new PlanningExecutor(ExecutionProperties.getPlanningThreadCount());
+        }
+        return instance;
+    }
+
+    // runs task for every agent, each agent on its own worker, and returns the results in the order of agents
+    public <T> List<T> plan(List<GridAgent> agents, Function<GridAgent, T> task) {
+        List<T> results = new ArrayList<>();
+        if (!ExecutionProperties.useParallelPlanning() || agents.size() < 2) {
+            for (GridAgent agent : agents) {
+                results.add(plan(agent, task));
+            }
+            return results;
+        }
+
+        List<Future<T>> futures = new ArrayList<>();
+        for (GridAgent agent : agents) {
+            futures.add(executor.submit(() -> plan(agent, task)));
+        }
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        return results;
+    }
+
+    // runs task for a single agent on the calling thread
+    public <T> T plan(GridAgent agent, Function<GridAgent, T> task) {
+        RandomGenerator rndPrevious = RandomGenerator.setThreadInstance(RandomGenerator.getAgentInstance(agent.getID()));
+        try {
+            return task.apply(agent);
+        }
+        finally {
+            RandomGenerator.setThreadInstance(rndPrevious);
+        }
+    }
+}
@@ -6,7 +6,6 @@ import pomdp.utilities.BeliefState;
 import pomdp.utilities.RandomGenerator;
 import pomdp.valuefunction.LinearValueFunctionApproximation;
 
-import java.util.List;
 
 /**
  * @author shanigu
@@ -28,8 +27,8 @@ public class RandomWalkPolicy extends PolicyStrategy {
 	 * @see PolicyStrategy#getAction(BeliefState)
 	 */
 	public int getAction( BeliefState bsCurrent ){
-		List<Integer> iActions = pomdp.getRelevantActions(bsCurrent);
-		return iActions.get(m_rndGenerator.nextInt(iActions.size()));
+		int[] aiActions = pomdp.getRelevantActionArray(bsCurrent);
+		return aiActions[m_rndGenerator.nextInt(aiActions.length)];
 	}
 
 	public double getValue(BeliefState bsCurrent) {
@@ -0,0 +1,49 @@
+package pomdp;
+
+import pomdp.utilities.BeliefState;
+
+import java.util.*;
+
+/**
+ * States an agent may occupy t steps from now when it follows its own policies, one bitset per horizon.
+ * Horizons are expanded on demand and kept until the agent's belief, policies, timer or forbidden states change,
+ * so collision checks against several partners (and against the same partners after someone else replans) share them.
+ */
+public class ReachabilityTrace {
+    private final GridAgent agent;
+    // beliefs at the last expanded horizon
+    private Set<BeliefState> frontier;
+    private final List<BitSet> states;
+    // moved.get(t) - whether expanding horizon t into t+1 used a movement (see GridAgent.expandBeliefsStep)
+    private final List<Boolean> moved;
+
+    public ReachabilityTrace(GridAgent agent) {
+        this.agent = agent;
+        this.frontier = new HashSet<>();
+        this.states = new ArrayList<>();
+        this.moved = new ArrayList<>();
+        frontier.add(agent.getCurrentBelief());
+        states.add(agent.getPossibleStates(frontier));
+    }
+
+    // states possible at horizon iStep, DONE excluded
+    public BitSet getStates(int iStep) {
+        expandTo(iStep);
+        return states.get(iStep);
+    }
+
+    public boolean hasMoved(int iStep) {
+        expandTo(iStep + 1);
+        return moved.get(iStep);
+    }
+
+    private void expandTo(int iStep) {
+        Set<BeliefState> next;
+        while (states.size() <= iStep) {
+            next = new HashSet<>();
+            moved.add(agent.expandBeliefsStep(frontier, states.size() - 1, next));
+            frontier = next;
+            states.add(agent.getPossibleStates(frontier));
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package pomdp.algorithms;
+
+import java.util.Random;
+import java.util.Vector;
+
+import pomdp.algorithms.pointbased.PointBasedValueIteration;
+import pomdp.environments.POMDP;
+import pomdp.utilities.AlphaVector;
+import pomdp.utilities.BeliefState;
+import pomdp.utilities.ExecutionProperties;
+import pomdp.utilities.GridModelCache;
+import pomdp.utilities.concurrent.BackupExecutor;
+import pomdp.utilities.concurrent.ComputeG;
+import pomdp.utilities.concurrent.ThreadPool;
+import pomdp.valuefunction.LinearValueFunctionApproximation;
+
+/**
+ * Times a PBVI sweep (one classic backup per belief point against a fixed value function) done
+ * single threaded, with a ComputeG task per action on the global ThreadPool (the former multi thread backup),
+ * with the actions of every backup split over the BackupExecutor, as a single BackupExecutor batch over all points,
+ * and as BatchedBackup blocks (one dense product per G(a,o) and block of points) in a single thread and over the BackupExecutor.
+ * The model is a grid loaded for agent 'a', the belief points come from random walks and the value function from a few batched sweeps over them.
+ * Every other sweep is checked to return the vectors of the single threaded one.
+ * Usage: BackupBenchmark [grid model] [belief points] [sweeps before timing] [repetitions]
+ */
+public class BackupBenchmark {
+
+	public static void main( String[] args ) throws Exception {
+		String sModelName = args.length > 0 ? args[0] : "medium_5";
+		int cPoints = args.length > 1 ? Integer.parseInt( args[1] ) : 500;
+		int cSweeps = args.length > 2 ? Integer.parseInt( args[2] ) : 3;
+		int cRepetitions = args.length > 3 ? Integer.parseInt( args[3] ) : 3;
+		int iSweep = 0, iRepetition = 0;
+		long lStart = 0, lSequential = 0, lPool = 0, lPerBackup = 0, lBatch = 0, lBlocks = 0, lParallelBlocks = 0;
+
+		POMDP pomdp = GridModelCache.getInstance().getGrid( ExecutionProperties.getPath() + sModelName + ".POMDP", 'a' );
+		ValueIteration vi = new PointBasedValueIteration( pomdp );
+		Vector<BeliefState> vPoints = randomWalkPoints( pomdp, cPoints, 0 );
+		LinearValueFunctionApproximation vValueFunction = vi.m_vValueFunction;
+		ThreadPool.createInstance( pomdp );
+
+		for( iSweep = 0 ; iSweep < cSweeps ; iSweep++ ){
+			for( AlphaVector av : vi.backup( vPoints, vValueFunction ) )
+				vValueFunction.addPrunePointwiseDominated( av );
+		}
+		System.out.println( sModelName + ": |S| = " + pomdp.getStateCount() + " |A| = " + pomdp.getActionCount() + " |O| = " + pomdp.getObservationCount() +
+				" |B| = " + vPoints.size() + " |V| = " + vValueFunction.size() +
+				" pool threads " + ExecutionProperties.getThreadCount() + " fork/join workers " + BackupExecutor.getInstance().getParallelism() );
+
+		AlphaVector[] aExpected = sequential( vi, vPoints, vValueFunction );	//also warms up the G cache
+		for( iRepetition = 0 ; iRepetition < cRepetitions ; iRepetition++ ){
+			lStart = System.nanoTime();
+			check( "single thread", sequential( vi, vPoints, vValueFunction ), aExpected, vPoints );
+			lSequential += System.nanoTime() - lStart;
+
+			lStart = System.nanoTime();
+			check( "thread pool", pool( vi, vPoints, vValueFunction ), aExpected, vPoints );
+			lPool += System.nanoTime() - lStart;
+
+			lStart = System.nanoTime();
+			check( "fork/join per backup", perBackup( vi, vPoints, vValueFunction ), aExpected, vPoints );
+			lPerBackup += System.nanoTime() - lStart;
+
+			lStart = System.nanoTime();
+			check( "fork/join batch", batch( vi, vPoints, vValueFunction, true, false ), aExpected, vPoints );
+			lBatch += System.nanoTime() - lStart;
+
+			lStart = System.nanoTime();
+			check( "blocks", batch( vi, vPoints, vValueFunction, false, true ), aExpected, vPoints );
+			lBlocks += System.nanoTime() - lStart;
+
+			lStart = System.nanoTime();
+			check( "fork/join blocks", batch( vi, vPoints, vValueFunction, true, true ), aExpected, vPoints );
+			lParallelBlocks += System.nanoTime() - lStart;
+		}
+
+		System.out.println( "single thread " + lSequential / 1000000 / cRepetitions + " ms" +
+				" | thread pool " + lPool / 1000000 / cRepetitions + " ms" +
+				" | fork/join per backup " + lPerBackup / 1000000 / cRepetitions + " ms" +
+				" | fork/join batch " + lBatch / 1000000 / cRepetitions + " ms" +
+				" (x" + round( lSequential / (double)lBatch ) + " over single thread, x" + round( lPool / (double)lBatch ) + " over thread pool)" );
+		System.out.println( "blocks " + lBlocks / 1000000 / cRepetitions + " ms" +
+				" (x" + round( lSequential / (double)lBlocks ) + " over single thread)" +
+				" | fork/join blocks " + lParallelBlocks / 1000000 / cRepetitions + " ms" +
+				" (x" + round( lBatch / (double)lParallelBlocks ) + " over fork/join batch)" );
+
+		ThreadPool.getInstance().killAll();
+		BackupExecutor.getInstance().shutdown();
+		System.exit( 0 );
+	}
+
+	private static AlphaVector[] sequential( ValueIteration vi, Vector<BeliefState> vPoints, LinearValueFunctionApproximation vValueFunction ){
+		AlphaVector[] aResults = new AlphaVector[vPoints.size()];
+		for( int iPoint = 0 ; iPoint < aResults.length ; iPoint++ )
+			aResults[iPoint] = vi.backupGBased( vPoints.get( iPoint ), vValueFunction, false );
+		return aResults;
+	}
+
+	//ValueIteration.backup over the list of points, with and without BatchedBackup blocks
+	private static AlphaVector[] batch( ValueIteration vi, Vector<BeliefState> vPoints, LinearValueFunctionApproximation vValueFunction, boolean bMultiThread, boolean bBlocks ){
+		boolean bPreviousMultiThread = ExecutionProperties.m_bMultiThread, bPreviousBlocks = ExecutionProperties.m_bBatchedBackups;
+		ExecutionProperties.m_bMultiThread = bMultiThread;
+		ExecutionProperties.m_bBatchedBackups = bBlocks;
+		try{
+			return vi.backup( vPoints, vValueFunction );
+		}
+		finally{
+			ExecutionProperties.m_bMultiThread = bPreviousMultiThread;
+			ExecutionProperties.m_bBatchedBackups = bPreviousBlocks;
+		}
+	}
+
+	private static AlphaVector[] perBackup( ValueIteration vi, Vector<BeliefState> vPoints, LinearValueFunctionApproximation vValueFunction ){
+		AlphaVector[] aResults = new AlphaVector[vPoints.size()];
+		for( int iPoint = 0 ; iPoint < aResults.length ; iPoint++ )
+			aResults[iPoint] = vi.backupGBased( vPoints.get( iPoint ), vValueFunction, true );
+		return aResults;
+	}
+
+	//the multi thread classic backup as it was done before the BackupExecutor
+	private static AlphaVector[] pool( ValueIteration vi, Vector<BeliefState> vPoints, LinearValueFunctionApproximation vValueFunction ){
+		AlphaVector[] aResults = new AlphaVector[vPoints.size()];
+		ComputeG[] aTasks = null;
+		AlphaVector avMax = null, avCurrent = null;
+		double dValue = 0.0, dMaxValue = 0.0;
+		int cActions = vi.m_cActions, cObservations = vi.m_cObservations;
+		BeliefState bs = null;
+		for( int iPoint = 0 ; iPoint < aResults.length ; iPoint++ ){
+			bs = vPoints.get( iPoint );
+			aTasks = new ComputeG[cActions];
+			avMax = null;
+			dMaxValue = Double.MAX_VALUE * -1;
+			for( int iAction : vi.m_pPOMDP.getRelevantActionArray( bs ) ){
+				aTasks[iAction] = new ComputeG( bs, vValueFunction, iAction, cObservations );
+				ThreadPool.getInstance().addTask( aTasks[iAction] );
+			}
+			for( int iAction : vi.m_pPOMDP.getRelevantActionArray( bs ) ){
+				ThreadPool.getInstance().waitForTask( aTasks[iAction] );
+				avCurrent = aTasks[iAction].getG();
+				dValue = avCurrent.dotProduct( bs );
+				if( dValue >= dMaxValue ){
+					dMaxValue = dValue;
+					avMax = avCurrent;
+				}
+			}
+			avMax.setWitness( bs );
+			aResults[iPoint] = avMax;
+		}
+		return aResults;
+	}
+
+	private static void check( String sMethod, AlphaVector[] aResults, AlphaVector[] aExpected, Vector<BeliefState> vPoints ){
+		BeliefState bs = null;
+		for( int iPoint = 0 ; iPoint < aExpected.length ; iPoint++ ){
+			bs = vPoints.get( iPoint );
+			if( ( aResults[iPoint].getAction() != aExpected[iPoint].getAction() ) ||
+					( aResults[iPoint].dotProduct( bs ) != aExpected[iPoint].dotProduct( bs ) ) )
+				throw new IllegalStateException( sMethod + " differs from the single thread backup at point " + iPoint +
+						": " + aResults[iPoint].dotProduct( bs ) + " vs " + aExpected[iPoint].dotProduct( bs ) );
+		}
+	}
+
+	//beliefs along random walks from the uniform belief, restarting every 50 steps
+	static Vector<BeliefState> randomWalkPoints( POMDP pomdp, int cPoints, long lSeed ){
+		Random rnd = new Random( lSeed );
+		Vector<BeliefState> vPoints = new Vector<BeliefState>();
+		BeliefState bs = pomdp.getBeliefStateFactory().getUniformBeliefState();
+		int iAction = 0, iObservation = 0, iStep = 0, cObservations = pomdp.getObservationCount();
+		double dSample = 0.0, dProb = 0.0;
+		while( vPoints.size() < cPoints ){
+			if( !vPoints.contains( bs ) )
+				vPoints.add( bs );
+			iAction = rnd.nextInt( pomdp.getActionCount() );
+			dSample = rnd.nextDouble();
+			for( iObservation = 0 ; iObservation < cObservations - 1 ; iObservation++ ){
+				dProb = bs.probabilityOGivenA( iAction, iObservation );
+				if( dSample < dProb )
+					break;
+				dSample -= dProb;
+			}
+			bs = bs.nextBeliefState( iAction, iObservation );
+			iStep++;
+			if( ( bs == null ) || ( iStep % 50 == 0 ) )
+				bs = pomdp.getBeliefStateFactory().getUniformBeliefState();
+		}
+		return vPoints;
+	}
+
+	private static double round( double d ){
+		return Math.round( d * 100 ) / 100.0;
+	}
+}
@@ -0,0 +1,228 @@
+package pomdp.algorithms;
+
+import java.util.Arrays;
+import java.util.Map.Entry;
+
+import pomdp.environments.POMDP;
+import pomdp.utilities.AlphaVector;
+import pomdp.utilities.BeliefState;
+import pomdp.valuefunction.LinearValueFunctionApproximation;
+import pomdp.valuefunction.ValueFunctionSnapshot;
+
+/**
+ * Classic (G based) backups of a set of belief points against one value function, done a block of BLOCK_SIZE points at a time.
+ * For every action and observation, the G vectors of all the vectors are gathered once per block into rows over the states
+ * that some point of the block has in its support, and the dot products of all the points with all the rows are computed as one
+ * dense matrix product over these arrays, a tile of rows at a time. The argmax of every point then selects the G vectors
+ * that are summed into its backup for the action, and the best action is chosen as ValueIteration.backupGBased does.
+ * Each dot product sums over the states in ascending order, as the per point dot products do, so the chosen vectors
+ * and the resulting alpha vectors are the ones of backing up the points one by one.
+ * Points whose backup is restricted to their max error action are left null for the caller to back up.
+ */
+public class BatchedBackup {
+	public static final int BLOCK_SIZE = 64;
+	//doubles in one tile of gathered G rows
+	private static final int TILE_ENTRIES = 1 << 15;
+
+	private final POMDP m_pPOMDP;
+	private final BeliefState[] m_abPoints;
+	private final AlphaVector[] m_aVectors;	//the non null vectors of the value function snapshot, in order
+	private final AlphaVector m_avLast;
+	private final int m_cActions, m_cObservations;
+
+	public BatchedBackup( POMDP pomdp, LinearValueFunctionApproximation vValueFunction, BeliefState[] abPoints ){
+		ValueFunctionSnapshot vsVectors = vValueFunction.getSnapshot();
+		AlphaVector[] aSnapshot = vsVectors.getVectors();
+		AlphaVector[] aVectors = new AlphaVector[aSnapshot.length];
+		int cVectors = 0;
+		m_pPOMDP = pomdp;
+		m_abPoints = abPoints;
+		m_cActions = pomdp.getActionCount();
+		m_cObservations = pomdp.getObservationCount();
+		for( AlphaVector av : aSnapshot ){
+			if( av != null )
+				aVectors[cVectors++] = av;
+		}
+		m_aVectors = Arrays.copyOf( aVectors, cVectors );
+		m_avLast = vsVectors.getLast();
+	}
+
+	public int getBlockCount(){
+		return ( m_abPoints.length + BLOCK_SIZE - 1 ) / BLOCK_SIZE;
+	}
+
+	// dot product entries of one block, for splitting the blocks over the BackupExecutor
+	public long getBlockWork(){
+		long cEntries = m_abPoints.length > 0 ? m_abPoints[0].getNonZeroEntriesCount() : 0;
+		if( cEntries <= 0 )
+			cEntries = m_pPOMDP.getStateCount();
+		return BLOCK_SIZE * cEntries * m_cActions * m_cObservations * ( m_aVectors.length + 1 );
+	}
+
+	/**
+	 * Backs up the points of block iBlock into aResults, at the indexes of the points.
+	 * Different blocks may be backed up concurrently.
+	 */
+	public void backupBlock( int iBlock, AlphaVector[] aResults ){
+		int iFirstPoint = iBlock * BLOCK_SIZE, iEndPoint = Math.min( m_abPoints.length, iFirstPoint + BLOCK_SIZE );
+		int[] aiPoints = new int[iEndPoint - iFirstPoint];
+		int cPoints = 0, iPoint = 0, iAction = 0, iObservation = 0, cActive = 0;
+		BeliefState bs = null;
+
+		if( ( m_avLast == null ) || ( m_aVectors.length == 0 ) )	//empty value function, the per point backup waits for a vector
+			return;
+		for( iPoint = iFirstPoint ; iPoint < iEndPoint ; iPoint++ ){
+			if( m_abPoints[iPoint].getMaxErrorAction() == -1 )
+				aiPoints[cPoints++] = iPoint;
+		}
+		if( cPoints == 0 )
+			return;
+
+		int[] aiStates = supportUnion( aiPoints, cPoints );
+		double[][] aadBeliefs = beliefRows( aiPoints, cPoints, aiStates );
+		int[][] aaiRelevantActions = new int[cPoints][];
+		boolean[][] aabRelevant = new boolean[cPoints][m_cActions];
+		boolean[] abActionUsed = new boolean[m_cActions];
+		AlphaVector[][] aaActionVectors = new AlphaVector[cPoints][m_cActions];
+		int[][] aaiSelected = new int[cPoints][m_cObservations];	//by point and observation, -1 for the last vector
+		int[] aiActive = new int[cPoints];
+		double dProb = 0.0;
+
+		for( iPoint = 0 ; iPoint < cPoints ; iPoint++ ){
+			aaiRelevantActions[iPoint] = m_pPOMDP.getRelevantActionArray( m_abPoints[aiPoints[iPoint]] );
+			for( int iRelevant : aaiRelevantActions[iPoint] ){
+				aabRelevant[iPoint][iRelevant] = true;
+				abActionUsed[iRelevant] = true;
+			}
+		}
+
+		for( iAction = 0 ; iAction < m_cActions ; iAction++ ){
+			if( !abActionUsed[iAction] )
+				continue;
+			for( iObservation = 0 ; iObservation < m_cObservations ; iObservation++ ){
+				cActive = 0;
+				for( iPoint = 0 ; iPoint < cPoints ; iPoint++ ){
+					if( aabRelevant[iPoint][iAction] ){
+						dProb = m_abPoints[aiPoints[iPoint]].probabilityOGivenA( iAction, iObservation );
+						aaiSelected[iPoint][iObservation] = -1;
+						if( dProb > 0.0 )
+							aiActive[cActive++] = iPoint;
+					}
+				}
+				if( cActive > 0 )
+					selectMaxG( iAction, iObservation, aiStates, aadBeliefs, aiActive, cActive, aaiSelected );
+			}
+			for( iPoint = 0 ; iPoint < cPoints ; iPoint++ ){
+				if( aabRelevant[iPoint][iAction] )
+					aaActionVectors[iPoint][iAction] = sumG( iAction, aaiSelected[iPoint] );
+			}
+		}
+
+		//the best action with the comparisons of ValueIteration.backupGBased, later actions win ties
+		AlphaVector avMax = null, avCurrent = null;
+		double dValue = 0.0, dMaxValue = 0.0;
+		for( iPoint = 0 ; iPoint < cPoints ; iPoint++ ){
+			bs = m_abPoints[aiPoints[iPoint]];
+			avMax = null;
+			dMaxValue = Double.MAX_VALUE * -1;
+			for( int iRelevant : aaiRelevantActions[iPoint] ){
+				avCurrent = aaActionVectors[iPoint][iRelevant];
+				dValue = avCurrent.dotProduct( bs );
+				if( dValue >= dMaxValue ){
+					dMaxValue = dValue;
+					if( avMax != null )
+						avMax.release();
+					avMax = avCurrent;
+				}
+				else{
+					avCurrent.release();
+				}
+			}
+			avMax.setWitness( bs );
+			bs.addBackup();
+			aResults[aiPoints[iPoint]] = avMax;
+		}
+	}
+
+	//sorted states that have a non zero probability in some of the points
+	private int[] supportUnion( int[] aiPoints, int cPoints ){
+		int cEntries = 0, cUnique = 0, idx = 0;
+		for( idx = 0 ; idx < cPoints ; idx++ )
+			cEntries += m_abPoints[aiPoints[idx]].getNonZeroEntries().size();
+		int[] aiStates = new int[cEntries];
+		cEntries = 0;
+		for( idx = 0 ; idx < cPoints ; idx++ ){
+			for( Entry<Integer,Double> e : m_abPoints[aiPoints[idx]].getNonZeroEntries() )
+				aiStates[cEntries++] = e.getKey();
+		}
+		Arrays.sort( aiStates, 0, cEntries );
+		for( idx = 0 ; idx < cEntries ; idx++ ){
+			if( ( cUnique == 0 ) || ( aiStates[idx] != aiStates[cUnique - 1] ) )
+				aiStates[cUnique++] = aiStates[idx];
+		}
+		return Arrays.copyOf( aiStates, cUnique );
+	}
+
+	//the probabilities of every point over aiStates
+	private double[][] beliefRows( int[] aiPoints, int cPoints, int[] aiStates ){
+		double[][] aadBeliefs = new double[cPoints][aiStates.length];
+		for( int iPoint = 0 ; iPoint < cPoints ; iPoint++ ){
+			for( Entry<Integer,Double> e : m_abPoints[aiPoints[iPoint]].getNonZeroEntries() )
+				aadBeliefs[iPoint][Arrays.binarySearch( aiStates, e.getKey() )] = e.getValue();
+		}
+		return aadBeliefs;
+	}
+
+	//for every active point, the first vector whose G(a,o) has the highest dot product with the point
+	private void selectMaxG( int iAction, int iObservation, int[] aiStates, double[][] aadBeliefs, int[] aiActive, int cActive, int[][] aaiSelected ){
+		int cColumns = aiStates.length, cVectors = m_aVectors.length;
+		int cTileVectors = Math.max( 1, Math.min( cVectors, TILE_ENTRIES / Math.max( 1, cColumns ) ) );
+		double[] adTile = new double[cTileVectors * cColumns];
+		double[] adMaxValues = new double[cActive];
+		int[] aiMaxVectors = new int[cActive];
+		double[] adBelief = null;
+		double dSum = 0.0;
+		int iTileStart = 0, cTile = 0, iVector = 0, iActive = 0, iColumn = 0, iRow = 0;
+
+		Arrays.fill( aiMaxVectors, -1 );
+		for( iTileStart = 0 ; iTileStart < cVectors ; iTileStart += cTile ){
+			cTile = Math.min( cTileVectors, cVectors - iTileStart );
+			for( iVector = 0 ; iVector < cTile ; iVector++ )
+				m_aVectors[iTileStart + iVector].G( iAction, iObservation ).valuesAt( aiStates, cColumns, adTile, iVector * cColumns );
+			for( iActive = 0 ; iActive < cActive ; iActive++ ){
+				adBelief = aadBeliefs[aiActive[iActive]];
+				for( iVector = 0 ; iVector < cTile ; iVector++ ){
+					iRow = iVector * cColumns;
+					dSum = 0.0;
+					for( iColumn = 0 ; iColumn < cColumns ; iColumn++ )
+						dSum += adBelief[iColumn] * adTile[iRow + iColumn];
+					if( ( aiMaxVectors[iActive] == -1 ) || ( dSum > adMaxValues[iActive] ) ){
+						adMaxValues[iActive] = dSum;
+						aiMaxVectors[iActive] = iTileStart + iVector;
+					}
+				}
+			}
+		}
+		for( iActive = 0 ; iActive < cActive ; iActive++ )
+			aaiSelected[aiActive[iActive]][iObservation] = aiMaxVectors[iActive];
+	}
+
+	//r_a + \sum_o the selected G(a,o) vectors, summed in observation order as ValueIteration.G does
+	private AlphaVector sumG( int iAction, int[] aiSelected ){
+		AlphaVector avG = null, avSum = null, avResult = null;
+		for( int iObservation = 0 ; iObservation < m_cObservations ; iObservation++ ){
+			if( aiSelected[iObservation] == -1 )
+				avG = m_avLast.G( iAction, iObservation );
+			else
+				avG = m_aVectors[aiSelected[iObservation]].G( iAction, iObservation );
+			if( avSum == null )
+				avSum = avG.copy();
+			else
+				avSum.accumulate( avG );
+		}
+		avResult = avSum.addReward( iAction );
+		avResult.setAction( iAction );
+		avSum.release();
+		return avResult;
+	}
+}
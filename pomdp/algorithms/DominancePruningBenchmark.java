@@ -0,0 +1,109 @@
+package pomdp.algorithms;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import pomdp.environments.POMDP;
+import pomdp.utilities.AlphaVector;
+import pomdp.utilities.ExecutionProperties;
+import pomdp.utilities.GridModelCache;
+import pomdp.valuefunction.LinearValueFunctionApproximation;
+
+/**
+ * Times LinearValueFunctionApproximation.addPrunePointwiseDominated as the value function grows, reporting the average
+ * insertion time of every window of vectors. Most vectors are random and non dominated, so the value function keeps growing,
+ * and the others are near copies (equal up to the tolerance of AlphaVector.equals) or dominated versions of earlier vectors.
+ * The first checked vectors are also added with the full pairwise scan that pruning used before the DominanceIndex,
+ * and the two value functions must keep the same vectors in the same order.
+ * Usage: DominancePruningBenchmark [grid model] [vectors] [report window] [checked vectors]
+ */
+public class DominancePruningBenchmark {
+
+	public static void main( String[] args ) throws Exception {
+		String sModelName = args.length > 0 ? args[0] : "hard_10";
+		int cVectors = args.length > 1 ? Integer.parseInt( args[1] ) : 20000;
+		int cWindow = args.length > 2 ? Integer.parseInt( args[2] ) : 2500;
+		int cChecked = args.length > 3 ? Integer.parseInt( args[3] ) : 3000;
+		int iVector = 0;
+		long lStart = 0, lWindowTime = 0, lReferenceTime = 0;
+
+		POMDP pomdp = GridModelCache.getInstance().getGrid( ExecutionProperties.getPath() + sModelName + ".POMDP", 'a' );
+		List<AlphaVector> lVectors = randomVectors( pomdp, cVectors, 0 );
+		LinearValueFunctionApproximation vValueFunction = new LinearValueFunctionApproximation( 0.0, false );
+		List<AlphaVector> lReference = new ArrayList<AlphaVector>();
+		System.out.println( sModelName + ": |S| = " + pomdp.getStateCount() + ", " + cVectors + " vectors" );
+
+		for( iVector = 0 ; iVector < cVectors ; iVector++ ){
+			lStart = System.nanoTime();
+			vValueFunction.addPrunePointwiseDominated( lVectors.get( iVector ) );
+			lWindowTime += System.nanoTime() - lStart;
+			if( iVector < cChecked ){
+				lStart = System.nanoTime();
+				referenceAdd( lReference, lVectors.get( iVector ) );
+				lReferenceTime += System.nanoTime() - lStart;
+			}
+			if( iVector + 1 == cChecked )
+				check( vValueFunction, lReference );
+			if( ( iVector + 1 ) % cWindow == 0 ){
+				System.out.println( "inserted " + ( iVector + 1 ) + " |V| = " + vValueFunction.size() +
+						" avg insertion " + round( lWindowTime / 1000.0 / cWindow ) + " us" );
+				lWindowTime = 0;
+			}
+		}
+		System.out.println( "full pairwise scan over the first " + Math.min( cChecked, cVectors ) + " vectors: avg insertion " +
+				round( lReferenceTime / 1000.0 / Math.min( cChecked, cVectors ) ) + " us, same vectors kept" );
+		System.exit( 0 );
+	}
+
+	//addPrunePointwiseDominated as it was, comparing the new vector with every vector in full
+	private static void referenceAdd( List<AlphaVector> lVectors, AlphaVector avNew ){
+		List<AlphaVector> lKept = new ArrayList<AlphaVector>();
+		for( AlphaVector avExisting : lVectors ){
+			if( avExisting.equals( avNew ) || avExisting.dominates( avNew ) )
+				return;
+			if( !avNew.dominates( avExisting ) )
+				lKept.add( avExisting );
+		}
+		lKept.add( avNew );
+		lVectors.clear();
+		lVectors.addAll( lKept );
+	}
+
+	private static void check( LinearValueFunctionApproximation vValueFunction, List<AlphaVector> lReference ){
+		AlphaVector[] aVectors = vValueFunction.getSnapshot().getVectors();
+		boolean bSame = ( aVectors.length == lReference.size() );
+		for( int iVector = 0 ; bSame && iVector < aVectors.length ; iVector++ )
+			bSame = ( aVectors[iVector] == lReference.get( iVector ) );
+		if( !bSame )
+			throw new IllegalStateException( "indexed pruning kept " + aVectors.length + " vectors, the full scan " + lReference.size() );
+	}
+
+	//90% random vectors, 5% near copies and 5% dominated copies of earlier vectors
+	private static List<AlphaVector> randomVectors( POMDP pomdp, int cVectors, long lSeed ){
+		Random rnd = new Random( lSeed );
+		List<AlphaVector> lVectors = new ArrayList<AlphaVector>();
+		AlphaVector av = null, avEarlier = null;
+		int iVector = 0, iState = 0, iKind = 0, cStates = pomdp.getStateCount();
+		for( iVector = 0 ; iVector < cVectors ; iVector++ ){
+			av = pomdp.newAlphaVector();
+			iKind = rnd.nextInt( 20 );
+			avEarlier = iVector > 0 ? lVectors.get( rnd.nextInt( iVector ) ) : null;
+			for( iState = 0 ; iState < cStates ; iState++ ){
+				if( avEarlier != null && iKind == 0 )
+					av.setValue( iState, avEarlier.valueAt( iState ) + rnd.nextDouble() * 0.0005 );
+				else if( avEarlier != null && iKind == 1 )
+					av.setValue( iState, avEarlier.valueAt( iState ) - rnd.nextDouble() );
+				else
+					av.setValue( iState, rnd.nextDouble() * 100 );
+			}
+			av.finalizeValues();
+			lVectors.add( av );
+		}
+		return lVectors;
+	}
+
+	private static double round( double d ){
+		return Math.round( d * 100 ) / 100.0;
+	}
+}
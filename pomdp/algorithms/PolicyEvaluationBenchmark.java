@@ -0,0 +1,117 @@
+package pomdp.algorithms;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import pomdp.GridAgent;
+import pomdp.environments.POMDP;
+import pomdp.utilities.BeliefState;
+import pomdp.utilities.ExecutionProperties;
+import pomdp.utilities.RandomGenerator;
+import pomdp.utilities.concurrent.BackupExecutor;
+import pomdp.utilities.concurrent.DiscountedRewardEvaluator;
+import pomdp.valuefunction.LinearValueFunctionApproximation;
+
+/**
+ * Evaluates a policy with DiscountedRewardEvaluator in a single thread and over fork/join executors of 2..max workers,
+ * and checks that every evaluation returns the same ADR, standard deviation and trial count, bit for bit,
+ * and that the evaluations leave the global random generator where it was.
+ * The evaluations run on TrialSimulator, and one more evaluation that hides the value function from the evaluator
+ * runs the same trials over BeliefState objects and must return the same result too. The bytes the simulator allocates
+ * in a repeated evaluation are reported per trial.
+ * The policy is the FSVI policy of a single grid agent, set up as Env sets up its agents.
+ * Usage: PolicyEvaluationBenchmark [grid model] [max trials] [steps per trial] [max workers] [FSVI iterations]
+ */
+public class PolicyEvaluationBenchmark {
+
+	public static void main( String[] args ) throws Exception {
+		String sModelName = args.length > 0 ? args[0] : "medium_5";
+		int cMaxTrials = args.length > 1 ? Integer.parseInt( args[1] ) : 500;
+		int cSteps = args.length > 2 ? Integer.parseInt( args[2] ) : 100;
+		int cMaxWorkers = args.length > 3 ? Integer.parseInt( args[3] ) : 4;
+		int cIterations = args.length > 4 ? Integer.parseInt( args[4] ) : 100;
+		int cWorkers = 0;
+		long lStart = 0;
+
+		GridAgent agent = new GridAgent( 1 );
+		agent.initRun( sModelName );
+		POMDP pomdp = agent.getGrid();
+		ValueIteration vi = AlgorithmsFactory.getAlgorithm( "FSVI", pomdp );
+		vi.valueIteration( cIterations, ExecutionProperties.getEpsilon(), 100.0 );
+		System.out.println( sModelName + ": |S| = " + pomdp.getStateCount() + " |V| = " + vi.getValueFunction().size() +
+				" processors " + Runtime.getRuntime().availableProcessors() );
+
+		DiscountedRewardEvaluator deSingle = new DiscountedRewardEvaluator( pomdp, 0 );
+		RandomGenerator.getInstance().init( 1, false );
+		lStart = System.nanoTime();
+		DiscountedRewardEvaluator.Result rExpected = deSingle.evaluate( vi, cMaxTrials, cSteps, false );
+		report( "single thread", rExpected, System.nanoTime() - lStart );
+		long lAllocated = allocatedBytes();
+		lStart = System.nanoTime();
+		DiscountedRewardEvaluator.Result rRepeated = deSingle.evaluate( vi, cMaxTrials, cSteps, false );
+		report( "repeated single thread", rRepeated, System.nanoTime() - lStart );
+		System.out.println( "allocated " + ( allocatedBytes() - lAllocated ) / rExpected.getTrialCount() + " bytes per trial" );
+		check( "repeated single thread", rRepeated, rExpected );
+		lStart = System.nanoTime();
+		DiscountedRewardEvaluator.Result rBeliefStates = deSingle.evaluate( new BeliefStatePolicy( vi ), cMaxTrials, cSteps, false );
+		report( "belief states", rBeliefStates, System.nanoTime() - lStart );
+		check( "belief states", rBeliefStates, rExpected );
+
+		for( cWorkers = 2 ; cWorkers <= cMaxWorkers ; cWorkers *= 2 ){
+			BackupExecutor beExecutor = new BackupExecutor( cWorkers );
+			lStart = System.nanoTime();
+			DiscountedRewardEvaluator.Result rParallel = new DiscountedRewardEvaluator( pomdp, 0, beExecutor ).evaluate( vi, cMaxTrials, cSteps, true );
+			report( cWorkers + " workers", rParallel, System.nanoTime() - lStart );
+			check( cWorkers + " workers", rParallel, rExpected );
+			beExecutor.shutdown();
+		}
+		if( RandomGenerator.getInstance().nextDouble() != new Random( 1 ).nextDouble() )
+			throw new IllegalStateException( "the evaluations advanced the global random generator" );
+		System.out.println( "all evaluations identical, global generator untouched" );
+		System.exit( 0 );
+	}
+
+	private static long allocatedBytes(){
+		return ( (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean() ).getCurrentThreadAllocatedBytes();
+	}
+
+	private static void check( String sName, DiscountedRewardEvaluator.Result rResult, DiscountedRewardEvaluator.Result rExpected ){
+		if( Double.doubleToLongBits( rResult.getADR() ) != Double.doubleToLongBits( rExpected.getADR() ) ||
+				Double.doubleToLongBits( rResult.getStdev() ) != Double.doubleToLongBits( rExpected.getStdev() ) ||
+				rResult.getTrialCount() != rExpected.getTrialCount() )
+			throw new IllegalStateException( sName + ": " + rResult + ", single thread: " + rExpected );
+	}
+
+	private static void report( String sName, DiscountedRewardEvaluator.Result rResult, long lElapsed ){
+		System.out.println( sName + ": " + rResult + " ms, elapsed " + lElapsed / 1000000 + " ms" );
+	}
+
+	//the policy of vi without its greedy value function, so that its trials run over belief states
+	private static class BeliefStatePolicy extends PolicyStrategy {
+		private final ValueIteration m_viPolicy;
+
+		BeliefStatePolicy( ValueIteration viPolicy ){
+			m_viPolicy = viPolicy;
+		}
+
+		public int getAction( BeliefState bsCurrent ){
+			return m_viPolicy.getAction( bsCurrent );
+		}
+
+		public double getValue( BeliefState bsCurrent ){
+			return m_viPolicy.getValue( bsCurrent );
+		}
+
+		public boolean hasConverged(){
+			return m_viPolicy.hasConverged();
+		}
+
+		public String getStatus(){
+			return m_viPolicy.getStatus();
+		}
+
+		public LinearValueFunctionApproximation getValueFunction(){
+			return m_viPolicy.getValueFunction();
+		}
+	}
+}
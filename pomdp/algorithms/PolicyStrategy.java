@@ -43,6 +43,13 @@ public abstract class PolicyStrategy/*  implements Serializable*/{
 		m_bStationary = bStationary;
 	}
 	public abstract LinearValueFunctionApproximation getValueFunction();
+	/**
+	 * The value function whose max alpha vector gives getAction at every belief, or null when the policy chooses otherwise.
+	 * Policy evaluation simulates such policies without belief state objects (see TrialSimulator).
+	 */
+	public LinearValueFunctionApproximation getGreedyValueFunction(){
+		return null;
+	}
 	public MDPValueFunction getMDPValueFunction() {
 		return null;
 	}
@@ -0,0 +1,199 @@
+package pomdp.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import pomdp.algorithms.pointbased.PointBasedValueIteration;
+import pomdp.environments.POMDP;
+import pomdp.utilities.AlphaVector;
+import pomdp.utilities.BeliefState;
+import pomdp.utilities.ExecutionProperties;
+import pomdp.utilities.GridModelCache;
+import pomdp.valuefunction.LinearValueFunctionApproximation;
+
+/**
+ * Exercises one LinearValueFunctionApproximation shared by several threads, the way ParallelSolver shares it between
+ * its value iteration, pruning and evaluation tasks.
+ * The contention check adds the same random vectors with addPrunePointwiseDominated from 1..max threads at once while
+ * a reader takes snapshots, copies and max alphas, and checks that the vectors left are the ones of adding them in one thread.
+ * Pointwise dominance pruning keeps the non dominated vectors whatever the order of the adds, so the check is exact.
+ * The throughput run has 1..max threads backing up belief points against the shared value function and adding the results,
+ * next to an evaluation thread that copies the value function and picks actions with the copy, and reports backups per second.
+ * Usage: SharedValueFunctionBenchmark [grid model] [max threads] [seconds per throughput run] [contention rounds]
+ */
+public class SharedValueFunctionBenchmark {
+
+	public static void main( String[] args ) throws Exception {
+		String sModelName = args.length > 0 ? args[0] : "medium_5";
+		int cMaxThreads = args.length > 1 ? Integer.parseInt( args[1] ) : 4;
+		int cSeconds = args.length > 2 ? Integer.parseInt( args[2] ) : 3;
+		int cRounds = args.length > 3 ? Integer.parseInt( args[3] ) : 20;
+		int cThreads = 0, iRound = 0;
+
+		POMDP pomdp = GridModelCache.getInstance().getGrid( ExecutionProperties.getPath() + sModelName + ".POMDP", 'a' );
+		Vector<BeliefState> vPoints = BackupBenchmark.randomWalkPoints( pomdp, 500, 0 );
+		System.out.println( sModelName + ": |S| = " + pomdp.getStateCount() + " |B| = " + vPoints.size() + " processors " + Runtime.getRuntime().availableProcessors() );
+
+		for( cThreads = 1 ; cThreads <= cMaxThreads ; cThreads *= 2 ){
+			for( iRound = 0 ; iRound < cRounds ; iRound++ )
+				checkConcurrentAdds( pomdp, vPoints, cThreads, iRound );
+			System.out.println( "contention check passed with " + cThreads + " writers, " + cRounds + " rounds" );
+		}
+
+		for( cThreads = 1 ; cThreads <= cMaxThreads ; cThreads *= 2 )
+			throughput( pomdp, vPoints, cThreads, cSeconds );
+		System.exit( 0 );
+	}
+
+	private static void checkConcurrentAdds( POMDP pomdp, Vector<BeliefState> vPoints, int cWriters, long lSeed ) throws Exception {
+		final List<AlphaVector> lVectors = randomVectors( pomdp, 1000, lSeed );
+		final LinearValueFunctionApproximation vSequential = new LinearValueFunctionApproximation( 0.0, false );
+		final LinearValueFunctionApproximation vShared = new LinearValueFunctionApproximation( 0.0, false );
+		final CyclicBarrier cbStart = new CyclicBarrier( cWriters + 1 );
+		final AtomicBoolean bWriting = new AtomicBoolean( true );
+		final ConcurrentLinkedQueue<Throwable> qErrors = new ConcurrentLinkedQueue<Throwable>();
+		Thread[] aWriters = new Thread[cWriters];
+		Thread tReader = null;
+		int iWriter = 0;
+
+		for( AlphaVector av : lVectors )
+			vSequential.addPrunePointwiseDominated( av );
+
+		for( iWriter = 0 ; iWriter < cWriters ; iWriter++ ){
+			final int iFirst = iWriter, cStride = cWriters;
+			aWriters[iWriter] = new Thread( () -> {
+				try{
+					cbStart.await();
+					for( int iVector = iFirst ; iVector < lVectors.size() ; iVector += cStride )
+						vShared.addPrunePointwiseDominated( lVectors.get( iVector ) );
+				}
+				catch( Throwable t ){
+					qErrors.add( t );
+				}
+			} );
+			aWriters[iWriter].start();
+		}
+		tReader = new Thread( () -> {
+			int iPoint = 0;
+			try{
+				while( bWriting.get() ){
+					BeliefState bs = vPoints.get( iPoint++ % vPoints.size() );
+					int cVectors = vShared.size();	//adds never empty the value function
+					AlphaVector avMax = vShared.getMaxAlpha( bs );
+					if( ( avMax == null ) && ( cVectors > 0 ) )
+						throw new IllegalStateException( "no max alpha in a non empty value function" );
+					LinearValueFunctionApproximation vCopy = new LinearValueFunctionApproximation( vShared );
+					for( AlphaVector av : vCopy.getSnapshot().getVectors() ){
+						if( av == null )
+							throw new IllegalStateException( "null vector in a snapshot" );
+					}
+				}
+			}
+			catch( Throwable t ){
+				qErrors.add( t );
+			}
+		} );
+		tReader.start();
+		cbStart.await();
+		for( Thread t : aWriters )
+			t.join();
+		bWriting.set( false );
+		tReader.join();
+
+		if( !qErrors.isEmpty() )
+			throw new IllegalStateException( "concurrent adds failed with " + cWriters + " writers", qErrors.peek() );
+		if( !values( vShared, pomdp.getStateCount() ).equals( values( vSequential, pomdp.getStateCount() ) ) )
+			throw new IllegalStateException( cWriters + " writers kept " + vShared.size() + " vectors, a single writer " + vSequential.size() );
+	}
+
+	private static void throughput( POMDP pomdp, Vector<BeliefState> vPoints, int cWorkers, int cSeconds ) throws Exception {
+		final ValueIteration vi = new PointBasedValueIteration( pomdp );
+		final LinearValueFunctionApproximation vValueFunction = vi.getValueFunction();
+		final AtomicBoolean bRunning = new AtomicBoolean( true );
+		final AtomicLong cBackups = new AtomicLong(), cEvaluations = new AtomicLong();
+		final ConcurrentLinkedQueue<Throwable> qErrors = new ConcurrentLinkedQueue<Throwable>();
+		List<Thread> lThreads = new ArrayList<Thread>();
+		int iWorker = 0;
+
+		for( iWorker = 0 ; iWorker < cWorkers ; iWorker++ ){
+			final Random rnd = new Random( iWorker );
+			lThreads.add( new Thread( () -> {
+				try{
+					while( bRunning.get() ){
+						BeliefState bs = vPoints.get( rnd.nextInt( vPoints.size() ) );
+						vValueFunction.addPrunePointwiseDominated( vi.backup( bs, vValueFunction ) );
+						cBackups.incrementAndGet();
+					}
+				}
+				catch( Throwable t ){
+					qErrors.add( t );
+				}
+			} ) );
+		}
+		//the policy evaluation task of ParallelSolver, which evaluates a copy of the value function
+		lThreads.add( new Thread( () -> {
+			try{
+				while( bRunning.get() ){
+					LinearValueFunctionApproximation vCopy = new LinearValueFunctionApproximation( vValueFunction );
+					for( BeliefState bs : vPoints )
+						vCopy.getBestAction( bs );
+					cEvaluations.incrementAndGet();
+				}
+			}
+			catch( Throwable t ){
+				qErrors.add( t );
+			}
+		} ) );
+
+		for( Thread t : lThreads )
+			t.start();
+		Thread.sleep( cSeconds * 1000L );
+		bRunning.set( false );
+		for( Thread t : lThreads )
+			t.join();
+		if( !qErrors.isEmpty() )
+			throw new IllegalStateException( "throughput run failed with " + cWorkers + " workers", qErrors.peek() );
+
+		System.out.println( cWorkers + " backup threads: " + cBackups.get() / cSeconds + " backups/s, " +
+				cEvaluations.get() * vPoints.size() / cSeconds + " evaluated beliefs/s, |V| = " + vValueFunction.size() );
+	}
+
+	//vectors around random levels, so that many of them dominate others
+	private static List<AlphaVector> randomVectors( POMDP pomdp, int cVectors, long lSeed ){
+		Random rnd = new Random( lSeed );
+		List<AlphaVector> lVectors = new ArrayList<AlphaVector>();
+		AlphaVector av = null;
+		int iVector = 0, iState = 0, iLevel = 0, cStates = pomdp.getStateCount();
+		for( iVector = 0 ; iVector < cVectors ; iVector++ ){
+			av = pomdp.newAlphaVector();
+			iLevel = rnd.nextInt( 100 );
+			for( iState = 0 ; iState < cStates ; iState++ )
+				av.setValue( iState, iLevel + rnd.nextInt( 10 ) );
+			av.finalizeValues();
+			lVectors.add( av );
+		}
+		return lVectors;
+	}
+
+	//the values of the vectors, in a canonical order
+	private static List<String> values( LinearValueFunctionApproximation vValueFunction, int cStates ){
+		List<String> lValues = new ArrayList<String>();
+		int iState = 0;
+		for( AlphaVector av : vValueFunction.getVectors() ){
+			double[] adValues = new double[cStates];
+			for( iState = 0 ; iState < cStates ; iState++ )
+				adValues[iState] = av.valueAt( iState );
+			lValues.add( Arrays.toString( adValues ) );
+		}
+		Collections.sort( lValues );
+		return lValues;
+	}
+}
@@ -13,11 +13,13 @@ package pomdp.algorithms;
  * Window&gt;Preferences&gt;Java&gt;Code Generation&gt;Code and Comments
  */
 
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
 import java.util.Map.Entry;
+import java.util.function.IntConsumer;
 
 import pomdp.environments.FactoredPOMDP;
 import pomdp.environments.JointBeaconDistanceGrid;
@@ -27,17 +29,15 @@ import pomdp.utilities.AlphaVector;
 import pomdp.utilities.BeliefState;
 import pomdp.utilities.ExecutionProperties;
 import pomdp.utilities.JProf;
+import pomdp.utilities.Logger;
 import pomdp.utilities.MDPValueFunction;
 import pomdp.utilities.Pair;
 import pomdp.utilities.RandomGenerator;
 import pomdp.utilities.TabularAlphaVector;
-import pomdp.utilities.concurrent.ComputeG;
-import pomdp.utilities.concurrent.ComputeLowLevelG;
-import pomdp.utilities.concurrent.FindMaxAlphas;
-import pomdp.utilities.concurrent.ThreadPool;
-import pomdp.utilities.datastructures.LinkedList;
+import pomdp.utilities.concurrent.BackupExecutor;
 import pomdp.utilities.factored.FactoredBeliefState;
 import pomdp.valuefunction.LinearValueFunctionApproximation;
+import pomdp.valuefunction.ValueFunctionSnapshot;
 
 public abstract class ValueIteration extends PolicyStrategy{
 	protected MDPValueFunction m_vfMDP;
@@ -70,6 +70,8 @@ public abstract class ValueIteration extends PolicyStrategy{
 	protected static String m_sBlindPolicyValueFunctionFileName = null;
 	
 	protected RandomGenerator m_rndGenerator;	
+	//the forbidden states when this solver was created, which its vectors respect
+	protected BitSet m_bsSolvedForbiddenStates;
 	
 	public ValueIteration( POMDP pomdp ){
 		m_pPOMDP = pomdp;
@@ -96,6 +98,7 @@ public abstract class ValueIteration extends PolicyStrategy{
 		
 		m_vValueFunction = new LinearValueFunctionApproximation( m_dEpsilon, true );
 		m_vfMDP = pomdp.getMDPValueFunction();
+		m_bsSolvedForbiddenStates = pomdp.getForbiddenStates() == null ? new BitSet() : pomdp.getForbiddenStates().toBitSet();
 		
 		computeStepsPerTrial();
 
@@ -198,7 +201,7 @@ public abstract class ValueIteration extends PolicyStrategy{
 	protected AlphaVector G( int iAction, BeliefState bs, LinearValueFunctionApproximation vValueFunction ){
 		AlphaVector avMax = null, avG = null, avSum = null, avMaxOriginal = null;;
 		int iObservation = 0, iState = 0;
-		LinkedList<AlphaVector> vVectors = new LinkedList<AlphaVector>( vValueFunction.getVectors() );
+		ValueFunctionSnapshot vsVectors = vValueFunction.getSnapshot();
 		double dMaxValue = MIN_INF, dValue = 0, dProb = 0.0, dSumProbs = 0.0;
 
 		for( iObservation = 0 ; iObservation < m_cObservations ; iObservation++ ){
@@ -207,7 +210,7 @@ public abstract class ValueIteration extends PolicyStrategy{
 			if( dProb > 0.0 ){
 				dMaxValue = MIN_INF;
 				//argmax_i g^i_a,o \cdot b
-				for( AlphaVector avAlpha : vVectors ){
+				for( AlphaVector avAlpha : vsVectors.getVectors() ){
 					if( avAlpha != null ){
 						avG = avAlpha.G( iAction, iObservation );
 						
@@ -222,7 +225,9 @@ public abstract class ValueIteration extends PolicyStrategy{
 			}
 			else{
 				dMaxValue = 0.0;
-				while( ( avMaxOriginal = vValueFunction.getLast() ) == null );
+				avMaxOriginal = vsVectors.getLast();
+				while( avMaxOriginal == null )	//empty value function, wait for a vector to be added
+					avMaxOriginal = vValueFunction.getLast();
 				avMax = avMaxOriginal.G( iAction, iObservation );
 			}
 
@@ -295,70 +300,15 @@ public abstract class ValueIteration extends PolicyStrategy{
 	
 	protected AlphaVector backupTauBased( BeliefState bs, LinearValueFunctionApproximation vValueFunction, boolean bMultiThread ){
 		AlphaVector avMax = null;
-		double dValue = 0.0, dMaxValue = Double.NEGATIVE_INFINITY;
-		int iAction = 0, iMaxAction = -1;
+		double[] adActionValues = new double[m_cActions];
+		AlphaVector[][] aaNext = new AlphaVector[m_cActions][];
+		int iMaxAction = -1;
 		
-		AlphaVector[] aNext = null, aBest = null;
 		//System.out.println( m_cBackups + ") Backup for belief point " + bs );
 		
-		FindMaxAlphas[] aFinders = new FindMaxAlphas[m_cActions];
-		if( bMultiThread ){
-			//Thread[] aThreads = new Thread[m_cActions];
-			
-			for( iAction = 0 ; iAction < m_cActions ; iAction++ ){
-				aFinders[iAction] = new FindMaxAlphas( m_pPOMDP, iAction, bs, vValueFunction );
-				ThreadPool.getInstance().addTask( aFinders[iAction] );
-				//aThreads[iAction] = new Thread( aFinders[iAction] );
-				//aThreads[iAction].start();
-			}
-			
-			for( iAction = 0 ; iAction < m_cActions ; iAction++ ){
-				ThreadPool.getInstance().waitForTask( aFinders[iAction] );
-				/*
-				try {
-					aThreads[iAction].join();
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-				*/
-			}
-		}
-		Vector<AlphaVector[]> vWinners = new Vector<AlphaVector[]>();
-		Vector<Integer> vWinnersActions = new Vector<Integer>();
-		for( iAction = 0 ; iAction < m_cActions ; iAction++ ){
-			aNext = new AlphaVector[m_cObservations];
-			if( bMultiThread ){
-				dValue = aFinders[iAction].getValue();
-			}
-			else{
-				dValue = findMaxAlphas( iAction, bs, vValueFunction, aNext );
-			}
-			
-			//System.out.println( m_cBackups + ") backup: Action value, a = " + iAction + " v = " + dValue );
-			
-			if( dValue > dMaxValue ){
-				dMaxValue = dValue;
-				vWinners.clear();
-				vWinnersActions.clear();
-			}
-			if( dValue == dMaxValue ){
-				if( bMultiThread ){
-					aBest = aFinders[iAction].getNextVectors();
-				}
-				else{
-					aBest = aNext;
-				}
-				iMaxAction = iAction;
-				vWinners.add( aBest );
-				vWinnersActions.add( iMaxAction );
-			}
-		}
-		
-		int idx = m_rndGenerator.nextInt( vWinners.size() );
-		aBest = vWinners.elementAt( idx );
-		iMaxAction = vWinnersActions.elementAt( idx );
-		
-		avMax = G( iMaxAction, vValueFunction, aBest, bMultiThread );
+		findMaxAlphas( bs, vValueFunction, adActionValues, aaNext, bMultiThread );
+		iMaxAction = chooseMaxAction( adActionValues );
+		avMax = G( iMaxAction, vValueFunction, aaNext[iMaxAction], bMultiThread );
 /*	
 		double dVal = avMax.dotProduct( bs );
 		if( diff( dVal, dMaxValue ) > 0.00001 )
@@ -369,39 +319,125 @@ public abstract class ValueIteration extends PolicyStrategy{
 		
 		return avMax;
 	}
+	
+	/**
+	 * Backs up all the belief points against the same value function. Classic backups go through a BatchedBackup when
+	 * batched backups are enabled. With multi threading the points, or the blocks of points, are split over the BackupExecutor.
+	 * The result of vBeliefPoints[i] is at index i. Ties between actions are broken by the random generator in point order,
+	 * so the results are the ones that backing up the points one by one in that order gives.
+	 */
+	protected AlphaVector[] backup( List<BeliefState> vBeliefPoints, LinearValueFunctionApproximation vValueFunction ){
+		final int cPoints = vBeliefPoints.size();
+		final BeliefState[] abPoints = vBeliefPoints.toArray( new BeliefState[cPoints] );
+		final AlphaVector[] aResults = new AlphaVector[cPoints];
+		final double[][] aadActionValues = new double[cPoints][];
+		final AlphaVector[][][] aaaNext = new AlphaVector[cPoints][][];
+		final int[] aiMaxActions = new int[cPoints];
+		final boolean bParallel = ExecutionProperties.useMultiThread() || ExecutionProperties.useHighLevelMultiThread();
+		long lWorkPerPoint = 0;
+		int iPoint = 0;
+		
+		if( cPoints == 0 )
+			return aResults;
+		lWorkPerPoint = m_cActions * estimateFindMaxAlphasWork( abPoints[0], vValueFunction );
+		if( m_pPOMDP.useClassicBackup() ){
+			if( ExecutionProperties.useBatchedBackups() ){
+				BatchedBackup bbBlocks = new BatchedBackup( m_pPOMDP, vValueFunction, abPoints );
+				forEach( bParallel, bbBlocks.getBlockCount(), bbBlocks.getBlockWork(), b -> bbBlocks.backupBlock( b, aResults ) );
+			}
+			//points the batch left out, or all of them
+			forEach( bParallel, cPoints, lWorkPerPoint, i -> {
+				if( aResults[i] == null )
+					aResults[i] = backupGBased( abPoints[i], vValueFunction, false );
+			} );
+		}
+		else{
+			forEach( bParallel, cPoints, lWorkPerPoint, i -> {
+				aadActionValues[i] = new double[m_cActions];
+				aaaNext[i] = new AlphaVector[m_cActions][];
+				findMaxAlphas( abPoints[i], vValueFunction, aadActionValues[i], aaaNext[i], bParallel );
+			} );
+			for( iPoint = 0 ; iPoint < cPoints ; iPoint++ )
+				aiMaxActions[iPoint] = chooseMaxAction( aadActionValues[iPoint] );
+			forEach( bParallel, cPoints, m_cObservations * (long)m_cStates, i -> {
+				aResults[i] = G( aiMaxActions[i], vValueFunction, aaaNext[i][aiMaxActions[i]], bParallel );
+				aaaNext[i] = null;
+			} );
+			for( iPoint = 0 ; iPoint < cPoints ; iPoint++ ){
+				aResults[iPoint].setWitness( abPoints[iPoint] );
+				abPoints[iPoint].addBackup();
+			}
+		}
+		m_cBackups += cPoints;
+		return aResults;
+	}
+	
+	//over the BackupExecutor when bParallel, otherwise a plain loop in index order
+	private void forEach( boolean bParallel, int cItems, long lWorkPerItem, IntConsumer body ){
+		if( bParallel ){
+			BackupExecutor.getInstance().forEach( cItems, lWorkPerItem, body );
+		}
+		else{
+			for( int iItem = 0 ; iItem < cItems ; iItem++ )
+				body.accept( iItem );
+		}
+	}
+	
+	//the value of every action at bs, and the max alpha vector of every successor of bs under that action
+	private void findMaxAlphas( BeliefState bs, LinearValueFunctionApproximation vValueFunction, double[] adActionValues, AlphaVector[][] aaNext, boolean bMultiThread ){
+		int iAction = 0;
+		if( bMultiThread ){
+			BackupExecutor.getInstance().forEach( m_cActions, estimateFindMaxAlphasWork( bs, vValueFunction ), a -> {
+				aaNext[a] = new AlphaVector[m_cObservations];
+				adActionValues[a] = findMaxAlphas( a, bs, vValueFunction, aaNext[a] );
+			} );
+		}
+		else{
+			for( iAction = 0 ; iAction < m_cActions ; iAction++ ){
+				aaNext[iAction] = new AlphaVector[m_cObservations];
+				adActionValues[iAction] = findMaxAlphas( iAction, bs, vValueFunction, aaNext[iAction] );
+			}
+		}
+	}
+	
+	//an action with the highest value, chosen at random among equal values
+	private int chooseMaxAction( double[] adActionValues ){
+		double dMaxValue = Double.NEGATIVE_INFINITY;
+		int iAction = 0, cWinners = 0;
+		int[] aiWinners = new int[m_cActions];
+		for( iAction = 0 ; iAction < m_cActions ; iAction++ ){
+			if( adActionValues[iAction] > dMaxValue ){
+				dMaxValue = adActionValues[iAction];
+				cWinners = 0;
+			}
+			if( adActionValues[iAction] == dMaxValue )
+				aiWinners[cWinners++] = iAction;
+		}
+		return aiWinners[m_rndGenerator.nextInt( cWinners )];
+	}
+	
+	//successor updates and dot products of findMaxAlphas for a single action
+	private long estimateFindMaxAlphasWork( BeliefState bs, LinearValueFunctionApproximation vValueFunction ){
+		long cEntries = bs.getNonZeroEntriesCount();
+		if( cEntries <= 0 )
+			cEntries = m_cStates;
+		return m_cObservations * cEntries * ( vValueFunction.size() + 1 );
+	}
 
 	
-	//multi-thread implementation
 	private AlphaVector G( int iAction, LinearValueFunctionApproximation vValueFunction, AlphaVector[] aNext, boolean bMultiThread ) {
 		AlphaVector avAlpha = null, avG = null, avSum = null, avResult = null;
 		int iObservation = 0;
-		ComputeLowLevelG[] aComputeGs = new ComputeLowLevelG[m_cObservations];
+		AlphaVector[] aGs = new AlphaVector[m_cObservations];
 		
 		if( bMultiThread ){
-			//Thread[] aThreads = new Thread[m_cObservations];
-	
-			for( iObservation = 0 ; iObservation < m_cObservations ; iObservation++ ){
-				avAlpha = aNext[iObservation];
-				aComputeGs[iObservation] = new ComputeLowLevelG( avAlpha, iAction, iObservation );
-				//aThreads[iObservation] = new Thread( aComputeGs[iObservation] );
-				//aThreads[iObservation].start();
-				ThreadPool.getInstance().addTask( aComputeGs[iObservation] );
-			}
-			for( iObservation = 0 ; iObservation < m_cObservations ; iObservation++ ){
-				/*
-				try {
-					aThreads[iObservation].join();
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-				*/
-				ThreadPool.getInstance().waitForTask( aComputeGs[iObservation] );
-			}
+			BackupExecutor.getInstance().forEach( m_cObservations, m_cStates, o -> aGs[o] = aNext[o].G( iAction, o ) );
 		}
 		
+		//summed in observation order whichever thread computed the G vectors
 		for( iObservation = 0 ; iObservation < m_cObservations ; iObservation++ ){
 			if( bMultiThread ){
-				avG = aComputeGs[iObservation].getG();
+				avG = aGs[iObservation];
 			}
 			else{
 				avAlpha = aNext[iObservation];
@@ -432,9 +468,6 @@ public abstract class ValueIteration extends PolicyStrategy{
 		double dSumValues = 0.0, dValue = 0, dProb = 0.0, dSumProbs = 0.0;
 		BeliefState bsSuccessor = null;
 		
-		boolean bCache = m_pPOMDP.getBeliefStateFactory().isCachingBeliefStates();
-		//m_pPOMDP.getBeliefStateFactory().cacheBeliefStates( false );
-		
 		for( iObservation = 0 ; iObservation < m_cObservations ; iObservation++ ){
 			dProb = bs.probabilityOGivenA( iAction, iObservation );
 			
@@ -469,24 +502,24 @@ public abstract class ValueIteration extends PolicyStrategy{
 		
 		//System.out.println( "R(b," + iAction + ") = " + m_pPOMDP.immediateReward( bs, iAction ) );
 		
-		m_pPOMDP.getBeliefStateFactory().cacheBeliefStates( bCache );
-		
 		return dSumValues;
 	}
 
 	protected AlphaVector backupGBased( BeliefState bs, LinearValueFunctionApproximation vValueFunction ){
+		return backupGBased( bs, vValueFunction, ExecutionProperties.useMultiThread() );
+	}
+	
+	protected AlphaVector backupGBased( BeliefState bs, LinearValueFunctionApproximation vValueFunction, boolean bMultiThread ){
 		AlphaVector avMax = null, avCurrent = null;
 		double dValue = 0.0, dMaxValue = Double.MAX_VALUE * -1;
 						
-		if( ExecutionProperties.useMultiThread() ){
-			ComputeG[] aTasks = new ComputeG[m_cActions];
-			for( int iAction : m_pPOMDP.getRelevantActions( bs ) ){
-				aTasks[iAction] = new ComputeG( bs, vValueFunction, iAction, m_cObservations );
-				ThreadPool.getInstance().addTask( aTasks[iAction] );
-			}
-			for( int iAction : m_pPOMDP.getRelevantActions( bs ) ){
-				ThreadPool.getInstance().waitForTask( aTasks[iAction] );
-				avCurrent = aTasks[iAction].getG();
+		if( bMultiThread ){
+			int[] aiActions = m_pPOMDP.getRelevantActionArray( bs );
+			AlphaVector[] aGs = new AlphaVector[aiActions.length];
+			BackupExecutor.getInstance().forEach( aiActions.length, m_cObservations * (long)m_cStates * ( vValueFunction.size() + 1 ),
+					i -> aGs[i] = G( aiActions[i], bs, vValueFunction ) );
+			for( AlphaVector avG : aGs ){
+				avCurrent = avG;
 				dValue = avCurrent.dotProduct( bs );
 	
 				//System.out.println( m_cBackups + ") backup: Action value, a = " + iAction + " v = " + dValue + " " + avCurrent );
@@ -504,7 +537,7 @@ public abstract class ValueIteration extends PolicyStrategy{
 		}
 		else{
 			if( bs.getMaxErrorAction() == -1 ){
-				for( int iAction : m_pPOMDP.getRelevantActions( bs ) ){
+				for( int iAction : m_pPOMDP.getRelevantActionArray( bs ) ){
 					avCurrent = G( iAction, bs, vValueFunction );
 					dValue = avCurrent.dotProduct( bs );
 		
@@ -813,7 +846,98 @@ public abstract class ValueIteration extends PolicyStrategy{
 		vValueFunction.clear();
 		vValueFunction.addAll( vfMDP.getValueFunction() );
 	}
-	
+
+	/**
+	 * Whether valueIteration continues from the current value function, so that it can be seeded with initValueFunctionFrom.
+	 */
+	public boolean supportsWarmStart(){
+		return false;
+	}
+
+	public BitSet getSolvedForbiddenStates(){
+		return m_bsSolvedForbiddenStates;
+	}
+
+	/**
+	 * Warm start - seeds the value function with the vectors of a previous solve of the same model (possibly on another copy of it).
+	 * The prior vectors are plans that respected bsPriorForbidden only. From a state that cannot reach a newly forbidden state
+	 * such a plan never takes a newly forbidden action, so its value there still holds, while from any other state it may now be
+	 * infeasible and overestimate. A vector whose witness has mass on such a state is therefore dropped, the others are kept with
+	 * the min vector value on those states. When nothing was newly forbidden all vectors are kept as they are.
+	 * @param vPrior - the value function of the previous solve
+	 * @param bsPriorForbidden - the forbidden states of the previous solve
+	 * @return the number of vectors taken from vPrior
+	 */
+	public int initValueFunctionFrom( LinearValueFunctionApproximation vPrior, BitSet bsPriorForbidden ){
+		int cAdded = 0, cInvalidated = 0;
+		AlphaVector avCopy = null, avMin = null;
+		BeliefState bsWitness = null;
+		BitSet bsNewlyForbidden = (BitSet) m_bsSolvedForbiddenStates.clone();
+		BitSet bsUnsafe = null;
+		boolean bUnsafeWitness = false;
+
+		bsNewlyForbidden.andNot( bsPriorForbidden );
+		bsUnsafe = getStatesReaching( bsNewlyForbidden );
+		initValueFunctionToMin();
+		avMin = m_vValueFunction.getFirst();
+		for( AlphaVector avPrior : vPrior.getVectors() ){
+			if( avPrior.getWitness() == null ){
+				cInvalidated++;
+				continue;
+			}
+			double[] adBelief = new double[m_cStates];
+			bUnsafeWitness = false;
+			for( Entry<Integer,Double> e : avPrior.getWitness().getNonZeroEntries() ){
+				adBelief[e.getKey()] = e.getValue();
+				bUnsafeWitness |= bsUnsafe.get( e.getKey() );
+			}
+			if( bUnsafeWitness ){
+				cInvalidated++;
+				continue;
+			}
+			bsWitness = m_pPOMDP.getBeliefStateFactory().newBeliefState( adBelief );
+			if( m_pPOMDP.isForbiddenAction( bsWitness, avPrior.getAction() ) ){
+				cInvalidated++;
+				continue;
+			}
+			avCopy = m_pPOMDP.newAlphaVector();
+			for( int iState : m_pPOMDP.getValidStates() ){
+				avCopy.setValue( iState, bsUnsafe.get( iState ) ? avMin.valueAt( iState ) : avPrior.valueAt( iState ) );
+			}
+			avCopy.setAction( avPrior.getAction() );
+			avCopy.finalizeValues();
+			avCopy.setWitness( bsWitness );
+			if( m_vValueFunction.addPrunePointwiseDominated( avCopy ) )
+				cAdded++;
+		}
+		Logger.getInstance().log( getName(), 0, "initValueFunctionFrom", "Warm start with " + cAdded + " vectors, " + cInvalidated + " invalidated, " +
+				bsNewlyForbidden.cardinality() + " newly forbidden states reachable from " + bsUnsafe.cardinality() + " states, |V| = " + m_vValueFunction.size() );
+		return cAdded;
+	}
+
+	// the states from which some state of bsTargets is reachable under some actions, including bsTargets, by a search over the backward transitions
+	private BitSet getStatesReaching( BitSet bsTargets ){
+		BitSet bsReaching = (BitSet) bsTargets.clone();
+		int[] aiQueue = new int[m_cStates];
+		int cQueued = 0, iNext = 0, iAction = 0;
+		for( int iState = bsTargets.nextSetBit( 0 ) ; iState >= 0 && iState < m_cStates ; iState = bsTargets.nextSetBit( iState + 1 ) )
+			aiQueue[cQueued++] = iState;
+		while( iNext < cQueued ){
+			int iEndState = aiQueue[iNext++];
+			for( iAction = 0 ; iAction < m_cActions ; iAction++ ){
+				int[] aiOffsets = m_pPOMDP.getBackwardTransitionIndex().getOffsets( iAction );
+				int[] aiStartStates = m_pPOMDP.getBackwardTransitionIndex().getStartStates( iAction );
+				for( int idx = aiOffsets[iEndState] ; idx < aiOffsets[iEndState + 1] ; idx++ ){
+					if( !bsReaching.get( aiStartStates[idx] ) ){
+						bsReaching.set( aiStartStates[idx] );
+						aiQueue[cQueued++] = aiStartStates[idx];
+					}
+				}
+			}
+		}
+		return bsReaching;
+	}
+
 	protected Object choose( Vector vObjects ){
 		int iObject = m_rndGenerator.nextInt( vObjects.size() );
 		//iObject = vObjects.size() - 1;
@@ -879,6 +1003,11 @@ public abstract class ValueIteration extends PolicyStrategy{
 		return getBestAction( bsCurrent );
 	}
 	
+	//subclasses that choose actions otherwise return null
+	public LinearValueFunctionApproximation getGreedyValueFunction(){
+		return m_vValueFunction;
+	}
+	
 	protected String toString( Vector vAlphas ){
 		if( vAlphas == null )
 			return "null";
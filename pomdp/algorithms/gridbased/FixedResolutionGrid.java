@@ -907,6 +907,10 @@ public class FixedResolutionGrid extends ValueIteration {
 	
 	//int cCalls = 0;
 	
+	public LinearValueFunctionApproximation getGreedyValueFunction(){
+		return null;
+	}
+	
 	public int getAction( BeliefState bsCurrent ){
 		//cCalls++;
 		if( m_bUseUpperBound ){
@@ -160,6 +160,10 @@ public class RealTimeBeliefSpaceSearch extends ValueIteration {
 	
 	}
 	
+	public LinearValueFunctionApproximation getGreedyValueFunction(){
+		return null;
+	}
+	
 	public int getAction( BeliefState bs ){
 		m_dMaxValue = MIN_INF;
 		Number[] pBestAction = null;
@@ -323,6 +323,10 @@ public class ForwardSearchValueIteration extends ValueIteration {
 	public String getName(){
 		return "FSVI";
 	}
+
+	public boolean supportsWarmStart(){
+		return true;
+	}
 	
 	protected void writeUselessBackupsStatistics(){
 		int cUselessUpdates = 0, cLatestUselessUpdates = 0, cUsefulBackups = 0;
@@ -499,15 +503,13 @@ public class ForwardSearchValueIteration extends ValueIteration {
 	}
 
 	private boolean isMovable(BeliefState bs) {
-		List<Integer> actions = m_pPOMDP.getRelevantActions(bs);
-		// get the minimum action from actions
-		int minAction = actions.get(0);
-		for (int i = 1; i < actions.size(); i++) {
-			if (actions.get(i) < minAction) {
-				minAction = actions.get(i);
+		// whether one of the moves (actions 0-3) is not forbidden
+		for (int iAction : m_pPOMDP.getRelevantActionArray(bs)) {
+			if (iAction <= 3) {
+				return true;
 			}
 		}
-		return minAction <= 3;
+		return false;
 	}
 
 	// an iterative implementation of forwardSearch
@@ -530,7 +532,7 @@ public class ForwardSearchValueIteration extends ValueIteration {
 			}
 
 			while (!isMovable(bsCurrent) && d < maxDepth) {
-				for (int iPingAction : m_pPOMDP.getSensingActions()) {
+				for (int iPingAction : m_pPOMDP.getSensingActionArray()) {
 					iNextState = selectNextState( iState, iPingAction );
 					iObservation = getObservation( iState, iPingAction, iNextState );
 					double R = m_pPOMDP.R( iState, iPingAction, iNextState );
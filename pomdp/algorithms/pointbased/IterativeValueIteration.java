@@ -204,6 +204,10 @@ public abstract class IterativeValueIteration extends ValueIteration {
 		}
 	}
 	
+	public LinearValueFunctionApproximation getGreedyValueFunction(){
+		return null;
+	}
+	
 	public int getAction( BeliefState bsCurrent ){
 		double dRand = m_rndGenerator.nextDouble();
 		int iAction = 0;
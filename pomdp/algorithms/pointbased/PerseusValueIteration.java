@@ -334,4 +334,8 @@ public class PerseusValueIteration extends ValueIteration{
 	public String getName(){
 		return "Perseus";
 	}
+
+	public boolean supportsWarmStart(){
+		return true;
+	}
 }
@@ -1,5 +1,6 @@
 package pomdp.algorithms.pointbased;
 
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Vector;
 
@@ -11,7 +12,6 @@ import pomdp.utilities.BeliefStateFactory;
 import pomdp.utilities.ExecutionProperties;
 import pomdp.utilities.JProf;
 import pomdp.utilities.Pair;
-import pomdp.utilities.concurrent.Backup;
 import pomdp.utilities.concurrent.ComputeFarthestSuccessors;
 import pomdp.utilities.concurrent.ThreadPool;
 import pomdp.valuefunction.LinearValueFunctionApproximation;
@@ -225,10 +225,24 @@ public class PointBasedValueIteration extends ValueIteration {
 		if( m_itCurrentIterationPoints == null )
 			m_itCurrentIterationPoints = vBeliefPoints.iterator();
 		dMaxDelta = 0.0;
+		
+		//every point is backed up against m_vValueFunction, which does not change during the sweep, so the backups can run as one batch
+		Iterator<AlphaVector> itBackups = null;
+		if( ExecutionProperties.useMultiThread() || ( ExecutionProperties.useBatchedBackups() && m_pPOMDP.useClassicBackup() ) ){
+			Vector<BeliefState> vRemaining = new Vector<BeliefState>();
+			while( m_itCurrentIterationPoints.hasNext() )
+				vRemaining.add( (BeliefState) m_itCurrentIterationPoints.next() );
+			itBackups = Arrays.asList( backup( vRemaining, m_vValueFunction ) ).iterator();
+			m_itCurrentIterationPoints = vRemaining.iterator();
+		}
+		
 		while( m_itCurrentIterationPoints.hasNext() ){
 			bsCurrent= (BeliefState) m_itCurrentIterationPoints.next();
 			avCurrentMax = m_vValueFunction.getMaxAlpha( bsCurrent );
-			avBackup = backup( bsCurrent );
+			if( itBackups != null )
+				avBackup = itBackups.next();
+			else
+				avBackup = backup( bsCurrent );
 			dBackupValue = avBackup.dotProduct( bsCurrent );
 			dValue = avCurrentMax.dotProduct( bsCurrent );
 			dDelta = dBackupValue - dValue;
@@ -294,52 +308,26 @@ public class PointBasedValueIteration extends ValueIteration {
 		AlphaVector avBackup = null, avNext = null, avCurrentMax = null;
 		double dMaxDelta = 1.0, dDelta = 0.0, dBackupValue = 0.0, dValue = 0.0;
 		double dMaxOldValue = 0.0, dMaxNewValue = 0.0;
-		int iBeliefState = 0;
-		int iThread = 0, cThreads = ExecutionProperties.getHighLevelThreadCount();
-		Backup[] abThreads = new Backup[cThreads]; 
-		int iVector = 0, cVectors = 0;
+		int iBeliefState = 0, cBeliefStates = vBeliefPoints.size();
 		
 		boolean bPrevious = m_pPOMDP.getBeliefStateFactory().cacheBeliefStates( false );
 		
-		Iterator<BeliefState> itCurrentIterationPoints = vBeliefPoints.iterator();
+		AlphaVector[] aBackups = backup( vBeliefPoints, m_vValueFunction );
 		dMaxDelta = 0.0;
 		
-		for( iThread = 0 ; iThread < cThreads ; iThread++ ){
-			abThreads[iThread] = new Backup( m_pPOMDP, m_vValueFunction );
-		}
-		
-		iThread = 0;
-		while( itCurrentIterationPoints.hasNext() ){
-			bsCurrent= itCurrentIterationPoints.next();
-			abThreads[iThread].addBelief( bsCurrent );
-			iThread = ( iThread + 1 ) % cThreads;
-		}
-		
-		for( iThread = 0 ; iThread < cThreads ; iThread++ ){
-			ThreadPool.getInstance().addTask( abThreads[iThread] );
-		}
-		for( iThread = 0 ; iThread < cThreads ; iThread++ ){
-			ThreadPool.getInstance().waitForTask( abThreads[iThread] );
-		}
-
-		
-		for( iThread = 0 ; iThread < cThreads ; iThread++ ){
-			cVectors = abThreads[iThread].getResultsCount();
-			for( iVector = 0 ; iVector < cVectors ; iVector++ ){
-				bsCurrent = abThreads[iThread].getBeliefState( iVector );
-				avBackup = abThreads[iThread].getResult( iVector );
-				m_cBackups++;
-				dBackupValue = avBackup.dotProduct( bsCurrent );
-				dValue = m_vValueFunction.valueAt( bsCurrent );
-				dDelta = dBackupValue - dValue;
-				if( dDelta > dMaxDelta ){
-					dMaxDelta = dDelta;
-					bsMax = bsCurrent;
-					dMaxOldValue = dValue;
-					dMaxNewValue = dBackupValue;
-				}
-				vNextValueFunction.addPrunePointwiseDominated( avBackup );
+		for( iBeliefState = 0 ; iBeliefState < cBeliefStates ; iBeliefState++ ){
+			bsCurrent = vBeliefPoints.get( iBeliefState );
+			avBackup = aBackups[iBeliefState];
+			dBackupValue = avBackup.dotProduct( bsCurrent );
+			dValue = m_vValueFunction.valueAt( bsCurrent );
+			dDelta = dBackupValue - dValue;
+			if( dDelta > dMaxDelta ){
+				dMaxDelta = dDelta;
+				bsMax = bsCurrent;
+				dMaxOldValue = dValue;
+				dMaxNewValue = dBackupValue;
 			}
+			vNextValueFunction.addPrunePointwiseDominated( avBackup );
 		}
 		
 		if( m_bSingleValueFunction ){
@@ -2,7 +2,9 @@ package pomdp.environments;
 
 import pomdp.utilities.*;
 
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 public class BeaconDistanceGrid extends Grid{
@@ -20,6 +22,50 @@ public class BeaconDistanceGrid extends Grid{
         actionToBeacon = new HashMap<>();
     }
 
+    protected BeaconDistanceGrid(BeaconDistanceGrid grid) {
+        super(grid);
+        noiseGenerator = RandomGenerator.getInstance();
+        maxDist = grid.maxDist;
+        INF = grid.INF;
+        entry_options = grid.entry_options;
+        actionToBeacon = grid.actionToBeacon;
+    }
+
+    /**
+     * Creates a grid over the same parsed model without re-reading the model file.
+     * The fork has its own start distribution, terminal and forbidden states, MDP value function, belief factory
+     * and takes the random generator of the calling thread.
+     */
+    public BeaconDistanceGrid fork() {
+        BeaconDistanceGrid forked = new BeaconDistanceGrid(this);
+        forked.m_vfMDP = new MDPValueFunction(forked, 0.0);
+        forked.initBeliefStateFactory();
+        return forked;
+    }
+
+    // the ping actions are written as indexes into the beacons of the grid
+    @Override
+    public void writeCompiledModel(DataOutputStream dosOutput) throws IOException {
+        super.writeCompiledModel(dosOutput);
+        dosOutput.writeInt(maxDist);
+        dosOutput.writeInt(actionToBeacon.size());
+        for (Map.Entry<Integer, Beacon> e : actionToBeacon.entrySet()) {
+            dosOutput.writeInt(e.getKey());
+            dosOutput.writeInt(beacons.indexOf(e.getValue()));
+        }
+    }
+
+    @Override
+    public void readCompiledModel(ByteBuffer bbInput) throws InvalidModelFileFormatException {
+        super.readCompiledModel(bbInput);
+        setMaxDist(bbInput.getInt());
+        int cPingActions = bbInput.getInt();
+        for (int i = 0; i < cPingActions; i++) {
+            int iAction = bbInput.getInt();
+            mapPingAction(iAction, beacons.get(bbInput.getInt()));
+        }
+    }
+
     public void mapPingAction(int iAction, Beacon b) {
         actionToBeacon.put(iAction, b);
     }
@@ -218,17 +264,19 @@ public class BeaconDistanceGrid extends Grid{
     @Override
     public void load(String sFileName, char id) throws IOException, InvalidModelFileFormatException {
         m_sName = sFileName.substring( sFileName.lastIndexOf( "/" ) + 1, sFileName.lastIndexOf( "." ) );
-        if (numOfAgents > 1) {
-            MultiAgentBeaconDistanceGridLoader p = new MultiAgentBeaconDistanceGridLoader(this);
-            p.load( sFileName, id );
-        }
-        else {
-            BeaconDistanceGridLoader p = new BeaconDistanceGridLoader( this );
-            p.load( sFileName );
-
-            if( m_rtReward == RewardType.StateActionState )
-                initStoredRewards();
+        if (!loadCompiled(sFileName, id)) {
+            if (numOfAgents > 1) {
+                MultiAgentBeaconDistanceGridLoader p = new MultiAgentBeaconDistanceGridLoader(this);
+                p.load( sFileName, id );
+            }
+            else {
+                BeaconDistanceGridLoader p = new BeaconDistanceGridLoader( this );
+                p.load( sFileName );
+            }
+            saveCompiled(sFileName, id);
         }
+        if (m_rtReward == RewardType.StateActionState)
+            initStoredRewards();
 
         m_vfMDP = new MDPValueFunction( this, 0.0 );
         initBeliefStateFactory();
@@ -2,7 +2,9 @@ package pomdp.environments;
 
 import pomdp.utilities.*;
 
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 public class Grid extends POMDP {
@@ -13,7 +15,7 @@ public class Grid extends POMDP {
     protected int[][] grid;                                   // mapping between place in grid to state
     protected List<Beacon> beacons;
     private float o_radius;                                 // base reception radius (beacons will make it smaller)
-    private final Random oGenerator;
+    private final RandomGenerator oGenerator;   // its own sequence, and the trial stream inside simulated trials
     private Map<Integer, Float> sigmaPerState;
     protected int numOfAgents;
     protected Point origin;
@@ -25,18 +27,37 @@ public class Grid extends POMDP {
     public final double INTER_REWARD = -0.04;
 
     List<Map.Entry<Integer, Double>>[][] cachedTransitions;
+    private GridDistanceOracle distanceOracle;
 
     public Grid(int numOfAgents) {
         super();
         holes = new ArrayList<>();
         stateToLocation = new ArrayList<>();
         beacons = new ArrayList<>();
-        oGenerator = new Random();
-        oGenerator.setSeed(42);
+        oGenerator = RandomGenerator.newInstance("Grid observations", 42);
         sigmaPerState = new HashMap<>();
         this.numOfAgents = numOfAgents;
     }
 
+    // shares the parsed layout and the transition cache of a loaded grid, which must be fully cached already
+    protected Grid(Grid grid) {
+        super(grid);
+        rows = grid.rows;
+        cols = grid.cols;
+        holes = grid.holes;
+        stateToLocation = grid.stateToLocation;
+        this.grid = grid.grid;
+        beacons = grid.beacons;
+        o_radius = grid.o_radius;
+        oGenerator = RandomGenerator.newInstance("Grid observations", 42);
+        sigmaPerState = new HashMap<>(grid.sigmaPerState);
+        numOfAgents = grid.numOfAgents;
+        origin = grid.origin;
+        DONE = grid.DONE;
+        cachedTransitions = grid.cachedTransitions;
+        distanceOracle = grid.distanceOracle;
+    }
+
     public void setOrigin(Point origin) {
         this.origin = origin;
     }
@@ -139,56 +160,19 @@ public class Grid extends POMDP {
         return loc1.distance(loc2);
     }
 
-    public int actualDistance(BeliefState bs, int state) {
-        Iterator<Map.Entry<Integer,Double>> thisStateid = bs.getNonZeroEntries().iterator();
-        int min_distance = rows + cols;
-
-        while (thisStateid.hasNext()) {
-            min_distance = Math.min(min_distance, actualDistance(thisStateid.next().getKey(), state));
+    public GridDistanceOracle getDistanceOracle() {
+        if (distanceOracle == null) {
+            distanceOracle = new GridDistanceOracle(this, stateToLocation.size());
         }
+        return distanceOracle;
+    }
 
-        return min_distance;
+    public int actualDistance(BeliefState bs, int state) {
+        return getDistanceOracle().minDistance(bs, state, rows + cols);
     }
 
     public int actualDistance(int state1, int state2) {
-        // A*
-        List<Integer> closed = new ArrayList<>();
-        Map<Integer, Integer> g = new HashMap<>();
-        Map<Integer, Integer> f = new HashMap<>();
-        g.put(state1, 0);
-        f.put(state1, manhattanDistance(state1, state2));
-        PriorityQueue<Integer> open = new PriorityQueue<>((o1, o2) -> f.get(o1) - f.get(o2));
-        open.add(state1);
-
-        while (!open.isEmpty()) {
-            int current = open.peek();
-            if (current == state2) {
-                return g.get(current);
-            }
-            for (int n : getNeighbors(current)) {
-                int totalWeight = g.get(current) + 1;
-                if (!closed.contains(n) && !open.contains(n)) {
-                    g.put(n, totalWeight);
-                    f.put(n, g.get(n) + manhattanDistance(n, state2));
-                    open.add(n);
-                }
-                else {
-                    if (totalWeight < g.get(n)) {
-                        g.put(n, totalWeight);
-                        f.put(n, g.get(n) + manhattanDistance(n, state2));
-
-                        if (closed.contains(n)) {
-                            closed.remove((Object)n);
-                            open.add(n);
-                        }
-                    }
-                }
-            }
-
-            open.remove((Object)current);
-            closed.add(current);
-        }
-        return Integer.MAX_VALUE;
+        return getDistanceOracle().distance(state1, state2);
     }
 
     private double calculateND(double x, double stateSigma) {
@@ -253,6 +237,8 @@ public class Grid extends POMDP {
             sigmaPerState.put(i, -1.0f);
         }
 
+        distanceOracle = new GridDistanceOracle(this, stateToLocation.size());
+
         System.out.println("beacons: " + Arrays.toString(beacons.toArray()));
 
         System.out.println("Grid Load Complete!");
@@ -293,17 +279,18 @@ public class Grid extends POMDP {
         return locationToState(loc.first(), loc.second());
     }
 
+    // agrees with getNonZeroTransitions, which moves the end state to DONE under every action
     @Override
     public double tr(int iState1, int iAction, int iState2) {
         if (iState2 == DONE) {
-            if (iAction == getDoneAction() || iState1 == DONE) {
+            if (iAction == getDoneAction() || iState1 == DONE || iState1 == getEndState()) {
                 return 1;
             }
             else {
                 return 0;
             }
         }
-        if (iState1 == DONE) {
+        if (iState1 == DONE || iState1 == getEndState()) {
             return 0;
         }
         if (iAction == getDoneAction()) {
@@ -533,17 +520,19 @@ public class Grid extends POMDP {
     @Override
     public void load(String sFileName, char id) throws IOException, InvalidModelFileFormatException{
         m_sName = sFileName.substring( sFileName.lastIndexOf( "/" ) + 1, sFileName.lastIndexOf( "." ) );
-        if (numOfAgents > 1) {
-            MultiAgentGridLoader p = new MultiAgentGridLoader(this);
-            p.load( sFileName );
-        }
-        else {
-            GridLoader p = new GridLoader( this );
-            p.load( sFileName );
-
-            if( m_rtReward == RewardType.StateActionState )
-                initStoredRewards();
+        if (!loadCompiled(sFileName, id)) {
+            if (numOfAgents > 1) {
+                MultiAgentGridLoader p = new MultiAgentGridLoader(this);
+                p.load( sFileName );
+            }
+            else {
+                GridLoader p = new GridLoader( this );
+                p.load( sFileName );
+            }
+            saveCompiled(sFileName, id);
         }
+        if (m_rtReward == RewardType.StateActionState)
+            initStoredRewards();
 
         m_vfMDP = new MDPValueFunction( this, 0.0 );
         initBeliefStateFactory();
@@ -558,6 +547,12 @@ public class Grid extends POMDP {
         return numOfAgents;
     }
 
+    // Grid.load picks MultiAgentGridLoader or GridLoader by the number of agents
+    @Override
+    public int getCompiledAgentCount() {
+        return numOfAgents;
+    }
+
     // return: [upperLeft, lowerRight]
     public Point[] getBoundaryPoints(List<BeliefState> beliefs, Set<Integer> collisionStates) {
         int left = cols-1, up = rows-1, right = 0, down = 0;
@@ -641,4 +636,60 @@ public class Grid extends POMDP {
     public void initTransitionCaching() {
         cachedTransitions = new List[m_cStates][m_cActions];
     }
+
+    // fills every row of the transition cache, which forks of this grid then share read only
+    public void cacheAllTransitions() {
+        for (int iState = 0; iState < m_cStates; iState++) {
+            for (int iAction = 0; iAction < m_cActions; iAction++) {
+                getNonZeroTransitions(iState, iAction);
+            }
+        }
+    }
+
+    // the layout the loaders read, the rest of the grid is derived from it again by initGrid
+    @Override
+    public void writeCompiledModel(DataOutputStream dosOutput) throws IOException {
+        super.writeCompiledModel(dosOutput);
+        dosOutput.writeInt(rows);
+        dosOutput.writeInt(cols);
+        dosOutput.writeInt(holes.size());
+        for (Point hole : holes) {
+            dosOutput.writeInt(hole.first());
+            dosOutput.writeInt(hole.second());
+        }
+        dosOutput.writeInt(beacons.size());
+        for (Beacon b : beacons) {
+            dosOutput.writeInt(b.getLoc().first());
+            dosOutput.writeInt(b.getLoc().second());
+            dosOutput.writeInt(b.getRange());
+        }
+        dosOutput.writeFloat(o_radius);
+        dosOutput.writeBoolean(cachedTransitions != null);
+    }
+
+    @Override
+    public void readCompiledModel(ByteBuffer bbInput) throws InvalidModelFileFormatException {
+        super.readCompiledModel(bbInput);
+        rows = bbInput.getInt();
+        cols = bbInput.getInt();
+        Point.initPoints(rows, cols);
+        int cHoles = bbInput.getInt();
+        for (int i = 0; i < cHoles; i++) {
+            int hole_row = bbInput.getInt();
+            addHole(hole_row, bbInput.getInt());
+        }
+        int cBeacons = bbInput.getInt();
+        for (int i = 0; i < cBeacons; i++) {
+            int beacon_row = bbInput.getInt(), beacon_col = bbInput.getInt();
+            addBeacon(new Beacon(beacon_row, beacon_col, bbInput.getInt()));
+        }
+        o_radius = bbInput.getFloat();
+        boolean bCachedTransitions = bbInput.get() != 0;
+        initGrid();
+        if (bCachedTransitions) {
+            // as verifyFunctions does after a text load, so that the cache is complete before the grid is forked
+            initTransitionCaching();
+            cacheAllTransitions();
+        }
+    }
 }
@@ -2,10 +2,10 @@ package pomdp.environments;
 
 import pomdp.GridAgent;
 import pomdp.utilities.*;
-import pomdp.utilities.datastructures.CartesianIterator;
+import pomdp.utilities.datastructures.LRUCache;
+import pomdp.utilities.datastructures.NonZeroEntryVisitor;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class JointBeaconDistanceGrid extends BeaconDistanceGrid{
     protected int numOfSingleStates;
@@ -15,11 +15,18 @@ public class JointBeaconDistanceGrid extends BeaconDistanceGrid{
     public Map<Character, Integer> endStates;
     private List<GridAgent> agents;
 
-    private List<Integer>[] jointStateToState;
-    private List<Integer>[] jointActionToAction;
-    private List<Integer>[] jointObservationToObservation;
-
-    private CartesianIterator[][] cachedTransitions;
+    // joint index <-> per-agent values, digit i belongs to agents.get(i)
+    private MixedRadixCodec stateCodec;
+    private MixedRadixCodec actionCodec;
+    private MixedRadixCodec observationCodec;
+
+    // successors of a single agent in joint-grid coordinates, [iAgent][singleState * numOfSingleActions + singleAction], filled lazily
+    private SuccessorRow[][] singleTransitions;
+    // recently used joint successor rows keyed by iStartState * |A| + iAction, null when disabled
+    private LRUCache<Long, SuccessorRow> transitionCache;
+    // per thread buffers of the caller-buffer getNonZeroTransitions: the agents' rows and the position in each
+    private final ThreadLocal<SuccessorRow[]> scratchParts = ThreadLocal.withInitial(() -> new SuccessorRow[numOfAgents]);
+    private final ThreadLocal<int[]> scratchIndex = ThreadLocal.withInitial(() -> new int[numOfAgents]);
     private boolean isOffline;
 
     public JointBeaconDistanceGrid(List<GridAgent> agents, boolean isOffline) {
@@ -30,10 +37,25 @@ public class JointBeaconDistanceGrid extends BeaconDistanceGrid{
     }
 
     public void initCaching() {
-        jointStateToState = new List[m_cStates];
-        jointActionToAction = new List[m_cActions];
-        jointObservationToObservation = new List[m_cObservations];
-        cachedTransitions = new CartesianIterator[m_cStates][m_cActions];
+        stateCodec = new MixedRadixCodec(numOfAgents, numOfSingleStates);
+        actionCodec = new MixedRadixCodec(numOfAgents, numOfSingleActions);
+        observationCodec = new MixedRadixCodec(numOfAgents, numOfSingleObservations);
+        singleTransitions = new SuccessorRow[numOfAgents][numOfSingleStates * numOfSingleActions];
+        int cCacheRows = ExecutionProperties.getJointTransitionCacheRows();
+        transitionCache = cCacheRows > 0 ? new LRUCache<>(cCacheRows) : null;
+    }
+
+    /**
+     * Immutable list of successor states and their probabilities. Rows are shared between threads, so they are never modified once built.
+     */
+    private static final class SuccessorRow {
+        final int[] states;
+        final double[] probs;
+
+        SuccessorRow(int[] states, double[] probs) {
+            this.states = states;
+            this.probs = probs;
+        }
     }
 
     public void addEndState(char id, int endState) {
@@ -55,39 +77,38 @@ public class JointBeaconDistanceGrid extends BeaconDistanceGrid{
 
     @Override
     public int observe(int iAction, int iState) {
-        List<Integer> stateValues = decodeState(iState);
-        List<Integer> actionValues = decodeAction(iAction);
-        List<Integer> observationValues = new ArrayList<>();
+        BeaconDistanceGrid agentGrid;
+        int encodedObservation = 0;
         for (int i = 0; i < numOfAgents; i++) {
-            observationValues.add(agents.get(i).getGrid().observe(actionValues.get(i), agents.get(i).getGrid().fromJointGrid(stateValues.get(i), this)));
+            agentGrid = agents.get(i).getGrid();
+            encodedObservation += observationCodec.weight(i) * agentGrid.observe(actionCodec.digit(iAction, i), agentGrid.fromJointGrid(stateCodec.digit(iState, i), this));
         }
-        int encodedObservation = encodeObservations(observationValues);
 //        System.out.print(parseObservation(encodedObservation) + " ");
         return encodedObservation;
     }
 
     @Override
     public double O(int iAction, int iState, int iObservation) {
-        List<Integer> stateValues = decodeState(iState);
-        List<Integer> actionValues = decodeAction(iAction);
-        List<Integer> observationValues = decodeObservation(iObservation);
+        BeaconDistanceGrid agentGrid;
         double prob = 1;
         for (int i = 0; i < numOfAgents; i++) {
-            prob *= agents.get(i).getGrid().O(actionValues.get(i), agents.get(i).getGrid().fromJointGrid(stateValues.get(i), this), observationValues.get(i));
+            agentGrid = agents.get(i).getGrid();
+            prob *= agentGrid.O(actionCodec.digit(iAction, i), agentGrid.fromJointGrid(stateCodec.digit(iState, i), this), observationCodec.digit(iObservation, i));
         }
         return prob;
     }
 
     @Override
     public String parseState(int iState) {
-        List<Integer> stateValues = decodeState(iState);
+        int stateValue;
         StringBuilder sState = new StringBuilder("(");
         for (int i = 0; i < numOfAgents; i++) {
-            if (stateValues.get(i) == SINGLE_DONE) {
+            stateValue = stateCodec.digit(iState, i);
+            if (stateValue == SINGLE_DONE) {
                 sState.append("DONE");
             }
             else {
-                sState.append(stateToLocation(stateValues.get(i)).add(origin).toString());
+                sState.append(stateToLocation(stateValue).add(origin).toString());
             }
             sState.append(", ");
         }
@@ -109,54 +130,146 @@ public class JointBeaconDistanceGrid extends BeaconDistanceGrid{
             return endStates.containsValue(iState2) ? 1 : 0;
         }
 
-        List<Integer> startStates = decodeState(iState1);
-        List<Integer> actions = decodeAction(iAction);
-        List<Integer> endStates = decodeState(iState2);
-
+        BeaconDistanceGrid agentGrid;
+        int startState, endState;
         double prob = 1;
         for (int iAgent = 0; iAgent < numOfAgents; iAgent++) {
-            if (startStates.get(iAgent) == SINGLE_DONE) {
-                prob *= endStates.get(iAgent) == SINGLE_DONE ? 1.0 : 0.0;
+            startState = stateCodec.digit(iState1, iAgent);
+            endState = stateCodec.digit(iState2, iAgent);
+            if (startState == SINGLE_DONE) {
+                prob *= endState == SINGLE_DONE ? 1.0 : 0.0;
             }
-            else if (!agents.get(iAgent).canDone(this) && isInBorder(startStates.get(iAgent))) {
-                prob *= Objects.equals(startStates.get(iAgent), endStates.get(iAgent)) ? 1.0 : 0.0;
+            else if (!agents.get(iAgent).canDone(this) && isInBorder(startState)) {
+                prob *= startState == endState ? 1.0 : 0.0;
             }
             else {
-                prob *= agents.get(iAgent).getGrid().tr(agents.get(iAgent).getGrid().fromJointGrid(startStates.get(iAgent), this), actions.get(iAgent), agents.get(iAgent).getGrid().fromJointGrid(endStates.get(iAgent), this));
+                agentGrid = agents.get(iAgent).getGrid();
+                prob *= agentGrid.tr(agentGrid.fromJointGrid(startState, this), actionCodec.digit(iAction, iAgent), agentGrid.fromJointGrid(endState, this));
             }
         }
 
         return prob;
     }
 
+    /**
+     * The joint successor distribution is the product of the agents' distributions, computed on the fly from the
+     * single-agent rows. Successors come in the same order as before: the last agent varies fastest.
+     */
     @Override
     public Iterator<Map.Entry<Integer, Double>> getNonZeroTransitions(int iStartState, int iAction) {
-        if (cachedTransitions[iStartState][iAction] == null) {
-            Grid bigGrid;
-            int bigGridState;
-            List<Integer> startStates = decodeState(iStartState);
-            List<Integer> actions = decodeAction(iAction);
-            List<Iterable<Map.Entry<Integer, Double>>> res = new ArrayList<>();
+        SuccessorRow row = getTransitionRow(iStartState, iAction);
+        List<Map.Entry<Integer, Double>> entries = new ArrayList<>(row.states.length);
+        for (int i = 0; i < row.states.length; i++) {
+            entries.add(new Pair<>(row.states[i], row.probs[i]));
+        }
+        return entries.iterator();
+    }
+
+    @Override
+    public void forEachNonZeroTransition(int iStartState, int iAction, NonZeroEntryVisitor visitor) {
+        SuccessorRow row = getTransitionRow(iStartState, iAction);
+        for (int i = 0; i < row.states.length; i++) {
+            visitor.visit(row.states[i], row.probs[i]);
+        }
+    }
+
+    /**
+     * Writes the successors of (iStartState, iAction) into the caller's buffers, which need getMaxTransitionCount() entries.
+     * @return the number of successors written
+     */
+    public int getNonZeroTransitions(int iStartState, int iAction, int[] aiEndStates, double[] adProbs) {
+        SuccessorRow[] parts = scratchParts.get();
+        int cEntries = 1;
+        for (int iAgent = 0; iAgent < numOfAgents; iAgent++) {
+            parts[iAgent] = getSingleTransitions(iAgent, stateCodec.digit(iStartState, iAgent), actionCodec.digit(iAction, iAgent));
+            cEntries *= parts[iAgent].states.length;
+        }
 
+        int[] aiIndex = scratchIndex.get();
+        Arrays.fill(aiIndex, 0);
+        int state;
+        double prob;
+        for (int iEntry = 0; iEntry < cEntries; iEntry++) {
+            state = 0;
+            prob = 1.0;
             for (int iAgent = 0; iAgent < numOfAgents; iAgent++) {
-                bigGrid = agents.get(iAgent).getGrid();
-                bigGridState = bigGrid.fromJointGrid(startStates.get(iAgent), this);
-//            if (startStates.get(iAgent) == SINGLE_DONE) {
-//                elements.add(new Pair<>(SINGLE_DONE, 1.0));
-//                res.add(elements);
-//                continue;
-//            }
-                res.add(getBigGridTransitions(bigGrid, bigGridState, actions.get(iAgent), startStates.get(iAgent)));
+                state += stateCodec.weight(iAgent) * parts[iAgent].states[aiIndex[iAgent]];
+                prob *= parts[iAgent].probs[aiIndex[iAgent]];
+            }
+            aiEndStates[iEntry] = state;
+            adProbs[iEntry] = prob;
+
+            for (int iAgent = numOfAgents - 1; iAgent >= 0; iAgent--) {
+                if (++aiIndex[iAgent] < parts[iAgent].states.length) {
+                    break;
+                }
+                aiIndex[iAgent] = 0;
             }
-            cachedTransitions[iStartState][iAction] = new CartesianIterator(res, numOfSingleStates);
         }
-        else {
-            cachedTransitions[iStartState][iAction].initialize();
+        return cEntries;
+    }
+
+    // upper bound on the number of joint successors of any (s,a)
+    public int getMaxTransitionCount() {
+        int cMax = 1, cAgentMax;
+        for (int iAgent = 0; iAgent < numOfAgents; iAgent++) {
+            cAgentMax = 0;
+            for (int singleState = 0; singleState < numOfSingleStates; singleState++) {
+                for (int singleAction = 0; singleAction < numOfSingleActions; singleAction++) {
+                    cAgentMax = Math.max(cAgentMax, getSingleTransitions(iAgent, singleState, singleAction).states.length);
+                }
+            }
+            cMax *= cAgentMax;
+        }
+        return cMax;
+    }
+
+    private SuccessorRow getTransitionRow(int iStartState, int iAction) {
+        Long key = null;
+        SuccessorRow row;
+        if (transitionCache != null) {
+            key = (long) iStartState * m_cActions + iAction;
+            row = transitionCache.get(key);
+            if (row != null) {
+                return row;
+            }
+        }
+
+        int cEntries = 1;
+        for (int iAgent = 0; iAgent < numOfAgents; iAgent++) {
+            cEntries *= getSingleTransitions(iAgent, stateCodec.digit(iStartState, iAgent), actionCodec.digit(iAction, iAgent)).states.length;
+        }
+        int[] aiEndStates = new int[cEntries];
+        double[] adProbs = new double[cEntries];
+        getNonZeroTransitions(iStartState, iAction, aiEndStates, adProbs);
+        row = new SuccessorRow(aiEndStates, adProbs);
+
+        if (transitionCache != null) {
+            transitionCache.put(key, row);
+        }
+        return row;
+    }
+
+    private SuccessorRow getSingleTransitions(int iAgent, int singleState, int singleAction) {
+        int idx = singleState * numOfSingleActions + singleAction;
+        SuccessorRow row = singleTransitions[iAgent][idx];
+        if (row == null) {
+            // racing threads compute the same immutable row, whichever is stored wins
+            Grid bigGrid = agents.get(iAgent).getGrid();
+            List<Map.Entry<Integer, Double>> elements = getBigGridTransitions(bigGrid, bigGrid.fromJointGrid(singleState, this), singleAction, singleState);
+            int[] states = new int[elements.size()];
+            double[] probs = new double[elements.size()];
+            for (int i = 0; i < states.length; i++) {
+                states[i] = elements.get(i).getKey();
+                probs[i] = elements.get(i).getValue();
+            }
+            row = new SuccessorRow(states, probs);
+            singleTransitions[iAgent][idx] = row;
         }
-        return cachedTransitions[iStartState][iAction];
+        return row;
     }
 
-    private Iterable<Map.Entry<Integer, Double>> getBigGridTransitions(Grid bigGrid, int bigGridState, int action, int startState) {
+    private List<Map.Entry<Integer, Double>> getBigGridTransitions(Grid bigGrid, int bigGridState, int action, int startState) {
         List<Map.Entry<Integer, Double>> elements = new ArrayList<>();
         Iterator<Map.Entry<Integer, Double>> it = bigGrid.getNonZeroTransitions(bigGridState, action);
         while (it.hasNext()) {
@@ -201,12 +314,9 @@ public class JointBeaconDistanceGrid extends BeaconDistanceGrid{
     public double R(int iStartState, int iAction) {
 
         if (isOffline) {
-            List<Integer> iStartStateValues = decodeState(iStartState);
-            List<Integer> iActionValues = decodeAction(iAction);
-
             double reward = 0;
             for (int iAgent = 0; iAgent < numOfAgents; iAgent++) {
-                reward += agents.get(iAgent).getGrid().R(iStartStateValues.get(iAgent), iActionValues.get(iAgent));
+                reward += agents.get(iAgent).getGrid().R(stateCodec.digit(iStartState, iAgent), actionCodec.digit(iAction, iAgent));
             }
             return reward;
         }
@@ -234,26 +344,33 @@ public class JointBeaconDistanceGrid extends BeaconDistanceGrid{
 //            return 0;
 //        }
 
-        List<Integer> iStartStateValues = decodeState(iStartState);
-        List<Integer> iActionValues = decodeAction(iAction);
-        List<Integer> iEndStateValues = decodeState(iEndState);
-
+        GridAgent agent;
+        BeaconDistanceGrid agentGrid;
+        int startState, action, endState;
         double reward = 0;
         int numberOfTerminal = 0;
         for (int iAgent = 0; iAgent < numOfAgents; iAgent++) {
-            if ((!agents.get(iAgent).canDone(this) && isInBorder(iEndStateValues.get(iAgent))) || (agents.get(iAgent).getEndState() == agents.get(iAgent).getGrid().fromJointGrid(iStartStateValues.get(iAgent), this) && iActionValues.get(iAgent) == agents.get(iAgent).getGrid().getDoneAction())) {
+            agent = agents.get(iAgent);
+            agentGrid = agent.getGrid();
+            startState = stateCodec.digit(iStartState, iAgent);
+            action = actionCodec.digit(iAction, iAgent);
+            endState = stateCodec.digit(iEndState, iAgent);
+            if ((!agent.canDone(this) && isInBorder(endState)) || (agent.getEndState() == agentGrid.fromJointGrid(startState, this) && action == agentGrid.getDoneAction())) {
                 numberOfTerminal++;
             }
         }
 
         // TODO: need to find a way to "separate" the finishing agents from the others - keeping them in joint while the others will be singles
         for (int iAgent = 0; iAgent < numOfAgents; iAgent++) {
-            if (!isTerminalState(iEndStateValues.get(iAgent))) {
+            endState = stateCodec.digit(iEndState, iAgent);
+            if (!isTerminalState(endState)) {
+                agent = agents.get(iAgent);
+                agentGrid = agent.getGrid();
                 if (numberOfTerminal >= numOfAgents - 1) {
-                    reward += agents.get(iAgent).getMDPValueFunction().getValue(agents.get(iAgent).getGrid().fromJointGrid(iEndStateValues.get(iAgent), this));
+                    reward += agent.getMDPValueFunction().getValue(agentGrid.fromJointGrid(endState, this));
                 }
                 else {
-                    reward += agents.get(iAgent).getGrid().R(agents.get(iAgent).getGrid().fromJointGrid(iStartStateValues.get(iAgent), this), iActionValues.get(iAgent), agents.get(iAgent).getGrid().fromJointGrid(iEndStateValues.get(iAgent), this));
+                    reward += agentGrid.R(agentGrid.fromJointGrid(stateCodec.digit(iStartState, iAgent), this), actionCodec.digit(iAction, iAgent), agentGrid.fromJointGrid(endState, this));
                 }
             }
         }
@@ -303,10 +420,14 @@ public class JointBeaconDistanceGrid extends BeaconDistanceGrid{
     }
 
     public boolean isCollisionState(int state) {
-        List<Integer> stateValues = decodeState(state);
+        int stateValue;
         for (int i = 0; i < numOfAgents; i++) {
+            stateValue = stateCodec.digit(state, i);
+            if (stateValue == SINGLE_DONE) {
+                continue;
+            }
             for (int j = i+1; j < numOfAgents; j++) {
-                if (stateValues.get(i).equals(stateValues.get(j)) && stateValues.get(i) != SINGLE_DONE) {
+                if (stateValue == stateCodec.digit(state, j)) {
                     return true;
                 }
             }
@@ -354,174 +475,95 @@ public class JointBeaconDistanceGrid extends BeaconDistanceGrid{
         return numOfSingleObservations;
     }
 
-    private List<Integer> decode(int encoded, int numOfSingle) {
-        List<Integer> decoded = new ArrayList<>();
-        for (int i = 0; i < numOfAgents; i++) {
-            decoded.add(encoded % numOfSingle);
-            encoded /= numOfSingle;
-        }
-        return decoded;
-    }
-
-    public List<Integer> decodeState(int state) {
-        if (jointStateToState[state] == null) {
-            jointStateToState[state] = decode(state, numOfSingleStates);
-        }
-        return jointStateToState[state];
+    public int getStateValue(int state, int iAgent) {
+        return stateCodec.digit(state, iAgent);
     }
 
-    public List<Integer> decodeAction(int action) {
-        if (jointActionToAction[action] == null) {
-            jointActionToAction[action] = decode(action, numOfSingleActions);
-        }
-        return jointActionToAction[action];
-    }
-
-    public List<Integer> decodeObservation(int observation) {
-        if (jointObservationToObservation[observation] == null) {
-            jointObservationToObservation[observation] = decode(observation, numOfSingleObservations);
-        }
-        return jointObservationToObservation[observation];
+    public int getActionValue(int action, int iAgent) {
+        return actionCodec.digit(action, iAgent);
     }
 
-    private int encode(List<Integer> decoded, int numOfSingle) {
-        int encoded = 0;
-        for (int i = 0, power = 1; i < numOfAgents; i++, power *= numOfSingle) {
-            encoded += power * decoded.get(i);
-        }
-        return encoded;
+    public int getObservationValue(int observation, int iAgent) {
+        return observationCodec.digit(observation, iAgent);
     }
 
+    // joint actions in which at least one agent moves
     @Override
-    public List<Integer> getMovableActions() {
-        List<Integer> movableActions = new ArrayList<>();
-        int maxActionValue = getNumOfSingleActions()-1;
-        List<Integer> actionValues = new ArrayList<>();
-
-        for (int i = 0; i < numOfAgents; i++) {
-            actionValues.add(0);
+    protected List<Integer> computeMovableActions() {
+        BitSet[] movable = new BitSet[numOfAgents];
+        for (int iAgent = 0; iAgent < numOfAgents; iAgent++) {
+            movable[iAgent] = toBitSet(agents.get(iAgent).getGrid().getMovableActionArray());
         }
-
-        int actionChecksum;
-        boolean actionDone = false;
-        boolean actionChange;
-        int actionR;
-
-        while (!actionDone) {
-            actionChecksum = 0;
-            for (int i = 0; i < numOfAgents; i++) {
-                actionChecksum += actionValues.get(i);
-            }
-            if (actionChecksum == numOfAgents*(maxActionValue)){
-                actionDone = true;
-            }
-
-            // add movable actions here
-            boolean found = false;
-            // check if one of the agent's action is movable
+        List<Integer> movableActions = new ArrayList<>();
+        for (int iAction = 0; iAction < actionCodec.size(); iAction++) {
             for (int iAgent = 0; iAgent < numOfAgents; iAgent++) {
-                if (agents.get(iAgent).getGrid().getMovableActions().contains(actionValues.get(iAgent))) {
-                    found = true;
+                if (movable[iAgent].get(actionCodec.digit(iAction, iAgent))) {
+                    movableActions.add(iAction);
                     break;
                 }
             }
-            if (found) {
-                movableActions.add(encodeActions(actionValues));
-            }
-            //
-
-            actionChange = true;
-            actionR = 0;
-            while (actionChange && actionR < numOfAgents) {
-                actionValues.set(actionR, actionValues.get(actionR)+1);
-                if (actionValues.get(actionR) > maxActionValue) {
-                    actionValues.set(actionR, 0);
-                }
-                else {
-                    actionChange = false;
-                }
-                actionR++;
-            }
         }
         return movableActions;
     }
 
+    // joint actions in which every agent pings (or is done)
     @Override
-    public List<Integer> getSensingActions() {
-        List<Integer> sensingActions = new ArrayList<>();
-        int maxActionValue = getNumOfSingleActions()-1;
-        List<Integer> actionValues = new ArrayList<>();
-
-        for (int i = 0; i < numOfAgents; i++) {
-            actionValues.add(0);
+    protected List<Integer> computeSensingActions() {
+        BitSet[] sensing = new BitSet[numOfAgents];
+        for (int iAgent = 0; iAgent < numOfAgents; iAgent++) {
+            sensing[iAgent] = toBitSet(agents.get(iAgent).getGrid().getSensingActionArray());
+            sensing[iAgent].set(SINGLE_DONE);
         }
-
-        int actionChecksum;
-        boolean actionDone = false;
-        boolean actionChange;
-        int actionR;
-
-        while (!actionDone) {
-            actionChecksum = 0;
-            for (int i = 0; i < numOfAgents; i++) {
-                actionChecksum += actionValues.get(i);
-            }
-            if (actionChecksum == numOfAgents*(maxActionValue)){
-                actionDone = true;
-            }
-
-            // add movable actions here
-            boolean allPing = true;
-            // check if one of the agent's action is movable
+        List<Integer> sensingActions = new ArrayList<>();
+        boolean allPing;
+        for (int iAction = 0; iAction < actionCodec.size(); iAction++) {
+            allPing = true;
             for (int iAgent = 0; iAgent < numOfAgents; iAgent++) {
-                if (!agents.get(iAgent).getGrid().getSensingActions().contains(actionValues.get(iAgent)) && actionValues.get(iAgent) != SINGLE_DONE) {
+                if (!sensing[iAgent].get(actionCodec.digit(iAction, iAgent))) {
                     allPing = false;
                     break;
                 }
             }
             if (allPing) {
-                sensingActions.add(encodeActions(actionValues));
-            }
-            //
-
-            actionChange = true;
-            actionR = 0;
-            while (actionChange && actionR < numOfAgents) {
-                actionValues.set(actionR, actionValues.get(actionR)+1);
-                if (actionValues.get(actionR) > maxActionValue) {
-                    actionValues.set(actionR, 0);
-                }
-                else {
-                    actionChange = false;
-                }
-                actionR++;
+                sensingActions.add(iAction);
             }
         }
         return sensingActions;
     }
 
+    private static BitSet toBitSet(int[] actions) {
+        BitSet bits = new BitSet();
+        for (int action : actions) {
+            bits.set(action);
+        }
+        return bits;
+    }
+
     @Override
     public int getDoneAction() {
-        return encodeActions(agents.stream().map(a -> a.getGrid().getDoneAction()).collect(Collectors.toList()));
+        int doneAction = 0;
+        for (int iAgent = 0; iAgent < numOfAgents; iAgent++) {
+            doneAction += actionCodec.weight(iAgent) * agents.get(iAgent).getGrid().getDoneAction();
+        }
+        return doneAction;
     }
 
     public int encodeStates(List<Integer> stateValues) {
-        return encode(stateValues, numOfSingleStates);
+        return stateCodec.encode(stateValues);
     }
 
     public int encodeActions(List<Integer> actionValues) {
-        return encode(actionValues, numOfSingleActions);
+        return actionCodec.encode(actionValues);
     }
 
     public int encodeObservations(List<Integer> observationValues) {
-        return encode(observationValues, numOfSingleObservations);
+        return observationCodec.encode(observationValues);
     }
 
     public String parseObservation(int iObservation) {
         StringBuilder output = new StringBuilder("(");
-        List<Integer> decodedObservation = decodeObservation(iObservation);
         for (int i = 0; i < numOfAgents; i++) {
-            output.append(super.parseObservation(decodedObservation.get(i))).append(", ");
+            output.append(super.parseObservation(observationCodec.digit(iObservation, i))).append(", ");
         }
         if (output.length() > 2) {
             output.delete(output.length()-2, output.length()).append(")");
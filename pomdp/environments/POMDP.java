@@ -13,20 +13,22 @@
  */
 package pomdp.environments;
 
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.stream.Collectors;
 
 import pomdp.algorithms.PolicyStrategy;
 import pomdp.utilities.*;
-import pomdp.utilities.concurrent.ComputeDiscountedReward;
+import pomdp.utilities.concurrent.DiscountedRewardEvaluator;
 import pomdp.utilities.concurrent.ThreadPool;
 import pomdp.utilities.datastructures.Function;
 import pomdp.utilities.datastructures.MapFunction;
+import pomdp.utilities.datastructures.NonZeroEntryVisitor;
 import pomdp.utilities.datastructures.TabularFunction;
-import pomdp.valuefunction.LinearValueFunctionApproximation;
 
 public class POMDP implements Serializable{
 	private static final long serialVersionUID = -231630700034970161L;
@@ -59,13 +61,25 @@ public class POMDP implements Serializable{
 	protected RewardType m_rtReward;
 	protected boolean m_bCountStatistics;
 	protected Map<Integer,Double>[][] m_amBackwardTransitions;
+	private volatile BackwardTransitionIndex m_btiBackwardTransitions;
 	protected BeliefStateFactory m_bsFactory;
 	protected MDPValueFunction m_vfMDP;
 	protected double m_dMinReward;
-	protected Map<Integer, Boolean> forbiddenStates;
+	protected ForbiddenStates forbiddenStates;
+	// forbidden action masks of the current forbiddenStates version, rebuilt lazily when the set changes
+	private volatile ForbiddenActionMasks m_famForbiddenActions;
+	// the belief buffers of simulated trials, one per thread and kept between evaluations
+	private final ThreadLocal<TrialSimulator> m_tlTrialSimulators = ThreadLocal.withInitial( () -> new TrialSimulator( this ) );
+	// action categories, computed on first use because the action names are known only after loading
+	private int[] m_aiMovableActions, m_aiSensingActions;
+	private List<Integer> m_lMovableActions, m_lSensingActions;
+	private volatile boolean m_bActionCategoriesReady;
 	protected Map<Character, Integer> startStates;
 	protected int endState;
 	protected int NOOP;
+	// true when getNonZeroTransitions/getNonZeroObservations are not overridden, so forEachNonZero* can read the functions directly
+	protected boolean m_bTabularTransitions;
+	protected boolean m_bTabularObservations;
 
 	public enum RewardType{
 		StateActionState, StateAction, State;
@@ -75,6 +89,8 @@ public class POMDP implements Serializable{
 		m_fTransition = null;
 		m_fReward = null;
 		m_fObservation = null;
+		m_bTabularTransitions = false;
+		m_bTabularObservations = false;
 		m_mActionIndexes = null;
 		m_vActionNames = null;
 		m_mStates = null;
@@ -96,21 +112,74 @@ public class POMDP implements Serializable{
 		m_bGBasedBackup = true;//tau based doesn't work right now - need to fix a bug there
 		
 		if( ExecutionProperties.useMultiThread() || ExecutionProperties.useHighLevelMultiThread() ){
-			ThreadPool.createInstance( this );
+			ThreadPool.initInstance( this );
 		}
 		
 		m_amBackwardTransitions = null;
 		m_bsFactory = null;
 		m_vfMDP = null;
 		m_dMinReward = 0.0;//Double.POSITIVE_INFINITY;
-		forbiddenStates = new HashMap<>();
+		forbiddenStates = new ForbiddenStates();
+		m_famForbiddenActions = null;
+		m_bActionCategoriesReady = false;
 		startStates = new HashMap<>();
 	}
 	
+	/**
+	 * Creates a POMDP that shares the parsed, read-only parts of pomdp (names, transition, observation and reward functions).
+	 * The start distribution, terminal states, forbidden states, stored rewards, MDP value function and belief factory are private to the copy.
+	 * @param pomdp - a fully loaded POMDP that is no longer modified
+	 */
+	protected POMDP( POMDP pomdp ){
+		this();
+		m_fTransition = pomdp.m_fTransition;
+		m_fReward = pomdp.m_fReward;
+		m_fObservation = pomdp.m_fObservation;
+		m_bTabularTransitions = pomdp.m_bTabularTransitions;
+		m_bTabularObservations = pomdp.m_bTabularObservations;
+		m_btiBackwardTransitions = pomdp.m_btiBackwardTransitions;
+		m_vStateNames = pomdp.m_vStateNames;
+		m_mStates = pomdp.m_mStates;
+		m_mActionIndexes = pomdp.m_mActionIndexes;
+		m_vActionNames = pomdp.m_vActionNames;
+		m_mObservations = pomdp.m_mObservations;
+		m_cStates = pomdp.m_cStates;
+		m_cActions = pomdp.m_cActions;
+		m_cObservations = pomdp.m_cObservations;
+		m_dGamma = pomdp.m_dGamma;
+		m_bExploration = pomdp.m_bExploration;
+		if( pomdp.m_vTerminalStates != null )
+			m_vTerminalStates = new Vector<Integer>( pomdp.m_vTerminalStates );
+		m_vObservationStates = new Vector<Integer>( pomdp.m_vObservationStates );
+		if( pomdp.m_adMinActionRewards != null )
+			m_adMinActionRewards = pomdp.m_adMinActionRewards.clone();
+		m_iRandomSeed = pomdp.m_iRandomSeed;
+		m_bGBasedBackup = pomdp.m_bGBasedBackup;
+		m_sName = pomdp.m_sName;
+		m_rtReward = pomdp.m_rtReward;
+		m_dMinReward = pomdp.m_dMinReward;
+		startStates = pomdp.startStates;
+		endState = pomdp.endState;
+		NOOP = pomdp.NOOP;
+		m_fStartState = newStartStateFunction();
+		if( pomdp.m_fStartState != null ){
+			Iterator<Entry<Integer,Double>> itStartStates = pomdp.getStartStates();
+			Entry<Integer,Double> e = null;
+			while( itStartStates.hasNext() ){
+				e = itStartStates.next();
+				if( e != null )
+					m_fStartState.setValue( e.getKey(), e.getValue() );
+			}
+		}
+	}
+
 	public void load( String sFileName, char id ) throws IOException, InvalidModelFileFormatException{
 		m_sName = sFileName.substring( sFileName.lastIndexOf( "/" ) + 1, sFileName.lastIndexOf( "." ) );
-		POMDPLoader p = new POMDPLoader( this );
-		p.load( sFileName );
+		if( !loadCompiled( sFileName, id ) ){
+			POMDPLoader p = ExecutionProperties.useStreamingParser() ? new StreamingPOMDPLoader( this ) : new POMDPLoader( this );
+			p.load( sFileName );
+			saveCompiled( sFileName, id );
+		}
 		if( m_rtReward == RewardType.StateActionState )
 			initStoredRewards();
 		
@@ -123,6 +192,15 @@ public class POMDP implements Serializable{
 		return m_bsFactory;
 	}
 	
+	/**
+	 * The trial simulator of the current thread, or null when the beliefs of this model are not updated by BeliefStateFactory itself.
+	 */
+	public TrialSimulator getTrialSimulator(){
+		if( getBeliefStateFactory() == null || getBeliefStateFactory().getClass() != BeliefStateFactory.class )
+			return null;
+		return m_tlTrialSimulators.get();
+	}
+	
 	public MDPValueFunction getMDPValueFunction(){
 		if( m_vfMDP == null ){
 			m_vfMDP = new MDPValueFunction( this, 0.0 );
@@ -130,8 +208,22 @@ public class POMDP implements Serializable{
 		return m_vfMDP;
 	}
 
-	public void setForbiddenStates(Map<Integer, Boolean> forbiddenStates) {
+	public ForbiddenStates getForbiddenStates() {
+		return forbiddenStates;
+	}
+
+	public void setForbiddenStates(ForbiddenStates forbiddenStates) {
 		this.forbiddenStates = forbiddenStates;
+		m_famForbiddenActions = null;
+	}
+
+	public ForbiddenActionMasks getForbiddenActionMasks() {
+		ForbiddenActionMasks famMasks = m_famForbiddenActions;
+		if (famMasks == null || !famMasks.isCurrent(forbiddenStates)) {
+			famMasks = new ForbiddenActionMasks(this, forbiddenStates);
+			m_famForbiddenActions = famMasks;
+		}
+		return famMasks;
 	}
 
 	public void addStartState(char id, int startState) {
@@ -337,7 +429,7 @@ public class POMDP implements Serializable{
 	
 	public void setTransition( int iStartState, int iAction, int iEndState, double dTr ){
 		m_fTransition.setValue( iStartState, iAction, iEndState, dTr );
-		addBackwardTransition( iStartState, iAction, iEndState, dTr );
+		m_btiBackwardTransitions = null;
 	}
 	public void setObservation( int iAction, int iEndState, int iObservation, double dValue ){
 		m_fObservation.setAllValues( iAction, iEndState, iObservation, dValue );
@@ -445,90 +537,34 @@ public class POMDP implements Serializable{
 	}
 	
 	public double computeAverageDiscountedReward( int cTests, int cMaxStepsToGoal, PolicyStrategy policy, boolean bOutputMessages, boolean bUseMultiThread ){
+		return evaluatePolicy( cTests, cMaxStepsToGoal, policy, bOutputMessages, bUseMultiThread ).getADR();
+	}
+	
+	/**
+	 * Simulates up to cTests trials of the policy, stopping early once the ADR is accurate enough (see DiscountedRewardEvaluator).
+	 * The trials draw from streams derived from the random seed of the model, so the result is the same with or without
+	 * bUseMultiThread and the shared random generators are not advanced.
+	 */
+	public DiscountedRewardEvaluator.Result evaluatePolicy( int cTests, int cMaxStepsToGoal, PolicyStrategy policy, boolean bOutputMessages, boolean bUseMultiThread ){
+		DiscountedRewardEvaluator.Result rEstimate = null;
 		countStatistics( false );
 		
 		m_cSteps = 0;
 		
-		double dSumDiscountedRewards = 0.0, dDiscountedReward = 0.0, dSumSquares = 0.0;
-		int iTest = 0, iThread = 0, iAction = 0;
-		long cCurrentMilliseconds = 0, iStartTime = System.currentTimeMillis(), iEndTime = 0;
-		long lTotalCPU = 0, lStartCPU = JProf.getCurrentThreadCpuTimeSafe(), lEndCPU = 0;
-		RandomGenerator rndGenerator = m_rndGenerator;
-		//m_rndGenerator = new RandomGenerator( "ADR", m_iRandomSeed );
-		double dCurrentSum = 0.0;
-		int[] aiActionCount = new int[m_cActions];	
-		double dStdev = 10000.0, dStandardError = 10.0, dADR = 0.0;
-		
 		boolean bCacheBeliefStates = getBeliefStateFactory().cacheBeliefStates( false );
 		
-		
-		int cThreads = Runtime.getRuntime().availableProcessors();
-		ComputeDiscountedReward[] aTrials = new ComputeDiscountedReward[cThreads];
-		if( bUseMultiThread ){
-			LinearValueFunctionApproximation vValueFunction = policy.getValueFunction();
-			for( iThread = 0 ; iThread < cThreads ; iThread++ ){
-				aTrials[iThread] = new ComputeDiscountedReward( this, cMaxStepsToGoal, vValueFunction, cTests / cThreads );
-				ThreadPool.getInstance().addTask( aTrials[iThread] );
-			}
-		}
-		if( bUseMultiThread ){
-			for( iThread = 0 ; iThread < cThreads ; iThread++ ){
-				ThreadPool.getInstance().waitForTask( aTrials[iThread] );
-				dDiscountedReward = aTrials[iThread].getDiscountedReward();
-				dCurrentSum += dDiscountedReward;
-				dSumDiscountedRewards += dDiscountedReward;
-			}
-		}
-		else{
-			for( iTest = 0 ; ( iTest < cTests ) && ( dStandardError > 0.01 * dADR  )  ; iTest++ ){
-				dDiscountedReward = computeDiscountedReward( cMaxStepsToGoal, policy, aiActionCount );
-				dCurrentSum += dDiscountedReward;
-				dSumSquares += ( dDiscountedReward * dDiscountedReward );
-				dSumDiscountedRewards += dDiscountedReward;
-					
-				//if( bOutputMessages && ( iTest % 100 == 0 ) ){
-				//	System.out.print( ( iTest / 100 ) % 10 );
-				//}
-				if(bOutputMessages && ( iTest % 10 == 0 )){
-					System.out.println(iTest + ": " + dDiscountedReward + " : " + dSumDiscountedRewards / iTest);
-				}
-				
-				if( iTest >= 50 && iTest % 10 == 0 ){
-					dADR = dSumDiscountedRewards / iTest;
-					dStdev = Math.sqrt( ( dSumSquares - ( iTest + 1 ) * dADR * dADR ) / iTest );
-					if( !Double.isNaN( dStdev ) )
-						dStandardError = 2.0 * dStdev / Math.sqrt( iTest + 1 );
-				}
-			}
-		}
+		rEstimate = new DiscountedRewardEvaluator( this, m_iRandomSeed ).evaluate( policy, cTests, cMaxStepsToGoal, bUseMultiThread );
 		
 		if( bOutputMessages ){
-			iEndTime = System.currentTimeMillis();
-			lEndCPU = JProf.getCurrentThreadCpuTimeSafe();
-			cCurrentMilliseconds = ( iEndTime - iStartTime ) / 1000;
-			lTotalCPU = ( lEndCPU - lStartCPU ) / 1000000000;
-			dADR = dSumDiscountedRewards / iTest;
-			dStdev = Math.sqrt( ( dSumSquares - ( iTest + 1 ) * dADR * dADR ) / cTests );
-			dStandardError = 2.0 * dStdev / Math.sqrt( cTests );
-//			System.out.println();
-			Logger.getInstance().log( "POMDP", 0, "computeAverageDiscountedReward", "After " + iTest + " tests. ADR " + round( dADR, 3 ) +
-					", stdev " + round( dStdev, 5 ) + " SE " + round( dStandardError, 5 ) + " time " + lTotalCPU );
+			Logger.getInstance().log( "POMDP", 0, "computeAverageDiscountedReward", "After " + rEstimate.getTrialCount() + " tests. ADR " + round( rEstimate.getADR(), 3 ) +
+					", stdev " + round( rEstimate.getStdev(), 5 ) + " SE " + round( rEstimate.getStandardError(), 5 ) + " time " + rEstimate.getCPUTime() );
 		}
-
-
-		String sMsg = "action execution ";
-		for( iAction = 0 ; iAction < m_cActions ; iAction++ ){
-			sMsg += getActionName( iAction ) + " = " + aiActionCount[iAction] + ", ";
-		}
-		//System.out.println( sMsg );
 		
 		countStatistics( true );
-
-		m_rndGenerator = rndGenerator;
 		
 		getBeliefStateFactory().cacheBeliefStates( bCacheBeliefStates );
 		
-		return dSumDiscountedRewards / iTest;
+		return rEstimate;
 	}
 	
 	public double computeAverageDiscountedRewardParticleFiltering( int cTests, int cMaxStepsToGoal, PolicyStrategy policy, boolean bOutputMessages, boolean bUseMultiThread ){
@@ -1148,9 +1184,8 @@ public class POMDP implements Serializable{
 	}
 
 	public int getRandomAction(BeliefState bsCurrent) {
-		List<Integer> iActions = getRelevantActions(bsCurrent);
-//		iActions.remove(Integer.valueOf(getDoneAction()));
-		return iActions.get(m_rndGenerator.nextInt(iActions.size()));
+		int[] aiActions = getRelevantActionArray(bsCurrent);
+		return aiActions[m_rndGenerator.nextInt(aiActions.length)];
 	}
 	
 	public double computeDiscountedRewardII(int cMaxStepsToGoal, PolicyStrategy policy, Vector<BeliefState> vObservedBeliefPoints, boolean bExplore, int[] aiActionCount, Map<Integer, Boolean> toReachStates){
@@ -1161,7 +1196,7 @@ public class POMDP implements Serializable{
 		BeliefState bsCurrentBelief = getBeliefStateFactory().getInitialBeliefState(), bsNext = null;
 
 		if (toReachStates != null) {
-			for (int iForbiddenState : forbiddenStates.keySet()) {
+			for (int iForbiddenState : forbiddenStates.toList()) {
 				toReachStates.put(iForbiddenState, true);
 			}
 		}
@@ -1764,13 +1799,19 @@ public class POMDP implements Serializable{
 	}
 
 	public int chooseStartState(){
-		int iStartState = -1;
+		int iStartState = -1, iLastPossible = -1;
 		double dInitialProb = m_rndGenerator.nextDouble();
-		double dProb = dInitialProb;
-		while( dProb > 0 ){
+		double dProb = dInitialProb, dStart = 0.0;
+		while( dProb > 0 && iStartState < m_cStates - 1 ){
 			iStartState++;
-			dProb -= probStartState( iStartState );
-		}
+			dStart = probStartState( iStartState );
+			if( dStart > 0 )
+				iLastPossible = iStartState;
+			dProb -= dStart;
+		}
+		//the start probabilities sum up to slightly less than a draw close to 1
+		if( dProb > 0 )
+			return iLastPossible;
 		//assert iStartState >= 0 && iStartState < m_cStates;
 		return iStartState;
 	}
@@ -1848,33 +1889,70 @@ public class POMDP implements Serializable{
 		return m_fObservation.getNonZeroEntries( iAction, iEndState );
 	}
 
-	private void addBackwardTransition( int iStartState, int iAction, int iEndState, double dTr ){
-		/*
-		if( m_amBackwardTransitions == null ){
-			m_amBackwardTransitions = new TreeMap[m_cActions][m_cStates];
+	/**
+	 * Visits every s' with tr(s,a,s') > 0 without creating an iterator or boxing, when the transitions are tabular.
+	 */
+	public void forEachNonZeroTransition( int iStartState, int iAction, NonZeroEntryVisitor visitor ){
+		if( m_bTabularTransitions )
+			m_fTransition.forEachNonZero( iStartState, iAction, visitor );
+		else
+			forEach( getNonZeroTransitions( iStartState, iAction ), visitor );
+	}
+
+	/**
+	 * Visits every o with O(a,s',o) > 0 without creating an iterator or boxing, when the observations are tabular.
+	 */
+	public void forEachNonZeroObservation( int iAction, int iEndState, NonZeroEntryVisitor visitor ){
+		if( m_bTabularObservations )
+			m_fObservation.forEachNonZero( iAction, iEndState, visitor );
+		else
+			forEach( getNonZeroObservations( iAction, iEndState ), visitor );
+	}
+
+	private static void forEach( Iterator<Entry<Integer,Double>> itNonZero, NonZeroEntryVisitor visitor ){
+		Entry<Integer,Double> e = null;
+		while( itNonZero.hasNext() ){
+			e = itNonZero.next();
+			visitor.visit( e.getKey(), e.getValue() );
 		}
-		if( m_amBackwardTransitions[iAction][iEndState] == null ){
-			m_amBackwardTransitions[iAction][iEndState] = new TreeMap<Integer, Double>();
+	}
+
+	private boolean inheritedFromPOMDP( String sMethodName ){
+		try{
+			return getClass().getMethod( sMethodName, int.class, int.class ).getDeclaringClass() == POMDP.class;
+		}
+		catch( NoSuchMethodException e ){
+			return false;
 		}
-		m_amBackwardTransitions[iAction][iEndState].put( iStartState, dTr );
-		*/
 	}
-	
-	public Collection<Entry<Integer,Double>> getNonZeroBackwardTransitions( int iAction, int iEndState ) {
-		if( m_amBackwardTransitions == null ){
-			m_amBackwardTransitions = new TreeMap[m_cActions][m_cStates];
-		}
-		if( m_amBackwardTransitions[iAction][iEndState] == null ){
-			Map<Integer,Double> mTr = new TreeMap<Integer, Double>();
-			for( int iStartState = 0 ; iStartState < m_cStates ; iStartState++ ){
-				double dTr = tr( iStartState, iAction, iEndState );
-				if( dTr > 0.0 ){
-					mTr.put( iStartState, dTr );
+
+	/**
+	 * The reverse transitions, built from the forward non zero transitions the first time an action is read.
+	 * Changing a transition with setTransition drops the index.
+	 */
+	public BackwardTransitionIndex getBackwardTransitionIndex(){
+		BackwardTransitionIndex btiIndex = m_btiBackwardTransitions;
+		if( btiIndex == null ){
+			synchronized( this ){
+				btiIndex = m_btiBackwardTransitions;
+				if( btiIndex == null ){
+					btiIndex = new BackwardTransitionIndex( this );
+					m_btiBackwardTransitions = btiIndex;
 				}
 			}
-			m_amBackwardTransitions[iAction][iEndState] = mTr;
 		}
-		return m_amBackwardTransitions[iAction][iEndState].entrySet();
+		return btiIndex;
+	}
+	
+	public Collection<Entry<Integer,Double>> getNonZeroBackwardTransitions( int iAction, int iEndState ) {
+		return getBackwardTransitionIndex().getNonZeroEntries( iAction, iEndState );
+	}
+
+	/**
+	 * Visits every s with tr(s,a,s') > 0, in ascending order, without creating an iterator or boxing.
+	 */
+	public void forEachNonZeroBackwardTransition( int iAction, int iEndState, NonZeroEntryVisitor visitor ){
+		getBackwardTransitionIndex().forEachNonZero( iAction, iEndState, visitor );
 	}
 
 	public double probStartState( int iState ){
@@ -1917,8 +1995,7 @@ public class POMDP implements Serializable{
 
 	public AlphaVector newAlphaVector() {
 //		return new TabularAlphaVector( null, 0, this );
-		return new SparseAlphaVector(
-				null, 0, this );
+		return new CompactAlphaVector( null, 0, this );
 	}
 	public boolean isValid( int iState ){
 		return true;
@@ -2093,7 +2170,7 @@ public class POMDP implements Serializable{
 
 	public boolean isForbidden(int iState) {
 		// TODO: when aborting to main policy, remove all forbidden states
-		return forbiddenStates.getOrDefault(iState, false);
+		return forbiddenStates.contains(iState);
 	}
 
 	public boolean isForbidden(BeliefState bs) {
@@ -2118,32 +2195,9 @@ public class POMDP implements Serializable{
 		return false;
 	}
 
+	// true when iAction may lead the belief into a forbidden state, see ForbiddenActionMasks
 	public boolean isForbiddenAction(BeliefState bs, int iAction) {
-		if (iAction == getDoneAction()) {
-			return false;
-		}
-
-		if (getSensingActions().contains(iAction)) {
-			BeliefState bsNext;
-			for (int iObservation = 0; iObservation < m_cObservations - 1; iObservation++) {
-				if (bs.probabilityOGivenA(iAction, iObservation) > 0) {
-					bsNext = bs.nextBeliefState(iAction, iObservation);
-					if (isForbidden(bsNext)) {
-						return true;
-					}
-				}
-			}
-			return false;
-		}
-
-		int iStartState;
-		for (Map.Entry<Integer,Double> eBelief : bs.getNonZeroEntries()) {
-			iStartState = eBelief.getKey();
-			if (isForbiddenAction(iStartState, iAction)) {
-				return true;
-			}
-		}
-		return false;
+		return getForbiddenActionMasks().isForbidden(bs, iAction);
 //		BeliefState bsNext;
 //		for (int iObservation = 0; iObservation < m_cObservations; iObservation++) {
 //			if (bs.probabilityOGivenA(iAction, iObservation) > 0) {
@@ -2157,20 +2211,25 @@ public class POMDP implements Serializable{
 	}
 
 	public List<Integer> getRelevantActions( BeliefState bs ) {
-		List<Integer> iActions = new ArrayList<>();
-		for (int iAction : getMovableActions()) {
-			if (!isForbiddenAction(bs, iAction)) {
-				iActions.add(iAction);
-			}
+		int[] aiActions = getRelevantActionArray( bs );
+		List<Integer> iActions = new ArrayList<>(aiActions.length);
+		for (int iAction : aiActions) {
+			iActions.add(iAction);
 		}
-		iActions.addAll(getSensingActions());
-		iActions.add(getDoneAction());
 		return iActions;
 	}
 
+	/**
+	 * The movable actions that are not forbidden at bs, then the sensing actions and the done action.
+	 * The array is cached on the belief and shared, callers must not modify it.
+	 */
+	public int[] getRelevantActionArray( BeliefState bs ) {
+		return getForbiddenActionMasks().getRelevantActions(bs);
+	}
+
 	public List<Integer> getRelevantActions( int iState ) {
 		List<Integer> iActions = new ArrayList<>();
-		for (int iAction : getMovableActions()) {
+		for (int iAction : getMovableActionArray()) {
 			if (!isForbiddenAction(iState, iAction)) {
 				iActions.add(iAction);
 			}
@@ -2186,7 +2245,31 @@ public class POMDP implements Serializable{
 		m_vTerminalStates.add( iTerminalState );
 	}
 
+	// unmodifiable
 	public List<Integer> getMovableActions() {
+		initActionCategories();
+		return m_lMovableActions;
+	}
+
+	// unmodifiable
+	public List<Integer> getSensingActions() {
+		initActionCategories();
+		return m_lSensingActions;
+	}
+
+	// shared, callers must not modify it
+	public int[] getMovableActionArray() {
+		initActionCategories();
+		return m_aiMovableActions;
+	}
+
+	// shared, callers must not modify it
+	public int[] getSensingActionArray() {
+		initActionCategories();
+		return m_aiSensingActions;
+	}
+
+	protected List<Integer> computeMovableActions() {
 		List<Integer> actions = new ArrayList<Integer>();
 		actions.add(getActionIndex("n"));
 		actions.add(getActionIndex("s"));
@@ -2196,7 +2279,7 @@ public class POMDP implements Serializable{
 		return actions;
 	}
 
-	public List<Integer> getSensingActions() {
+	protected List<Integer> computeSensingActions() {
 		List<Integer> actions = new ArrayList<Integer>();
 		for (int pingAction = 5; pingAction < m_cActions - 1; pingAction++) {
 			actions.add(pingAction);
@@ -2204,6 +2287,21 @@ public class POMDP implements Serializable{
 		return actions;
 	}
 
+	private void initActionCategories() {
+		if (m_bActionCategoriesReady)
+			return;
+		synchronized (this) {
+			if (m_bActionCategoriesReady)
+				return;
+			List<Integer> lMovable = computeMovableActions(), lSensing = computeSensingActions();
+			m_lMovableActions = Collections.unmodifiableList(new ArrayList<>(lMovable));
+			m_lSensingActions = Collections.unmodifiableList(new ArrayList<>(lSensing));
+			m_aiMovableActions = lMovable.stream().mapToInt(Integer::intValue).toArray();
+			m_aiSensingActions = lSensing.stream().mapToInt(Integer::intValue).toArray();
+			m_bActionCategoriesReady = true;
+		}
+	}
+
 	public void addObservationSensitiveState(int iObservationState) {
 		m_vObservationStates.add( iObservationState );
 	}
@@ -2247,17 +2345,14 @@ public class POMDP implements Serializable{
 		aDims[0] = m_cStates;
 		aDims[1] = m_cActions;
 		aDims[2] = m_cStates;
-		m_fTransition = new SparseTabularFunction( aDims );
+		m_fTransition = new CompressedSparseFunction( aDims );
 		aDims[0] = m_cActions;
 		aDims[1] = m_cStates;
 		aDims[2] = m_cObservations;
-		m_fObservation = new SparseTabularFunction( aDims );
-		aDims = new int[1];
-		aDims[0] = m_cStates;
-		if( m_cStates > g_sMaxTabularSize )
-			m_fStartState = new SparseTabularFunction( aDims );
-		else
-			m_fStartState = new TabularFunction( aDims );
+		m_fObservation = new CompressedSparseFunction( aDims );
+		m_bTabularTransitions = inheritedFromPOMDP( "getNonZeroTransitions" );
+		m_bTabularObservations = inheritedFromPOMDP( "getNonZeroObservations" );
+		m_fStartState = newStartStateFunction();
 		aDims = new int[3];
 		aDims[0] = m_cStates;
 		aDims[1] = m_cActions;
@@ -2266,13 +2361,209 @@ public class POMDP implements Serializable{
 //			m_fReward = new MapFunction( aDims );
 //		else
 //			m_fReward = new SparseTabularFunction( aDims );
-		m_fReward = new SparseTabularFunction( aDims );
+		m_fReward = new CompressedSparseFunction( aDims );
 		
 		m_adMinActionRewards = new double[m_cActions];
 		for( int idx = 0 ; idx < m_cActions ; idx++ ){
 			m_adMinActionRewards[idx] = 0;
 		}
 	}
+
+	/**
+	 * Packs the dynamics functions into their read-optimized form. Called by the loaders once the whole model was read.
+	 */
+	public void compactDynamicsFunctions() {
+		if( m_fTransition instanceof CompressedSparseFunction )
+			((CompressedSparseFunction) m_fTransition).compact();
+		if( m_fObservation instanceof CompressedSparseFunction )
+			((CompressedSparseFunction) m_fObservation).compact();
+		if( m_fReward instanceof CompressedSparseFunction )
+			((CompressedSparseFunction) m_fReward).compact();
+	}
+	
+	/**
+	 * Reads the model from its compiled image instead of parsing sFileName, when compiled models are used and the image is up to date.
+	 * @return false when the model file must be parsed
+	 */
+	protected boolean loadCompiled( String sFileName, char id ) throws IOException, InvalidModelFileFormatException{
+		if( !ExecutionProperties.useCompiledModels() || !hasCompiledForm() )
+			return false;
+		return ModelCompiler.load( this, sFileName, id );
+	}
+
+	// compiles a model that was just parsed - failing to do so only costs the next load another parse
+	protected void saveCompiled( String sFileName, char id ){
+		if( !ExecutionProperties.useCompiledModels() || !hasCompiledForm() )
+			return;
+		try{
+			ModelCompiler.compile( this, sFileName, id );
+		}
+		catch( IOException e ){
+			System.out.println( "Could not compile model " + sFileName + ": " + e );
+		}
+	}
+
+	/**
+	 * The number of agents the model was loaded for. Models whose loader depends on it override this, and ModelCompiler
+	 * keeps it in the image header, so that an image is only read back for the same number of agents.
+	 */
+	public int getCompiledAgentCount(){
+		return 1;
+	}
+
+	/**
+	 * True when the class of this model declares its own readCompiledModel, so that its image holds everything its loader sets,
+	 * and its dynamics are (or will be, once loaded) CompressedSparseFunctions.
+	 */
+	public boolean hasCompiledForm(){
+		try{
+			if( getClass().getMethod( "readCompiledModel", ByteBuffer.class ).getDeclaringClass() != getClass() )
+				return false;
+		}
+		catch( NoSuchMethodException e ){
+			return false;
+		}
+		return isCompiledFunction( m_fTransition ) && isCompiledFunction( m_fObservation ) && isCompiledFunction( m_fReward );
+	}
+
+	private static boolean isCompiledFunction( Function f ){
+		return f == null || f instanceof CompressedSparseFunction;
+	}
+
+	/**
+	 * Writes everything the loaders set on a POMDP, for ModelCompiler. Subclasses append their own state after it.
+	 */
+	public void writeCompiledModel( DataOutputStream dosOutput ) throws IOException{
+		Iterator<Entry<Integer,Double>> itStartStates = getStartStates();
+		List<Entry<Integer,Double>> lStartStates = new ArrayList<Entry<Integer,Double>>();
+		while( itStartStates.hasNext() ){
+			Entry<Integer,Double> e = itStartStates.next();
+			if( e != null )
+				lStartStates.add( e );
+		}
+		dosOutput.writeDouble( m_dGamma );
+		writeNames( dosOutput, m_vStateNames );
+		dosOutput.writeInt( m_cStates );
+		writeNames( dosOutput, m_vActionNames );
+		dosOutput.writeInt( m_cActions );
+		dosOutput.writeInt( m_cObservations );
+		dosOutput.writeInt( m_mObservations == null ? -1 : m_mObservations.size() );
+		if( m_mObservations != null ){
+			for( Entry<String,Integer> eObservation : m_mObservations.entrySet() ){
+				ModelCompiler.writeString( dosOutput, eObservation.getKey() );
+				dosOutput.writeInt( eObservation.getValue() );
+			}
+		}
+		dosOutput.writeInt( m_rtReward.ordinal() );
+		dosOutput.writeDouble( m_dMinReward );
+		ModelCompiler.writeDoubles( dosOutput, m_adMinActionRewards );
+		((CompressedSparseFunction) m_fTransition).write( dosOutput );
+		((CompressedSparseFunction) m_fObservation).write( dosOutput );
+		((CompressedSparseFunction) m_fReward).write( dosOutput );
+		dosOutput.writeInt( lStartStates.size() );
+		for( Entry<Integer,Double> e : lStartStates ){
+			dosOutput.writeInt( e.getKey() );
+			dosOutput.writeDouble( e.getValue() );
+		}
+		writeStates( dosOutput, m_vTerminalStates );
+		writeStates( dosOutput, m_vObservationStates );
+		dosOutput.writeInt( startStates.size() );
+		for( Entry<Character,Integer> eAgent : startStates.entrySet() ){
+			dosOutput.writeChar( eAgent.getKey() );
+			dosOutput.writeInt( eAgent.getValue() );
+		}
+		dosOutput.writeInt( endState );
+	}
+
+	/**
+	 * Restores what writeCompiledModel wrote into a new model, leaving it as its loader would have.
+	 */
+	public void readCompiledModel( ByteBuffer bbInput ) throws InvalidModelFileFormatException{
+		int cEntries = 0, iEntry = 0, iState = 0;
+		m_dGamma = bbInput.getDouble();
+		m_cStates = 0;
+		for( String sState : readNames( bbInput ) )
+			addState( sState );
+		m_cStates = bbInput.getInt();
+		m_cActions = 0;
+		for( String sAction : readNames( bbInput ) )
+			addAction( sAction );
+		m_cActions = bbInput.getInt();
+		m_cObservations = bbInput.getInt();
+		cEntries = bbInput.getInt();
+		if( cEntries >= 0 )
+			m_mObservations = new TreeMap<String, Integer>();
+		for( iEntry = 0 ; iEntry < cEntries ; iEntry++ )
+			m_mObservations.put( ModelCompiler.readString( bbInput ), bbInput.getInt() );
+		m_rtReward = RewardType.values()[bbInput.getInt()];
+		m_dMinReward = bbInput.getDouble();
+		m_adMinActionRewards = ModelCompiler.readDoubles( bbInput );
+		m_fTransition = CompressedSparseFunction.read( bbInput );
+		m_fObservation = CompressedSparseFunction.read( bbInput );
+		m_fReward = CompressedSparseFunction.read( bbInput );
+		m_bTabularTransitions = inheritedFromPOMDP( "getNonZeroTransitions" );
+		m_bTabularObservations = inheritedFromPOMDP( "getNonZeroObservations" );
+		m_btiBackwardTransitions = null;
+		m_fStartState = newStartStateFunction();
+		cEntries = bbInput.getInt();
+		for( iEntry = 0 ; iEntry < cEntries ; iEntry++ ){
+			iState = bbInput.getInt();
+			m_fStartState.setValue( iState, bbInput.getDouble() );
+		}
+		m_vTerminalStates = readStates( bbInput );
+		m_vObservationStates = readStates( bbInput );
+		if( m_vObservationStates == null )
+			m_vObservationStates = new Vector<Integer>();
+		cEntries = bbInput.getInt();
+		for( iEntry = 0 ; iEntry < cEntries ; iEntry++ ){
+			char cAgent = bbInput.getChar();
+			startStates.put( cAgent, bbInput.getInt() );
+		}
+		endState = bbInput.getInt();
+	}
+
+	// null is written as count -1 and read back as no names
+	private static void writeNames( DataOutputStream dosOutput, Vector<String> vNames ) throws IOException{
+		dosOutput.writeInt( vNames == null ? -1 : vNames.size() );
+		if( vNames != null ){
+			for( String sName : vNames )
+				ModelCompiler.writeString( dosOutput, sName );
+		}
+	}
+
+	private static List<String> readNames( ByteBuffer bbInput ){
+		int cNames = bbInput.getInt(), iName = 0;
+		List<String> lNames = new ArrayList<String>( Math.max( cNames, 0 ) );
+		for( iName = 0 ; iName < cNames ; iName++ )
+			lNames.add( ModelCompiler.readString( bbInput ) );
+		return lNames;
+	}
+
+	private static void writeStates( DataOutputStream dosOutput, Vector<Integer> vStates ) throws IOException{
+		dosOutput.writeInt( vStates == null ? -1 : vStates.size() );
+		if( vStates != null ){
+			for( int iState : vStates )
+				dosOutput.writeInt( iState );
+		}
+	}
+
+	private static Vector<Integer> readStates( ByteBuffer bbInput ){
+		int cStates = bbInput.getInt(), iState = 0;
+		if( cStates < 0 )
+			return null;
+		Vector<Integer> vStates = new Vector<Integer>( cStates );
+		for( iState = 0 ; iState < cStates ; iState++ )
+			vStates.add( bbInput.getInt() );
+		return vStates;
+	}
+
+	protected Function newStartStateFunction(){
+		int[] aDims = new int[1];
+		aDims[0] = m_cStates;
+		if( m_cStates > g_sMaxTabularSize )
+			return new SparseTabularFunction( aDims );
+		return new TabularFunction( aDims );
+	}
 	
 	public RandomGenerator getRandomGenerator(){
 		return m_rndGenerator;
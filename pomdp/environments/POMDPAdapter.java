@@ -248,5 +248,9 @@ public class POMDPAdapter extends POMDP {
 		return m_pPOMDP.getRelevantActions( bs );
 	}
 
+	public int[] getRelevantActionArray( BeliefState bs ) {
+		return m_pPOMDP.getRelevantActionArray( bs );
+	}
+
 
 }
@@ -402,6 +402,14 @@ public class WordComplete extends POMDP {
 		}
 		return vActions;
 	}
+	
+	public int[] getRelevantActionArray( BeliefState bs ){
+		List<Integer> lActions = getRelevantActions( bs );
+		int[] aiActions = new int[lActions.size()];
+		for( int i = 0 ; i < aiActions.length ; i++ )
+			aiActions[i] = lActions.get( i );
+		return aiActions;
+	}
 
 	
 	public double[] computeDiscountedRewardForPopularity(){
@@ -0,0 +1,216 @@
+package pomdp.utilities;
+
+import java.lang.ref.Cleaner;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sparse per belief cache of pr(o|a,b) and of the successor beliefs, keyed by (action, observation).
+ * A belief allocates it on first use. Pairs with a non zero probability or a successor are kept in an open addressing table,
+ * and pairs found to have probability 0 only set a bit in a per action bitset, so memory follows the observations that
+ * actually occur rather than |A|*|O|.
+ * When ExecutionProperties.getBeliefCacheEntries() is positive it bounds the table entries held by all caches together,
+ * and a cache that would exceed it computes without storing.
+ */
+public class ActionObservationCache {
+	private static final long EMPTY = -1;
+	private static final AtomicLong g_cEntries = new AtomicLong();
+	private static final Cleaner g_cCleaner = Cleaner.create();
+
+	private final int m_cActions;
+	private final int m_cObservations;
+	private final long m_cBudget;
+	private long[] m_alKeys;
+	private double[] m_adProbabilities;		//NaN when only the successor is known
+	private Pair<BeliefState,Double>[] m_apSuccessors;
+	private int m_cEntries;
+	private BitSet[] m_abZeroObservations;	//by action, allocated on first zero
+	private final AtomicLong m_cCountedEntries;	//entries charged to the global budget, released when the belief is collected
+
+	@SuppressWarnings({"unchecked","rawtypes"})
+	public ActionObservationCache( BeliefState bsOwner, int cActions, int cObservations ){
+		m_cActions = cActions;
+		m_cObservations = cObservations;
+		m_cBudget = ExecutionProperties.getBeliefCacheEntries();
+		m_alKeys = new long[4];
+		Arrays.fill( m_alKeys, EMPTY );
+		m_adProbabilities = new double[4];
+		m_apSuccessors = new Pair[4];
+		m_cEntries = 0;
+		m_abZeroObservations = null;
+		if( m_cBudget > 0 ){
+			final AtomicLong cCounted = new AtomicLong();
+			m_cCountedEntries = cCounted;
+			g_cCleaner.register( bsOwner, () -> g_cEntries.addAndGet( -cCounted.get() ) );
+		}
+		else{
+			m_cCountedEntries = null;
+		}
+	}
+
+	public static long getGlobalEntryCount(){
+		return g_cEntries.get();
+	}
+
+	private long key( int iAction, int iObservation ){
+		return (long)iAction * m_cObservations + iObservation;
+	}
+
+	/**
+	 * @return pr(o|a,b), or NaN when it was not computed.
+	 */
+	public synchronized double getProbability( int iAction, int iObservation ){
+		int idx = find( key( iAction, iObservation ) );
+		if( idx >= 0 && !Double.isNaN( m_adProbabilities[idx] ) )
+			return m_adProbabilities[idx];
+		if( isZero( iAction, iObservation ) )
+			return 0.0;
+		return Double.NaN;
+	}
+
+	public synchronized void setProbability( int iAction, int iObservation, double dProbability ){
+		long lKey = key( iAction, iObservation );
+		int idx = find( lKey );
+		if( dProbability == 0.0 ){
+			if( idx >= 0 )
+				m_adProbabilities[idx] = Double.NaN;
+			setZero( iAction, iObservation, true );
+			return;
+		}
+		setZero( iAction, iObservation, false );
+		if( idx < 0 )
+			idx = insert( lKey );
+		if( idx >= 0 )
+			m_adProbabilities[idx] = dProbability;
+	}
+
+	private boolean isZero( int iAction, int iObservation ){
+		return m_abZeroObservations != null && m_abZeroObservations[iAction] != null && m_abZeroObservations[iAction].get( iObservation );
+	}
+
+	private void setZero( int iAction, int iObservation, boolean bZero ){
+		if( !bZero ){
+			if( isZero( iAction, iObservation ) )
+				m_abZeroObservations[iAction].clear( iObservation );
+			return;
+		}
+		if( m_abZeroObservations == null )
+			m_abZeroObservations = new BitSet[m_cActions];
+		if( m_abZeroObservations[iAction] == null )
+			m_abZeroObservations[iAction] = new BitSet();
+		m_abZeroObservations[iAction].set( iObservation );
+	}
+
+	public synchronized Pair<BeliefState,Double> getSuccessor( int iAction, int iObservation ){
+		int idx = find( key( iAction, iObservation ) );
+		if( idx < 0 )
+			return null;
+		return m_apSuccessors[idx];
+	}
+
+	public synchronized void setSuccessor( int iAction, int iObservation, Pair<BeliefState,Double> pSuccessor ){
+		long lKey = key( iAction, iObservation );
+		int idx = find( lKey );
+		if( idx < 0 ){
+			idx = insert( lKey );
+			if( idx < 0 )
+				return;
+			m_adProbabilities[idx] = Double.NaN;
+		}
+		m_apSuccessors[idx] = pSuccessor;
+	}
+
+	// the successors of the action in observation order
+	public synchronized Vector<Pair<BeliefState,Double>> getSuccessors( int iAction ){
+		Vector<Pair<BeliefState,Double>> vSuccessors = new Vector<Pair<BeliefState,Double>>();
+		for( long lKey : getSuccessorKeys() ){
+			if( lKey / m_cObservations == iAction )
+				vSuccessors.add( m_apSuccessors[find( lKey )] );
+		}
+		return vSuccessors;
+	}
+
+	// keys (action * |O| + observation) of the stored successors in ascending order
+	public synchronized long[] getSuccessorKeys(){
+		long[] alSorted = new long[m_cEntries];
+		int cSuccessors = 0, idx = 0;
+		for( idx = 0 ; idx < m_alKeys.length ; idx++ ){
+			if( m_alKeys[idx] != EMPTY && m_apSuccessors[idx] != null )
+				alSorted[cSuccessors++] = m_alKeys[idx];
+		}
+		alSorted = Arrays.copyOf( alSorted, cSuccessors );
+		Arrays.sort( alSorted );
+		return alSorted;
+	}
+
+	public synchronized int countSuccessors(){
+		int cSuccessors = 0;
+		for( Pair<BeliefState,Double> p : m_apSuccessors ){
+			if( p != null )
+				cSuccessors++;
+		}
+		return cSuccessors;
+	}
+
+	public int getObservationCount(){
+		return m_cObservations;
+	}
+
+	private static int slot( long lKey, int cSlots ){
+		long lHash = lKey * 0x9E3779B97F4A7C15L;
+		return (int)( lHash >>> 32 ) & ( cSlots - 1 );
+	}
+
+	private int find( long lKey ){
+		int idx = slot( lKey, m_alKeys.length );
+		while( m_alKeys[idx] != EMPTY ){
+			if( m_alKeys[idx] == lKey )
+				return idx;
+			idx = ( idx + 1 ) & ( m_alKeys.length - 1 );
+		}
+		return -1;
+	}
+
+	// slot for a new key, or -1 when the global budget is exhausted
+	private int insert( long lKey ){
+		if( m_cBudget > 0 ){
+			if( g_cEntries.incrementAndGet() > m_cBudget ){
+				g_cEntries.decrementAndGet();
+				return -1;
+			}
+			m_cCountedEntries.incrementAndGet();
+		}
+		if( ( m_cEntries + 1 ) * 4 > m_alKeys.length * 3 )
+			grow();
+		int idx = slot( lKey, m_alKeys.length );
+		while( m_alKeys[idx] != EMPTY )
+			idx = ( idx + 1 ) & ( m_alKeys.length - 1 );
+		m_alKeys[idx] = lKey;
+		m_cEntries++;
+		return idx;
+	}
+
+	@SuppressWarnings({"unchecked","rawtypes"})
+	private void grow(){
+		long[] alKeys = m_alKeys;
+		double[] adProbabilities = m_adProbabilities;
+		Pair<BeliefState,Double>[] apSuccessors = m_apSuccessors;
+		int idx = 0, iNew = 0;
+		m_alKeys = new long[alKeys.length * 2];
+		Arrays.fill( m_alKeys, EMPTY );
+		m_adProbabilities = new double[alKeys.length * 2];
+		m_apSuccessors = new Pair[alKeys.length * 2];
+		for( idx = 0 ; idx < alKeys.length ; idx++ ){
+			if( alKeys[idx] != EMPTY ){
+				iNew = slot( alKeys[idx], m_alKeys.length );
+				while( m_alKeys[iNew] != EMPTY )
+					iNew = ( iNew + 1 ) & ( m_alKeys.length - 1 );
+				m_alKeys[iNew] = alKeys[idx];
+				m_adProbabilities[iNew] = adProbabilities[idx];
+				m_apSuccessors[iNew] = apSuccessors[idx];
+			}
+		}
+	}
+}
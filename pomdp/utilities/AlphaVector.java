@@ -7,12 +7,14 @@
 package pomdp.utilities;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.Vector;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -38,7 +40,6 @@ public abstract class AlphaVector implements Serializable{
 	protected int m_iAction;
 	protected double m_dMaxValue;
 	protected double m_dAvgValue;
-	protected AlphaVector[][] m_aCachedG;
 	protected int m_iAge;
 	protected long m_iID;
 	protected double m_dOffset;
@@ -50,12 +51,15 @@ public abstract class AlphaVector implements Serializable{
 	protected POMDP m_pPOMDP;
 	protected long[] m_aiSumIds;
 	public boolean m_bMaintainWitness = true;
+	//maximal value in each block of consecutive states, computed on demand by getBlockUpperBounds
+	private volatile double[] m_adBlockUpperBounds;
 	
 	protected static long s_cGComputations = 0;
 	protected static long s_cDotProducts = 0;
 	protected static long s_cCurrentDotProducts = 0;
 	protected static long s_cApproximateDotProduct = 0;
-	protected static long s_cAlphaVectors = 0;
+	//ids also key the shared G cache, so they must stay unique across planning threads
+	protected static final AtomicLong s_cAlphaVectors = new AtomicLong();
 	protected static long s_cDestroyedVectors = 0;
 	
 	protected static long s_cTotalTimeInG = 0;
@@ -86,9 +90,8 @@ public abstract class AlphaVector implements Serializable{
 		m_cActions = m_pPOMDP.getActionCount();
 		m_cObservations = m_pPOMDP.getObservationCount();
 		m_iAction = iAction;
-		m_aCachedG = new AlphaVector[m_cActions][m_cObservations];
 		m_iAge = 0;
-		m_iID = s_cAlphaVectors++;
+		m_iID = s_cAlphaVectors.getAndIncrement();
 		m_dOffset = 0.0;
 		m_mDotProductCache = new TreeMap();
 		m_iValueFunctionInsertionTime = 0;
@@ -113,6 +116,15 @@ public abstract class AlphaVector implements Serializable{
 	 *
 	 */
 	public abstract double valueAt( int iState );
+	
+	/**
+	 * Writes valueAt( aiStates[i] ) to adValues[iFirst + i] for the first cStates states of aiStates, which are sorted.
+	 * Batched backups use it to gather the G vectors over the states of a block of beliefs.
+	 */
+	public void valuesAt( int[] aiStates, int cStates, double[] adValues, int iFirst ){
+		for( int i = 0 ; i < cStates ; i++ )
+			adValues[iFirst + i] = valueAt( aiStates[i] );
+	}
 	/**
 	 * @author Guy Shani
 	 * 
@@ -131,6 +143,7 @@ public abstract class AlphaVector implements Serializable{
 	 */
 	public void decay( double dDelta ){
 		m_dOffset += dDelta;
+		m_adBlockUpperBounds = null;
 	}
 	
 	/**
@@ -164,8 +177,7 @@ public abstract class AlphaVector implements Serializable{
 		/* 
 		 * \sum_s b(s)alpha(s)
 		 */
-		int iState = 0;
-		double dValue = 0.0, dProb = 0.0, dSum = 0.0;
+		double dSum = 0.0;
 				
 		if( bs == null )
 			return 0.0;
@@ -174,6 +186,38 @@ public abstract class AlphaVector implements Serializable{
 		if( ExecutionProperties.getReportOperationTime() )
 			lTimeBefore = JProf.getCurrentThreadCpuTimeSafe();
 		
+		dSum = computeDotProduct( bs );
+
+		if( s_bCountDotProduct ){
+			s_cDotProducts++;
+			s_cCurrentDotProducts++;
+			if( ExecutionProperties.getReportOperationTime() ){
+				lTimeAfter = JProf.getCurrentThreadCpuTimeSafe();
+				s_cCurrentTimeInDotProduct += ( lTimeAfter - lTimeBefore ) / 1000;
+				s_cTotalTimeInDotProduct += ( lTimeAfter - lTimeBefore ) / 1000;
+				/*
+				if( s_cCurrentDotProducts == ( TIME_INTERVAL * 100 ) ){
+					String sMsg = "After " + s_cDotProducts + " dot product - avg time = " + s_cCurrentTimeInDotProduct / ( TIME_INTERVAL * 100 );
+					s_cCurrentTimeInDotProduct = 0;
+					s_cCurrentDotProducts = 0;
+					Logger.getInstance().log( "AlphaVector", 0, "dotProduct", sMsg );
+				}
+				*/
+			}
+		}
+
+
+		return dSum;
+	}
+	
+	/**
+	 * The sum itself, without the null check and the statistics of dotProduct. 
+	 * Subclasses that keep their values in arrays override it with loops over the arrays.
+	 */
+	protected double computeDotProduct( BeliefState bs ){
+		int iState = 0;
+		double dValue = 0.0, dProb = 0.0, dSum = 0.0;
+		
 		int cBeliefNonZeroEntries = bs.getNonZeroEntriesCount();
 		int cAlphaNonZeroEntries = getNonZeroEntriesCount();
 		Iterator it = bs.getNonZeroEntries().iterator();
@@ -211,26 +255,6 @@ public abstract class AlphaVector implements Serializable{
 				dSum += dValue * dProb;
 			}
 		}
-
-		if( s_bCountDotProduct ){
-			s_cDotProducts++;
-			s_cCurrentDotProducts++;
-			if( ExecutionProperties.getReportOperationTime() ){
-				lTimeAfter = JProf.getCurrentThreadCpuTimeSafe();
-				s_cCurrentTimeInDotProduct += ( lTimeAfter - lTimeBefore ) / 1000;
-				s_cTotalTimeInDotProduct += ( lTimeAfter - lTimeBefore ) / 1000;
-				/*
-				if( s_cCurrentDotProducts == ( TIME_INTERVAL * 100 ) ){
-					String sMsg = "After " + s_cDotProducts + " dot product - avg time = " + s_cCurrentTimeInDotProduct / ( TIME_INTERVAL * 100 );
-					s_cCurrentTimeInDotProduct = 0;
-					s_cCurrentDotProducts = 0;
-					Logger.getInstance().log( "AlphaVector", 0, "dotProduct", sMsg );
-				}
-				*/
-			}
-		}
-
-
 		return dSum;
 	}
 	
@@ -349,7 +373,7 @@ public abstract class AlphaVector implements Serializable{
 	private static int g_cGs = 0;
 	private static int g_cTouchedVertexes = 0;
 	//g(s) = \sum_s' O(a,s',o) tr( s,a,s') \alpha(s')
-	protected synchronized AlphaVector computeG( int iAction, int iObservation ){
+	protected AlphaVector computeG( int iAction, int iObservation ){
 		int iStartState = 0, iEndState = 0, cNonZeroEntries = 0;
 		double dObservation = 0.0, dTr = 0.0, dValue = 0.0, dSum = 0.0;
 
@@ -397,21 +421,29 @@ public abstract class AlphaVector implements Serializable{
 	 * 
 	 * Computes the a new alpha vector by the G(a,o) operation of the point-based backup (following the Perseus convention).
 	 * g(s) = \sum_s' O(a,s',o) tr( s,a,s') \alpha(s')
-	 * Caching results to avoid recomputation. Caching may cause memory problems in larger POMDPs. 
+	 * Caching results in the shared GVectorCache, which bounds their memory and evicts the least recently used ones. 
+	 * Models whose action-observation pairs do not fit in a cache key (see GVectorCache.canKey) are not cached.
 	 * @param iAction - a valid action index.
 	 * @param iObservation - a valid observation index.
 	 */
 	public AlphaVector G( int iAction, int iObservation ){
-		if( s_bAllowCaching && ( m_aCachedG[iAction][iObservation] != null ) )
-			return m_aCachedG[iAction][iObservation];
+		long lKey = 0;
+		AlphaVector avCached = null;
+		boolean bCache = s_bAllowCaching && GVectorCache.canKey( m_cActions, m_cObservations );	//models with too many pairs are not cached
+		if( bCache ){
+			lKey = GVectorCache.key( m_iID, iAction, iObservation, m_cObservations );
+			avCached = GVectorCache.getInstance().get( lKey );
+			if( avCached != null )
+				return avCached;
+		}
 		
 		long lTimeBefore = 0, lTimeAfter = 0;
 		if( ExecutionProperties.getReportOperationTime() )
 			lTimeBefore = JProf.getCurrentThreadCpuTimeSafe();
 	
 		AlphaVector avResult = computeG( iAction, iObservation );
-		if( s_bAllowCaching )
-			m_aCachedG[iAction][iObservation] = avResult;
+		if( bCache )
+			GVectorCache.getInstance().put( lKey, avResult );
 		
 		
 		s_cGComputations++;
@@ -697,8 +729,11 @@ public abstract class AlphaVector implements Serializable{
 	
 	public AlphaVector productTrA( int iAction ){
 		AlphaVector avResult = newAlphaVector();
-		int iState = 0, iStartState = 0;
+		int iState = 0, iStartState = 0, idx = 0;
 		double dValue = 0, dTr = 0.0, dPreviousValue = 0.0, dNewValue = 0.0;
+		BackwardTransitionIndex btiIndex = m_pPOMDP.getBackwardTransitionIndex();
+		int[] aiOffsets = btiIndex.getOffsets( iAction ), aiStartStates = btiIndex.getStartStates( iAction );
+		double[] adProbabilities = btiIndex.getProbabilities( iAction );
 		Iterator itAlphaVectorNonZero = getNonZeroEntries();
 		Iterator itTrNonZero = null;
 		Entry e = null;
@@ -718,8 +753,10 @@ public abstract class AlphaVector implements Serializable{
 				dValue = ((Number) p.m_second).doubleValue();
 			}
 			
-			for( iStartState = 0 ; iStartState < m_cStates ; iStartState++ ){
-				dTr = m_pPOMDP.tr( iStartState, iAction, iState );
+			//only the states that reach iState add to the product
+			for( idx = aiOffsets[iState] ; idx < aiOffsets[iState + 1] ; idx++ ){
+				iStartState = aiStartStates[idx];
+				dTr = adProbabilities[idx];
 				dPreviousValue = avResult.valueAt( iStartState );
 				dNewValue = dPreviousValue + dTr * dValue;
 				avResult.setValue( iStartState, dNewValue );
@@ -875,6 +912,40 @@ public abstract class AlphaVector implements Serializable{
 			setValue( iState, dValue );
 		}		
 	}
+	/**
+	 * Returns the maximal value of the vector over each block of cBlockSize consecutive states,
+	 * so that for any belief b, alpha*b <= sum over blocks of b(block) * max(block).
+	 * Computed once and kept until decay. Vectors must not be written after the first call,
+	 * and all callers must use the same block size for a given number of states.
+	 * @param cBlockSize - number of states in a block, the last block may be shorter.
+	 */
+	public double[] getBlockUpperBounds( int cBlockSize ){
+		int cBlocks = ( m_cStates + cBlockSize - 1 ) / cBlockSize, iBlock = 0, iState = 0;
+		double[] adBounds = m_adBlockUpperBounds;
+		if( adBounds != null && adBounds.length == cBlocks )
+			return adBounds;
+		int[] acNonZero = new int[cBlocks];
+		double dValue = 0.0;
+		Iterator<Entry<Integer,Double>> itNonZero = getNonZeroEntries();
+		adBounds = new double[cBlocks];
+		Arrays.fill( adBounds, Double.NEGATIVE_INFINITY );
+		while( itNonZero.hasNext() ){
+			iState = itNonZero.next().getKey();
+			iBlock = iState / cBlockSize;
+			dValue = valueAt( iState );
+			if( dValue > adBounds[iBlock] )
+				adBounds[iBlock] = dValue;
+			acNonZero[iBlock]++;
+		}
+		//states without an entry have value 0
+		for( iBlock = 0 ; iBlock < cBlocks ; iBlock++ ){
+			if( acNonZero[iBlock] < Math.min( cBlockSize, m_cStates - iBlock * cBlockSize ) && adBounds[iBlock] < 0.0 )
+				adBounds[iBlock] = 0.0;
+		}
+		m_adBlockUpperBounds = adBounds;
+		return adBounds;
+	}
+
 	public double dotProductMax( BeliefState bs, double dMaxValue ){
 		Iterator<Entry<Integer,Double>> itNonZero = bs.getNonZeroEntries().iterator();
 		Entry<Integer,Double> e = null;
@@ -894,32 +965,14 @@ public abstract class AlphaVector implements Serializable{
 		return dDotProductValue;
 	}
 	
+	//G vectors are held by the shared GVectorCache and are no longer counted here
 	public int countEntries(){
-		int iAction = 0, iObservation = 0;
-		int cEntries = 0;
-		for( iAction = 0 ; iAction < m_cActions ; iAction++ ){
-			for( iObservation = 0 ; iObservation < m_cObservations ; iObservation++ ){
-				if( m_aCachedG[iAction][iObservation] != null )
-					cEntries += m_aCachedG[iAction][iObservation].countEntries();
-			}
-		}
-		cEntries += countLocalEntries();
-		return cEntries;
+		return (int)countLocalEntries();
 	}
 	public abstract long countLocalEntries();
 	
+	//G vectors of released vectors are left to the cache eviction
 	public void release(){
-		int iAction = 0, iObservation = 0;
-		if( m_aCachedG != null ){
-			for( iAction = 0 ; iAction < m_aCachedG.length ; iAction++ ){
-				if( m_aCachedG[iAction] != null ){
-					for( iObservation = 0 ; iObservation< m_cObservations ; iObservation++ ){
-						if( m_aCachedG[iAction][iObservation] != null )
-							m_aCachedG[iAction][iObservation].release();
-					}
-				}
-			}
-		}
 	}
 	
 	public void initHitCount(){
@@ -0,0 +1,171 @@
+package pomdp.utilities;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import pomdp.environments.POMDP;
+import pomdp.utilities.datastructures.NonZeroEntryVisitor;
+
+/**
+ * The reverse of the transition function: for an action a and an end state s', the start states s with tr(s,a,s') > 0.
+ * The rows of an action are built together in one pass over the forward non zero transitions of every start state,
+ * followed by a counting sort on the end state, and stored in CSR form - row s' of action a spans
+ * getOffsets( a )[s'] .. getOffsets( a )[s' + 1] in getStartStates( a ) and getProbabilities( a ), with the start states ascending.
+ * An action is built the first time one of its rows is read. Concurrent readers may build it twice, but all of them
+ * then read the copy that was published first.
+ */
+public class BackwardTransitionIndex {
+	private final POMDP m_pPOMDP;
+	private final int m_cStates;
+	private final AtomicReferenceArray<ActionRows> m_aRows;
+
+	public BackwardTransitionIndex( POMDP pomdp ){
+		m_pPOMDP = pomdp;
+		m_cStates = pomdp.getStateCount();
+		m_aRows = new AtomicReferenceArray<ActionRows>( pomdp.getActionCount() );
+	}
+
+	// row boundaries by end state, of length |S| + 1, shared - do not modify
+	public int[] getOffsets( int iAction ){
+		return getRows( iAction ).m_aiOffsets;
+	}
+
+	// shared - do not modify
+	public int[] getStartStates( int iAction ){
+		return getRows( iAction ).m_aiStartStates;
+	}
+
+	// shared - do not modify
+	public double[] getProbabilities( int iAction ){
+		return getRows( iAction ).m_adProbabilities;
+	}
+
+	public int getNonZeroCount( int iAction, int iEndState ){
+		int[] aiOffsets = getRows( iAction ).m_aiOffsets;
+		return aiOffsets[iEndState + 1] - aiOffsets[iEndState];
+	}
+
+	/**
+	 * Visits every s with tr(s,a,s') > 0 in ascending order, without creating an iterator or boxing.
+	 */
+	public void forEachNonZero( int iAction, int iEndState, NonZeroEntryVisitor visitor ){
+		ActionRows arRows = getRows( iAction );
+		for( int idx = arRows.m_aiOffsets[iEndState] ; idx < arRows.m_aiOffsets[iEndState + 1] ; idx++ )
+			visitor.visit( arRows.m_aiStartStates[idx], arRows.m_adProbabilities[idx] );
+	}
+
+	/**
+	 * Row s' of action a as ( s, tr(s,a,s') ) entries, for callers of POMDP.getNonZeroBackwardTransitions.
+	 */
+	public Collection<Entry<Integer,Double>> getNonZeroEntries( int iAction, int iEndState ){
+		return new Row( getRows( iAction ), iEndState );
+	}
+
+	private ActionRows getRows( int iAction ){
+		ActionRows arRows = m_aRows.get( iAction );
+		if( arRows == null ){
+			m_aRows.compareAndSet( iAction, null, build( iAction ) );
+			arRows = m_aRows.get( iAction );
+		}
+		return arRows;
+	}
+
+	private ActionRows build( int iAction ){
+		TransitionCollector tcForward = new TransitionCollector();
+		int iStartState = 0, iEntry = 0, iEndState = 0, idx = 0;
+		for( iStartState = 0 ; iStartState < m_cStates ; iStartState++ ){
+			tcForward.m_iStartState = iStartState;
+			m_pPOMDP.forEachNonZeroTransition( iStartState, iAction, tcForward );
+		}
+
+		int[] aiOffsets = new int[m_cStates + 1];
+		int[] aiNext = new int[m_cStates];
+		int[] aiStartStates = new int[tcForward.m_cEntries];
+		double[] adProbabilities = new double[tcForward.m_cEntries];
+		for( iEntry = 0 ; iEntry < tcForward.m_cEntries ; iEntry++ )
+			aiOffsets[tcForward.m_aiEndStates[iEntry] + 1]++;
+		for( iEndState = 0 ; iEndState < m_cStates ; iEndState++ ){
+			aiOffsets[iEndState + 1] += aiOffsets[iEndState];
+			aiNext[iEndState] = aiOffsets[iEndState];
+		}
+		//the entries were collected by ascending start state, and the sort is stable
+		for( iEntry = 0 ; iEntry < tcForward.m_cEntries ; iEntry++ ){
+			idx = aiNext[tcForward.m_aiEndStates[iEntry]]++;
+			aiStartStates[idx] = tcForward.m_aiStartStates[iEntry];
+			adProbabilities[idx] = tcForward.m_adProbabilities[iEntry];
+		}
+		return new ActionRows( aiOffsets, aiStartStates, adProbabilities );
+	}
+
+	//the forward transitions of one action, in the order they are visited
+	private static class TransitionCollector implements NonZeroEntryVisitor {
+		private int[] m_aiStartStates = new int[16], m_aiEndStates = new int[16];
+		private double[] m_adProbabilities = new double[16];
+		private int m_cEntries = 0;
+		private int m_iStartState = 0;
+
+		public void visit( int iEndState, double dTr ){
+			if( dTr <= 0.0 )
+				return;
+			if( m_cEntries == m_aiStartStates.length ){
+				m_aiStartStates = Arrays.copyOf( m_aiStartStates, m_cEntries * 2 );
+				m_aiEndStates = Arrays.copyOf( m_aiEndStates, m_cEntries * 2 );
+				m_adProbabilities = Arrays.copyOf( m_adProbabilities, m_cEntries * 2 );
+			}
+			m_aiStartStates[m_cEntries] = m_iStartState;
+			m_aiEndStates[m_cEntries] = iEndState;
+			m_adProbabilities[m_cEntries] = dTr;
+			m_cEntries++;
+		}
+	}
+
+	private static class ActionRows {
+		private final int[] m_aiOffsets;
+		private final int[] m_aiStartStates;
+		private final double[] m_adProbabilities;
+
+		ActionRows( int[] aiOffsets, int[] aiStartStates, double[] adProbabilities ){
+			m_aiOffsets = aiOffsets;
+			m_aiStartStates = aiStartStates;
+			m_adProbabilities = adProbabilities;
+		}
+	}
+
+	private static class Row extends AbstractCollection<Entry<Integer,Double>> {
+		private final ActionRows m_arRows;
+		private final int m_iFirst, m_iEnd;
+
+		Row( ActionRows arRows, int iEndState ){
+			m_arRows = arRows;
+			m_iFirst = arRows.m_aiOffsets[iEndState];
+			m_iEnd = arRows.m_aiOffsets[iEndState + 1];
+		}
+
+		public int size(){
+			return m_iEnd - m_iFirst;
+		}
+
+		public Iterator<Entry<Integer,Double>> iterator(){
+			return new Iterator<Entry<Integer,Double>>(){
+				private int m_idx = m_iFirst;
+
+				public boolean hasNext(){
+					return m_idx < m_iEnd;
+				}
+
+				public Entry<Integer,Double> next(){
+					if( m_idx >= m_iEnd )
+						throw new NoSuchElementException();
+					Entry<Integer,Double> e = new Pair<Integer,Double>( m_arRows.m_aiStartStates[m_idx], m_arRows.m_adProbabilities[m_idx] );
+					m_idx++;
+					return e;
+				}
+			};
+		}
+	}
+}
@@ -37,13 +37,15 @@ import sun.awt.geom.Crossings.NonZero;
  * Window&gt;Preferences&gt;Java&gt;Code Generation&gt;Code and Comments
  */
 public abstract class BeliefState extends PriorityQueueElement implements Serializable{
+	//dense pr(o|a,b) kept by factored beliefs that manage it themselves, tabular beliefs use m_aocCache
 	protected double[][] m_aCachedObservationProbabilities;
 	protected int m_cStates;
 	private BeliefState m_bsDiscretized;
 	private Vector<BeliefState> m_vPredecessors;
 	protected Map m_mProbCurrentGivenPred;
 	private Vector m_vNeighbors;
-	protected Map<Integer,Pair<BeliefState, Double>>[] m_amSuccessors;
+	//pr(o|a,b) and successors, allocated on first use
+	private volatile ActionObservationCache m_aocCache;
 	protected Vector<BeliefState> m_vAllSuccessors;
 	private SortedSet[] m_sSortedSuccessors;
 	private int m_cVisits;
@@ -79,6 +81,10 @@ public abstract class BeliefState extends PriorityQueueElement implements Serial
 	protected BeliefStateFactory m_bsFactory;
 	protected int m_iMaxBeliefState;
 	protected double m_dMaxBelief;
+	// forbidden and relevant actions, valid while the POMDP's forbidden states keep the version they were computed for
+	private volatile ForbiddenActionMasks.BeliefActions m_baCachedActions;
+	// best vector found by the last MaxAlphaIndex query, seeds the next one
+	private volatile AlphaVector m_avIndexedMaxAlpha;
 
 	public static int g_cBS = 0, g_cLiveBS = 0;
 	
@@ -96,26 +102,14 @@ public abstract class BeliefState extends PriorityQueueElement implements Serial
 		
 		m_iMaxBeliefState = -1;
 		m_dMaxBelief = 0.0;
+		m_baCachedActions = null;
+		m_avIndexedMaxAlpha = null;
 		
 		m_cBackups = 0;
 		
-		if( m_bCacheBelifStates ){
-			m_amSuccessors = new TreeMap[m_cActions];
-			m_sSortedSuccessors = new TreeSet[m_cActions];
-			for( int iAction = 0 ; iAction < m_cActions ; iAction++ ){
-				m_amSuccessors[iAction] = new TreeMap( );
-				m_sSortedSuccessors[iAction] = new TreeSet( new ReversePairComparator() );
-			}
-		}
-		else{
-			m_amSuccessors = null;
-		}
-		m_aCachedObservationProbabilities = new double[m_cActions][m_cObservations];
-		for( int i = 0 ; i< m_cActions ; i++ ){
-			for( int j = 0 ; j< m_cObservations ; j++ ){
-				m_aCachedObservationProbabilities[i][j] = -1.0;
-			}
-		}
+		m_aocCache = null;
+		m_sSortedSuccessors = null;
+		m_aCachedObservationProbabilities = null;
 		
 		m_vPredecessors = new Vector();
 		m_vNeighbors = new Vector();
@@ -190,13 +184,40 @@ public abstract class BeliefState extends PriorityQueueElement implements Serial
 	
 	public abstract int getNonZeroEntriesCount();
 	
+	/**
+	 * Probabilities of all the states, or null when the belief does not keep a dense array. Shared - do not modify.
+	 */
+	public double[] getDenseProbabilities(){
+		return null;
+	}
+	
+	/**
+	 * The non zero entries as sorted state indexes and matching probabilities, or null when the belief does not keep them in arrays.
+	 */
+	public StaticMap getSparseProbabilities(){
+		return null;
+	}
+	
+	protected ActionObservationCache getActionObservationCache(){
+		ActionObservationCache aocCache = m_aocCache;
+		if( aocCache == null ){
+			synchronized( this ){
+				aocCache = m_aocCache;
+				if( aocCache == null ){
+					aocCache = new ActionObservationCache( this, m_cActions, m_cObservations );
+					m_aocCache = aocCache;
+				}
+			}
+		}
+		return aocCache;
+	}
+	
 	public synchronized void addSuccessor( int iAction, int iObservation, BeliefState bsSuccessor ){
-		if( m_amSuccessors == null )
+		if( !m_bCacheBelifStates )
 			return;
-		Integer iKey = iObservation;
 		double dProb = probabilityOGivenA( iAction, iObservation );
-		Pair pEntry = new Pair( bsSuccessor, dProb);
-		m_amSuccessors[iAction].put( iKey, pEntry );
+		Pair<BeliefState,Double> pEntry = new Pair<BeliefState,Double>( bsSuccessor, dProb );
+		getActionObservationCache().setSuccessor( iAction, iObservation, pEntry );
 		if( !m_vAllSuccessors.contains( bsSuccessor ) )
 			m_vAllSuccessors.add( bsSuccessor );
 	}
@@ -207,15 +228,14 @@ public abstract class BeliefState extends PriorityQueueElement implements Serial
 		if( m_bCountBeliefUpdates )
 			g_cBeliefStateUpdates++;
 		if( m_bCacheBelifStates && getBeliefStateFactory().isCachingBeliefStates() ){
-			Integer iKey = iObservation;
-			Pair pEntry = (Pair)m_amSuccessors[iAction].get( iKey );
+			Pair<BeliefState,Double> pEntry = getActionObservationCache().getSuccessor( iAction, iObservation );
 			if( pEntry == null ){
 				bsNext = getBeliefStateFactory().nextBeliefState( this, iAction, iObservation );
 				if( ( bsNext != null ) && ( getBeliefStateFactory().isCachingBeliefStates() ) )
 					addSuccessor( iAction, iObservation, bsNext );
 			}
 			else{
-				bsNext = (BeliefState) pEntry.m_first;
+				bsNext = pEntry.m_first;
 			}
 		}
 		else{
@@ -225,19 +245,28 @@ public abstract class BeliefState extends PriorityQueueElement implements Serial
 	}
 	
 	public double probabilityOGivenA( int iAction, int iObservation ){
-		if( m_aCachedObservationProbabilities == null )
-			return getBeliefStateFactory().calcNormalizingFactor( this, iAction, iObservation );
-		double dValue = m_aCachedObservationProbabilities[iAction][iObservation];
-		if( dValue < 0.0 ){
+		ActionObservationCache aocCache = getActionObservationCache();
+		double dValue = aocCache.getProbability( iAction, iObservation );
+		if( Double.isNaN( dValue ) ){
 			dValue = getBeliefStateFactory().calcNormalizingFactor( this, iAction, iObservation );
-			m_aCachedObservationProbabilities[iAction][iObservation] = dValue;
+			aocCache.setProbability( iAction, iObservation, dValue );
 		}
 		return dValue;
 	}
 	
 	public void setProbabilityOGivenA( int iAction, int iObservation, double dValue ){
-		if( m_aCachedObservationProbabilities != null )
-			m_aCachedObservationProbabilities[iAction][iObservation] = dValue;
+		getActionObservationCache().setProbability( iAction, iObservation, dValue );
+	}
+	
+	/**
+	 * The cached pr(o|a,b), or -1 when it was not computed yet.
+	 */
+	public double getCachedProbabilityOGivenA( int iAction, int iObservation ){
+		ActionObservationCache aocCache = m_aocCache;
+		double dValue = aocCache == null ? Double.NaN : aocCache.getProbability( iAction, iObservation );
+		if( Double.isNaN( dValue ) )
+			return -1.0;
+		return dValue;
 	}
 	
 	public String toString(){
@@ -292,7 +321,7 @@ public abstract class BeliefState extends PriorityQueueElement implements Serial
 	}
 	
 	public Iterator getSuccessors( int iAction ){
-		return m_amSuccessors[iAction].values().iterator();
+		return getActionObservationCache().getSuccessors( iAction ).iterator();
 	}
 	
 	public Iterator getSortedSuccessors( int iAction ){
@@ -428,11 +457,10 @@ public abstract class BeliefState extends PriorityQueueElement implements Serial
 	}
 
 	public int countSuccessors() {
-		int cSuccessors = 0;
-		for( int iAction = 0 ; iAction < m_cActions ; iAction++ ){
-			cSuccessors += m_amSuccessors[iAction].size();
-		}
-		return cSuccessors;
+		ActionObservationCache aocCache = m_aocCache;
+		if( aocCache == null )
+			return 0;
+		return aocCache.countSuccessors();
 	}
 
 	public int getId() {
@@ -486,35 +514,28 @@ public abstract class BeliefState extends PriorityQueueElement implements Serial
 
 	protected Element getSuccessors( Document docBeliefSpace ){
 		Element eSuccessors = null, eSuccessor = null;		
-		Iterator itSuccessors = null;
 		BeliefState bsSuccessor = null;
-		int iAction = 0;
-		Map.Entry e = null;
-		Integer iObservation = null;
+		int iAction = 0, iObservation = 0;
 		int cSuccessors = 0;
-		Pair pEntry = null;
+		ActionObservationCache aocCache = m_aocCache;
 		
 		eSuccessors = docBeliefSpace.createElement( "Successors" );
 		
-		for( iAction = 0 ;iAction < m_cActions ; iAction++ ){
-			if( m_amSuccessors[iAction] != null ){
-				itSuccessors = m_amSuccessors[iAction].entrySet().iterator();
-				while( itSuccessors.hasNext() ){
-					e = (Entry)itSuccessors.next();
-					pEntry = (Pair) e.getValue();
-					bsSuccessor = (BeliefState)pEntry.first();
-					
-					if( bsSuccessor == null )
-						System.out.println( getId() + "," + iAction + "," + e );
-					
-					iObservation = (Integer)e.getKey();
-					eSuccessor = docBeliefSpace.createElement( "Successor" );
-					eSuccessor.setAttribute( "Action", iAction + "" );
-					eSuccessor.setAttribute( "Observation", iObservation + "" );
-					eSuccessor.setAttribute( "Id", bsSuccessor.getId() + "" );
-					eSuccessors.appendChild( eSuccessor );
-					cSuccessors++;
-				}
+		if( aocCache != null ){
+			for( long lKey : aocCache.getSuccessorKeys() ){
+				iAction = (int)( lKey / m_cObservations );
+				iObservation = (int)( lKey % m_cObservations );
+				bsSuccessor = aocCache.getSuccessor( iAction, iObservation ).first();
+				
+				if( bsSuccessor == null )
+					System.out.println( getId() + "," + iAction + "," + iObservation );
+				
+				eSuccessor = docBeliefSpace.createElement( "Successor" );
+				eSuccessor.setAttribute( "Action", iAction + "" );
+				eSuccessor.setAttribute( "Observation", iObservation + "" );
+				eSuccessor.setAttribute( "Id", bsSuccessor.getId() + "" );
+				eSuccessors.appendChild( eSuccessor );
+				cSuccessors++;
 			}
 		}
 		eSuccessors.setAttribute( "size", cSuccessors + "" );
@@ -555,7 +576,7 @@ public abstract class BeliefState extends PriorityQueueElement implements Serial
 		
 		eBeliefValues = getBeliefValues( docBeliefSpace );
 		eBeliefState.appendChild( eBeliefValues );
-		if( m_amSuccessors != null ){
+		if( m_bCacheBelifStates ){
 			eSuccessors = getSuccessors( docBeliefSpace );
 			eBeliefState.appendChild( eSuccessors );
 		}
@@ -713,6 +734,24 @@ public abstract class BeliefState extends PriorityQueueElement implements Serial
 		m_iLastMaxValueTime = -1;
 		m_avLastMaxAlpha = null;
 		m_iLastMaxAlphaTime = -1;
+		m_baCachedActions = null;
+		m_avIndexedMaxAlpha = null;
+	}
+	
+	public AlphaVector getIndexedMaxAlpha(){
+		return m_avIndexedMaxAlpha;
+	}
+	
+	public void setIndexedMaxAlpha( AlphaVector avMax ){
+		m_avIndexedMaxAlpha = avMax;
+	}
+	
+	public ForbiddenActionMasks.BeliefActions getCachedActions(){
+		return m_baCachedActions;
+	}
+	
+	public void setCachedActions( ForbiddenActionMasks.BeliefActions baActions ){
+		m_baCachedActions = baActions;
 	}
 	
 	public double getImmediateReward(){
@@ -0,0 +1,264 @@
+package pomdp.utilities;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import pomdp.utilities.datastructures.StaticMap;
+
+/**
+ * Interning table of the belief states computed by a BeliefStateFactory, safe for concurrent lookup and insertion.
+ * With the plain BeliefStateComparator, beliefs are bucketed by a hash of their support and of their probabilities
+ * rounded to QUANTUM, and beliefs in a bucket are compared exactly as the comparator does (entries equal up to its epsilon).
+ * Two beliefs within epsilon whose probabilities round to different quanta are kept as two entries.
+ * Any other comparator may not agree with that hash, so such caches keep a concurrent skip list ordered by the comparator.
+ * A weak cache lets the garbage collector drop beliefs that are no longer referenced elsewhere.
+ * Iteration follows insertion order.
+ */
+public class BeliefStateCache implements Iterable<BeliefState> {
+	private static final double QUANTUM = 1.0E-6;
+
+	private final Comparator<BeliefState> m_cmpBeliefs;
+	private final double m_dEpsilon;
+	private final ConcurrentHashMap<Long,Object[]> m_mBuckets;					//hashed mode, entries are BeliefState or WeakEntry
+	private final ConcurrentSkipListMap<BeliefState,BeliefState> m_mOrdered;	//comparator mode
+	private final ConcurrentLinkedQueue<Object> m_qInsertionOrder;
+	private final ReferenceQueue<BeliefState> m_rqCleared;
+	private final boolean m_bWeak;
+	private final AtomicInteger m_cBeliefStates;
+
+	public BeliefStateCache( Comparator<BeliefState> cmpBeliefs, boolean bWeak ){
+		m_cmpBeliefs = cmpBeliefs;
+		m_qInsertionOrder = new ConcurrentLinkedQueue<Object>();
+		m_cBeliefStates = new AtomicInteger();
+		if( cmpBeliefs != null && cmpBeliefs.getClass() == BeliefStateComparator.class ){
+			m_dEpsilon = ((BeliefStateComparator)cmpBeliefs).m_dEpsilon;
+			m_mBuckets = new ConcurrentHashMap<Long,Object[]>();
+			m_mOrdered = null;
+			m_bWeak = bWeak;
+			m_rqCleared = bWeak ? new ReferenceQueue<BeliefState>() : null;
+		}
+		else{
+			m_dEpsilon = 0.0;
+			m_mBuckets = null;
+			m_mOrdered = new ConcurrentSkipListMap<BeliefState,BeliefState>( cmpBeliefs );
+			m_bWeak = false;
+			m_rqCleared = null;
+		}
+	}
+
+	public BeliefState get( BeliefState bs ){
+		if( m_mOrdered != null )
+			return m_mOrdered.get( bs );
+		Object[] aEntries = m_mBuckets.get( hash( bs ) );
+		return aEntries == null ? null : find( aEntries, bs );
+	}
+
+	/**
+	 * Adds bs unless an equal belief is already cached.
+	 * @return the cached belief equal to bs, or null when bs was added.
+	 */
+	public BeliefState putIfAbsent( BeliefState bs ){
+		if( m_mOrdered != null ){
+			BeliefState bsExisting = m_mOrdered.putIfAbsent( bs, bs );
+			if( bsExisting == null )
+				added( bs );
+			return bsExisting;
+		}
+		if( m_bWeak )
+			purge();
+		final long lHash = hash( bs );
+		final BeliefState[] abExisting = new BeliefState[1];
+		final Object[] aoAdded = new Object[1];
+		m_mBuckets.compute( lHash, ( lKey, aEntries ) -> {
+			if( aEntries != null ){
+				abExisting[0] = find( aEntries, bs );
+				if( abExisting[0] != null )
+					return aEntries;
+			}
+			aoAdded[0] = m_bWeak ? new WeakEntry( bs, lHash, m_rqCleared ) : bs;
+			return append( aEntries, aoAdded[0] );
+		} );
+		if( aoAdded[0] != null )
+			added( aoAdded[0] );
+		return abExisting[0];
+	}
+
+	private void added( Object oEntry ){
+		m_qInsertionOrder.add( oEntry );
+		m_cBeliefStates.incrementAndGet();
+	}
+
+	public int size(){
+		if( m_bWeak )
+			purge();
+		return m_cBeliefStates.get();
+	}
+
+	public Iterator<BeliefState> iterator(){
+		return new InsertionOrderIterator();
+	}
+
+	public Vector<BeliefState> toVector(){
+		Vector<BeliefState> vBeliefStates = new Vector<BeliefState>();
+		for( BeliefState bs : this )
+			vBeliefStates.add( bs );
+		return vBeliefStates;
+	}
+
+	private BeliefState find( Object[] aEntries, BeliefState bs ){
+		BeliefState bsEntry = null;
+		for( Object oEntry : aEntries ){
+			bsEntry = deref( oEntry );
+			if( bsEntry != null && equal( bsEntry, bs ) )
+				return bsEntry;
+		}
+		return null;
+	}
+
+	private static BeliefState deref( Object oEntry ){
+		if( oEntry instanceof WeakEntry )
+			return ((WeakEntry)oEntry).get();
+		return (BeliefState)oEntry;
+	}
+
+	private static Object[] append( Object[] aEntries, Object oEntry ){
+		if( aEntries == null )
+			return new Object[]{ oEntry };
+		Object[] aNew = new Object[aEntries.length + 1];
+		System.arraycopy( aEntries, 0, aNew, 0, aEntries.length );
+		aNew[aEntries.length] = oEntry;
+		return aNew;
+	}
+
+	//drops the bucket entries of beliefs that were garbage collected, iterators drop them from the insertion order
+	private void purge(){
+		WeakEntry weCleared = null;
+		while( ( weCleared = (WeakEntry)m_rqCleared.poll() ) != null ){
+			final WeakEntry weRemove = weCleared;
+			m_mBuckets.computeIfPresent( weRemove.m_lHash, ( lKey, aEntries ) -> {
+				int cKept = 0;
+				Object[] aKept = new Object[aEntries.length];
+				for( Object oEntry : aEntries ){
+					if( oEntry != weRemove )
+						aKept[cKept++] = oEntry;
+				}
+				if( cKept == aEntries.length )
+					return aEntries;
+				m_cBeliefStates.decrementAndGet();
+				if( cKept == 0 )
+					return null;
+				Object[] aNew = new Object[cKept];
+				System.arraycopy( aKept, 0, aNew, 0, cKept );
+				return aNew;
+			} );
+		}
+	}
+
+	//hash of the states whose probability exceeds epsilon and of their probabilities in units of QUANTUM
+	private long hash( BeliefState bs ){
+		long lHash = 1;
+		StaticMap smEntries = bs.getSparseProbabilities();
+		if( smEntries != null ){
+			int[] aiStates = smEntries.getIndexes();
+			double[] adValues = smEntries.getValues();
+			int cEntries = smEntries.size();
+			for( int idx = 0 ; idx < cEntries ; idx++ ){
+				if( adValues[idx] > m_dEpsilon )
+					lHash = mix( lHash, aiStates[idx], adValues[idx] );
+			}
+		}
+		else{
+			for( Entry<Integer,Double> e : bs.getNonZeroEntries() ){
+				if( e.getValue() > m_dEpsilon )
+					lHash = mix( lHash, e.getKey(), e.getValue() );
+			}
+		}
+		return lHash;
+	}
+
+	private static long mix( long lHash, int iState, double dValue ){
+		lHash = ( lHash ^ iState ) * 0x9E3779B97F4A7C15L;
+		lHash = ( lHash ^ Math.round( dValue / QUANTUM ) ) * 0xBF58476D1CE4E5B9L;
+		return lHash ^ ( lHash >>> 29 );
+	}
+
+	//same result as BeliefStateComparator.compare == 0, without boxing when both beliefs are sparse maps
+	private boolean equal( BeliefState bs1, BeliefState bs2 ){
+		if( bs1 == bs2 )
+			return true;
+		StaticMap sm1 = bs1.getSparseProbabilities(), sm2 = bs2.getSparseProbabilities();
+		if( sm1 == null || sm2 == null )
+			return m_cmpBeliefs.compare( bs1, bs2 ) == 0;
+		int[] aiStates1 = sm1.getIndexes(), aiStates2 = sm2.getIndexes();
+		double[] adValues1 = sm1.getValues(), adValues2 = sm2.getValues();
+		int c1 = sm1.size(), c2 = sm2.size(), i1 = 0, i2 = 0;
+		while( i1 < c1 || i2 < c2 ){
+			if( i2 == c2 || ( i1 < c1 && aiStates1[i1] < aiStates2[i2] ) ){
+				if( adValues1[i1] > m_dEpsilon )
+					return false;
+				i1++;
+			}
+			else if( i1 == c1 || aiStates2[i2] < aiStates1[i1] ){
+				if( adValues2[i2] > m_dEpsilon )
+					return false;
+				i2++;
+			}
+			else{
+				if( Math.abs( adValues1[i1] - adValues2[i2] ) > m_dEpsilon )
+					return false;
+				i1++;
+				i2++;
+			}
+		}
+		return true;
+	}
+
+	private static class WeakEntry extends WeakReference<BeliefState> {
+		private final long m_lHash;
+
+		WeakEntry( BeliefState bs, long lHash, ReferenceQueue<BeliefState> rqCleared ){
+			super( bs, rqCleared );
+			m_lHash = lHash;
+		}
+	}
+
+	private class InsertionOrderIterator implements Iterator<BeliefState> {
+		private final Iterator<Object> m_itEntries = m_qInsertionOrder.iterator();
+		private BeliefState m_bsNext = advance();
+
+		private BeliefState advance(){
+			BeliefState bs = null;
+			while( bs == null && m_itEntries.hasNext() ){
+				bs = deref( m_itEntries.next() );
+				if( bs == null )
+					m_itEntries.remove();
+			}
+			return bs;
+		}
+
+		public boolean hasNext(){
+			return m_bsNext != null;
+		}
+
+		public BeliefState next(){
+			if( m_bsNext == null )
+				throw new NoSuchElementException();
+			BeliefState bs = m_bsNext;
+			m_bsNext = advance();
+			return bs;
+		}
+
+		public void remove(){
+			throw new UnsupportedOperationException();
+		}
+	}
+}
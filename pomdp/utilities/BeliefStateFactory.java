@@ -8,7 +8,6 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.TreeMap;
 import java.util.Vector;
 import java.util.Map.Entry;
 
@@ -34,7 +33,7 @@ public class BeliefStateFactory{
 
 	protected POMDP m_pPOMDP;
 	public int m_cBeliefUpdates = 0;
-	protected TreeMap<BeliefState,BeliefState> m_hmCachedBeliefStates;
+	protected BeliefStateCache m_hmCachedBeliefStates;
 	protected int m_cDiscretizationLevels;
 	protected int m_cBeliefPoints;
 	protected boolean m_bCacheBelifStates;
@@ -62,7 +61,7 @@ public class BeliefStateFactory{
 	}
 	
 	private void init(){
-		m_hmCachedBeliefStates = new TreeMap<BeliefState,BeliefState>(  getBeliefStateComparator( m_dEpsilon )  );
+		m_hmCachedBeliefStates = new BeliefStateCache( getBeliefStateComparator( m_dEpsilon ), ExecutionProperties.useWeakBeliefCache() );
 		m_cBeliefPoints = 0;
 		m_bCacheBelifStates = false;
 		BeliefState.g_cBeliefStateUpdates = 0;
@@ -128,11 +127,12 @@ public class BeliefStateFactory{
 		
 		//long lStartTime = JProf.getCurrentThreadCpuTimeSafe(), lEndTime = 0;
 		
-		double dProb = 0.0, dO = 0.0, dBelief = 0.0, dTr = 0.0, dSum = 0.0;
-		int iStartState = 0, iEndState = 0;
-		Iterator<Entry<Integer,Double>> itNonZeroTransitions = null;
+		double dProb = 0.0, dBelief = 0.0;
+		int iStartState = 0;
+		// sum_s' tr(s,a,s')O(a,s',o) for the current s, accumulated by the visitor
+		final double[] adSum = new double[1];
 		Iterator<Entry<Integer,Double>> itNonZeroBeliefs = bs.getNonZeroEntries().iterator();
-		Map.Entry<Integer,Double> eTransition = null, eBelief = null;
+		Map.Entry<Integer,Double> eBelief = null;
 		
 		//for( iStartState = 0 ; iStartState < m_cStates ; iStartState++ ){
 		while( itNonZeroBeliefs.hasNext() ){
@@ -140,16 +140,9 @@ public class BeliefStateFactory{
 			iStartState = (Integer) eBelief.getKey();
 			dBelief = (Double) eBelief.getValue();
 			//dBelief = bs.valueAt( iStartState );
-			dSum = 0.0;			
-			itNonZeroTransitions = m_pPOMDP.getNonZeroTransitions( iStartState, iAction );
-			while( itNonZeroTransitions.hasNext() ){
-				eTransition = itNonZeroTransitions.next();
-				iEndState = (Integer) eTransition.getKey();
-				dTr = (Double) eTransition.getValue();
-				dO = m_pPOMDP.O( iAction, iEndState, iObservation );
-				dSum += dO * dTr;
-			}			
-			dProb += dSum * dBelief;
+			adSum[0] = 0.0;
+			m_pPOMDP.forEachNonZeroTransition( iStartState, iAction, ( iEndState, dTr ) -> adSum[0] += m_pPOMDP.O( iAction, iEndState, iObservation ) * dTr );
+			dProb += adSum[0] * dBelief;
 		}
 		
 		/*
@@ -257,18 +250,9 @@ public class BeliefStateFactory{
 			}
 			
 			if( m_bCacheBelifStates ){
-				BeliefState bsExisting = (BeliefState) m_hmCachedBeliefStates.get( bsNext );
-				if( bsExisting == null ){
-					//Logger.getInstance().log( "BeliefStateFactory", 0, "nextBeliefState", 
-					//		"Tau( " + bs.getId() + ", " + iAction + ", " + iObservation + " ) = " + bsNext.toString() );
-					cacheBeliefState( bsNext );
-					m_cBeliefPoints++;
-				}
-				else{
-					bsNext = bsExisting;
-					if( bsNext == null )
-						System.out.println( "***" );
-				}
+				//Logger.getInstance().log( "BeliefStateFactory", 0, "nextBeliefState", 
+				//		"Tau( " + bs.getId() + ", " + iAction + ", " + iObservation + " ) = " + bsNext.toString() );
+				bsNext = internBeliefState( bsNext );
 						
 				if( bsNext != bs )
 					bsNext.addPredecessor( bs, dNormalizingFactor, iAction );
@@ -296,8 +280,20 @@ public class BeliefStateFactory{
 		return null;
 	}
 
-	protected synchronized void cacheBeliefState( BeliefState bs ){
-		m_hmCachedBeliefStates.put( bs, bs );
+	protected void cacheBeliefState( BeliefState bs ){
+		m_hmCachedBeliefStates.putIfAbsent( bs );
+	}
+	
+	/**
+	 * Returns the cached belief state equal to bs, caching bs when there is none.
+	 * Concurrent callers with equal beliefs all get the same instance.
+	 */
+	protected BeliefState internBeliefState( BeliefState bs ){
+		BeliefState bsExisting = m_hmCachedBeliefStates.putIfAbsent( bs );
+		if( bsExisting != null )
+			return bsExisting;
+		m_cBeliefPoints++;
+		return bs;
 	}
 	
 	public BeliefState getInitialBeliefState(){
@@ -392,15 +388,7 @@ public class BeliefStateFactory{
 		}
 		
 		//bsDiscretized.normalize(); - no need for normalization as this is not really a belief point - only used for storing
-		BeliefState bsExisting = (BeliefState)m_hmCachedBeliefStates.get( bsDiscretized );
-		if( bsExisting == null ){
-			cacheBeliefState( bsDiscretized );
-			m_cBeliefPoints++;
-		}
-		else{
-			bsDiscretized = bsExisting;
-		}
-		return bsDiscretized;
+		return internBeliefState( bsDiscretized );
 	}
 
 	public int getBeliefStateCount(){
@@ -434,7 +422,7 @@ public class BeliefStateFactory{
 	}
 	
 	public void saveBeliefSpace( String sFileName ) throws IOException, TransformerException, ParserConfigurationException{
-		save( sFileName, m_hmCachedBeliefStates.keySet() );
+		save( sFileName, m_hmCachedBeliefStates.toVector() );
 	}
 	
 	public void saveBeliefPoints( String sFileName, Vector<BeliefState> vBeliefPoints ) throws IOException, TransformerException, ParserConfigurationException{
@@ -554,7 +542,7 @@ public class BeliefStateFactory{
 	}
 
 	public Iterator getAllBeliefStates() {
-		return m_hmCachedBeliefStates.keySet().iterator();
+		return m_hmCachedBeliefStates.iterator();
 	}
 
 	public void countBeliefUpdates( boolean bCount ){
@@ -568,7 +556,7 @@ public class BeliefStateFactory{
 	}
 	
 	public void clearInternalBeliefStateCache(){
-		Iterator itBeliefPoints = m_hmCachedBeliefStates.keySet().iterator();
+		Iterator itBeliefPoints = m_hmCachedBeliefStates.iterator();
 		BeliefState bs = null;
 		while( itBeliefPoints.hasNext() ){
 			bs = (BeliefState) itBeliefPoints.next();
@@ -577,7 +565,7 @@ public class BeliefStateFactory{
 	}
 	
 	public void computeNeighbors( double dMaxDistance, DistanceMetric dmDistance ){
-		Vector vBeliefStates = new Vector( m_hmCachedBeliefStates.keySet() );
+		Vector vBeliefStates = m_hmCachedBeliefStates.toVector();
 		computeNeighbors( vBeliefStates, dMaxDistance, dmDistance );
 	}
 	
@@ -774,17 +762,8 @@ public class BeliefStateFactory{
 		if( dSumBeliefs < 0.9999 || dSumBeliefs > 1.0001 )
 			System.out.println( "getBeliefState BUGBUG invalid sum(bs(s)) = " + dSumBeliefs );
 		
-		if( m_bCacheBelifStates ){
-			BeliefState bsExisting = (BeliefState) m_hmCachedBeliefStates.get( bs );
-			if( bsExisting == null ){
-				cacheBeliefState( bs );
-				m_cBeliefPoints++;
-			}
-			else{
-				bs = bsExisting;
-			}
-					
-		}
+		if( m_bCacheBelifStates )
+			bs = internBeliefState( bs );
 		
 		return bs;
 	}
@@ -804,17 +783,8 @@ public class BeliefStateFactory{
 			return null;
 		}
 		
-		if( m_bCacheBelifStates ){
-			BeliefState bsExisting = (BeliefState) m_hmCachedBeliefStates.get( bs );
-			if( bsExisting == null ){
-				cacheBeliefState( bs );
-				m_cBeliefPoints++;
-			}
-			else{
-				bs = bsExisting;
-			}
-					
-		}
+		if( m_bCacheBelifStates )
+			bs = internBeliefState( bs );
 		
 		return bs;
 	}
@@ -833,7 +803,7 @@ public class BeliefStateFactory{
 	
 	public int countEntries() {
 		int cEntries = 0;
-		for( BeliefState bs : m_hmCachedBeliefStates.keySet() ){
+		for( BeliefState bs : m_hmCachedBeliefStates ){
 			cEntries += bs.countEntries();
 		}
 		return cEntries;
@@ -0,0 +1,345 @@
+package pomdp.utilities;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+
+import pomdp.environments.POMDP;
+import pomdp.utilities.datastructures.StaticMap;
+
+/**
+ * Alpha vector over primitive arrays, with the same value semantics as SparseAlphaVector (zero entries are absent, the offset applies to the others).
+ * While the vector is written it keeps a dense double[] over all states. finalizeValues keeps the dense array when the vector is dense enough,
+ * and otherwise replaces it with sorted index and value arrays. A write to a finalized sparse vector expands it back to the dense form.
+ * Dot products use a dedicated loop for each pairing of dense or sparse alpha and dense or sparse belief, and sum in ascending state order
+ * like the iterators did, without boxing.
+ */
+public class CompactAlphaVector extends AlphaVector {
+	private static final long serialVersionUID = 1L;
+
+	// vectors with at most this fraction of non zero entries are stored sparse once finalized
+	private static final double SPARSE_DENSITY = 0.25;
+
+	private double[] m_adValues;			//dense form, null when sparse
+	private int[] m_aiSparseIndexes;		//sparse form, sorted
+	private double[] m_adSparseValues;
+	private int m_cNonZero;
+
+	public CompactAlphaVector( BeliefState bsWitness, int iAction, POMDP pomdp ){
+		super( bsWitness, iAction, pomdp );
+		m_adValues = new double[m_cStates];
+		m_aiSparseIndexes = null;
+		m_adSparseValues = null;
+		m_cNonZero = 0;
+	}
+
+	public boolean isSparse(){
+		return m_adValues == null;
+	}
+
+	public double valueAt( int iState ){
+		double dValue = 0.0;
+		if( m_adValues != null ){
+			dValue = m_adValues[iState];
+		}
+		else{
+			int idx = Arrays.binarySearch( m_aiSparseIndexes, 0, m_cNonZero, iState );
+			if( idx >= 0 )
+				dValue = m_adSparseValues[idx];
+		}
+		if( dValue == 0.0 )
+			return 0.0;
+		return dValue - m_dOffset;
+	}
+
+	//reads the arrays directly, with a merge over the sorted entries rather than a binary search per state when sparse
+	public void valuesAt( int[] aiStates, int cStates, double[] adValues, int iFirst ){
+		int i = 0, idx = 0;
+		if( m_dOffset != 0.0 ){
+			super.valuesAt( aiStates, cStates, adValues, iFirst );
+			return;
+		}
+		if( m_adValues != null ){
+			for( i = 0 ; i < cStates ; i++ )
+				adValues[iFirst + i] = m_adValues[aiStates[i]];
+			return;
+		}
+		for( i = 0 ; i < cStates ; i++ ){
+			while( ( idx < m_cNonZero ) && ( m_aiSparseIndexes[idx] < aiStates[i] ) )
+				idx++;
+			if( ( idx < m_cNonZero ) && ( m_aiSparseIndexes[idx] == aiStates[i] ) )
+				adValues[iFirst + i] = m_adSparseValues[idx];
+			else
+				adValues[iFirst + i] = 0.0;
+		}
+	}
+	
+	public void setValue( int iState, double dValue ){
+		if( m_adValues == null )
+			expand();
+		store( iState, dValue );
+	}
+
+	private void store( int iState, double dValue ){
+		if( m_adValues[iState] != 0.0 )
+			m_cNonZero--;
+		m_adValues[iState] = dValue;
+		if( dValue != 0.0 ){
+			m_cNonZero++;
+			if( dValue > m_dMaxValue )
+				m_dMaxValue = dValue;
+			m_dAvgValue += dValue / m_cStates;
+		}
+	}
+
+	private void expand(){
+		int idx = 0;
+		m_adValues = new double[m_cStates];
+		for( idx = 0 ; idx < m_cNonZero ; idx++ ){
+			m_adValues[m_aiSparseIndexes[idx]] = m_adSparseValues[idx];
+		}
+		m_aiSparseIndexes = null;
+		m_adSparseValues = null;
+	}
+
+	public void finalizeValues(){
+		if( m_adValues == null || m_cNonZero > m_cStates * SPARSE_DENSITY )
+			return;
+		toSparse();
+	}
+
+	//switches to the sparse form regardless of density, G vectors use it to keep only their transition support
+	public void toSparse(){
+		if( m_adValues == null )
+			return;
+		int iState = 0, idx = 0;
+		m_aiSparseIndexes = new int[m_cNonZero];
+		m_adSparseValues = new double[m_cNonZero];
+		for( iState = 0 ; iState < m_cStates ; iState++ ){
+			if( m_adValues[iState] != 0.0 ){
+				m_aiSparseIndexes[idx] = iState;
+				m_adSparseValues[idx] = m_adValues[iState];
+				idx++;
+			}
+		}
+		m_adValues = null;
+	}
+
+	public Iterator<Entry<Integer,Double>> getNonZeroEntries(){
+		return new NonZeroIterator();
+	}
+
+	public AlphaVector newAlphaVector(){
+		return new CompactAlphaVector( null, 0, m_pPOMDP );
+	}
+
+	public void accumulate( AlphaVector av ){
+		if( !( av instanceof CompactAlphaVector ) || ( av.m_dOffset != 0.0 ) || ( m_dOffset != 0.0 ) ){
+			accumulateEntries( av );
+			return;
+		}
+		CompactAlphaVector cav = (CompactAlphaVector)av;
+		int iState = 0, idx = 0;
+		double dValue = 0.0;
+		if( m_adValues == null )
+			expand();
+		if( cav.m_adValues != null ){
+			for( iState = 0 ; iState < m_cStates ; iState++ ){
+				dValue = cav.m_adValues[iState];
+				if( dValue != 0.0 )
+					store( iState, dValue + m_adValues[iState] );
+			}
+		}
+		else{
+			for( idx = 0 ; idx < cav.m_cNonZero ; idx++ ){
+				iState = cav.m_aiSparseIndexes[idx];
+				store( iState, cav.m_adSparseValues[idx] + m_adValues[iState] );
+			}
+		}
+	}
+
+	private void accumulateEntries( AlphaVector av ){
+		Iterator<Entry<Integer,Double>> itNonZero = av.getNonZeroEntries();
+		Entry<Integer,Double> e = null;
+		int iState = 0;
+		while( itNonZero.hasNext() ){
+			e = itNonZero.next();
+			iState = e.getKey();
+			setValue( iState, e.getValue() + valueAt( iState ) );
+		}
+	}
+
+	public AlphaVector copy(){
+		CompactAlphaVector avCopy = new CompactAlphaVector( null, 0, m_pPOMDP );
+		int iState = 0, idx = 0;
+		if( m_adValues != null ){
+			for( iState = 0 ; iState < m_cStates ; iState++ ){
+				if( m_adValues[iState] != 0.0 )
+					avCopy.store( iState, m_adValues[iState] );
+			}
+		}
+		else{
+			for( idx = 0 ; idx < m_cNonZero ; idx++ ){
+				avCopy.store( m_aiSparseIndexes[idx], m_adSparseValues[idx] );
+			}
+		}
+		return avCopy;
+	}
+
+	//g(s) = \sum_s' O(a,s',o) tr( s,a,s') \alpha(s'), reading alpha from a dense array rather than through valueAt
+	protected AlphaVector computeG( int iAction, int iObservation ){
+		if( m_dOffset != 0.0 )
+			return super.computeG( iAction, iObservation );
+		int iStartState = 0, iEndState = 0, idx = 0;
+		double dValue = 0.0, dSum = 0.0;
+		double[] adValues = m_adValues;
+		Iterator<Entry<Integer,Double>> itNonZeroEntries = null;
+		Entry<Integer,Double> eValue = null;
+		CompactAlphaVector avResult = new CompactAlphaVector( null, iAction, m_pPOMDP );
+
+		if( adValues == null ){
+			adValues = new double[m_cStates];
+			for( idx = 0 ; idx < m_cNonZero ; idx++ )
+				adValues[m_aiSparseIndexes[idx]] = m_adSparseValues[idx];
+		}
+
+		for( iStartState = 0 ; iStartState < m_cStates ; iStartState++ ){
+			dSum = 0.0;
+			itNonZeroEntries = m_pPOMDP.getNonZeroTransitions( iStartState, iAction );
+			while( itNonZeroEntries.hasNext() ){
+				eValue = itNonZeroEntries.next();
+				iEndState = eValue.getKey();
+				dValue = adValues[iEndState];
+				if( dValue != 0 ){
+					dSum += m_pPOMDP.O( iAction, iEndState, iObservation ) * eValue.getValue() * dValue;
+				}
+			}
+			if( dSum != 0 )
+				avResult.store( iStartState, dSum );
+		}
+		if( ExecutionProperties.useSparseGVectors() )
+			avResult.toSparse();
+		else
+			avResult.finalizeValues();
+		return avResult;
+	}
+
+	protected double computeDotProduct( BeliefState bs ){
+		if( m_dOffset != 0.0 )
+			return super.computeDotProduct( bs );
+		double[] adBelief = bs.getDenseProbabilities();
+		if( m_adValues == null ){
+			if( adBelief != null )
+				return sparseDense( m_aiSparseIndexes, m_adSparseValues, m_cNonZero, adBelief );
+			StaticMap smBelief = bs.getSparseProbabilities();
+			if( smBelief == null )
+				return super.computeDotProduct( bs );
+			return sparseSparse( m_aiSparseIndexes, m_adSparseValues, m_cNonZero, smBelief.getIndexes(), smBelief.getValues(), smBelief.size() );
+		}
+		StaticMap smBelief = bs.getSparseProbabilities();
+		if( adBelief != null && ( smBelief == null || smBelief.size() * 2 > m_cStates ) )
+			return denseDense( m_adValues, adBelief, m_cStates );
+		if( smBelief == null )
+			return super.computeDotProduct( bs );
+		return sparseDense( smBelief.getIndexes(), smBelief.getValues(), smBelief.size(), m_adValues );
+	}
+
+	private static double denseDense( double[] adFirst, double[] adSecond, int cStates ){
+		double dSum = 0.0;
+		for( int iState = 0 ; iState < cStates ; iState++ )
+			dSum += adFirst[iState] * adSecond[iState];
+		return dSum;
+	}
+
+	//sparse side given by sorted indexes and values, dense side indexed by state
+	private static double sparseDense( int[] aiIndexes, double[] adValues, int cEntries, double[] adDense ){
+		double dSum = 0.0;
+		for( int idx = 0 ; idx < cEntries ; idx++ )
+			dSum += adValues[idx] * adDense[aiIndexes[idx]];
+		return dSum;
+	}
+
+	private static double sparseSparse( int[] aiFirstIndexes, double[] adFirstValues, int cFirst,
+			int[] aiSecondIndexes, double[] adSecondValues, int cSecond ){
+		double dSum = 0.0;
+		int iFirst = 0, iSecond = 0, iFirstState = 0, iSecondState = 0;
+		while( iFirst < cFirst && iSecond < cSecond ){
+			iFirstState = aiFirstIndexes[iFirst];
+			iSecondState = aiSecondIndexes[iSecond];
+			if( iFirstState == iSecondState ){
+				dSum += adFirstValues[iFirst] * adSecondValues[iSecond];
+				iFirst++;
+				iSecond++;
+			}
+			else if( iFirstState < iSecondState )
+				iFirst++;
+			else
+				iSecond++;
+		}
+		return dSum;
+	}
+
+	public int getNonZeroEntriesCount(){
+		return m_cNonZero;
+	}
+
+	public long countLocalEntries(){
+		return m_cNonZero;
+	}
+
+	public long size(){
+		return m_cNonZero;
+	}
+
+	public void setSize( int cStates ){
+		m_cStates = cStates;
+		m_adValues = new double[m_cStates];
+		m_aiSparseIndexes = null;
+		m_adSparseValues = null;
+		m_cNonZero = 0;
+	}
+
+	//raw values of the non zero entries in ascending state order, as SparseAlphaVector returned them
+	private class NonZeroIterator implements Iterator<Entry<Integer,Double>>{
+		private final double[] m_adDense = m_adValues;
+		private final int[] m_aiIndexes = m_aiSparseIndexes;
+		private final double[] m_adSparse = m_adSparseValues;
+		private final int m_cEntries = m_cNonZero;
+		private int m_iNext = -1;
+
+		public NonZeroIterator(){
+			advance();
+		}
+
+		private void advance(){
+			m_iNext++;
+			if( m_adDense != null ){
+				while( m_iNext < m_adDense.length && m_adDense[m_iNext] == 0.0 )
+					m_iNext++;
+			}
+		}
+
+		public boolean hasNext(){
+			if( m_adDense != null )
+				return m_iNext < m_adDense.length;
+			return m_iNext < m_cEntries;
+		}
+
+		public Entry<Integer,Double> next(){
+			if( !hasNext() )
+				throw new NoSuchElementException();
+			Pair<Integer,Double> p = null;
+			if( m_adDense != null )
+				p = new Pair<Integer,Double>( m_iNext, m_adDense[m_iNext] );
+			else
+				p = new Pair<Integer,Double>( m_aiIndexes[m_iNext], m_adSparse[m_iNext] );
+			advance();
+			return p;
+		}
+
+		public void remove(){
+			throw new UnsupportedOperationException();
+		}
+	}
+}
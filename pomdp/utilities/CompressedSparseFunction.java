@@ -0,0 +1,380 @@
+package pomdp.utilities;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+
+import pomdp.utilities.datastructures.Function;
+import pomdp.utilities.datastructures.NonZeroEntryVisitor;
+
+/**
+ * Sparse function stored in primitive arrays, a replacement for SparseTabularFunction on large models.
+ * Nothing is allocated for an arg1 until one of its values is set, so a joint model with millions of
+ * (state, action) pairs only pays for the entries it actually holds. While loading, every row f(arg1,arg2,*)
+ * is a sorted int[]/double[] pair; compact() then packs all the rows of an arg1 into a single CSR block.
+ * Setting a value in a compacted block unpacks it again, so the function stays writable.
+ */
+public class CompressedSparseFunction extends Function {
+	private static final long serialVersionUID = 1L;
+
+	private static final int INITIAL_ROW_CAPACITY = 4;
+
+	protected double[] m_adSingleValues;
+	protected int m_cSingleNonZero;
+	protected Block[] m_aBlocks;
+	protected int m_cTripleNonZero;
+
+	public CompressedSparseFunction( int[] aiDims ){
+		super( aiDims );
+		m_adSingleValues = null;
+		m_cSingleNonZero = 0;
+		m_aBlocks = null;
+		m_cTripleNonZero = 0;
+		if( aiDims.length >= 2 )
+			m_aBlocks = new Block[aiDims[0]];
+	}
+
+	/**
+	 * All the values whose first parameter is arg1.
+	 */
+	protected static class Block implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		// f(arg1,arg2), null until the first such value is set
+		protected double[] m_adDualValues;
+		// build form - row arg2 holds m_acRowEntries[arg2] entries sorted by arg3
+		protected int[][] m_aiRowColumns;
+		protected double[][] m_adRowValues;
+		protected int[] m_acRowEntries;
+		// compact form - row arg2 spans m_aiOffsets[arg2] .. m_aiOffsets[arg2 + 1]
+		protected int[] m_aiOffsets;
+		protected int[] m_aiColumns;
+		protected double[] m_adValues;
+	}
+
+	private void updateRange( double dValue ){
+		if( dValue > m_dMaxValue )
+			m_dMaxValue = dValue;
+		if( dValue < m_dMinValue )
+			m_dMinValue = dValue;
+	}
+
+	public double valueAt( int arg1 ){
+		if( m_adSingleValues == null )
+			return 0.0;
+		return m_adSingleValues[arg1];
+	}
+
+	public double valueAt( int arg1, int arg2 ){
+		Block b = m_aBlocks[arg1];
+		if( b == null || b.m_adDualValues == null )
+			return 0.0;
+		return b.m_adDualValues[arg2];
+	}
+
+	public double valueAt( int arg1, int arg2, int arg3 ){
+		Block b = m_aBlocks[arg1];
+		int iPos = 0;
+		if( b == null )
+			return 0.0;
+		if( b.m_aiOffsets != null ){
+			iPos = Arrays.binarySearch( b.m_aiColumns, b.m_aiOffsets[arg2], b.m_aiOffsets[arg2 + 1], arg3 );
+			if( iPos < 0 )
+				return 0.0;
+			return b.m_adValues[iPos];
+		}
+		if( b.m_aiRowColumns == null || b.m_aiRowColumns[arg2] == null )
+			return 0.0;
+		iPos = Arrays.binarySearch( b.m_aiRowColumns[arg2], 0, b.m_acRowEntries[arg2], arg3 );
+		if( iPos < 0 )
+			return 0.0;
+		return b.m_adRowValues[arg2][iPos];
+	}
+
+	public void setValue( int arg1, double dValue ){
+		updateRange( dValue );
+		if( m_adSingleValues == null ){
+			if( dValue == 0.0 )
+				return;
+			m_adSingleValues = new double[m_aDims[0]];
+		}
+		if( m_adSingleValues[arg1] == 0.0 && dValue != 0.0 )
+			m_cSingleNonZero++;
+		else if( m_adSingleValues[arg1] != 0.0 && dValue == 0.0 )
+			m_cSingleNonZero--;
+		m_adSingleValues[arg1] = dValue;
+	}
+
+	public void setValue( int arg1, int arg2, double dValue ){
+		updateRange( dValue );
+		Block b = m_aBlocks[arg1];
+		if( b == null ){
+			if( dValue == 0.0 )
+				return;
+			b = new Block();
+			m_aBlocks[arg1] = b;
+		}
+		if( b.m_adDualValues == null ){
+			if( dValue == 0.0 )
+				return;
+			b.m_adDualValues = new double[m_aDims[1]];
+		}
+		b.m_adDualValues[arg2] = dValue;
+	}
+
+	public void setValue( int arg1, int arg2, int arg3, double dValue ){
+		updateRange( dValue );
+		Block b = m_aBlocks[arg1];
+		if( b == null ){
+			if( dValue == 0.0 )
+				return;
+			b = new Block();
+			m_aBlocks[arg1] = b;
+		}
+		if( b.m_aiOffsets != null )
+			expand( b );
+		if( b.m_aiRowColumns == null ){
+			if( dValue == 0.0 )
+				return;
+			b.m_aiRowColumns = new int[m_aDims[1]][];
+			b.m_adRowValues = new double[m_aDims[1]][];
+			b.m_acRowEntries = new int[m_aDims[1]];
+		}
+
+		int[] aiColumns = b.m_aiRowColumns[arg2];
+		double[] adValues = b.m_adRowValues[arg2];
+		int cEntries = b.m_acRowEntries[arg2];
+		int iPos = -1;
+		if( aiColumns != null )
+			iPos = Arrays.binarySearch( aiColumns, 0, cEntries, arg3 );
+
+		if( iPos >= 0 ){
+			if( dValue != 0.0 ){
+				adValues[iPos] = dValue;
+			}
+			else{
+				System.arraycopy( aiColumns, iPos + 1, aiColumns, iPos, cEntries - iPos - 1 );
+				System.arraycopy( adValues, iPos + 1, adValues, iPos, cEntries - iPos - 1 );
+				b.m_acRowEntries[arg2] = cEntries - 1;
+				m_cTripleNonZero--;
+			}
+		}
+		else if( dValue != 0.0 ){
+			iPos = -iPos - 1;
+			if( aiColumns == null ){
+				aiColumns = new int[INITIAL_ROW_CAPACITY];
+				adValues = new double[INITIAL_ROW_CAPACITY];
+			}
+			else if( cEntries == aiColumns.length ){
+				aiColumns = Arrays.copyOf( aiColumns, cEntries * 2 );
+				adValues = Arrays.copyOf( adValues, cEntries * 2 );
+			}
+			System.arraycopy( aiColumns, iPos, aiColumns, iPos + 1, cEntries - iPos );
+			System.arraycopy( adValues, iPos, adValues, iPos + 1, cEntries - iPos );
+			aiColumns[iPos] = arg3;
+			adValues[iPos] = dValue;
+			b.m_aiRowColumns[arg2] = aiColumns;
+			b.m_adRowValues[arg2] = adValues;
+			b.m_acRowEntries[arg2] = cEntries + 1;
+			m_cTripleNonZero++;
+		}
+	}
+
+	/**
+	 * Packs the rows of every arg1 into one CSR block. Called by the loaders once the model is read.
+	 */
+	public void compact(){
+		int iArg1 = 0, iRow = 0, cRows = 0;
+		int[] aiOffsets = null;
+		Block b = null;
+		if( m_aBlocks == null )
+			return;
+		for( iArg1 = 0 ; iArg1 < m_aBlocks.length ; iArg1++ ){
+			b = m_aBlocks[iArg1];
+			if( b == null || b.m_aiRowColumns == null )
+				continue;
+			cRows = b.m_acRowEntries.length;
+			aiOffsets = new int[cRows + 1];
+			for( iRow = 0 ; iRow < cRows ; iRow++ )
+				aiOffsets[iRow + 1] = aiOffsets[iRow] + b.m_acRowEntries[iRow];
+			b.m_aiColumns = new int[aiOffsets[cRows]];
+			b.m_adValues = new double[aiOffsets[cRows]];
+			for( iRow = 0 ; iRow < cRows ; iRow++ ){
+				if( b.m_acRowEntries[iRow] > 0 ){
+					System.arraycopy( b.m_aiRowColumns[iRow], 0, b.m_aiColumns, aiOffsets[iRow], b.m_acRowEntries[iRow] );
+					System.arraycopy( b.m_adRowValues[iRow], 0, b.m_adValues, aiOffsets[iRow], b.m_acRowEntries[iRow] );
+				}
+			}
+			b.m_aiOffsets = aiOffsets;
+			b.m_aiRowColumns = null;
+			b.m_adRowValues = null;
+			b.m_acRowEntries = null;
+		}
+	}
+
+	private void expand( Block b ){
+		int cRows = b.m_aiOffsets.length - 1, iRow = 0, iStart = 0, iEnd = 0;
+		b.m_aiRowColumns = new int[cRows][];
+		b.m_adRowValues = new double[cRows][];
+		b.m_acRowEntries = new int[cRows];
+		for( iRow = 0 ; iRow < cRows ; iRow++ ){
+			iStart = b.m_aiOffsets[iRow];
+			iEnd = b.m_aiOffsets[iRow + 1];
+			if( iEnd > iStart ){
+				b.m_aiRowColumns[iRow] = Arrays.copyOfRange( b.m_aiColumns, iStart, iEnd );
+				b.m_adRowValues[iRow] = Arrays.copyOfRange( b.m_adValues, iStart, iEnd );
+				b.m_acRowEntries[iRow] = iEnd - iStart;
+			}
+		}
+		b.m_aiOffsets = null;
+		b.m_aiColumns = null;
+		b.m_adValues = null;
+	}
+
+	/**
+	 * Writes the function for ModelCompiler, compacting it first so that every block is written as its CSR arrays.
+	 */
+	public void write( DataOutputStream dosOutput ) throws IOException{
+		int iArg1 = 0;
+		Block b = null;
+		compact();
+		ModelCompiler.writeInts( dosOutput, m_aDims );
+		dosOutput.writeDouble( m_dMinValue );
+		dosOutput.writeDouble( m_dMaxValue );
+		dosOutput.writeInt( m_cSingleNonZero );
+		dosOutput.writeInt( m_cTripleNonZero );
+		ModelCompiler.writeDoubles( dosOutput, m_adSingleValues );
+		if( m_aBlocks == null )
+			return;
+		for( iArg1 = 0 ; iArg1 < m_aBlocks.length ; iArg1++ ){
+			b = m_aBlocks[iArg1];
+			dosOutput.writeBoolean( b != null );
+			if( b != null ){
+				ModelCompiler.writeDoubles( dosOutput, b.m_adDualValues );
+				ModelCompiler.writeInts( dosOutput, b.m_aiOffsets );
+				ModelCompiler.writeInts( dosOutput, b.m_aiColumns );
+				ModelCompiler.writeDoubles( dosOutput, b.m_adValues );
+			}
+		}
+	}
+
+	/**
+	 * Reads a function written by write, in compact form, copying its arrays in bulk out of bbInput.
+	 */
+	public static CompressedSparseFunction read( ByteBuffer bbInput ){
+		CompressedSparseFunction fRead = new CompressedSparseFunction( ModelCompiler.readInts( bbInput ) );
+		int iArg1 = 0;
+		Block b = null;
+		fRead.m_dMinValue = bbInput.getDouble();
+		fRead.m_dMaxValue = bbInput.getDouble();
+		fRead.m_cSingleNonZero = bbInput.getInt();
+		fRead.m_cTripleNonZero = bbInput.getInt();
+		fRead.m_adSingleValues = ModelCompiler.readDoubles( bbInput );
+		if( fRead.m_aBlocks == null )
+			return fRead;
+		for( iArg1 = 0 ; iArg1 < fRead.m_aBlocks.length ; iArg1++ ){
+			if( bbInput.get() != 0 ){
+				b = new Block();
+				b.m_adDualValues = ModelCompiler.readDoubles( bbInput );
+				b.m_aiOffsets = ModelCompiler.readInts( bbInput );
+				b.m_aiColumns = ModelCompiler.readInts( bbInput );
+				b.m_adValues = ModelCompiler.readDoubles( bbInput );
+				fRead.m_aBlocks[iArg1] = b;
+			}
+		}
+		return fRead;
+	}
+
+	public void forEachNonZero( int arg1, int arg2, NonZeroEntryVisitor visitor ){
+		Block b = m_aBlocks[arg1];
+		int iPos = 0, iEnd = 0;
+		if( b == null )
+			return;
+		if( b.m_aiOffsets != null ){
+			iEnd = b.m_aiOffsets[arg2 + 1];
+			for( iPos = b.m_aiOffsets[arg2] ; iPos < iEnd ; iPos++ )
+				visitor.visit( b.m_aiColumns[iPos], b.m_adValues[iPos] );
+		}
+		else if( b.m_aiRowColumns != null && b.m_aiRowColumns[arg2] != null ){
+			iEnd = b.m_acRowEntries[arg2];
+			for( iPos = 0 ; iPos < iEnd ; iPos++ )
+				visitor.visit( b.m_aiRowColumns[arg2][iPos], b.m_adRowValues[arg2][iPos] );
+		}
+	}
+
+	public Iterator<Entry<Integer,Double>> getNonZeroEntries( int arg1, int arg2 ){
+		Block b = m_aBlocks[arg1];
+		if( b == null )
+			return Collections.emptyIterator();
+		if( b.m_aiOffsets != null )
+			return new RowIterator( b.m_aiColumns, b.m_adValues, b.m_aiOffsets[arg2], b.m_aiOffsets[arg2 + 1] );
+		if( b.m_aiRowColumns != null && b.m_aiRowColumns[arg2] != null )
+			return new RowIterator( b.m_aiRowColumns[arg2], b.m_adRowValues[arg2], 0, b.m_acRowEntries[arg2] );
+		return Collections.emptyIterator();
+	}
+
+	public Iterator<Entry<Integer,Double>> getNonZeroEntries(){
+		List<Entry<Integer,Double>> lEntries = new ArrayList<Entry<Integer,Double>>( m_cSingleNonZero );
+		int iArg1 = 0;
+		if( m_adSingleValues != null ){
+			for( iArg1 = 0 ; iArg1 < m_adSingleValues.length ; iArg1++ ){
+				if( m_adSingleValues[iArg1] != 0.0 )
+					lEntries.add( new Pair<Integer,Double>( iArg1, m_adSingleValues[iArg1] ) );
+			}
+		}
+		return lEntries.iterator();
+	}
+
+	public int countNonZeroEntries( int arg1, int arg2 ){
+		Block b = m_aBlocks[arg1];
+		if( b == null )
+			return 0;
+		if( b.m_aiOffsets != null )
+			return b.m_aiOffsets[arg2 + 1] - b.m_aiOffsets[arg2];
+		if( b.m_acRowEntries != null )
+			return b.m_acRowEntries[arg2];
+		return 0;
+	}
+
+	public int countEntries(){
+		return m_cTripleNonZero;
+	}
+
+	public int countNonZeroEntries(){
+		return m_cSingleNonZero;
+	}
+
+	private static class RowIterator implements Iterator<Entry<Integer,Double>> {
+		private final int[] m_aiColumns;
+		private final double[] m_adValues;
+		private int m_iNext;
+		private final int m_iEnd;
+
+		public RowIterator( int[] aiColumns, double[] adValues, int iStart, int iEnd ){
+			m_aiColumns = aiColumns;
+			m_adValues = adValues;
+			m_iNext = iStart;
+			m_iEnd = iEnd;
+		}
+
+		public boolean hasNext(){
+			return m_iNext < m_iEnd;
+		}
+
+		public Entry<Integer,Double> next(){
+			if( m_iNext >= m_iEnd )
+				throw new NoSuchElementException();
+			Entry<Integer,Double> e = new Pair<Integer,Double>( m_aiColumns[m_iNext], m_adValues[m_iNext] );
+			m_iNext++;
+			return e;
+		}
+	}
+}
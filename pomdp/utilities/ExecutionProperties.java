@@ -13,6 +13,19 @@ public class ExecutionProperties {
 	private static int m_cThreads = 20;
 	private static boolean m_bUseRemoteHelpers = false;
 	private static boolean m_bEnableDistributedComputing = false;
+	private static boolean m_bWarmStart = true;
+	private static int m_cWarmStartIterations = 25;
+	private static boolean m_bParallelPlanning = true;
+	private static int m_cJointTransitionCacheRows = 1 << 16;
+	private static int m_cGCacheMegabytes = 256;
+	private static boolean m_bSparseGVectors = false;
+	private static boolean m_bMaxAlphaIndex = true;
+	private static boolean m_bWeakBeliefCache = false;
+	private static long m_cBeliefCacheEntries = 0;
+	private static int m_cBackupThreads = 0;
+	public static boolean m_bBatchedBackups = true;
+	public static boolean m_bCompiledModels = true;
+	public static boolean m_bStreamingParser = true;
 	
 	public static boolean getDebug(){
 		return m_bDebug;
@@ -42,6 +55,60 @@ public class ExecutionProperties {
 	public static int getHighLevelThreadCount(){
 		return 4;
 	}
+	public static boolean useWarmStart(){
+		return m_bWarmStart;
+	}
+	public static int getWarmStartIterations(){
+		return m_cWarmStartIterations;
+	}
+	public static boolean useParallelPlanning(){
+		return m_bParallelPlanning;
+	}
+	public static int getPlanningThreadCount(){
+		return Runtime.getRuntime().availableProcessors();
+	}
+	// number of joint (s,a) successor rows kept by JointBeaconDistanceGrid, 0 disables the cache
+	public static int getJointTransitionCacheRows(){
+		return m_cJointTransitionCacheRows;
+	}
+	// memory budget of the G(a,o) vectors cached by AlphaVector.G
+	public static int getGCacheMegabytes(){
+		return m_cGCacheMegabytes;
+	}
+	// store every G(a,o) vector sparsely over the states it has values for, instead of choosing by density
+	public static boolean useSparseGVectors(){
+		return m_bSparseGVectors;
+	}
+	// find max alpha vectors with the bounds of MaxAlphaIndex rather than a dot product with every vector
+	public static boolean useMaxAlphaIndex(){
+		return m_bMaxAlphaIndex;
+	}
+	// let the belief state factory cache drop beliefs that nothing else references
+	public static boolean useWeakBeliefCache(){
+		return m_bWeakBeliefCache;
+	}
+	// entries of the per belief pr(o|a,b) and successor caches held by all beliefs together, 0 leaves them unbounded
+	public static long getBeliefCacheEntries(){
+		return m_cBeliefCacheEntries;
+	}
+	// workers of the fork/join pool used by multi threaded backups, 0 uses one per processor
+	public static int getBackupThreadCount(){
+		if( m_cBackupThreads > 0 )
+			return m_cBackupThreads;
+		return Runtime.getRuntime().availableProcessors();
+	}
+	// back up the points of a PBVI iteration in blocks with one dense product per G(a,o), see BatchedBackup
+	public static boolean useBatchedBackups(){
+		return m_bBatchedBackups;
+	}
+	// load models from their compiled images when up to date, and compile them after parsing, see ModelCompiler
+	public static boolean useCompiledModels(){
+		return m_bCompiledModels;
+	}
+	// parse .POMDP files with StreamingPOMDPLoader rather than POMDPLoader
+	public static boolean useStreamingParser(){
+		return m_bStreamingParser;
+	}
 	public static double getEpsilon() {
 		return 0.001;
 	}
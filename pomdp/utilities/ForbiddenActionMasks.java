@@ -0,0 +1,176 @@
+package pomdp.utilities;
+
+import pomdp.environments.POMDP;
+
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Per state bitmask of the actions that may lead into a forbidden state, built for one version of a ForbiddenStates set.
+ * A movement action is forbidden at s when one of its successors is forbidden. A sensing action is forbidden at s when it
+ * may end in a forbidden state together with an observation other than the last one. The done action is never forbidden.
+ * The mask of a belief is the OR of the masks of its support states, which is what expanding the next beliefs used to compute.
+ * Masks are computed the first time a state is queried, a belief's mask and relevant actions the first time the belief is
+ * queried, and cached on the belief until these masks are replaced.
+ */
+public class ForbiddenActionMasks {
+    private final POMDP pomdp;
+    private final ForbiddenStates forbiddenStates;
+    private final int version;
+    private final int cActions;
+    private final int cWords;
+    private final int doneAction;
+    private final int[] movableActions;
+    private final int[] sensingActionOrder;
+    private final BitSet sensingActions;
+    private final AtomicReferenceArray<long[]> masks;
+
+    public ForbiddenActionMasks(POMDP pomdp, ForbiddenStates forbiddenStates) {
+        this.pomdp = pomdp;
+        this.forbiddenStates = forbiddenStates;
+        this.version = forbiddenStates.getVersion();
+        this.cActions = pomdp.getActionCount();
+        this.cWords = (cActions + 63) >>> 6;
+        this.doneAction = pomdp.getDoneAction();
+        this.movableActions = pomdp.getMovableActionArray();
+        this.sensingActionOrder = pomdp.getSensingActionArray();
+        this.sensingActions = new BitSet(cActions);
+        for (int iAction : sensingActionOrder) {
+            sensingActions.set(iAction);
+        }
+        this.masks = new AtomicReferenceArray<>(pomdp.getStateCount());
+    }
+
+    // whether these masks still describe forbiddenStates
+    public boolean isCurrent(ForbiddenStates forbiddenStates) {
+        return this.forbiddenStates == forbiddenStates && version == forbiddenStates.getVersion();
+    }
+
+    public boolean isForbidden(int iState, int iAction) {
+        return isSet(getMask(iState), iAction);
+    }
+
+    public boolean isForbidden(BeliefState bs, int iAction) {
+        return isSet(getBeliefActions(bs).forbidden, iAction);
+    }
+
+    // OR of the masks of the belief's support states, shared - do not modify
+    public long[] getMask(BeliefState bs) {
+        return getBeliefActions(bs).forbidden;
+    }
+
+    // the movable actions that are not forbidden at bs, then the sensing actions and the done action, shared - do not modify
+    public int[] getRelevantActions(BeliefState bs) {
+        return getBeliefActions(bs).relevant;
+    }
+
+    // ORs the mask of iState into mask, which getMask(BeliefState) does over the support of a belief
+    public void addStateMask(int iState, long[] mask) {
+        long[] stateMask = getMask(iState);
+        for (int iWord = 0; iWord < cWords; iWord++) {
+            mask[iWord] |= stateMask[iWord];
+        }
+    }
+
+    public static boolean isSet(long[] mask, int iAction) {
+        return (mask[iAction >>> 6] & (1L << iAction)) != 0;
+    }
+
+    private BeliefActions getBeliefActions(BeliefState bs) {
+        BeliefActions baActions = bs.getCachedActions();
+        if (baActions == null || baActions.source != this) {
+            long[] forbidden = computeMask(bs);
+            baActions = new BeliefActions(this, forbidden, computeRelevantActions(forbidden));
+            bs.setCachedActions(baActions);
+        }
+        return baActions;
+    }
+
+    private long[] computeMask(BeliefState bs) {
+        long[] mask = new long[cWords];
+        long[] stateMask;
+        for (Map.Entry<Integer, Double> eBelief : bs.getNonZeroEntries()) {
+            stateMask = getMask(eBelief.getKey());
+            for (int iWord = 0; iWord < cWords; iWord++) {
+                mask[iWord] |= stateMask[iWord];
+            }
+        }
+        return mask;
+    }
+
+    private int[] computeRelevantActions(long[] forbidden) {
+        int cAllowed = 0;
+        for (int iAction : movableActions) {
+            if (!isSet(forbidden, iAction)) {
+                cAllowed++;
+            }
+        }
+        int[] relevant = new int[cAllowed + sensingActionOrder.length + 1];
+        int i = 0;
+        for (int iAction : movableActions) {
+            if (!isSet(forbidden, iAction)) {
+                relevant[i++] = iAction;
+            }
+        }
+        for (int iAction : sensingActionOrder) {
+            relevant[i++] = iAction;
+        }
+        relevant[i] = doneAction;
+        return relevant;
+    }
+
+    private long[] getMask(int iState) {
+        long[] mask = masks.get(iState);
+        if (mask == null) {
+            mask = computeMask(iState);
+            masks.set(iState, mask);
+        }
+        return mask;
+    }
+
+    private long[] computeMask(int iState) {
+        long[] mask = new long[cWords];
+        for (int iAction = 0; iAction < cActions; iAction++) {
+            if (iAction != doneAction && leadsToForbidden(iState, iAction)) {
+                mask[iAction >>> 6] |= 1L << iAction;
+            }
+        }
+        return mask;
+    }
+
+    private boolean leadsToForbidden(int iState, int iAction) {
+        int iEndState;
+        Iterator<Map.Entry<Integer, Double>> itTransitions = pomdp.getNonZeroTransitions(iState, iAction);
+        while (itTransitions.hasNext()) {
+            iEndState = itTransitions.next().getKey();
+            if (pomdp.isForbidden(iEndState) && (!sensingActions.get(iAction) || canObserveBeforeLast(iAction, iEndState))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean canObserveBeforeLast(int iAction, int iEndState) {
+        for (int iObservation = 0; iObservation < pomdp.getObservationCount() - 1; iObservation++) {
+            if (pomdp.O(iAction, iEndState, iObservation) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // what one version of the masks says about a belief
+    public static final class BeliefActions {
+        private final ForbiddenActionMasks source;
+        private final long[] forbidden;
+        private final int[] relevant;
+
+        private BeliefActions(ForbiddenActionMasks source, long[] forbidden, int[] relevant) {
+            this.source = source;
+            this.forbidden = forbidden;
+            this.relevant = relevant;
+        }
+    }
+}
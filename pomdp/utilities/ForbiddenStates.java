@@ -0,0 +1,72 @@
+package pomdp.utilities;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Set of states an agent must not enter. The agent owns it and its grid reads it, so every change bumps a version
+ * that lets the grid know when its forbidden-action masks are stale.
+ */
+public class ForbiddenStates {
+    private final BitSet states;
+    private int version;
+
+    public ForbiddenStates() {
+        states = new BitSet();
+        version = 0;
+    }
+
+    public boolean contains(int iState) {
+        return iState >= 0 && states.get(iState);
+    }
+
+    public void add(int iState) {
+        states.set(iState);
+        version++;
+    }
+
+    public void addAll(BitSet iStates) {
+        states.or(iStates);
+        version++;
+    }
+
+    public void addAll(Collection<Integer> iStates) {
+        iStates.forEach(states::set);
+        version++;
+    }
+
+    public void clear() {
+        states.clear();
+        version++;
+    }
+
+    // replaces the content with other's
+    public void copyFrom(ForbiddenStates other) {
+        states.clear();
+        states.or(other.states);
+        version++;
+    }
+
+    public boolean isEmpty() {
+        return states.isEmpty();
+    }
+
+    public int size() {
+        return states.cardinality();
+    }
+
+    public List<Integer> toList() {
+        return states.stream().boxed().collect(Collectors.toList());
+    }
+
+    // a copy of the states, unaffected by later changes
+    public BitSet toBitSet() {
+        return (BitSet) states.clone();
+    }
+
+    public int getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,146 @@
+package pomdp.utilities;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process wide cache of the G(a,o) vectors of alpha vectors (see AlphaVector.G), bounded by an approximate memory budget.
+ * Lookups are lock free. Insertions that push the cache over its budget run a CLOCK sweep under a single lock:
+ * entries read since the last sweep get a second chance, the others are evicted.
+ * The weight of a vector is an estimate of its footprint: a fixed overhead plus 12 bytes per stored entry.
+ */
+public class GVectorCache {
+	private static final long VECTOR_OVERHEAD_BYTES = 96;
+	private static final long ENTRY_BYTES = 12;
+
+	private static GVectorCache g_gcInstance = null;
+
+	private final ConcurrentHashMap<Long,CachedG> m_mEntries;
+	private final ArrayDeque<Long> m_dClock;	//insertion ring swept by evict, guarded by itself
+	private final long m_lBudget;
+	private final AtomicLong m_lWeight;
+	private final LongAdder m_cHits, m_cMisses, m_cEvictions;
+
+	public GVectorCache( long lBudgetBytes ){
+		m_mEntries = new ConcurrentHashMap<Long,CachedG>();
+		m_dClock = new ArrayDeque<Long>();
+		m_lBudget = lBudgetBytes;
+		m_lWeight = new AtomicLong();
+		m_cHits = new LongAdder();
+		m_cMisses = new LongAdder();
+		m_cEvictions = new LongAdder();
+	}
+
+	public static synchronized GVectorCache getInstance(){
+		if( g_gcInstance == null )
+			g_gcInstance = new GVectorCache( ExecutionProperties.getGCacheMegabytes() * 1024L * 1024L );
+		return g_gcInstance;
+	}
+
+	private static final long MAX_ACTION_OBSERVATION_PAIRS = 1L << 31;
+
+	// whether key() is unique for a model with cActions actions and cObservations observations
+	public static boolean canKey( int cActions, int cObservations ){
+		return (long)cActions * cObservations < MAX_ACTION_OBSERVATION_PAIRS;
+	}
+
+	// key of G(iAction,iObservation) of the alpha vector with id iVectorId, unique only when canKey holds for the model
+	public static long key( long iVectorId, int iAction, int iObservation, int cObservations ){
+		return ( iVectorId << 31 ) | ( (long)iAction * cObservations + iObservation );
+	}
+
+	public AlphaVector get( long lKey ){
+		CachedG cg = m_mEntries.get( lKey );
+		if( cg == null ){
+			m_cMisses.increment();
+			return null;
+		}
+		cg.m_bReferenced = true;
+		m_cHits.increment();
+		return cg.m_avG;
+	}
+
+	// a vector already cached under lKey (put by another thread) is kept
+	public void put( long lKey, AlphaVector avG ){
+		CachedG cg = new CachedG( avG );
+		if( m_mEntries.putIfAbsent( lKey, cg ) != null )
+			return;
+		m_lWeight.addAndGet( cg.m_lWeight );
+		synchronized( m_dClock ){
+			m_dClock.addLast( lKey );
+			evict();
+		}
+	}
+
+	private void evict(){
+		Long lKey = null;
+		CachedG cg = null;
+		while( m_lWeight.get() > m_lBudget && !m_dClock.isEmpty() ){
+			lKey = m_dClock.pollFirst();
+			cg = m_mEntries.get( lKey );
+			if( cg == null )
+				continue;
+			if( cg.m_bReferenced ){
+				cg.m_bReferenced = false;
+				m_dClock.addLast( lKey );
+			}
+			else{
+				m_mEntries.remove( lKey );
+				m_lWeight.addAndGet( -cg.m_lWeight );
+				m_cEvictions.increment();
+			}
+		}
+	}
+
+	public void clear(){
+		synchronized( m_dClock ){
+			m_mEntries.clear();
+			m_dClock.clear();
+			m_lWeight.set( 0 );
+		}
+		m_cHits.reset();
+		m_cMisses.reset();
+		m_cEvictions.reset();
+	}
+
+	public long getHits(){
+		return m_cHits.sum();
+	}
+
+	public long getMisses(){
+		return m_cMisses.sum();
+	}
+
+	public long getEvictions(){
+		return m_cEvictions.sum();
+	}
+
+	public long getWeight(){
+		return m_lWeight.get();
+	}
+
+	public int size(){
+		return m_mEntries.size();
+	}
+
+	public String toString(){
+		long cHits = getHits(), cMisses = getMisses();
+		double dHitRate = ( cHits + cMisses ) == 0 ? 0.0 : cHits / (double)( cHits + cMisses );
+		return "G cache: " + size() + " vectors, " + getWeight() / 1024 + "KB, hits " + cHits + ", misses " + cMisses
+				+ ", hit rate " + Math.round( dHitRate * 1000 ) / 1000.0 + ", evictions " + getEvictions();
+	}
+
+	private static class CachedG {
+		private final AlphaVector m_avG;
+		private final long m_lWeight;
+		private volatile boolean m_bReferenced;
+
+		CachedG( AlphaVector avG ){
+			m_avG = avG;
+			m_lWeight = VECTOR_OVERHEAD_BYTES + ENTRY_BYTES * avG.countLocalEntries();
+			m_bReferenced = true;	//survives the sweep that its own insertion may trigger
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package pomdp.utilities;
+
+import pomdp.environments.Grid;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * All-pairs shortest path distances (in moves) between the cells of a grid, respecting holes.
+ * Distances are computed by BFS from each source cell and stored as compact short rows.
+ * Small grids are computed eagerly at construction, bigger grids compute each source row on first use.
+ */
+public class GridDistanceOracle {
+    public static final int EAGER_MAX_CELLS = 1024;
+    private static final short UNREACHABLE = -1;
+
+    private final Grid grid;
+    private final int cCells;
+    private final short[][] rows;
+    private final boolean isLazy;
+
+    public GridDistanceOracle(Grid grid, int cCells) {
+        this.grid = grid;
+        this.cCells = cCells;
+        this.rows = new short[cCells][];
+        this.isLazy = cCells > EAGER_MAX_CELLS;
+        if (!isLazy) {
+            int[] queue = new int[cCells];
+            for (int iSource = 0; iSource < cCells; iSource++) {
+                rows[iSource] = bfs(iSource, queue);
+            }
+        }
+    }
+
+    public int getCellCount() {
+        return cCells;
+    }
+
+    public boolean isLazy() {
+        return isLazy;
+    }
+
+    public boolean isCell(int iState) {
+        return iState >= 0 && iState < cCells;
+    }
+
+    // returns Integer.MAX_VALUE if iTarget cannot be reached from iSource
+    public int distance(int iSource, int iTarget) {
+        if (iSource == iTarget) {
+            return 0;
+        }
+        if (!isCell(iSource) || !isCell(iTarget)) {
+            return Integer.MAX_VALUE;
+        }
+        short dist = getRow(iSource)[iTarget];
+        return dist == UNREACHABLE ? Integer.MAX_VALUE : dist;
+    }
+
+    // minimal distance between iTarget and any state in the support of the belief, bounded by iBound
+    public int minDistance(BeliefState bs, int iTarget, int iBound) {
+        int minDistance = iBound;
+        for (Map.Entry<Integer, Double> e : bs.getNonZeroEntries()) {
+            minDistance = Math.min(minDistance, distance(e.getKey(), iTarget));
+            if (minDistance == 0) {
+                break;
+            }
+        }
+        return minDistance;
+    }
+
+    private short[] getRow(int iSource) {
+        return isLazy ? lazyRow(iSource) : rows[iSource];
+    }
+
+    // eager rows are published by the constructor, lazy rows are only touched under the lock
+    private synchronized short[] lazyRow(int iSource) {
+        if (rows[iSource] == null) {
+            rows[iSource] = bfs(iSource, new int[cCells]);
+        }
+        return rows[iSource];
+    }
+
+    private short[] bfs(int iSource, int[] queue) {
+        short[] dist = new short[cCells];
+        Arrays.fill(dist, UNREACHABLE);
+        int head = 0, tail = 0;
+        int iState, iNext, row, col;
+        Point loc;
+
+        dist[iSource] = 0;
+        queue[tail++] = iSource;
+        while (head < tail) {
+            iState = queue[head++];
+            loc = grid.stateToLocation(iState);
+            row = loc.first();
+            col = loc.second();
+            for (int iDirection = 0; iDirection < 4; iDirection++) {
+                iNext = neighbor(row, col, iDirection);
+                if (iNext >= 0 && iNext < cCells && dist[iNext] == UNREACHABLE) {
+                    dist[iNext] = (short) (dist[iState] + 1);
+                    queue[tail++] = iNext;
+                }
+            }
+        }
+        return dist;
+    }
+
+    private int neighbor(int row, int col, int iDirection) {
+        switch (iDirection) {
+            case 0:
+                return grid.validLocation(row - 1, col) ? grid.locationToState(row - 1, col) : grid.HOLE;
+            case 1:
+                return grid.validLocation(row + 1, col) ? grid.locationToState(row + 1, col) : grid.HOLE;
+            case 2:
+                return grid.validLocation(row, col + 1) ? grid.locationToState(row, col + 1) : grid.HOLE;
+            default:
+                return grid.validLocation(row, col - 1) ? grid.locationToState(row, col - 1) : grid.HOLE;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package pomdp.utilities;
+
+import pomdp.environments.BeaconDistanceGrid;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps one parsed BeaconDistanceGrid per model file and agent, and hands out forks of it.
+ * The cached grids are never planned on, so replans only pay for the per-agent state of a fork instead of re-reading the model.
+ * Different models are loaded concurrently, a model requested by several threads is loaded once.
+ */
+public class GridModelCache {
+    private static GridModelCache instance = null;
+
+    private final Map<String, BeaconDistanceGrid> models;
+    private final Map<String, Object> loadLocks;
+
+    private GridModelCache() {
+        models = new ConcurrentHashMap<>();
+        loadLocks = new ConcurrentHashMap<>();
+    }
+
+    public static synchronized GridModelCache getInstance() {
+        if (instance == null) {
+            instance = new GridModelCache();
+        }
+        return instance;
+    }
+
+    public BeaconDistanceGrid getGrid(String sFileName, char id) throws IOException, InvalidModelFileFormatException {
+        return getModel(sFileName, id).fork();
+    }
+
+    private BeaconDistanceGrid getModel(String sFileName, char id) throws IOException, InvalidModelFileFormatException {
+        String key = sFileName + ":" + id;
+        BeaconDistanceGrid model = models.get(key);
+        if (model != null) {
+            return model;
+        }
+        synchronized (loadLocks.computeIfAbsent(key, k -> new Object())) {
+            model = models.get(key);
+            if (model == null) {
+                model = new BeaconDistanceGrid(2);
+                model.load(sFileName, id);
+                model.setNOOP(model.getActionIndex("noop"));
+                model.setOrigin(Point.getPoint(0, 0));
+                models.put(key, model);
+            }
+            return model;
+        }
+    }
+
+    public void clear() {
+        models.clear();
+        loadLocks.clear();
+    }
+}
@@ -29,7 +29,7 @@ public class Logger {
 		m_psOutput = new PrintStream( new FileOutputStream( sFileName ) );
 	}
 	
-	public static Logger getInstance(){
+	public static synchronized Logger getInstance(){
 		if( m_lInstance == null )
 			m_lInstance = new Logger();
 		return m_lInstance;
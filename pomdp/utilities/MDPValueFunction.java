@@ -461,8 +461,12 @@ public class MDPValueFunction extends PolicyStrategy {
 			}
 			dMax = -10000;
 			int iMax = -1;
-			for( int i = 0 ; i < m_cStates ; i++ ){
-				if( tr( j, iMaxAction, i ) > 0.0 ){
+			//the successors through the non zero transitions rather than tr over all states, which is quadratic in |S|
+			Iterator<Entry<Integer,Double>> itSuccessors = getNonZeroTransitions( j, iMaxAction );
+			while( itSuccessors.hasNext() ){
+				Entry<Integer,Double> eSuccessor = itSuccessors.next();
+				int i = eSuccessor.getKey();
+				if( eSuccessor.getValue() > 0.0 ){
 					if( m_adValues.elementAt( i ) > dMax ){
 						dMax = m_adValues.elementAt( i );
 						iMax = i;
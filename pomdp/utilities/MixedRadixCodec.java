@@ -0,0 +1,108 @@
+package pomdp.utilities;
+
+import java.util.List;
+
+/**
+ * Packs a tuple of digits (e.g. one single-agent state per agent) into one int, digit i having the weight radix_0 * ... * radix_(i-1).
+ * Small code spaces are decoded through a precomputed digit table, bigger ones by division. Encoding and decoding never allocate,
+ * and the codec is immutable, so it can be shared between threads.
+ */
+public class MixedRadixCodec {
+    // upper bound on the number of ints held by the digit table
+    public static final int MAX_TABLE_ENTRIES = 1 << 22;
+
+    private final int[] radices;
+    private final int[] weights;
+    private final int size;
+    // digitTable[i][code] is digit i of code, null when the code space is too big to tabulate
+    private final int[][] digitTable;
+
+    public MixedRadixCodec(int cDigits, int radix) {
+        this(uniform(cDigits, radix));
+    }
+
+    public MixedRadixCodec(int[] radices) {
+        this.radices = radices.clone();
+        this.weights = new int[radices.length];
+        long weight = 1;
+        for (int i = 0; i < radices.length; i++) {
+            weights[i] = (int) weight;
+            weight *= radices[i];
+            if (weight > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Code space does not fit in an int: " + weight);
+            }
+        }
+        size = (int) weight;
+
+        if ((long) size * radices.length <= MAX_TABLE_ENTRIES) {
+            digitTable = new int[radices.length][size];
+            for (int code = 0; code < size; code++) {
+                for (int i = 0; i < radices.length; i++) {
+                    digitTable[i][code] = (code / weights[i]) % radices[i];
+                }
+            }
+        }
+        else {
+            digitTable = null;
+        }
+    }
+
+    private static int[] uniform(int cDigits, int radix) {
+        int[] radices = new int[cDigits];
+        for (int i = 0; i < cDigits; i++) {
+            radices[i] = radix;
+        }
+        return radices;
+    }
+
+    // number of distinct codes
+    public int size() {
+        return size;
+    }
+
+    public int getDigitCount() {
+        return radices.length;
+    }
+
+    public int getRadix(int i) {
+        return radices[i];
+    }
+
+    public int weight(int i) {
+        return weights[i];
+    }
+
+    public boolean isTabulated() {
+        return digitTable != null;
+    }
+
+    public int digit(int code, int i) {
+        if (digitTable != null) {
+            return digitTable[i][code];
+        }
+        return (code / weights[i]) % radices[i];
+    }
+
+    // writes the digits of code into digits, which must hold getDigitCount() entries
+    public void decode(int code, int[] digits) {
+        for (int i = 0; i < radices.length; i++) {
+            digits[i] = digit(code, i);
+        }
+    }
+
+    public int encode(int[] digits) {
+        int code = 0;
+        for (int i = 0; i < radices.length; i++) {
+            code += weights[i] * digits[i];
+        }
+        return code;
+    }
+
+    public int encode(List<Integer> digits) {
+        int code = 0;
+        for (int i = 0; i < radices.length; i++) {
+            code += weights[i] * digits.get(i);
+        }
+        return code;
+    }
+}
@@ -0,0 +1,93 @@
+package pomdp.utilities;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares decoding joint indexes through per-index cached List<Integer> (the former JointBeaconDistanceGrid scheme)
+ * with MixedRadixCodec, on the access pattern of tr/O/isCollisionState: random joint indexes, every agent's value read.
+ * Usage: MixedRadixCodecBenchmark [single states] [lookups]
+ */
+public class MixedRadixCodecBenchmark {
+
+    public static void main(String[] args) {
+        int cSingleStates = args.length > 0 ? Integer.parseInt(args[0]) : 26;
+        int cLookups = args.length > 1 ? Integer.parseInt(args[1]) : 5000000;
+
+        for (int cAgents = 2; cAgents <= 4; cAgents++) {
+            MixedRadixCodec codec = new MixedRadixCodec(cAgents, cSingleStates);
+            int[] aiCodes = new int[1 << 16];
+            RandomGenerator rnd = RandomGenerator.getInstance();
+            for (int i = 0; i < aiCodes.length; i++) {
+                aiCodes[i] = rnd.nextInt(codec.size());
+            }
+
+            // warm up both paths before measuring
+            runLists(newListCache(codec.size()), aiCodes, cAgents, cSingleStates, cLookups / 10);
+            runCodec(codec, aiCodes, cAgents, cLookups / 10);
+
+            List<Integer>[] aCache = newListCache(codec.size());
+            long lAllocated = allocatedBytes(), lStart = System.nanoTime();
+            long lListsChecksum = runLists(aCache, aiCodes, cAgents, cSingleStates, cLookups);
+            long lListsTime = System.nanoTime() - lStart, lListsAllocated = allocatedBytes() - lAllocated;
+
+            lAllocated = allocatedBytes();
+            lStart = System.nanoTime();
+            long lCodecChecksum = runCodec(codec, aiCodes, cAgents, cLookups);
+            long lCodecTime = System.nanoTime() - lStart, lCodecAllocated = allocatedBytes() - lAllocated;
+
+            if (lListsChecksum != lCodecChecksum) {
+                throw new IllegalStateException("Decoders disagree: " + lListsChecksum + " vs " + lCodecChecksum);
+            }
+            System.out.println(cAgents + " agents, " + codec.size() + " joint states" + (codec.isTabulated() ? " (table)" : " (division)") +
+                    ": lists " + lListsTime / 1000000 + " ms, " + lListsAllocated / 1000000 + " MB allocated" +
+                    " | codec " + lCodecTime / 1000000 + " ms, " + lCodecAllocated / 1000000 + " MB allocated");
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static List<Integer>[] newListCache(int cStates) {
+        return new List[cStates];
+    }
+
+    private static long runLists(List<Integer>[] aCache, int[] aiCodes, int cAgents, int cSingleStates, int cLookups) {
+        long lChecksum = 0;
+        for (int i = 0; i < cLookups; i++) {
+            int iCode = aiCodes[i & (aiCodes.length - 1)];
+            if (aCache[iCode] == null) {
+                List<Integer> decoded = new ArrayList<>();
+                int encoded = iCode;
+                for (int iAgent = 0; iAgent < cAgents; iAgent++) {
+                    decoded.add(encoded % cSingleStates);
+                    encoded /= cSingleStates;
+                }
+                aCache[iCode] = decoded;
+            }
+            List<Integer> values = aCache[iCode];
+            for (int iAgent = 0; iAgent < cAgents; iAgent++) {
+                lChecksum += values.get(iAgent);
+            }
+        }
+        return lChecksum;
+    }
+
+    private static long runCodec(MixedRadixCodec codec, int[] aiCodes, int cAgents, int cLookups) {
+        long lChecksum = 0;
+        for (int i = 0; i < cLookups; i++) {
+            int iCode = aiCodes[i & (aiCodes.length - 1)];
+            for (int iAgent = 0; iAgent < cAgents; iAgent++) {
+                lChecksum += codec.digit(iCode, iAgent);
+            }
+        }
+        return lChecksum;
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,155 @@
+package pomdp.utilities;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import pomdp.environments.POMDP;
+
+/**
+ * Compiled models - a binary image of a model as its loader left it, so that later loads map the image instead of parsing the text.
+ * The image of model file F for agent id is F.id.bin. It starts with MAGIC, VERSION, the class of the model, the number of agents
+ * it was loaded for (POMDP.getCompiledAgentCount) and the length and modification time of F, and an image that does not match
+ * all of them is ignored, so the caller parses F and compiles it again.
+ * The rest of the image is written by POMDP.writeCompiledModel and read back by POMDP.readCompiledModel (and their overrides),
+ * with the sparse functions copied in bulk into their CSR arrays.
+ * Images are written to a temporary file and moved into place, so a concurrent load never maps half an image.
+ */
+public class ModelCompiler {
+	public static final int MAGIC = 0x504F4D43; //"POMC"
+	public static final int VERSION = 2;
+	public static final String EXTENSION = ".bin";
+
+	public static String getCompiledFileName( String sModelFile, char id ){
+		return sModelFile + "." + id + EXTENSION;
+	}
+
+	/**
+	 * Writes the compiled image of pomdp, which was just loaded from sModelFile for agent id.
+	 */
+	public static void compile( POMDP pomdp, String sModelFile, char id ) throws IOException{
+		File fModel = new File( sModelFile );
+		Path pCompiled = new File( getCompiledFileName( sModelFile, id ) ).toPath().toAbsolutePath();
+		Path pTemp = Files.createTempFile( pCompiled.getParent(), pCompiled.getFileName().toString(), ".tmp" );
+		try{
+			try( DataOutputStream dosOutput = new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( pTemp ), 1 << 16 ) ) ){
+				dosOutput.writeInt( MAGIC );
+				dosOutput.writeInt( VERSION );
+				writeString( dosOutput, pomdp.getClass().getName() );
+				dosOutput.writeInt( pomdp.getCompiledAgentCount() );
+				dosOutput.writeLong( fModel.length() );
+				dosOutput.writeLong( fModel.lastModified() );
+				pomdp.writeCompiledModel( dosOutput );
+			}
+			Files.move( pTemp, pCompiled, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		}
+		finally{
+			Files.deleteIfExists( pTemp );
+		}
+	}
+
+	/**
+	 * Loads pomdp from the compiled image of sModelFile for agent id.
+	 * @return false, leaving pomdp untouched, when there is no image or it was compiled from another version of the file, format or class,
+	 * or for another number of agents
+	 */
+	public static boolean load( POMDP pomdp, String sModelFile, char id ) throws IOException, InvalidModelFileFormatException{
+		File fModel = new File( sModelFile ), fCompiled = new File( getCompiledFileName( sModelFile, id ) );
+		ByteBuffer bbInput = null;
+		if( !fCompiled.isFile() )
+			return false;
+		try( FileChannel fcInput = FileChannel.open( fCompiled.toPath(), StandardOpenOption.READ ) ){
+			bbInput = fcInput.map( FileChannel.MapMode.READ_ONLY, 0, fcInput.size() );
+		}
+		try{
+			if( bbInput.getInt() != MAGIC || bbInput.getInt() != VERSION || !readString( bbInput ).equals( pomdp.getClass().getName() ) ||
+					bbInput.getInt() != pomdp.getCompiledAgentCount() || bbInput.getLong() != fModel.length() ||
+					bbInput.getLong() != fModel.lastModified() )
+				return false;
+		}
+		catch( BufferUnderflowException e ){
+			return false;
+		}
+		try{
+			pomdp.readCompiledModel( bbInput );
+		}
+		catch( BufferUnderflowException | IllegalArgumentException e ){
+			throw new InvalidModelFileFormatException( "Corrupted compiled model " + fCompiled + ": " + e );
+		}
+		if( bbInput.hasRemaining() )
+			throw new InvalidModelFileFormatException( "Corrupted compiled model " + fCompiled + ": " + bbInput.remaining() + " trailing bytes" );
+		System.out.println( "Loaded compiled model " + fCompiled );
+		return true;
+	}
+
+	// null is written as length -1
+	public static void writeInts( DataOutputStream dosOutput, int[] aiValues ) throws IOException{
+		if( aiValues == null ){
+			dosOutput.writeInt( -1 );
+			return;
+		}
+		dosOutput.writeInt( aiValues.length );
+		for( int iValue : aiValues )
+			dosOutput.writeInt( iValue );
+	}
+
+	public static int[] readInts( ByteBuffer bbInput ){
+		int cValues = bbInput.getInt();
+		if( cValues < 0 )
+			return null;
+		int[] aiValues = new int[cValues];
+		bbInput.asIntBuffer().get( aiValues );
+		bbInput.position( bbInput.position() + cValues * Integer.BYTES );
+		return aiValues;
+	}
+
+	// null is written as length -1
+	public static void writeDoubles( DataOutputStream dosOutput, double[] adValues ) throws IOException{
+		if( adValues == null ){
+			dosOutput.writeInt( -1 );
+			return;
+		}
+		dosOutput.writeInt( adValues.length );
+		for( double dValue : adValues )
+			dosOutput.writeDouble( dValue );
+	}
+
+	public static double[] readDoubles( ByteBuffer bbInput ){
+		int cValues = bbInput.getInt();
+		if( cValues < 0 )
+			return null;
+		double[] adValues = new double[cValues];
+		bbInput.asDoubleBuffer().get( adValues );
+		bbInput.position( bbInput.position() + cValues * Double.BYTES );
+		return adValues;
+	}
+
+	// UTF-8, null is written as length -1
+	public static void writeString( DataOutputStream dosOutput, String sValue ) throws IOException{
+		if( sValue == null ){
+			dosOutput.writeInt( -1 );
+			return;
+		}
+		byte[] abValue = sValue.getBytes( StandardCharsets.UTF_8 );
+		dosOutput.writeInt( abValue.length );
+		dosOutput.write( abValue );
+	}
+
+	public static String readString( ByteBuffer bbInput ){
+		int cBytes = bbInput.getInt();
+		if( cBytes < 0 )
+			return null;
+		byte[] abValue = new byte[cBytes];
+		bbInput.get( abValue );
+		return new String( abValue, StandardCharsets.UTF_8 );
+	}
+}
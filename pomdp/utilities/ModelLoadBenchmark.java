@@ -0,0 +1,122 @@
+package pomdp.utilities;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import pomdp.environments.BeaconDistanceGrid;
+import pomdp.environments.Grid;
+import pomdp.environments.POMDP;
+
+/**
+ * Compares loading a model by parsing its text file with loading its ModelCompiler image, each into a new model
+ * as GridModelCache (grid models) or POMDPSolver (tabular models) would, and checks that both loads return the same model:
+ * names, dynamics, rewards, start and terminal states and the grid layout.
+ * Usage: ModelLoadBenchmark [model name] [grid|pomdp] [agent id] [repetitions]
+ */
+public class ModelLoadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String sModelName = args.length > 0 ? args[0] : "medium_10_4a";
+        boolean bGrid = args.length <= 1 || args[1].equals("grid");
+        char id = args.length > 2 ? args[2].charAt(0) : 'a';
+        int cRepetitions = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+        String sFileName = ExecutionProperties.getPath() + sModelName + ".POMDP";
+        boolean bCompiledModels = ExecutionProperties.m_bCompiledModels;
+
+        ExecutionProperties.m_bCompiledModels = false;
+        POMDP pParsed = null;
+        long lParseTime = Long.MAX_VALUE;
+        for (int i = 0; i < cRepetitions; i++) {
+            long lStart = System.nanoTime();
+            pParsed = load(sFileName, bGrid, id);
+            lParseTime = Math.min(lParseTime, System.nanoTime() - lStart);
+        }
+
+        ExecutionProperties.m_bCompiledModels = true;
+        new File(ModelCompiler.getCompiledFileName(sFileName, id)).delete();
+        load(sFileName, bGrid, id);
+        POMDP pCompiled = null;
+        long lCompiledTime = Long.MAX_VALUE;
+        for (int i = 0; i < cRepetitions; i++) {
+            long lStart = System.nanoTime();
+            pCompiled = load(sFileName, bGrid, id);
+            lCompiledTime = Math.min(lCompiledTime, System.nanoTime() - lStart);
+        }
+        ExecutionProperties.m_bCompiledModels = bCompiledModels;
+
+        compare(pParsed, pCompiled);
+        System.out.println(sModelName + ": |S| = " + pParsed.getStateCount() + " |A| = " + pParsed.getActionCount() +
+                " |O| = " + pParsed.getObservationCount() + ", image " + new File(ModelCompiler.getCompiledFileName(sFileName, id)).length() + " bytes");
+        System.out.println("best of " + cRepetitions + ": parsed " + lParseTime / 1000 + " us, compiled " + lCompiledTime / 1000 + " us");
+        System.out.println("parsed and compiled models identical");
+        System.exit(0);
+    }
+
+    private static POMDP load(String sFileName, boolean bGrid, char id) throws Exception {
+        POMDP pomdp = bGrid ? new BeaconDistanceGrid(2) : new POMDP();
+        pomdp.load(sFileName, id);
+        return pomdp;
+    }
+
+    static void compare(POMDP pExpected, POMDP pActual) {
+        check("counts", pExpected.getStateCount() == pActual.getStateCount() && pExpected.getActionCount() == pActual.getActionCount() &&
+                pExpected.getObservationCount() == pActual.getObservationCount());
+        check("discount", pExpected.getDiscountFactor() == pActual.getDiscountFactor());
+        check("reward type", pExpected.getRewardType() == pActual.getRewardType());
+        check("reward range", pExpected.getMinR() == pActual.getMinR() && pExpected.getMaxR() == pActual.getMaxR() &&
+                pExpected.getMaxMinR() == pActual.getMaxMinR());
+        check("start and end states", pExpected.getAllStartStates().equals(pActual.getAllStartStates()) &&
+                pExpected.getEndState() == pActual.getEndState());
+        check("observation states", pExpected.getObservationRelevantStates().equals(pActual.getObservationRelevantStates()));
+        for (int iAction = 0; iAction < pExpected.getActionCount(); iAction++) {
+            check("action " + iAction, pExpected.getActionName(iAction).equals(pActual.getActionName(iAction)) &&
+                    pActual.getActionIndex(pExpected.getActionName(iAction)) == iAction);
+        }
+        for (int iState = 0; iState < pExpected.getStateCount(); iState++) {
+            check("state " + iState, pExpected.getStateName(iState).equals(pActual.getStateName(iState)) &&
+                    pExpected.probStartState(iState) == pActual.probStartState(iState) &&
+                    pExpected.isTerminalState(iState) == pActual.isTerminalState(iState));
+            for (int iAction = 0; iAction < pExpected.getActionCount(); iAction++) {
+                List<Map.Entry<Integer, Double>> lTransitions = entries(pExpected.getNonZeroTransitions(iState, iAction));
+                check("tr(" + iState + "," + iAction + ",*)", lTransitions.equals(entries(pActual.getNonZeroTransitions(iState, iAction))));
+                check("R(" + iState + "," + iAction + ")", pExpected.R(iState, iAction) == pActual.R(iState, iAction));
+                for (Map.Entry<Integer, Double> e : lTransitions) {
+                    check("R(" + iState + "," + iAction + "," + e.getKey() + ")",
+                            pExpected.R(iState, iAction, e.getKey()) == pActual.R(iState, iAction, e.getKey()));
+                }
+                // grids define no observations after their done action
+                for (int iObservation = 0; iObservation < pExpected.getObservationCount() &&
+                        !(pExpected instanceof Grid && iAction == pExpected.getDoneAction()); iObservation++) {
+                    check("O(" + iAction + "," + iState + "," + iObservation + ")",
+                            pExpected.O(iAction, iState, iObservation) == pActual.O(iAction, iState, iObservation));
+                }
+            }
+        }
+        if (pExpected instanceof Grid) {
+            Grid gExpected = (Grid) pExpected, gActual = (Grid) pActual;
+            check("grid", gExpected.getRows() == gActual.getRows() && gExpected.getCols() == gActual.getCols() &&
+                    gExpected.getHoles().equals(gActual.getHoles()) && gExpected.getBeacons().equals(gActual.getBeacons()) &&
+                    gExpected.getStateToLocation().equals(gActual.getStateToLocation()));
+        }
+        if (pExpected instanceof BeaconDistanceGrid) {
+            check("max distance", ((BeaconDistanceGrid) pExpected).getMaxDist() == ((BeaconDistanceGrid) pActual).getMaxDist());
+        }
+    }
+
+    private static List<Map.Entry<Integer, Double>> entries(Iterator<Map.Entry<Integer, Double>> itEntries) {
+        List<Map.Entry<Integer, Double>> lEntries = new ArrayList<>();
+        while (itEntries.hasNext()) {
+            Map.Entry<Integer, Double> e = itEntries.next();
+            lEntries.add(new Pair<>(e.getKey(), e.getValue()));
+        }
+        return lEntries;
+    }
+
+    private static void check(String sWhat, boolean bEqual) {
+        if (!bEqual)
+            throw new IllegalStateException("compiled model differs from the parsed model: " + sWhat);
+    }
+}
@@ -0,0 +1,65 @@
+package pomdp.utilities;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import pomdp.environments.POMDP;
+
+/**
+ * Compares parsing .POMDP files with POMDPLoader and with StreamingPOMDPLoader, best of a few repetitions each,
+ * reporting time and allocated bytes, and checks that both loaders build the same model.
+ * Usage: ModelParseBenchmark [repetitions] [model files in the models directory...]
+ */
+public class ModelParseBenchmark {
+    private static final String[] DEFAULT_MODELS = {"Network-2-2-4-6.pomdp", "RockSample_5_5.pomdp", "tagAvoid.POMDP",
+            "RockSample_4_4.POMDP", "Network-3-2-3-3.pomdp", "hallway.POMDP", "p3a.pomdp"};
+
+    public static void main(String[] args) throws Exception {
+        int cRepetitions = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        String[] asModels = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : DEFAULT_MODELS;
+        StringBuilder sbReport = new StringBuilder();
+
+        for (String sModel : asModels) {
+            String sFileName = ExecutionProperties.getPath() + sModel;
+            long[] alLine = new long[2], alStreaming = new long[2];
+            POMDP pLine = null, pStreaming = null;
+            for (int i = 0; i < cRepetitions; i++) {
+                pLine = parse(sFileName, false, alLine);
+                pStreaming = parse(sFileName, true, alStreaming);
+            }
+            ModelLoadBenchmark.compare(pLine, pStreaming);
+            sbReport.append(sModel).append(": |S| = ").append(pLine.getStateCount()).append(" |A| = ").append(pLine.getActionCount())
+                    .append(" |O| = ").append(pLine.getObservationCount())
+                    .append(" | POMDPLoader ").append(alLine[0] / 1000000).append(" ms, ").append(alLine[1] / 1000000).append(" MB allocated")
+                    .append(" | StreamingPOMDPLoader ").append(alStreaming[0] / 1000000).append(" ms, ").append(alStreaming[1] / 1000000)
+                    .append(" MB allocated | identical models\n");
+        }
+        System.out.print(sbReport);
+        System.exit(0);
+    }
+
+    // keeps the best time and the allocations of that run in alBest
+    private static POMDP parse(String sFileName, boolean bStreaming, long[] alBest) throws Exception {
+        POMDP pomdp = new POMDP();
+        POMDPLoader loader = bStreaming ? new StreamingPOMDPLoader(pomdp) : new POMDPLoader(pomdp);
+        long lAllocated = allocatedBytes(), lStart = System.nanoTime();
+        loader.load(sFileName);
+        long lTime = System.nanoTime() - lStart, lAllocatedBytes = allocatedBytes() - lAllocated;
+        if (alBest[0] == 0 || lTime < alBest[0]) {
+            alBest[0] = lTime;
+            alBest[1] = lAllocatedBytes;
+        }
+        // as POMDP.load does after parsing, so that R(s,a) can be compared
+        if (pomdp.getRewardType() == POMDP.RewardType.StateActionState)
+            pomdp.initStoredRewards();
+        return pomdp;
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
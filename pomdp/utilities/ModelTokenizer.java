@@ -0,0 +1,380 @@
+package pomdp.utilities;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads a model file line by line through one char buffer, splitting lines into whitespace separated tokens as StringTokenizer does,
+ * without creating a String per line or per token. The current token is read in place - compared to a keyword, parsed as a number,
+ * or resolved to an index through a NameTable - and only names that are not in a table are copied out.
+ * The buffer holds the current line and whatever was read after it, so memory does not grow with the file, only with its longest line.
+ * Errors are reported with the file name, line and column of the current token.
+ */
+public class ModelTokenizer implements Closeable {
+	private static final int BUFFER_SIZE = 1 << 16;
+	//the powers of ten that are exact doubles, for the fast path of parseDouble
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+	//the most significant digits that are always an exact double
+	private static final int MAX_EXACT_DIGITS = 15;
+
+	private final String m_sFileName;
+	private final Reader m_rInput;
+	private char[] m_acBuffer;
+	private int m_cBuffered;
+	private boolean m_bEndOfInput;
+	//the current line spans m_iLineStart .. m_iLineEnd, the tokens read so far end at m_iPosition
+	private int m_iLineStart, m_iLineEnd, m_iPosition;
+	//the first buffered char that is still needed
+	private int m_iMark;
+	private int m_iTokenStart, m_iTokenEnd;
+	private int m_iLine;
+
+	public ModelTokenizer( String sFileName ) throws IOException{
+		this( sFileName, new InputStreamReader( new FileInputStream( sFileName ), StandardCharsets.UTF_8 ) );
+	}
+
+	public ModelTokenizer( String sFileName, Reader rInput ){
+		m_sFileName = sFileName;
+		m_rInput = rInput;
+		m_acBuffer = new char[BUFFER_SIZE];
+		m_cBuffered = 0;
+		m_bEndOfInput = false;
+		m_iLineStart = m_iLineEnd = m_iPosition = m_iMark = 0;
+		m_iTokenStart = m_iTokenEnd = 0;
+		m_iLine = 0;
+	}
+
+	/**
+	 * Moves to the next line, ended by \n, \r or \r\n as in BufferedReader.readLine.
+	 * @return false at the end of the file
+	 */
+	public boolean nextLine() throws IOException{
+		int cChars = 0;
+		m_iMark = m_iLineEnd;
+		if( m_iLine > 0 ){
+			if( !isBuffered( 0 ) )
+				return false;
+			if( m_acBuffer[m_iMark] == '\r' ){
+				m_iMark++;
+				if( isBuffered( 0 ) && m_acBuffer[m_iMark] == '\n' )
+					m_iMark++;
+			}
+			else{
+				m_iMark++;
+			}
+		}
+		if( !isBuffered( 0 ) )
+			return false;
+		while( true ){
+			while( m_iMark + cChars < m_cBuffered && m_acBuffer[m_iMark + cChars] != '\n' && m_acBuffer[m_iMark + cChars] != '\r' )
+				cChars++;
+			if( m_iMark + cChars < m_cBuffered || !fill() )
+				break;
+		}
+		m_iLineStart = m_iMark;
+		m_iLineEnd = m_iMark + cChars;
+		m_iPosition = m_iTokenStart = m_iTokenEnd = m_iLineStart;
+		m_iLine++;
+		return true;
+	}
+
+	// true when the char cAhead chars after the mark is buffered, reading more input if needed
+	private boolean isBuffered( int cAhead ) throws IOException{
+		while( m_iMark + cAhead >= m_cBuffered ){
+			if( !fill() )
+				return false;
+		}
+		return true;
+	}
+
+	// reads more input after the buffered chars, false at the end of the input.
+	// A full buffer drops the chars before the mark, or doubles when there are none, so the mark may move but stays valid.
+	private boolean fill() throws IOException{
+		int cRead = 0;
+		if( m_bEndOfInput )
+			return false;
+		if( m_cBuffered == m_acBuffer.length ){
+			if( m_iMark > 0 ){
+				System.arraycopy( m_acBuffer, m_iMark, m_acBuffer, 0, m_cBuffered - m_iMark );
+				m_cBuffered -= m_iMark;
+				m_iMark = 0;
+			}
+			else{
+				m_acBuffer = Arrays.copyOf( m_acBuffer, m_acBuffer.length * 2 );
+			}
+		}
+		cRead = m_rInput.read( m_acBuffer, m_cBuffered, m_acBuffer.length - m_cBuffered );
+		if( cRead < 0 ){
+			m_bEndOfInput = true;
+			return false;
+		}
+		m_cBuffered += cRead;
+		return true;
+	}
+
+	/**
+	 * Moves to the next token of the current line.
+	 * @return false when the line has no more tokens
+	 */
+	public boolean nextToken(){
+		int iPosition = m_iPosition;
+		while( iPosition < m_iLineEnd && isWhitespace( m_acBuffer[iPosition] ) )
+			iPosition++;
+		m_iTokenStart = iPosition;
+		while( iPosition < m_iLineEnd && !isWhitespace( m_acBuffer[iPosition] ) )
+			iPosition++;
+		m_iTokenEnd = m_iPosition = iPosition;
+		return m_iTokenEnd > m_iTokenStart;
+	}
+
+	/**
+	 * Moves to the next token of the current line, which must exist.
+	 */
+	public void requireToken( String sExpected ) throws InvalidModelFileFormatException{
+		if( !nextToken() )
+			throw error( "expected " + sExpected );
+	}
+
+	public boolean hasMoreTokens(){
+		int iPosition = m_iPosition;
+		while( iPosition < m_iLineEnd && isWhitespace( m_acBuffer[iPosition] ) )
+			iPosition++;
+		return iPosition < m_iLineEnd;
+	}
+
+	//the delimiters of StringTokenizer
+	private static boolean isWhitespace( char c ){
+		return c == ' ' || c == '\t' || c == '\f';
+	}
+
+	// true when the first char of the line, before any whitespace, is c
+	public boolean lineStartsWith( char c ){
+		return m_iLineEnd > m_iLineStart && m_acBuffer[m_iLineStart] == c;
+	}
+
+	public boolean tokenEquals( String sValue ){
+		int cChars = m_iTokenEnd - m_iTokenStart;
+		if( cChars != sValue.length() )
+			return false;
+		for( int iChar = 0 ; iChar < cChars ; iChar++ ){
+			if( m_acBuffer[m_iTokenStart + iChar] != sValue.charAt( iChar ) )
+				return false;
+		}
+		return true;
+	}
+
+	public boolean tokenIs( char c ){
+		return m_iTokenEnd - m_iTokenStart == 1 && m_acBuffer[m_iTokenStart] == c;
+	}
+
+	public String tokenString(){
+		return new String( m_acBuffer, m_iTokenStart, m_iTokenEnd - m_iTokenStart );
+	}
+
+	// the rest of the line without its leading and trailing whitespace, as String.trim would leave it
+	public String restOfLine(){
+		int iStart = m_iPosition, iEnd = m_iLineEnd;
+		while( iStart < iEnd && m_acBuffer[iStart] <= ' ' )
+			iStart++;
+		while( iEnd > iStart && m_acBuffer[iEnd - 1] <= ' ' )
+			iEnd--;
+		m_iPosition = m_iLineEnd;
+		return new String( m_acBuffer, iStart, iEnd - iStart );
+	}
+
+	/**
+	 * The index of the current token: its index in tNames, or the token itself when it is a number, or -1 -
+	 * the rule of POMDP.getStateIndex, getActionIndex and getObservationIndex.
+	 */
+	public int tokenIndex( NameTable tNames ){
+		int iIndex = tNames.lookup( m_acBuffer, m_iTokenStart, m_iTokenEnd );
+		if( iIndex >= 0 )
+			return iIndex;
+		return tokenInt( -1 );
+	}
+
+	// the current token as Integer.parseInt reads it, or iInvalid when it is not an int
+	public int tokenInt( int iInvalid ){
+		int iPosition = m_iTokenStart;
+		long lValue = 0;
+		boolean bNegative = false;
+		if( iPosition < m_iTokenEnd && ( m_acBuffer[iPosition] == '-' || m_acBuffer[iPosition] == '+' ) ){
+			bNegative = m_acBuffer[iPosition] == '-';
+			iPosition++;
+		}
+		if( iPosition == m_iTokenEnd )
+			return iInvalid;
+		for( ; iPosition < m_iTokenEnd ; iPosition++ ){
+			if( m_acBuffer[iPosition] < '0' || m_acBuffer[iPosition] > '9' || lValue > Integer.MAX_VALUE )
+				return iInvalid;
+			lValue = lValue * 10 + ( m_acBuffer[iPosition] - '0' );
+		}
+		if( bNegative )
+			lValue = -lValue;
+		if( lValue < Integer.MIN_VALUE || lValue > Integer.MAX_VALUE )
+			return iInvalid;
+		return (int)lValue;
+	}
+
+	public int nextInt() throws InvalidModelFileFormatException{
+		requireToken( "an integer" );
+		int iValue = tokenInt( Integer.MIN_VALUE );
+		if( iValue == Integer.MIN_VALUE && !tokenEquals( "" + Integer.MIN_VALUE ) )
+			throw error( "expected an integer, found " + tokenString() );
+		return iValue;
+	}
+
+	public double nextDouble() throws InvalidModelFileFormatException{
+		requireToken( "a number" );
+		return tokenDouble();
+	}
+
+	/**
+	 * The current token as Double.parseDouble reads it. Decimals of up to 15 significant digits and exponents of up to 22
+	 * are one exact multiplication or division of two doubles, so they round as parseDouble does; anything else goes to parseDouble.
+	 */
+	public double tokenDouble() throws InvalidModelFileFormatException{
+		int iPosition = m_iTokenStart, cDigits = 0, iExponent = 0, iExplicitExponent = 0;
+		long lMantissa = 0;
+		boolean bNegative = false, bNegativeExponent = false, bDigits = false, bFast = true;
+		char c = 0;
+		if( iPosition < m_iTokenEnd && ( m_acBuffer[iPosition] == '-' || m_acBuffer[iPosition] == '+' ) ){
+			bNegative = m_acBuffer[iPosition] == '-';
+			iPosition++;
+		}
+		for( ; iPosition < m_iTokenEnd && ( c = m_acBuffer[iPosition] ) >= '0' && c <= '9' ; iPosition++ ){
+			bDigits = true;
+			if( lMantissa > 0 || c != '0' ){
+				lMantissa = lMantissa * 10 + ( c - '0' );
+				cDigits++;
+				bFast &= cDigits <= MAX_EXACT_DIGITS;
+			}
+		}
+		if( iPosition < m_iTokenEnd && m_acBuffer[iPosition] == '.' ){
+			iPosition++;
+			for( ; iPosition < m_iTokenEnd && ( c = m_acBuffer[iPosition] ) >= '0' && c <= '9' ; iPosition++ ){
+				bDigits = true;
+				if( lMantissa > 0 || c != '0' ){
+					lMantissa = lMantissa * 10 + ( c - '0' );
+					cDigits++;
+					bFast &= cDigits <= MAX_EXACT_DIGITS;
+				}
+				iExponent--;
+			}
+		}
+		if( bDigits && iPosition < m_iTokenEnd && ( m_acBuffer[iPosition] == 'e' || m_acBuffer[iPosition] == 'E' ) ){
+			iPosition++;
+			if( iPosition < m_iTokenEnd && ( m_acBuffer[iPosition] == '-' || m_acBuffer[iPosition] == '+' ) ){
+				bNegativeExponent = m_acBuffer[iPosition] == '-';
+				iPosition++;
+			}
+			bFast &= iPosition < m_iTokenEnd && m_iTokenEnd - iPosition <= 3;
+			for( ; bFast && iPosition < m_iTokenEnd && ( c = m_acBuffer[iPosition] ) >= '0' && c <= '9' ; iPosition++ )
+				iExplicitExponent = iExplicitExponent * 10 + ( c - '0' );
+			iExponent += bNegativeExponent ? -iExplicitExponent : iExplicitExponent;
+		}
+		if( bFast && bDigits && iPosition == m_iTokenEnd ){
+			if( lMantissa == 0 )
+				return bNegative ? -0.0 : 0.0;
+			if( iExponent >= -22 && iExponent <= 22 ){
+				double dValue = iExponent < 0 ? lMantissa / POWERS_OF_TEN[-iExponent] : lMantissa * POWERS_OF_TEN[iExponent];
+				return bNegative ? -dValue : dValue;
+			}
+		}
+		try{
+			return Double.parseDouble( tokenString() );
+		}
+		catch( NumberFormatException e ){
+			throw error( "expected a number, found " + tokenString() );
+		}
+	}
+
+	public int getLineNumber(){
+		return m_iLine;
+	}
+
+	// 1 based, of the current token
+	public int getColumn(){
+		return m_iTokenStart - m_iLineStart + 1;
+	}
+
+	public InvalidModelFileFormatException error( String sMessage ){
+		return new InvalidModelFileFormatException( m_sFileName + " line " + m_iLine + ", column " + getColumn() + ": " + sMessage );
+	}
+
+	public void close() throws IOException{
+		m_rInput.close();
+	}
+
+	/**
+	 * Names interned by their characters, so that a token is resolved to its index without creating a String.
+	 * Open addressing over String.hashCode, a name put twice keeps its last index like the TreeMaps of POMDP.
+	 */
+	public static class NameTable {
+		private String[] m_asNames;
+		private int[] m_aiIndexes;
+		private int m_cNames;
+
+		public NameTable(){
+			m_asNames = new String[16];
+			m_aiIndexes = new int[16];
+			m_cNames = 0;
+		}
+
+		public void put( String sName, int iIndex ){
+			int iSlot = 0;
+			if( 2 * ( m_cNames + 1 ) > m_asNames.length )
+				rehash( m_asNames.length * 2 );
+			iSlot = sName.hashCode() & ( m_asNames.length - 1 );
+			while( m_asNames[iSlot] != null && !m_asNames[iSlot].equals( sName ) )
+				iSlot = ( iSlot + 1 ) & ( m_asNames.length - 1 );
+			if( m_asNames[iSlot] == null )
+				m_cNames++;
+			m_asNames[iSlot] = sName;
+			m_aiIndexes[iSlot] = iIndex;
+		}
+
+		// -1 when the name is not in the table
+		public int lookup( char[] acChars, int iStart, int iEnd ){
+			int iHash = 0, iSlot = 0, iChar = 0;
+			String sName = null;
+			for( iChar = iStart ; iChar < iEnd ; iChar++ )
+				iHash = 31 * iHash + acChars[iChar];
+			iSlot = iHash & ( m_asNames.length - 1 );
+			while( ( sName = m_asNames[iSlot] ) != null ){
+				if( matches( sName, acChars, iStart, iEnd ) )
+					return m_aiIndexes[iSlot];
+				iSlot = ( iSlot + 1 ) & ( m_asNames.length - 1 );
+			}
+			return -1;
+		}
+
+		private static boolean matches( String sName, char[] acChars, int iStart, int iEnd ){
+			if( sName.length() != iEnd - iStart )
+				return false;
+			for( int iChar = iStart ; iChar < iEnd ; iChar++ ){
+				if( sName.charAt( iChar - iStart ) != acChars[iChar] )
+					return false;
+			}
+			return true;
+		}
+
+		private void rehash( int cSlots ){
+			String[] asNames = m_asNames;
+			int[] aiIndexes = m_aiIndexes;
+			m_asNames = new String[cSlots];
+			m_aiIndexes = new int[cSlots];
+			m_cNames = 0;
+			for( int iSlot = 0 ; iSlot < asNames.length ; iSlot++ ){
+				if( asNames[iSlot] != null )
+					put( asNames[iSlot], aiIndexes[iSlot] );
+			}
+		}
+	}
+}
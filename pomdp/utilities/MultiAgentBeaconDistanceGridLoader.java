@@ -1,14 +1,18 @@
 package pomdp.utilities;
 
 import pomdp.environments.BeaconDistanceGrid;
-import pomdp.environments.POMDP;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
-import java.util.StringTokenizer;
 
+/**
+ * Reads a multi agent beacon grid model through a ModelTokenizer. The dynamics of the grid follow from its layout,
+ * so T: lines are skipped after their first token, and the layout sections are parsed in place.
+ * A malformed line throws an InvalidModelFileFormatException with its line and column.
+ */
 public class MultiAgentBeaconDistanceGridLoader {
     protected BeaconDistanceGrid m_pPOMDP;
 
@@ -18,65 +22,40 @@ public class MultiAgentBeaconDistanceGridLoader {
 
     public void load( String sFileName, char id ) throws IOException, InvalidModelFileFormatException{
         System.out.println( "Started loading model " + sFileName );
-        LineReader lrInput = new LineReader( sFileName );
-        String sLine = "";
-        String sType = "", sValue;
-        StringTokenizer stLine;
         int cLines = 0;
 
-        try{
-            readHeader( lrInput );
-        }
-        catch( EndOfFileException e ){
-            throw new InvalidModelFileFormatException( "Missing header parameters" );
-        }
-
-        while( !lrInput.endOfFile() ){
-            sLine = lrInput.readLine();
-            try{
+        try( ModelTokenizer mtInput = new ModelTokenizer( sFileName ) ){
+            readHeader( mtInput );
+            while( mtInput.nextLine() ){
                 cLines++;
                 if( cLines % 1000 == 0 ){
                     System.out.print( "." );
                 }
-                if( ( sLine.length() > 0 ) && ( sLine.charAt( 0 ) != '#' ) ){
-                    stLine = new StringTokenizer( sLine );
-                    if( stLine.hasMoreTokens() ){
-                        sType = stLine.nextToken();
-                        switch (sType) {
-                            case "O:":
-                                sValue = stLine.nextToken();
-                                readObservation(lrInput, sValue, stLine);
-                                break;
-                            case "holes:":
-                                readHoles(lrInput);
-                                break;
-                            case "start_states:":
-                                readStartStates(lrInput);
-                                break;
-                            case "end_states:":
-                                readEndStates(lrInput, id);
-                                break;
-                            case "beacons:":
-                                readBeacons(lrInput);
-                                break;
-                            case "OS:":
-                                if (stLine.hasMoreTokens())
-                                    readObservationStates(stLine);
-                                break;
-                        }
-                    }
+                if( mtInput.lineStartsWith( '#' ) || !mtInput.nextToken() )
+                    continue;
+                try{
+                    if( mtInput.tokenEquals( "O:" ) )
+                        readObservation( mtInput );
+                    else if( mtInput.tokenEquals( "holes:" ) )
+                        readHoles( mtInput );
+                    else if( mtInput.tokenEquals( "start_states:" ) )
+                        readStartStates( mtInput );
+                    else if( mtInput.tokenEquals( "end_states:" ) )
+                        readEndStates( mtInput, id );
+                    else if( mtInput.tokenEquals( "beacons:" ) )
+                        readBeacons( mtInput );
+                    else if( mtInput.tokenEquals( "OS:" ) )
+                        readObservationStates( mtInput );
+                }
+                catch( RuntimeException e ){
+                    throw mtInput.error( e.toString() );
                 }
-            }
-            catch(Exception e)
-            {
-                System.out.println("Error at line: " + sLine);
-                System.out.println(e);
-                System.exit(1);
             }
         }
         m_pPOMDP.initGrid();
         m_pPOMDP.initTransitionCaching();
         verifyFunctions();
+        m_pPOMDP.compactDynamicsFunctions();
 
         System.out.println( "Done loading model" );
     }
@@ -140,398 +119,194 @@ public class MultiAgentBeaconDistanceGridLoader {
      * Supporting the format:
      * OS: <line of observation sensitive states>
      */
-    private void readObservationStates( StringTokenizer stLine ){
-        String sObservationState = "";
-        int iObservationState = 0;
-
-        while( stLine.hasMoreElements() ){
-            sObservationState = stLine.nextToken();
-            iObservationState = m_pPOMDP.getStateIndex( sObservationState );
-            m_pPOMDP.addObservationSensitiveState( iObservationState );
+    private void readObservationStates( ModelTokenizer mtInput ){
+        while( mtInput.nextToken() ){
+            m_pPOMDP.addObservationSensitiveState( m_pPOMDP.getStateIndex( mtInput.tokenString() ) );
         }
     }
 
-    private void readStartStates(LineReader lrInput) throws IOException {
-        String sLine = "";
-        StringTokenizer stLine;
-        char id;
-        int startState;
-        sLine = lrInput.readLine();
-        while (!sLine.equals( "" )) {
-            stLine = new StringTokenizer( sLine );
-            id = stLine.nextToken().charAt(0);
-            startState = Integer.parseInt(stLine.nextToken());
-            m_pPOMDP.addStartState(id, startState);
-            sLine = lrInput.readLine();
+    // the lines of a section, until the next empty line or the end of the file
+    private boolean nextSectionLine( ModelTokenizer mtInput ) throws IOException {
+        return mtInput.nextLine() && mtInput.hasMoreTokens();
+    }
+
+    private void readStartStates( ModelTokenizer mtInput ) throws IOException, InvalidModelFileFormatException {
+        while( nextSectionLine( mtInput ) ){
+            mtInput.requireToken( "an agent id" );
+            char id = mtInput.tokenString().charAt( 0 );
+            m_pPOMDP.addStartState( id, mtInput.nextInt() );
         }
     }
 
-    private void readEndStates(LineReader lrInput, char agentID) throws IOException {
-        String sLine = "";
-        StringTokenizer stLine;
-        char id;
-        int endState;
-        sLine = lrInput.readLine();
-        while (!sLine.equals( "" )) {
-            stLine = new StringTokenizer( sLine );
-            id = stLine.nextToken().charAt(0);
-            endState = Integer.parseInt(stLine.nextToken());
-            if (id == agentID) {
-                m_pPOMDP.setEndState(endState);
+    private void readEndStates( ModelTokenizer mtInput, char agentID ) throws IOException, InvalidModelFileFormatException {
+        while( nextSectionLine( mtInput ) ){
+            mtInput.requireToken( "an agent id" );
+            boolean bAgent = mtInput.tokenString().charAt( 0 ) == agentID;
+            int endState = mtInput.nextInt();
+            if( bAgent ){
+                m_pPOMDP.setEndState( endState );
             }
-            sLine = lrInput.readLine();
         }
     }
 
-    protected void readHoles( LineReader lrInput) throws InvalidModelFileFormatException, IOException {
-        String sLine = "";
-        StringTokenizer stLine;
+    protected void readHoles( ModelTokenizer mtInput ) throws InvalidModelFileFormatException, IOException {
         int hole_row, hole_col;
-        sLine = lrInput.readLine();
-        while (!sLine.equals( "" )) {
-            stLine = new StringTokenizer( sLine );
-            hole_row = Integer.parseInt(stLine.nextToken());
-            hole_col = Integer.parseInt(stLine.nextToken());
-            m_pPOMDP.addHole(hole_row, hole_col);
-            sLine = lrInput.readLine();
+        while( nextSectionLine( mtInput ) ){
+            hole_row = mtInput.nextInt();
+            hole_col = mtInput.nextInt();
+            m_pPOMDP.addHole( hole_row, hole_col );
         }
-
     }
 
     // syntax: row col : range
-    protected void readBeacons(LineReader lrInput) throws IOException {
-        String sLine = "";
-        StringTokenizer stLine;
+    protected void readBeacons( ModelTokenizer mtInput ) throws IOException, InvalidModelFileFormatException {
         Beacon b;
         int beacon_row, beacon_col, beacon_range;
-        int max_range = 0, num_beacons = 0;
-        sLine = lrInput.readLine();
-        while (!sLine.equals( "" )) {
-            stLine = new StringTokenizer( sLine );
-            beacon_row = Integer.parseInt(stLine.nextToken());
-            beacon_col = Integer.parseInt(stLine.nextToken());
-            stLine.nextToken();     // :
-            beacon_range = Integer.parseInt(stLine.nextToken());
-            b = new Beacon(beacon_row, beacon_col, beacon_range);
-            m_pPOMDP.addBeacon(b);
-            max_range = Math.max(max_range, beacon_range);
-            num_beacons++;
-            m_pPOMDP.addAction("ping_to_<" + beacon_row + "," + beacon_col + ">");
-            m_pPOMDP.mapPingAction(m_pPOMDP.getActionCount()-1, b);
-            sLine = lrInput.readLine();
+        int max_range = 0;
+        while( nextSectionLine( mtInput ) ){
+            beacon_row = mtInput.nextInt();
+            beacon_col = mtInput.nextInt();
+            mtInput.requireToken( ":" );
+            beacon_range = mtInput.nextInt();
+            b = new Beacon( beacon_row, beacon_col, beacon_range );
+            m_pPOMDP.addBeacon( b );
+            max_range = Math.max( max_range, beacon_range );
+            m_pPOMDP.addAction( "ping_to_<" + beacon_row + "," + beacon_col + ">" );
+            m_pPOMDP.mapPingAction( m_pPOMDP.getActionCount() - 1, b );
         }
-        m_pPOMDP.addAction("DONE_ACT");
+        m_pPOMDP.addAction( "DONE_ACT" );
 
         System.out.print( "|A| = " + m_pPOMDP.getActionCount() );
-        m_pPOMDP.setObservationCount(max_range + 3);    // +1 for zero dist, +1 for inf dist, +1 for DONE obs
+        m_pPOMDP.setObservationCount( max_range + 3 );    // +1 for zero dist, +1 for inf dist, +1 for DONE obs
         m_pPOMDP.initDynamicsFunctions();
-        m_pPOMDP.setMaxDist(max_range);
+        m_pPOMDP.setMaxDist( max_range );
         System.out.println();
     }
 
     /**
      * Supporting the following formats:
-     * T: <action>  followed by a transition matrix
-     * T: <action> : <start state>  followed by a single line of transitions
-     * T: <action> : <start state> : <end state> %f
-     * TODO - add support for a wildcard asterix (*)
+     * O: <action> : <end state> followed by an observation matrix
+     * O: <action> : <end state> followed by a single line of observation
+     * O: <action> : <end state> : <observation> %f
+     * Grid models rarely have O: lines, so their names are resolved through the model.
      */
-    protected void readTransition( LineReader lrInput, String sAction, StringTokenizer stLine ) throws InvalidModelFileFormatException{
-        String sStartState = "", sEndState = "", sValue = "", sLine = "";
-        int iStartState = 0, iEndState = 0, iActionIdx = m_pPOMDP.getActionIndex( sAction ), iAction = 0;
-        double dValue = 0;
-        int cStates = m_pPOMDP.getStateCount(), cActions = m_pPOMDP.getActionCount();
-
-        if( stLine.hasMoreTokens() ){
-            String sTemp = stLine.nextToken();
-            sStartState = stLine.nextToken();
-            if( sStartState.equals( "*" ) )
-                iStartState = -1;
-            else
-                iStartState = m_pPOMDP.getStateIndex( sStartState );
-            if( stLine.hasMoreTokens() ){
-                stLine.nextToken();
-                sEndState = stLine.nextToken();
-                sValue = stLine.nextToken();
-                if( sEndState.equals( "*" ) )
-                    iEndState = -1;
-                else
-                    iEndState = m_pPOMDP.getStateIndex( sEndState );
-                dValue = Double.parseDouble( sValue );
-
-                if( dValue == 0.0 )
-                    return;
-
-                if( sAction.equals( "*" ) ){
-                    for( iAction = 0 ; iAction < cActions ; iAction++ ){
-                        m_pPOMDP.setTransition( iStartState, iAction, iEndState, dValue );
-                    }
-                }
-                else{
-                    if( sStartState.equals( "*" ) ){
-                        for( iStartState = 0 ; iStartState < cStates ; iStartState++ ){
-                            m_pPOMDP.setTransition( iStartState, iActionIdx, iEndState, dValue );
-                        }
-                    }
-                    else{
-                        m_pPOMDP.setTransition( iStartState, iActionIdx, iEndState, dValue );
-                    }
-                }
-
+    protected void readObservation( ModelTokenizer mtInput ) throws IOException, InvalidModelFileFormatException {
+        int iObservation = 0, iEndState = 0, iActionIdx = 0;
+
+        mtInput.requireToken( "an action" );
+        iActionIdx = mtInput.tokenIs( '*' ) ? -1 : m_pPOMDP.getActionIndex( mtInput.tokenString() );
+
+        if( mtInput.nextToken() ){
+            mtInput.requireToken( "an end state" );
+            iEndState = mtInput.tokenIs( '*' ) ? -1 : m_pPOMDP.getStateIndex( mtInput.tokenString() );
+            if( mtInput.nextToken() ){
+                mtInput.requireToken( "an observation" );
+                iObservation = m_pPOMDP.getObservationIndex( mtInput.tokenString() );
+                m_pPOMDP.setObservation( iActionIdx, iEndState, iObservation, mtInput.nextDouble() );
             }
             else{
-                try{
-                    sLine = lrInput.readLine();
-                    stLine = new StringTokenizer( sLine );
-                    for( iEndState = 0 ; iEndState < cStates ; iEndState++ ){
-                        sValue = stLine.nextToken();
-                        dValue = Double.parseDouble( sValue );
-
-                        if( dValue != 0.0 ){
-                            if( sAction.equals( "*" ) ){
-                                for( iAction = 0 ; iAction < cActions ; iAction++ ){
-                                    m_pPOMDP.setTransition( iStartState, iAction, iEndState, dValue );
-                                }
-                            }
-                            else{
-                                m_pPOMDP.setTransition( iStartState, iActionIdx, iEndState, dValue );
-                            }
-                        }
-                    }
-                }
-                catch( NoSuchElementException e ){
-                    throw new InvalidModelFileFormatException( "insufficient number of transitions " + sLine );
-                }
-                catch( IOException e ){
-                    throw new InvalidModelFileFormatException();
-                }
+                readObservationRow( mtInput, iActionIdx, iEndState );
             }
         }
         else{
-            try{
-                for( iStartState = 0 ; iStartState < cStates ; iStartState++ ){
-                    sLine = lrInput.readLine();
-                    //System.out.println( sLine );
-                    stLine = new StringTokenizer( sLine );
-                    for( iEndState = 0 ; iEndState < cStates ; iEndState++ ){
-                        sValue = stLine.nextToken();
-                        dValue = Double.parseDouble( sValue );
-
-                        if( dValue != 0.0 ){
-                            if( sAction.equals( "*" ) ){
-                                for( iAction = 0 ; iAction < cActions ; iAction++ ){
-                                    m_pPOMDP.setTransition( iStartState, iAction, iEndState, dValue );
-                                }
-                            }
-                            else{
-                                m_pPOMDP.setTransition( iStartState, iActionIdx, iEndState, dValue );
-                            }
-                        }
-                    }
-                }
-            }
-            catch( NoSuchElementException e ){
-                throw new InvalidModelFileFormatException( "insufficient number of transitions " + sLine );
-            }
-            catch( IOException e ){
-                throw new InvalidModelFileFormatException();
+            for( iEndState = 0 ; iEndState < m_pPOMDP.getStateCount() ; iEndState++ ){
+                readObservationRow( mtInput, iActionIdx, iEndState );
             }
         }
     }
 
-    /**
-     * Supporting the following formats:
-     * O: <action> : <end state> followed by an observation matrix
-     * O: <action> : <end state> followed by a single line of observation
-     * O: <action> : <end state> : <observation> %f
-     * TODO - add support for a wildcard asterix (*)
-     */
-    protected void readObservation( LineReader lrInput, String sAction, StringTokenizer stLine ) throws InvalidModelFileFormatException{
-        String sObservation = "", sEndState = "", sValue = "", sLine = "";
-        int iObservation = 0, iEndState = 0, iActionIdx = m_pPOMDP.getActionIndex( sAction ), iAction = 0, iState = 0;
-        double dValue = 0;
-
-        if( stLine.hasMoreTokens() ){
-            stLine.nextToken(); //":"
-            sEndState = stLine.nextToken();
-            if( sEndState.equals( "*" ) )
-                iEndState = -1;
-            else
-                iEndState = m_pPOMDP.getStateIndex( sEndState );
-
-            if( stLine.hasMoreTokens() ){
-                stLine.nextToken();//":"
-                sObservation = stLine.nextToken();
-                iObservation = m_pPOMDP.getObservationIndex( sObservation );
-                sValue = stLine.nextToken();
-
-                dValue = Double.parseDouble( sValue );
-
-                if( sEndState.equals( "*" ) )
-                    iEndState = -1;
-
-                if( sAction.equals( "*" ) )
-                    iActionIdx = -1;
-
-                m_pPOMDP.setObservation( iActionIdx, iEndState, iObservation, dValue );
-            }
-            else{
-                try{
-                    sLine = lrInput.readLine();
-                    stLine = new StringTokenizer( sLine );
-                    for( iObservation = 0 ; iObservation < m_pPOMDP.getObservationCount() ; iObservation++ ){
-                        sValue = stLine.nextToken();
-                        dValue = Double.parseDouble( sValue );
-
-                        if( sAction.equals( "*" ) )
-                            iActionIdx = -1;
-                        m_pPOMDP.setObservation( iActionIdx, iEndState, iObservation, dValue );
-                    }
-                }
-                catch( NoSuchElementException e ){
-                    throw new InvalidModelFileFormatException( "insufficient number of observations " + sLine );
-                }
-                catch( IOException e ){
-                    throw new InvalidModelFileFormatException();
-                }
-            }
+    // reads O(a,s',*) from the next line
+    private void readObservationRow( ModelTokenizer mtInput, int iAction, int iEndState ) throws IOException, InvalidModelFileFormatException {
+        if( !mtInput.nextLine() )
+            throw mtInput.error( "insufficient number of observations" );
+        for( int iObservation = 0 ; iObservation < m_pPOMDP.getObservationCount() ; iObservation++ ){
+            m_pPOMDP.setObservation( iAction, iEndState, iObservation, mtInput.nextDouble() );
         }
-        else{
-            try{
-                for( iEndState = 0 ; iEndState < m_pPOMDP.getStateCount() ; iEndState++ ){
-                    sLine = lrInput.readLine();
-                    stLine = new StringTokenizer( sLine );
-                    for( iObservation = 0 ; iObservation < m_pPOMDP.getObservationCount() ; iObservation++ ){
-                        sValue = stLine.nextToken();
-                        dValue = Double.parseDouble( sValue );
+    }
 
-                        if( sAction.equals( "*" ) )
-                            iActionIdx = -1;
-                        m_pPOMDP.setObservation( iActionIdx, iEndState, iObservation, dValue );
+    protected void readHeader( ModelTokenizer mtInput ) throws IOException, InvalidModelFileFormatException {
+        int cVars = 0;
 
-                    }
-                }
+        while( cVars < 6 ){
+            if( !mtInput.nextLine() )
+                throw mtInput.error( "Missing header parameters" );
+            if( !mtInput.nextToken() || mtInput.tokenIs( '#' ) ) //empty line or comment
+                continue;
+            if( mtInput.tokenEquals( "discount:" ) ){
+                m_pPOMDP.setDiscountFactor( mtInput.nextDouble() );
+                cVars++;
             }
-            catch( NoSuchElementException e ){
-                throw new InvalidModelFileFormatException( "insufficient number of observations " + sLine );
+            else if( mtInput.tokenEquals( "rows:" ) ){
+                m_pPOMDP.setRows( mtInput.nextInt() );
+                cVars++;
             }
-            catch( IOException e ){
-                throw new InvalidModelFileFormatException();
+            else if( mtInput.tokenEquals( "cols:" ) ){
+                m_pPOMDP.setCols( mtInput.nextInt() );
+                cVars++;
             }
-        }
-    }
-
-    protected void readHeader(LineReader lrInput) throws IOException, InvalidModelFileFormatException {
-        String sLine = "";
-        String sType = "", sValue;
-        int cVars = 0, idx = 0, rows = 0, cols = 0;
-        StringTokenizer stLine;
-
-        while( cVars < 6 ){
-            sLine = "";
-            while( sLine.equals( "" ) ){
-                sLine = lrInput.readLine();
-                //System.out.println( sLine );
-                sLine = sLine.trim();
+            else if( mtInput.tokenEquals( "values:" ) ){
+                cVars++;
             }
-
-            //System.out.println( sLine );
-
-            stLine = new StringTokenizer( sLine );
-            sType = stLine.nextToken();
-            if( !sType.equals( "#" ) ){ //not a comment
-                if( sType.equals( "discount:" ) ){
-                    sValue = stLine.nextToken();
-                    m_pPOMDP.setDiscountFactor( Double.parseDouble( sValue ) );
-                    cVars++;
-                }
-                else if( sType.equals("rows:") ){
-                    sValue = stLine.nextToken();
-                    rows = Integer.parseInt( sValue );
-                    m_pPOMDP.setRows(rows);
-                    cVars++;
-                }
-                else if( sType.equals("cols:") ){
-                    sValue = stLine.nextToken();
-                    cols = Integer.parseInt( sValue );
-                    m_pPOMDP.setCols(cols);
-                    cVars++;
-                }
-                else if( sType.equals( "values:" ) ){
-                    cVars++;
-                }
-                else if( sType.equals( "states:" ) ){
-                    if(stLine.hasMoreElements()){
-
-                        sValue = stLine.nextToken();
-
-                        try{
-                            m_pPOMDP.setStateCount( Integer.parseInt( sValue ) + 1); // +1 for DONE
-                        }
-                        catch( NumberFormatException e ){
-                            idx = 0;
-                            m_pPOMDP.addState( sValue );
-                            idx++;
-                            while( stLine.hasMoreTokens() ){
-                                sValue = stLine.nextToken();
-                                m_pPOMDP.addState( sValue );
-                                idx++;
-                            }
-                        }
+            else if( mtInput.tokenEquals( "states:" ) ){
+                if( mtInput.nextToken() ){
+                    String sValue = mtInput.tokenString();
+                    try{
+                        m_pPOMDP.setStateCount( Integer.parseInt( sValue ) + 1 ); // +1 for DONE
                     }
-                    else{//assume that state list is until next empty line
-                        String sStateLine = "";
-                        while(sStateLine.length() == 0){
-                            sStateLine = lrInput.readLine().trim();
-                        }
-                        while(sStateLine.length() > 0 && !lrInput.endOfFile()){
-                            m_pPOMDP.addState(sStateLine);
-                            sStateLine = lrInput.readLine().trim();
-                        }
-
+                    catch( NumberFormatException e ){
+                        m_pPOMDP.addState( sValue );
+                        while( mtInput.nextToken() )
+                            m_pPOMDP.addState( mtInput.tokenString() );
                     }
-
-                    System.out.print( "|S| = " + m_pPOMDP.getStateCount() );
-                    cVars++;
                 }
-                else if( sType.equals( "actions:" ) ){
-                    if(stLine.hasMoreElements()){
-
-                        sValue = stLine.nextToken();
+                else{//assume that state list is until next empty line
+                    for( String sState : readNameLines( mtInput ) )
+                        m_pPOMDP.addState( sState );
+                }
 
-                        try{
-                            m_pPOMDP.setActionCount( Integer.parseInt( sValue ) );
-                        }
-                        catch( NumberFormatException e ){
-                            idx = 0;
-                            m_pPOMDP.addAction( sValue );
-                            idx++;
-                            while( stLine.hasMoreTokens() ){
-                                sValue = stLine.nextToken();
-                                m_pPOMDP.addAction( sValue );
-                                idx++;
-                            }
-                        }
+                System.out.print( "|S| = " + m_pPOMDP.getStateCount() );
+                cVars++;
+            }
+            else if( mtInput.tokenEquals( "actions:" ) ){
+                if( mtInput.nextToken() ){
+                    String sValue = mtInput.tokenString();
+                    try{
+                        m_pPOMDP.setActionCount( Integer.parseInt( sValue ) );
                     }
-                    else{//assume that action list is until next empty line
-                        String sActionLine = "";
-                        while(sActionLine.length() == 0){
-                            sActionLine = lrInput.readLine().trim();
-                        }
-                        while(sActionLine.length() > 0 && !lrInput.endOfFile()){
-                            m_pPOMDP.addAction(sActionLine);
-                            sActionLine = lrInput.readLine().trim();
-                        }
+                    catch( NumberFormatException e ){
+                        m_pPOMDP.addAction( sValue );
+                        while( mtInput.nextToken() )
+                            m_pPOMDP.addAction( mtInput.tokenString() );
                     }
-
-                    cVars++;
+                }
+                else{//assume that action list is until next empty line
+                    for( String sAction : readNameLines( mtInput ) )
+                        m_pPOMDP.addAction( sAction );
                 }
 
+                cVars++;
             }
         }
-        if (Point.points == null) {
-            Point.points = new Point[m_pPOMDP.getRows()][m_pPOMDP.getCols()];
+        Point.initPoints(m_pPOMDP.getRows(), m_pPOMDP.getCols());
+    }
+
+    // one name per line, from the next non empty line until an empty line
+    private List<String> readNameLines( ModelTokenizer mtInput ) throws IOException, InvalidModelFileFormatException {
+        List<String> lNames = new ArrayList<>();
+        String sName = "";
+        do{
+            if( !mtInput.nextLine() )
+                throw mtInput.error( "Missing names list" );
+            sName = mtInput.restOfLine();
+        }
+        while( sName.length() == 0 );
+        while( sName.length() > 0 ){
+            lNames.add( sName );
+            if( !mtInput.nextLine() )
+                break;
+            sName = mtInput.restOfLine();
         }
+        return lNames;
     }
 
 }
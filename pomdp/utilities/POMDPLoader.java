@@ -81,6 +81,7 @@ public class POMDPLoader {
 		}
 				
 		verifyFunctions();
+		m_pPOMDP.compactDynamicsFunctions();
 
 		System.out.println( "Done loading model" );
 	}
@@ -3,15 +3,25 @@ package pomdp.utilities;
 import pomdp.environments.Grid;
 
 public class Point extends Pair<Integer, Integer>{
-    public static Point[][] points;
+    public static volatile Point[][] points;
     public Point(int first, int second) {
         super(first, second);
     }
 
-    public static Point getPoint(int row, int col) {
-        if (points[row][col] == null) {
-            points[row][col] = new Point(row, col);
+    // all the points are created up front, so getPoint only reads the table and is safe to share between planners
+    public static synchronized void initPoints(int rows, int cols) {
+        if (points == null) {
+            Point[][] table = new Point[rows][cols];
+            for (int row = 0; row < rows; row++) {
+                for (int col = 0; col < cols; col++) {
+                    table[row][col] = new Point(row, col);
+                }
+            }
+            points = table;
         }
+    }
+
+    public static Point getPoint(int row, int col) {
         return points[row][col];
     }
 
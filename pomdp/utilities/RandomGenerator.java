@@ -1,7 +1,11 @@
 package pomdp.utilities;
 
 import java.io.Serializable;
+import java.util.Map;
 import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class RandomGenerator  implements Serializable{
 	/*
@@ -51,6 +55,12 @@ public class RandomGenerator  implements Serializable{
 	private Random m_rndGenerator;
 	private String m_sName;
 	private static RandomGenerator instance;
+	private static Map<Character, RandomGenerator> agentInstances = new ConcurrentHashMap<>();
+	private static ThreadLocal<RandomGenerator> threadInstance = new ThreadLocal<>();
+	// the stream of the simulated trial running in the current thread, see bindTrialStream
+	private static final ThreadLocal<SplittableRandom> g_tlTrialStream = new ThreadLocal<>();
+	// threads with a bound trial stream, so that draws outside trials skip the thread local lookup
+	private static final AtomicInteger g_cTrialStreams = new AtomicInteger();
 	
 	private RandomGenerator( String sName ){
 		//this( sName, System.currentTimeMillis() );
@@ -58,18 +68,84 @@ public class RandomGenerator  implements Serializable{
 	}
 	
 	private RandomGenerator( String sName, long iSeed ){
+		this( sName, iSeed, true );
+	}
+	
+	private RandomGenerator( String sName, long iSeed, boolean bNotify ){
 		m_rndGenerator = new Random( iSeed );
 		m_sName = sName;
-		System.out.println( "Initializing generator " + m_sName + " with random seed " + iSeed );
+		if( bNotify )
+			System.out.println( "Initializing generator " + m_sName + " with random seed " + iSeed );
 	}
 
+	// returns the generator bound to the current thread by setThreadInstance, or the global generator
 	public static RandomGenerator getInstance() {
-		if (instance == null) {
-			instance = new RandomGenerator("Generator", 42);
+		RandomGenerator rndThread = threadInstance.get();
+		if (rndThread != null) {
+			return rndThread;
+		}
+		synchronized (RandomGenerator.class) {
+			if (instance == null) {
+				instance = new RandomGenerator("Generator", 42);
+			}
+			return instance;
+		}
+	}
+
+	// a generator per agent with a fixed seed, so an agent draws the same numbers whichever thread plans it
+	public static RandomGenerator getAgentInstance(char id) {
+		return agentInstances.computeIfAbsent(id, c -> new RandomGenerator("Generator " + c, 42 + c));
+	}
+
+	/**
+	 * Binds a generator to the current thread, getInstance returns it until the previous binding is restored.
+	 * @return the previously bound generator, or null
+	 */
+	public static RandomGenerator setThreadInstance(RandomGenerator rndGenerator) {
+		RandomGenerator rndPrevious = threadInstance.get();
+		if (rndGenerator == null) {
+			threadInstance.remove();
+		}
+		else {
+			threadInstance.set(rndGenerator);
 		}
-		return instance;
+		return rndPrevious;
 	}
 		
+	// an independent generator with its own seed, for a component that must not share the global sequence
+	public static RandomGenerator newInstance( String sName, long iSeed ){
+		return new RandomGenerator( sName, iSeed, false );
+	}
+
+	// the random stream of trial iTrial of an evaluation seeded with lSeed, the same whichever thread runs the trial
+	public static SplittableRandom trialStream( long lSeed, long iTrial ){
+		return new SplittableRandom( lSeed + iTrial * 0x9E3779B97F4A7C15L ).split();
+	}
+
+	/**
+	 * Makes every generator draw from rndTrial in the current thread, so that a simulated trial neither depends on nor
+	 * advances the shared sequences. Binding null ends the trial.
+	 * @return the previously bound stream, or null
+	 */
+	public static SplittableRandom bindTrialStream( SplittableRandom rndTrial ){
+		SplittableRandom rndPrevious = g_tlTrialStream.get();
+		if( rndPrevious == null && rndTrial != null )
+			g_cTrialStreams.incrementAndGet();
+		else if( rndPrevious != null && rndTrial == null )
+			g_cTrialStreams.decrementAndGet();
+		if( rndTrial == null )
+			g_tlTrialStream.remove();
+		else
+			g_tlTrialStream.set( rndTrial );
+		return rndPrevious;
+	}
+
+	private static SplittableRandom getTrialStream(){
+		if( g_cTrialStreams.get() == 0 )
+			return null;
+		return g_tlTrialStream.get();
+	}
+
 	public void init( long iSeed, boolean bNotify ){
 		m_rndGenerator = new Random( iSeed );
 		if( bNotify )
@@ -82,23 +158,39 @@ public class RandomGenerator  implements Serializable{
 	}
 	
 	public int nextInt( int iMax ){
+		SplittableRandom rndTrial = getTrialStream();
+		if( rndTrial != null )
+			return rndTrial.nextInt( iMax );
 		return m_rndGenerator.nextInt( iMax );
 	}
 	
 	public int nextInt(){
+		SplittableRandom rndTrial = getTrialStream();
+		if( rndTrial != null )
+			return rndTrial.nextInt();
 		return m_rndGenerator.nextInt();
 	}
 	
 	public double nextDouble(){
+		SplittableRandom rndTrial = getTrialStream();
+		if( rndTrial != null )
+			return rndTrial.nextDouble();
 		return m_rndGenerator.nextDouble();
 	}
 
 	public double nextDouble( double dMax ){
-		return m_rndGenerator.nextDouble() * dMax;
+		return nextDouble() * dMax;
 	}
 
 	public double nextDouble( double dLowerBound, double dUpperBound ){
-		return m_rndGenerator.nextDouble() * ( dUpperBound - dLowerBound ) + dLowerBound;
+		return nextDouble() * ( dUpperBound - dLowerBound ) + dLowerBound;
+	}
+	
+	public double nextGaussian(){
+		SplittableRandom rndTrial = getTrialStream();
+		if( rndTrial != null )
+			return rndTrial.nextGaussian();
+		return m_rndGenerator.nextGaussian();
 	}
 	
 	
@@ -0,0 +1,385 @@
+package pomdp.utilities;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map.Entry;
+
+import pomdp.environments.POMDP;
+import pomdp.environments.POMDP.RewardType;
+
+/**
+ * Reads the same .POMDP format as POMDPLoader, with the same meaning for every line, through a ModelTokenizer.
+ * Values are parsed in place and written straight into the dynamics functions, and state, action and observation names
+ * are resolved through NameTables filled from the header, so the body of the file creates no String or boxed value per entry.
+ * Unlike POMDPLoader, a malformed line throws an InvalidModelFileFormatException with its line and column instead of exiting.
+ */
+public class StreamingPOMDPLoader extends POMDPLoader {
+	private ModelTokenizer.NameTable m_tStates, m_tActions, m_tObservations;
+
+	public StreamingPOMDPLoader( POMDP pomdp ){
+		super( pomdp );
+		m_tStates = new ModelTokenizer.NameTable();
+		m_tActions = new ModelTokenizer.NameTable();
+		m_tObservations = new ModelTokenizer.NameTable();
+	}
+
+	public void load( String sFileName ) throws IOException, InvalidModelFileFormatException{
+		System.out.println( "Started loading model " + sFileName );
+		int cLines = 0;
+
+		try( ModelTokenizer mtInput = new ModelTokenizer( sFileName ) ){
+			readHeader( mtInput );
+			while( mtInput.nextLine() ){
+				cLines++;
+				if( cLines % 1000 == 0 ){
+					System.out.print( "." );
+				}
+				if( mtInput.lineStartsWith( '#' ) || !mtInput.nextToken() )
+					continue;
+				try{
+					if( mtInput.tokenEquals( "T:" ) ){
+						readTransition( mtInput );
+					}
+					else if( mtInput.tokenEquals( "O:" ) ){
+						readObservation( mtInput );
+					}
+					else if( mtInput.tokenEquals( "R:" ) ){
+						readReward( mtInput );
+					}
+					else if( mtInput.tokenEquals( "start:" ) ){
+						if( !mtInput.hasMoreTokens() && !mtInput.nextLine() )
+							throw mtInput.error( "start: must be followed by a line of distributions" );
+						readStartState( mtInput );
+					}
+					else if( mtInput.tokenEquals( "E:" ) ){
+						while( mtInput.nextToken() )
+							m_pPOMDP.addTerminalState( mtInput.tokenIndex( m_tStates ) );
+					}
+					else if( mtInput.tokenEquals( "OS:" ) ){
+						while( mtInput.nextToken() )
+							m_pPOMDP.addObservationSensitiveState( mtInput.tokenIndex( m_tStates ) );
+					}
+				}
+				catch( RuntimeException e ){
+					throw mtInput.error( e.toString() );
+				}
+			}
+		}
+
+		verifyFunctions();
+		m_pPOMDP.compactDynamicsFunctions();
+
+		System.out.println( "Done loading model" );
+	}
+
+	/**
+	 * Supporting the format:
+	 * start:
+	 * line of distributions
+	 */
+	private void readStartState( ModelTokenizer mtInput ) throws InvalidModelFileFormatException{
+		int iStartState = 0;
+		double dValue = 0.0, dSumProbs = 0.0;
+
+		for( iStartState = 0 ; iStartState < m_pPOMDP.getStateCount() ; iStartState++ ){
+			dValue = mtInput.nextDouble();
+			dSumProbs += dValue;
+			m_pPOMDP.setStartStateProb( iStartState, dValue );
+		}
+		if( Math.abs( 1.0 - dSumProbs ) > 0.001 ){
+			Iterator<Entry<Integer,Double>> itStartStates = m_pPOMDP.getStartStates();
+			Entry<Integer,Double> eStartState = null;
+			while( itStartStates.hasNext() ){
+				eStartState = itStartStates.next();
+				if( eStartState != null ){
+					m_pPOMDP.setStartStateProb( eStartState.getKey(), eStartState.getValue() / dSumProbs );
+				}
+			}
+		}
+	}
+
+	/**
+	 * Supporting the following formats:
+	 * T: <action>  followed by a transition matrix
+	 * T: <action> : <start state>  followed by a single line of transitions
+	 * T: <action> : <start state> : <end state> %f
+	 * with a wildcard asterix (*) for the action and the states, as POMDPLoader reads them
+	 */
+	private void readTransition( ModelTokenizer mtInput ) throws IOException, InvalidModelFileFormatException{
+		int iStartState = 0, iEndState = 0, iActionIdx = 0;
+		int cStates = m_pPOMDP.getStateCount();
+		boolean bAllActions = false, bAllStartStates = false;
+		double dValue = 0.0;
+
+		mtInput.requireToken( "an action" );
+		bAllActions = mtInput.tokenIs( '*' );
+		iActionIdx = mtInput.tokenIndex( m_tActions );
+
+		if( mtInput.nextToken() ){
+			mtInput.requireToken( "a start state" );
+			bAllStartStates = mtInput.tokenIs( '*' );
+			iStartState = bAllStartStates ? -1 : mtInput.tokenIndex( m_tStates );
+			if( mtInput.nextToken() ){
+				mtInput.requireToken( "an end state" );
+				iEndState = mtInput.tokenIs( '*' ) ? -1 : mtInput.tokenIndex( m_tStates );
+				dValue = mtInput.nextDouble();
+
+				if( dValue == 0.0 )
+					return;
+
+				if( bAllActions ){
+					setTransition( iStartState, iActionIdx, true, iEndState, dValue );
+				}
+				else if( bAllStartStates ){
+					for( iStartState = 0 ; iStartState < cStates ; iStartState++ ){
+						m_pPOMDP.setTransition( iStartState, iActionIdx, iEndState, dValue );
+					}
+				}
+				else{
+					m_pPOMDP.setTransition( iStartState, iActionIdx, iEndState, dValue );
+				}
+			}
+			else{
+				readTransitionRow( mtInput, iStartState, iActionIdx, bAllActions );
+			}
+		}
+		else{
+			for( iStartState = 0 ; iStartState < cStates ; iStartState++ ){
+				readTransitionRow( mtInput, iStartState, iActionIdx, bAllActions );
+			}
+		}
+	}
+
+	// reads tr(s,a,*) from the next line
+	private void readTransitionRow( ModelTokenizer mtInput, int iStartState, int iAction, boolean bAllActions ) throws IOException, InvalidModelFileFormatException{
+		int iEndState = 0;
+		double dValue = 0.0;
+		if( !mtInput.nextLine() )
+			throw mtInput.error( "insufficient number of transitions" );
+		for( iEndState = 0 ; iEndState < m_pPOMDP.getStateCount() ; iEndState++ ){
+			dValue = mtInput.nextDouble();
+			if( dValue != 0.0 )
+				setTransition( iStartState, iAction, bAllActions, iEndState, dValue );
+		}
+	}
+
+	private void setTransition( int iStartState, int iAction, boolean bAllActions, int iEndState, double dValue ){
+		if( bAllActions ){
+			for( iAction = 0 ; iAction < m_pPOMDP.getActionCount() ; iAction++ ){
+				m_pPOMDP.setTransition( iStartState, iAction, iEndState, dValue );
+			}
+		}
+		else{
+			m_pPOMDP.setTransition( iStartState, iAction, iEndState, dValue );
+		}
+	}
+
+	/**
+	 * Supporting the following formats:
+	 * O: <action> : <end state> followed by an observation matrix
+	 * O: <action> : <end state> followed by a single line of observation
+	 * O: <action> : <end state> : <observation> %f
+	 * where -1 (an asterix) is passed on to POMDP.setObservation for all actions or end states
+	 */
+	private void readObservation( ModelTokenizer mtInput ) throws IOException, InvalidModelFileFormatException{
+		int iObservation = 0, iEndState = 0, iActionIdx = 0;
+		double dValue = 0.0;
+
+		mtInput.requireToken( "an action" );
+		iActionIdx = mtInput.tokenIs( '*' ) ? -1 : mtInput.tokenIndex( m_tActions );
+
+		if( mtInput.nextToken() ){
+			mtInput.requireToken( "an end state" );
+			iEndState = mtInput.tokenIs( '*' ) ? -1 : mtInput.tokenIndex( m_tStates );
+			if( mtInput.nextToken() ){
+				mtInput.requireToken( "an observation" );
+				iObservation = mtInput.tokenIndex( m_tObservations );
+				dValue = mtInput.nextDouble();
+				m_pPOMDP.setObservation( iActionIdx, iEndState, iObservation, dValue );
+			}
+			else{
+				readObservationRow( mtInput, iActionIdx, iEndState );
+			}
+		}
+		else{
+			for( iEndState = 0 ; iEndState < m_pPOMDP.getStateCount() ; iEndState++ ){
+				readObservationRow( mtInput, iActionIdx, iEndState );
+			}
+		}
+	}
+
+	// reads O(a,s',*) from the next line
+	private void readObservationRow( ModelTokenizer mtInput, int iAction, int iEndState ) throws IOException, InvalidModelFileFormatException{
+		if( !mtInput.nextLine() )
+			throw mtInput.error( "insufficient number of observations" );
+		for( int iObservation = 0 ; iObservation < m_pPOMDP.getObservationCount() ; iObservation++ ){
+			m_pPOMDP.setObservation( iAction, iEndState, iObservation, mtInput.nextDouble() );
+		}
+	}
+
+	/**
+	 * Supporting the following formats:
+	 * R: <action> : <start state> : <end state> : <observation> %f
+	 * supporting wildcards asterix (*), with the same reward types and minimal rewards as POMDPLoader sets
+	 */
+	private void readReward( ModelTokenizer mtInput ) throws InvalidModelFileFormatException{
+		int iStartState = 0, iAction = 0;
+		int iSpecifiedStartState = -1, iSpecifiedEndState = -1, iSpecifiedAction = -1;
+		int cStates = m_pPOMDP.getStateCount(), cActions = m_pPOMDP.getActionCount();
+		boolean bAllObservations = false;
+		double dValue = 0.0;
+
+		mtInput.requireToken( "an action" );
+		if( !mtInput.tokenIs( '*' ) )
+			iSpecifiedAction = mtInput.tokenIndex( m_tActions );
+		mtInput.requireToken( ":" );
+		mtInput.requireToken( "a start state" );
+		if( !mtInput.tokenIs( '*' ) )
+			iSpecifiedStartState = mtInput.tokenIndex( m_tStates );
+		mtInput.requireToken( ":" );
+		mtInput.requireToken( "an end state" );
+		if( !mtInput.tokenIs( '*' ) )
+			iSpecifiedEndState = mtInput.tokenIndex( m_tStates );
+		mtInput.requireToken( ":" );
+		mtInput.requireToken( "an observation" );
+		bAllObservations = mtInput.tokenIs( '*' );
+		dValue = mtInput.nextDouble();
+
+		m_pPOMDP.setMinimalReward( -1, dValue );
+
+		if( dValue == 0.0 )
+			return;
+
+		if( !bAllObservations )
+			throw mtInput.error( "Not supporting splitting rewards to observations" );
+
+		/* R(s,a,s')*/
+		if( iSpecifiedEndState != -1 ){
+			m_pPOMDP.setRewardType( RewardType.StateActionState );
+			for( iStartState = 0 ; iStartState < cStates ; iStartState++ ){
+				if( ( iSpecifiedStartState == -1 ) || ( iStartState == iSpecifiedStartState ) ){
+					for( iAction = 0 ; iAction < cActions ; iAction++ ){
+						if( ( iSpecifiedAction == -1 ) || ( iSpecifiedAction == iAction ) ){
+							m_pPOMDP.setReward( iStartState, iAction, iSpecifiedEndState, dValue );
+							m_pPOMDP.setMinimalReward( iAction, dValue );
+						}
+					}
+				}
+			}
+		}
+		/*R(s,a)*/
+		else if( iSpecifiedAction != -1 ){
+			m_pPOMDP.setRewardType( RewardType.StateAction );
+			for( iStartState = 0 ; iStartState < cStates ; iStartState++ ){
+				if( ( iSpecifiedStartState == -1 ) || ( iStartState == iSpecifiedStartState ) ){
+					m_pPOMDP.setReward( iStartState, iSpecifiedAction, dValue );
+					//POMDPLoader passes iAction, which is still 0, here
+					m_pPOMDP.setMinimalReward( iAction, dValue );
+				}
+			}
+		}
+		/*R(s)*/
+		else if( iSpecifiedStartState != -1 ){
+			m_pPOMDP.setRewardType( RewardType.State );
+			m_pPOMDP.setReward( iSpecifiedStartState, dValue );
+			for( iAction = 0 ; iAction < cActions ; iAction++ ){
+				m_pPOMDP.setMinimalReward( iAction, dValue );
+			}
+		}
+		else{
+			throw mtInput.error( "Format must be - R: <action> : <state> : <state> : * %f" );
+		}
+	}
+
+	private void readHeader( ModelTokenizer mtInput ) throws IOException, InvalidModelFileFormatException{
+		int cVars = 0;
+
+		while( cVars < 5 ){
+			if( !mtInput.nextLine() )
+				throw mtInput.error( "Missing header parameters" );
+			if( !mtInput.nextToken() || mtInput.tokenIs( '#' ) ) //empty line or comment
+				continue;
+			if( mtInput.tokenEquals( "discount:" ) ){
+				m_pPOMDP.setDiscountFactor( mtInput.nextDouble() );
+				cVars++;
+			}
+			else if( mtInput.tokenEquals( "values:" ) ){
+				cVars++;
+			}
+			else if( mtInput.tokenEquals( "states:" ) ){
+				readNames( mtInput, m_tStates );
+				System.out.print( "|S| = " + m_pPOMDP.getStateCount() );
+				cVars++;
+			}
+			else if( mtInput.tokenEquals( "actions:" ) ){
+				readNames( mtInput, m_tActions );
+				System.out.print( "|A| = " + m_pPOMDP.getActionCount() );
+				cVars++;
+			}
+			else if( mtInput.tokenEquals( "observations:" ) ){
+				readNames( mtInput, m_tObservations );
+				System.out.print( "|O| = " + m_pPOMDP.getObservationCount() );
+				cVars++;
+			}
+		}
+		System.out.println();
+
+		m_pPOMDP.initDynamicsFunctions();
+	}
+
+	/**
+	 * A count, or names on the rest of the line, or one name per line until the next empty line.
+	 */
+	private void readNames( ModelTokenizer mtInput, ModelTokenizer.NameTable tNames ) throws IOException, InvalidModelFileFormatException{
+		String sName = "";
+		if( mtInput.nextToken() ){
+			sName = mtInput.tokenString();
+			try{
+				setCount( tNames, Integer.parseInt( sName ) );
+			}
+			catch( NumberFormatException e ){
+				addName( tNames, sName );
+				while( mtInput.nextToken() )
+					addName( tNames, mtInput.tokenString() );
+			}
+		}
+		else{
+			do{
+				if( !mtInput.nextLine() )
+					throw mtInput.error( "Missing names list" );
+				sName = mtInput.restOfLine();
+			}
+			while( sName.length() == 0 );
+			while( sName.length() > 0 ){
+				addName( tNames, sName );
+				if( !mtInput.nextLine() )
+					break;
+				sName = mtInput.restOfLine();
+			}
+		}
+	}
+
+	private void setCount( ModelTokenizer.NameTable tNames, int cValues ){
+		if( tNames == m_tStates )
+			m_pPOMDP.setStateCount( cValues );
+		else if( tNames == m_tActions )
+			m_pPOMDP.setActionCount( cValues );
+		else
+			m_pPOMDP.setObservationCount( cValues );
+	}
+
+	private void addName( ModelTokenizer.NameTable tNames, String sName ){
+		if( tNames == m_tStates ){
+			tNames.put( sName, m_pPOMDP.getStateCount() );
+			m_pPOMDP.addState( sName );
+		}
+		else if( tNames == m_tActions ){
+			tNames.put( sName, m_pPOMDP.getActionCount() );
+			m_pPOMDP.addAction( sName );
+		}
+		else{
+			tNames.put( sName, m_pPOMDP.getObservationCount() );
+			m_pPOMDP.addObservation( sName );
+		}
+	}
+}
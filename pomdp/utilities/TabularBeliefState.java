@@ -17,8 +17,9 @@ import org.w3c.dom.NodeList;
 import pomdp.utilities.datastructures.StaticMap;
 
 public class TabularBeliefState extends BeliefState {
-	protected double[] m_aStateProbabilities;
-	protected StaticMap m_mNonZeroEntries;
+	//volatile since backups may read a belief from several threads while the first getNonZeroEntries drops the dense array
+	protected volatile double[] m_aStateProbabilities;
+	protected volatile StaticMap m_mNonZeroEntries;
 	private Map m_mDominatingNonZeroEntries;
 	protected boolean m_bSparse;
 	
@@ -29,8 +30,9 @@ public class TabularBeliefState extends BeliefState {
 	}
 
 	public double valueAt( int iState ){
-		if( m_aStateProbabilities != null )
-			return m_aStateProbabilities[iState];
+		double[] aStateProbabilities = m_aStateProbabilities;
+		if( aStateProbabilities != null )
+			return aStateProbabilities[iState];
 		else{
 			double dValue = m_mNonZeroEntries.get( iState );
 			return dValue;
@@ -59,12 +61,18 @@ public class TabularBeliefState extends BeliefState {
 	 * @return
 	 */
 	public Collection<Entry<Integer,Double>> getNonZeroEntries(){
+		if( m_mNonZeroEntries == null )
+			initNonZeroEntries();
+		return m_mNonZeroEntries;
+	}
+	
+	//the map is published before the dense array is dropped, so readers always see one of them
+	private synchronized void initNonZeroEntries(){
 		if( ( m_mNonZeroEntries == null ) && ( m_aStateProbabilities != null ) ){
 			m_mNonZeroEntries = new StaticMap( m_aStateProbabilities, 0.0 );
 			if( m_bSparse )
 				m_aStateProbabilities = null;
 		}
-		return m_mNonZeroEntries;
 	}
 	
 	public Iterator getDominatingNonZeroEntries(){
@@ -107,6 +115,15 @@ public class TabularBeliefState extends BeliefState {
 		return m_mNonZeroEntries.size();
 	}
 	
+	public double[] getDenseProbabilities(){
+		return m_aStateProbabilities;
+	}
+	
+	public StaticMap getSparseProbabilities(){
+		getNonZeroEntries();
+		return m_mNonZeroEntries;
+	}
+	
 	public double[] toArray(){
 		return (double[]) m_aStateProbabilities.clone();
 	}
@@ -3,8 +3,8 @@ package pomdp.utilities;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.PrintStream;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class TrackLogger {
 	private int m_iMaximalLevel;
@@ -12,7 +12,7 @@ public class TrackLogger {
 	private Runtime m_rtRuntime;
 	private PrintStream m_psOutput;
 
-	private static Map<Character, TrackLogger> agentTrackLogger = new HashMap<>();
+	private static Map<Character, TrackLogger> agentTrackLogger = new ConcurrentHashMap<>();
 	private Map<Character, PrintStream> agentTrackLoggerOutput;
 
 	private TrackLogger(){
@@ -22,10 +22,7 @@ public class TrackLogger {
 	}
 
 	public static TrackLogger getAgentInstance(char id) {
-		if (agentTrackLogger.get(id) == null) {
-			agentTrackLogger.put(id, new TrackLogger());
-		}
-		return agentTrackLogger.get(id);
+		return agentTrackLogger.computeIfAbsent(id, c -> new TrackLogger());
 	}
 	
 	public void finalize(){
@@ -41,7 +38,7 @@ public class TrackLogger {
 		m_psOutput = new PrintStream( new FileOutputStream( sFileName ) );
 	}
 	
-	public static TrackLogger getInstance(){
+	public static synchronized TrackLogger getInstance(){
 		if( m_lInstance == null )
 			m_lInstance = new TrackLogger();
 		return m_lInstance;
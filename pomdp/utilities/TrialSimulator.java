@@ -0,0 +1,307 @@
+package pomdp.utilities;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map.Entry;
+
+import pomdp.environments.POMDP;
+import pomdp.environments.POMDP.RewardType;
+import pomdp.valuefunction.LinearValueFunctionApproximation;
+import pomdp.valuefunction.MaxAlphaIndex;
+
+/**
+ * Simulates trials of a policy that takes the action of the max alpha vector of a value function, as computeDiscountedReward does,
+ * but keeps the belief in dense arrays owned by the simulator instead of BeliefState objects.
+ * The true state is sampled with the chooseStartState, execute and observe of the model and the rewards are computed from it.
+ * The belief update follows BeliefStateFactory.nextBeliefState, with the same two summation orders, and the dot products
+ * sum over the support in ascending state order like CompactAlphaVector, so a trial takes the same actions and
+ * returns the same discounted reward as computeDiscountedReward on the same random stream.
+ * The successors of the visited (s,a) pairs are kept in an open addressing table keyed by s * |A| + a, so memory follows
+ * the pairs that actually occur, and the predecessors are read from the CSR rows of POMDP.getBackwardTransitionIndex.
+ * A simulator is used by one thread at a time (see POMDP.getTrialSimulator) and allocates nothing once the transitions
+ * of the visited states are cached.
+ */
+public class TrialSimulator {
+	private static final long EMPTY = -1;
+
+	private final POMDP m_pPOMDP;
+	private final int m_cStates, m_cActions;
+	//beliefs over all states, zero outside their supports, which are sorted
+	private double[] m_adBelief, m_adNext;
+	private int[] m_aiSupport, m_aiNextSupport;
+	private int m_cSupport;
+	//the successors of getNonZeroTransitions( s, a ) and their probabilities, in its order, under the key s * |A| + a
+	private long[] m_alRowKeys;
+	private int[][] m_aaiSuccessors;
+	private double[][] m_aadSuccessorProbs;
+	private int m_cRows;
+	//a row being read from getNonZeroTransitions, grown as needed
+	private int[] m_aiRowStates;
+	private double[] m_adRowProbs;
+	private final double[] m_adValues;
+	private long[] m_alMask;
+	private final MaxAlphaIndex.Workspace m_wsSearch;
+
+	public TrialSimulator( POMDP pomdp ){
+		m_pPOMDP = pomdp;
+		m_cStates = pomdp.getStateCount();
+		m_cActions = pomdp.getActionCount();
+		m_adBelief = new double[m_cStates];
+		m_adNext = new double[m_cStates];
+		m_aiSupport = new int[m_cStates];
+		m_aiNextSupport = new int[m_cStates];
+		m_cSupport = 0;
+		m_alRowKeys = new long[64];
+		Arrays.fill( m_alRowKeys, EMPTY );
+		m_aaiSuccessors = new int[64][];
+		m_aadSuccessorProbs = new double[64][];
+		m_cRows = 0;
+		m_aiRowStates = new int[16];
+		m_adRowProbs = new double[16];
+		m_adValues = new double[m_cStates];
+		m_alMask = new long[( m_cActions + 63 ) >>> 6];
+		m_wsSearch = new MaxAlphaIndex.Workspace();
+	}
+
+	/**
+	 * The discounted reward of one trial of the greedy policy of vValueFunction from the initial belief,
+	 * drawing from the random generators of the model.
+	 */
+	public double simulate( LinearValueFunctionApproximation vValueFunction, int cMaxStepsToGoal ){
+		double dDiscountedReward = 0.0, dCurrentReward = 0.0, dDiscountFactor = 1.0, dGamma = m_pPOMDP.getDiscountFactor();
+		int iStep = 0, iAction = 0, iObservation = 0, iState = 0, iNextState = 0;
+		ForbiddenActionMasks famMasks = m_pPOMDP.getForbiddenActionMasks();
+		RewardType rtReward = m_pPOMDP.getRewardType();
+		boolean bDone = false;
+
+		initBelief();
+		iState = m_pPOMDP.chooseStartState();
+		for( iStep = 0 ; ( iStep < cMaxStepsToGoal ) && !bDone ; iStep++ ){
+			iAction = getBestAction( vValueFunction, famMasks );
+			if( iAction == -1 )
+				throw new Error( "Could not find optimal action for the simulated belief" );
+
+			iNextState = m_pPOMDP.execute( iAction, iState );
+			iObservation = m_pPOMDP.observe( iAction, iNextState );
+
+			if( rtReward == RewardType.StateAction )
+				dCurrentReward = m_pPOMDP.R( iState, iAction );
+			else if( rtReward == RewardType.StateActionState )
+				dCurrentReward = m_pPOMDP.R( iState, iAction, iNextState );
+			else if( rtReward == RewardType.State )
+				dCurrentReward = m_pPOMDP.R( iState );
+			dDiscountedReward += dCurrentReward * dDiscountFactor;
+			dDiscountFactor *= dGamma;
+
+			bDone = endTrial( iNextState, dCurrentReward );
+			//an impossible observation, where nextBeliefState has no successor
+			if( !nextBelief( iAction, iObservation ) )
+				bDone = true;
+			iState = iNextState;
+		}
+		return dDiscountedReward;
+	}
+
+	private boolean endTrial( int iState, double dReward ){
+		return m_pPOMDP.endADR( iState, dReward );
+	}
+
+	//the initial belief of BeliefStateFactory, the start probabilities of all states
+	private void initBelief(){
+		int iState = 0;
+		double dProb = 0.0;
+		clear( m_adBelief, m_aiSupport, m_cSupport );
+		m_cSupport = 0;
+		for( iState = 0 ; iState < m_cStates ; iState++ ){
+			dProb = m_pPOMDP.probStartState( iState );
+			if( dProb != 0.0 ){
+				m_adBelief[iState] = dProb;
+				m_aiSupport[m_cSupport++] = iState;
+			}
+		}
+	}
+
+	/**
+	 * LinearValueFunctionApproximation.getBestAction at the current belief: the action of the vector with the highest dot product
+	 * among those whose action is not forbidden at any state of the support, the latest of equal ones, or the done action if there is none.
+	 * Found with the MaxAlphaIndex of the value function when getMaxAlpha uses it, and otherwise by a scan of all the vectors.
+	 */
+	private int getBestAction( LinearValueFunctionApproximation vValueFunction, ForbiddenActionMasks famMasks ){
+		AlphaVector av = null, avMaxAlpha = null;
+		double dValue = 0.0, dMaxValue = Double.NEGATIVE_INFINITY;
+		int iVector = 0, i = 0;
+
+		Arrays.fill( m_alMask, 0L );
+		for( i = 0 ; i < m_cSupport ; i++ )
+			famMasks.addStateMask( m_aiSupport[i], m_alMask );
+
+		if( ExecutionProperties.useMaxAlphaIndex() ){
+			avMaxAlpha = vValueFunction.getMaxAlphaIndex( m_cStates ).getMaxAlpha( m_adBelief, m_aiSupport, m_cSupport, m_alMask, m_wsSearch );
+		}
+		else{
+			AlphaVector[] aVectors = vValueFunction.getSnapshot().getVectors();
+			for( iVector = aVectors.length - 1 ; iVector >= 0 ; iVector-- ){
+				av = aVectors[iVector];
+				if( av == null || ForbiddenActionMasks.isSet( m_alMask, av.getAction() ) )
+					continue;
+				av.valuesAt( m_aiSupport, m_cSupport, m_adValues, 0 );
+				dValue = 0.0;
+				for( i = 0 ; i < m_cSupport ; i++ )
+					dValue += m_adValues[i] * m_adBelief[m_aiSupport[i]];
+				if( dValue > dMaxValue || avMaxAlpha == null ){
+					dMaxValue = dValue;
+					avMaxAlpha = av;
+				}
+			}
+		}
+		if( avMaxAlpha == null )
+			return m_pPOMDP.getDoneAction();
+		avMaxAlpha.incrementHitCount();
+		return avMaxAlpha.getAction();
+	}
+
+	/**
+	 * b'(s') = O(a,s',o) \sum_s tr(s,a,s') b(s) / pr(o|a,b), summed as BeliefStateFactory.nextBeliefState does:
+	 * per end state over the ascending support when the support covers more than half of the states
+	 * (only over the backward row of s', the states s with tr(s,a,s') > 0 in ascending order, as the others add exact zeros),
+	 * and otherwise forward over the support and the non zero transitions of each state.
+	 * Returns false, leaving the belief as it was, when pr(o|a,b) = 0.
+	 */
+	private boolean nextBelief( int iAction, int iObservation ){
+		double dNormalizingFactor = 0.0, dNextValue = 0.0, dBelief = 0.0, dTr = 0.0, dOb = 0.0;
+		int iEndState = 0, iStartState = 0, i = 0, iSuccessor = 0, idx = 0, cNextSupport = 0;
+		int[] aiSuccessors = null, aiOffsets = null, aiPredecessors = null, aiSwap = null;
+		double[] adProbs = null, adSwap = null;
+
+		if( m_cSupport > m_cStates / 2.0 ){
+			BackwardTransitionIndex btiIndex = m_pPOMDP.getBackwardTransitionIndex();
+			aiOffsets = btiIndex.getOffsets( iAction );
+			aiPredecessors = btiIndex.getStartStates( iAction );
+			adProbs = btiIndex.getProbabilities( iAction );
+			for( iEndState = 0 ; iEndState < m_cStates ; iEndState++ ){
+				dOb = m_pPOMDP.O( iAction, iEndState, iObservation );
+				dNextValue = 0.0;
+				if( dOb != 0.0 ){
+					for( i = aiOffsets[iEndState] ; i < aiOffsets[iEndState + 1] ; i++ ){
+						iStartState = aiPredecessors[i];
+						dBelief = m_adBelief[iStartState];
+						if( dBelief != 0.0 )
+							dNextValue += adProbs[i] * dBelief;
+					}
+					dNextValue *= dOb;
+				}
+				if( dNextValue != 0.0 ){
+					m_adNext[iEndState] = dNextValue;
+					m_aiNextSupport[cNextSupport++] = iEndState;
+				}
+				dNormalizingFactor += dNextValue;
+			}
+		}
+		else{
+			for( i = 0 ; i < m_cSupport ; i++ ){
+				iStartState = m_aiSupport[i];
+				dBelief = m_adBelief[iStartState];
+				idx = getSuccessorRow( iStartState, iAction );
+				aiSuccessors = m_aaiSuccessors[idx];
+				adProbs = m_aadSuccessorProbs[idx];
+				for( iSuccessor = 0 ; iSuccessor < aiSuccessors.length ; iSuccessor++ ){
+					iEndState = aiSuccessors[iSuccessor];
+					dTr = adProbs[iSuccessor];
+					dOb = m_pPOMDP.O( iAction, iEndState, iObservation );
+					if( dOb > 0.0 ){
+						dNextValue = dBelief * dTr * dOb;
+						if( m_adNext[iEndState] == 0.0 && dNextValue != 0.0 )
+							m_aiNextSupport[cNextSupport++] = iEndState;
+						m_adNext[iEndState] += dNextValue;
+						dNormalizingFactor += dNextValue;
+					}
+				}
+			}
+			Arrays.sort( m_aiNextSupport, 0, cNextSupport );
+		}
+
+		if( dNormalizingFactor == 0.0 ){
+			clear( m_adNext, m_aiNextSupport, cNextSupport );
+			return false;
+		}
+		for( i = 0 ; i < cNextSupport ; i++ )
+			m_adNext[m_aiNextSupport[i]] /= dNormalizingFactor;
+
+		clear( m_adBelief, m_aiSupport, m_cSupport );
+		adSwap = m_adBelief;
+		m_adBelief = m_adNext;
+		m_adNext = adSwap;
+		aiSwap = m_aiSupport;
+		m_aiSupport = m_aiNextSupport;
+		m_aiNextSupport = aiSwap;
+		m_cSupport = cNextSupport;
+		return true;
+	}
+
+	//slot of the successor row of ( s, a ) in the table, read from the model on first use
+	private int getSuccessorRow( int iState, int iAction ){
+		long lKey = (long)iState * m_cActions + iAction;
+		int idx = slot( lKey, m_alRowKeys.length ), cSuccessors = 0;
+		while( m_alRowKeys[idx] != EMPTY ){
+			if( m_alRowKeys[idx] == lKey )
+				return idx;
+			idx = ( idx + 1 ) & ( m_alRowKeys.length - 1 );
+		}
+
+		Iterator<Entry<Integer,Double>> itNonZero = m_pPOMDP.getNonZeroTransitions( iState, iAction );
+		Entry<Integer,Double> e = null;
+		while( itNonZero.hasNext() ){
+			e = itNonZero.next();
+			if( cSuccessors == m_aiRowStates.length ){
+				m_aiRowStates = Arrays.copyOf( m_aiRowStates, cSuccessors * 2 );
+				m_adRowProbs = Arrays.copyOf( m_adRowProbs, cSuccessors * 2 );
+			}
+			m_aiRowStates[cSuccessors] = e.getKey();
+			m_adRowProbs[cSuccessors] = e.getValue();
+			cSuccessors++;
+		}
+
+		if( ( m_cRows + 1 ) * 4 > m_alRowKeys.length * 3 ){
+			grow();
+			idx = slot( lKey, m_alRowKeys.length );
+			while( m_alRowKeys[idx] != EMPTY )
+				idx = ( idx + 1 ) & ( m_alRowKeys.length - 1 );
+		}
+		m_alRowKeys[idx] = lKey;
+		m_aaiSuccessors[idx] = Arrays.copyOf( m_aiRowStates, cSuccessors );
+		m_aadSuccessorProbs[idx] = Arrays.copyOf( m_adRowProbs, cSuccessors );
+		m_cRows++;
+		return idx;
+	}
+
+	private static int slot( long lKey, int cSlots ){
+		long lHash = lKey * 0x9E3779B97F4A7C15L;
+		return (int)( lHash >>> 32 ) & ( cSlots - 1 );
+	}
+
+	private void grow(){
+		long[] alKeys = m_alRowKeys;
+		int[][] aaiSuccessors = m_aaiSuccessors;
+		double[][] aadSuccessorProbs = m_aadSuccessorProbs;
+		int idx = 0, iNew = 0;
+		m_alRowKeys = new long[alKeys.length * 2];
+		Arrays.fill( m_alRowKeys, EMPTY );
+		m_aaiSuccessors = new int[alKeys.length * 2][];
+		m_aadSuccessorProbs = new double[alKeys.length * 2][];
+		for( idx = 0 ; idx < alKeys.length ; idx++ ){
+			if( alKeys[idx] != EMPTY ){
+				iNew = slot( alKeys[idx], m_alRowKeys.length );
+				while( m_alRowKeys[iNew] != EMPTY )
+					iNew = ( iNew + 1 ) & ( m_alRowKeys.length - 1 );
+				m_alRowKeys[iNew] = alKeys[idx];
+				m_aaiSuccessors[iNew] = aaiSuccessors[idx];
+				m_aadSuccessorProbs[iNew] = aadSuccessorProbs[idx];
+			}
+		}
+	}
+
+	private static void clear( double[] adValues, int[] aiStates, int cStates ){
+		for( int i = 0 ; i < cStates ; i++ )
+			adValues[aiStates[i]] = 0.0;
+	}
+}
@@ -80,16 +80,7 @@ public class WordCompleteBeliefStateFactory extends BeliefStateFactory {
 			}
 			
 			if( m_bCacheBelifStates ){
-				BeliefState bsExisting = (BeliefState) m_hmCachedBeliefStates.get( bsNext );
-				if( bsExisting == null ){
-					//Logger.getInstance().log( "BeliefStateFactory", 0, "nextBeliefState", 
-					//		"Tau( " + bs.getId() + ", " + iAction + ", " + iObservation + " ) = " + bsNext.toString() );
-					cacheBeliefState( bsNext );
-					m_cBeliefPoints++;
-				}
-				else{
-					bsNext = bsExisting;
-				}
+				bsNext = internBeliefState( bsNext );
 						
 				if( bsNext != bs )
 					bsNext.addPredecessor( bs, dNormalizingFactor, iAction );
@@ -2,8 +2,6 @@ package pomdp.utilities.concurrent;
 
 import java.util.Vector;
 
-import java.util.Iterator;
-
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
@@ -14,6 +12,7 @@ import pomdp.utilities.BeliefStateFactory;
 import pomdp.utilities.ExecutionProperties;
 import pomdp.utilities.Logger;
 import pomdp.valuefunction.LinearValueFunctionApproximation;
+import pomdp.valuefunction.ValueFunctionSnapshot;
 
 public class Backup extends Task implements Runnable {
 
@@ -44,7 +43,7 @@ public class Backup extends Task implements Runnable {
 		AlphaVector avMax = null, avCurrent = null;
 		double dValue = 0.0, dMaxValue = Double.MAX_VALUE * -1;
 						
-		for( int iAction : m_pPOMDP.getRelevantActions( bs ) ){
+		for( int iAction : m_pPOMDP.getRelevantActionArray( bs ) ){
 			avCurrent = G( iAction, bs, m_vValueFunction );
 			dValue = avCurrent.dotProduct( bs );
 	
@@ -70,13 +69,8 @@ public class Backup extends Task implements Runnable {
 	protected AlphaVector G( int iAction, BeliefState bs, LinearValueFunctionApproximation vValueFunction ){
 		AlphaVector avMax = null, avG = null, avSum = null, avMaxOriginal = null;;
 		int iObservation = 0, iState = 0;
-		Vector<AlphaVector> vVectors = new Vector<AlphaVector>();
+		ValueFunctionSnapshot vsVectors = vValueFunction.getSnapshot();
 		double dMaxValue = Double.NEGATIVE_INFINITY, dValue = 0, dProb = 0.0, dSumProbs = 0.0;
-
-		Iterator<AlphaVector> it =  vValueFunction.getVectors().iterator();
-		while( it.hasNext() ){
-			vVectors.add( it.next() );
-		}
 		
 		
 		for( iObservation = 0 ; iObservation < m_cObservations ; iObservation++ ){
@@ -85,7 +79,7 @@ public class Backup extends Task implements Runnable {
 			if( dProb > 0.0 ){
 				dMaxValue = Double.NEGATIVE_INFINITY;
 				//argmax_i g^i_a,o \cdot b
-				for( AlphaVector avAlpha : vVectors ){
+				for( AlphaVector avAlpha : vsVectors.getVectors() ){
 					if( avAlpha != null ){
 						avG = avAlpha.G( iAction, iObservation );
 						
@@ -100,7 +94,7 @@ public class Backup extends Task implements Runnable {
 			}
 			else{
 				dMaxValue = 0.0;
-				avMaxOriginal = vValueFunction.getLast();
+				avMaxOriginal = vsVectors.getLast();
 				avMax = avMaxOriginal.G( iAction, iObservation );
 			}
 
@@ -0,0 +1,102 @@
+package pomdp.utilities.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+import pomdp.utilities.ExecutionProperties;
+
+/**
+ * Fork/join executor for the parallel parts of point based backups: the belief points of a batch, and the actions and observations of a single backup.
+ * Work is given as an index range and an estimate of the work of one index. A range is split in halves while its work is above MIN_TASK_WORK
+ * and the current worker has at most MAX_SURPLUS_TASKS forked tasks that no other worker has taken, so small backups run in the calling thread
+ * and nested ranges (actions inside a batch of beliefs) only split while there are idle workers.
+ * Every index writes its own result slot and the caller merges the slots in index order, so results do not depend on the schedule.
+ */
+public class BackupExecutor {
+	//estimated work (roughly, entries touched) below which a range is not worth a task
+	private static final long MIN_TASK_WORK = 1 << 14;
+	private static final int MAX_SURPLUS_TASKS = 2;
+
+	private static BackupExecutor g_beInstance = null;
+
+	private final ForkJoinPool m_fjPool;
+
+	public BackupExecutor( int cThreads ){
+		m_fjPool = new ForkJoinPool( cThreads );
+	}
+
+	public static synchronized BackupExecutor getInstance(){
+		if( g_beInstance == null )
+			g_beInstance = new BackupExecutor( ExecutionProperties.getBackupThreadCount() );
+		return g_beInstance;
+	}
+
+	public int getParallelism(){
+		return m_fjPool.getParallelism();
+	}
+
+	/**
+	 * Calls body for every index in [0,cItems) and returns when all calls are done.
+	 * The body may run concurrently for different indexes and must only write state that belongs to its index.
+	 * An exception thrown by the body is rethrown to the caller.
+	 */
+	public void forEach( int cItems, long lWorkPerItem, IntConsumer body ){
+		int iItem = 0;
+		if( ( cItems <= 1 ) || ( m_fjPool.getParallelism() == 1 ) || ( cItems * lWorkPerItem < MIN_TASK_WORK ) ){
+			for( iItem = 0 ; iItem < cItems ; iItem++ )
+				body.accept( iItem );
+			return;
+		}
+		RangeTask rtAll = new RangeTask( 0, cItems, lWorkPerItem, body );
+		if( ForkJoinTask.getPool() == m_fjPool )
+			rtAll.invoke();
+		else
+			m_fjPool.invoke( rtAll );
+	}
+
+	public void shutdown(){
+		m_fjPool.shutdown();
+	}
+
+	private static class RangeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int m_iStart;
+		private int m_iEnd;
+		private final long m_lWorkPerItem;
+		private final IntConsumer m_body;
+
+		RangeTask( int iStart, int iEnd, long lWorkPerItem, IntConsumer body ){
+			m_iStart = iStart;
+			m_iEnd = iEnd;
+			m_lWorkPerItem = lWorkPerItem;
+			m_body = body;
+		}
+
+		protected void compute(){
+			List<RangeTask> lForked = null;
+			RangeTask rtSecondHalf = null;
+			int iItem = 0, iMiddle = 0;
+			while( ( m_iEnd - m_iStart > 1 ) && ( ( m_iEnd - m_iStart ) * m_lWorkPerItem >= MIN_TASK_WORK )
+					&& ( getSurplusQueuedTaskCount() <= MAX_SURPLUS_TASKS ) ){
+				iMiddle = ( m_iStart + m_iEnd ) >>> 1;
+				rtSecondHalf = new RangeTask( iMiddle, m_iEnd, m_lWorkPerItem, m_body );
+				rtSecondHalf.fork();
+				if( lForked == null )
+					lForked = new ArrayList<RangeTask>();
+				lForked.add( rtSecondHalf );
+				m_iEnd = iMiddle;
+			}
+			for( iItem = m_iStart ; iItem < m_iEnd ; iItem++ )
+				m_body.accept( iItem );
+			if( lForked != null ){
+				for( iItem = lForked.size() - 1 ; iItem >= 0 ; iItem-- )
+					lForked.get( iItem ).join();
+			}
+		}
+	}
+}
@@ -9,8 +9,8 @@ import pomdp.environments.POMDP;
 import pomdp.utilities.AlphaVector;
 import pomdp.utilities.BeliefState;
 import pomdp.utilities.Logger;
-import pomdp.utilities.datastructures.LinkedList;
 import pomdp.valuefunction.LinearValueFunctionApproximation;
+import pomdp.valuefunction.ValueFunctionSnapshot;
 
 public class ComputeG extends Task implements Runnable {
 	private int m_iAction;
@@ -30,7 +30,7 @@ public class ComputeG extends Task implements Runnable {
 	protected AlphaVector G(){
 		AlphaVector avMax = null, avG = null, avSum = null, avMaxOriginal = null;;
 		int iObservation = 0, iState = 0;
-		LinkedList<AlphaVector> vVectors = new LinkedList<AlphaVector>( m_vValueFunction.getVectors() );
+		ValueFunctionSnapshot vsVectors = m_vValueFunction.getSnapshot();
 		double dMaxValue = Double.NEGATIVE_INFINITY, dValue = 0, dProb = 0.0, dSumProbs = 0.0;
 
 		for( iObservation = 0 ; iObservation < m_cObservations ; iObservation++ ){
@@ -39,7 +39,7 @@ public class ComputeG extends Task implements Runnable {
 			if( dProb > 0.0 ){
 				dMaxValue = Double.NEGATIVE_INFINITY;
 				//argmax_i g^i_a,o \cdot b
-				for( AlphaVector avAlpha : vVectors ){
+				for( AlphaVector avAlpha : vsVectors.getVectors() ){
 					avG = avAlpha.G( m_iAction, iObservation );
 					
 					dValue = avG.dotProduct( m_bsBelief );
@@ -52,7 +52,7 @@ public class ComputeG extends Task implements Runnable {
 			}
 			else{
 				dMaxValue = 0.0;
-				avMaxOriginal = m_vValueFunction.getLast(); 
+				avMaxOriginal = vsVectors.getLast();
 				avMax = avMaxOriginal.G( m_iAction, iObservation );
 			}
 
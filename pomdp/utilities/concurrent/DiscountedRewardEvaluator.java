@@ -0,0 +1,141 @@
+package pomdp.utilities.concurrent;
+
+import java.util.SplittableRandom;
+
+import pomdp.algorithms.PolicyStrategy;
+import pomdp.environments.POMDP;
+import pomdp.utilities.JProf;
+import pomdp.utilities.RandomGenerator;
+import pomdp.utilities.TrialSimulator;
+import pomdp.valuefunction.LinearValueFunctionApproximation;
+
+/**
+ * Estimates the average discounted reward (ADR) of a policy by simulated trials, with the same result in one thread or many.
+ * Trial i draws all its random numbers (start state, transitions, observations) from its own stream, derived from the seed and i
+ * by RandomGenerator.trialStream, whichever thread runs it, and leaves the shared generators untouched.
+ * Trials of policies that act by the max alpha vector of a value function run on the TrialSimulator of the thread,
+ * the others on POMDP.computeDiscountedReward.
+ * Trials run in rounds, MIN_TRIALS first and then ROUND_TRIALS at a time, spread over the BackupExecutor when multi threaded.
+ * After every round the rewards are summed in trial order, and the evaluation stops once twice the standard error is under
+ * RELATIVE_ERROR of the ADR, or after the maximal number of trials. As in the original single threaded loop the comparison is
+ * signed, so a negative ADR never stops early and runs all the trials. The trials run and the sums therefore
+ * do not depend on the number of threads or on the schedule.
+ */
+public class DiscountedRewardEvaluator {
+	public static final int MIN_TRIALS = 50;
+	public static final int ROUND_TRIALS = 10;
+	public static final double RELATIVE_ERROR = 0.01;
+
+	private final POMDP m_pPOMDP;
+	private final long m_lSeed;
+	private final BackupExecutor m_beExecutor;
+
+	public DiscountedRewardEvaluator( POMDP pomdp, long lSeed ){
+		this( pomdp, lSeed, null );
+	}
+
+	// beExecutor runs the multi threaded evaluations, null for the shared BackupExecutor
+	public DiscountedRewardEvaluator( POMDP pomdp, long lSeed, BackupExecutor beExecutor ){
+		m_pPOMDP = pomdp;
+		m_lSeed = lSeed;
+		m_beExecutor = beExecutor;
+	}
+
+	public Result evaluate( PolicyStrategy policy, int cMaxTrials, int cMaxStepsToGoal, boolean bMultiThread ){
+		double[] adRewards = new double[cMaxTrials];
+		long[] alCPUTimes = new long[cMaxTrials];
+		double dSum = 0.0, dSumSquares = 0.0;
+		long lCPUTime = 0;
+		int cTrials = 0, cRoundEnd = 0, iTrial = 0;
+		Result rCurrent = new Result( 0, 0.0, 0.0, 0 );
+		BackupExecutor beExecutor = ( !bMultiThread || m_beExecutor != null ) ? m_beExecutor : BackupExecutor.getInstance();
+
+		while( cTrials < cMaxTrials && !rCurrent.isAccurate() ){
+			cRoundEnd = Math.min( cMaxTrials, cTrials == 0 ? MIN_TRIALS : cTrials + ROUND_TRIALS );
+			final int iFirst = cTrials;
+			if( bMultiThread )
+				beExecutor.forEach( cRoundEnd - iFirst, (long)cMaxStepsToGoal * m_pPOMDP.getStateCount(),
+						idx -> runTrial( policy, iFirst + idx, cMaxStepsToGoal, adRewards, alCPUTimes ) );
+			else{
+				for( iTrial = iFirst ; iTrial < cRoundEnd ; iTrial++ )
+					runTrial( policy, iTrial, cMaxStepsToGoal, adRewards, alCPUTimes );
+			}
+			for( iTrial = iFirst ; iTrial < cRoundEnd ; iTrial++ ){
+				dSum += adRewards[iTrial];
+				dSumSquares += adRewards[iTrial] * adRewards[iTrial];
+				lCPUTime += alCPUTimes[iTrial];
+			}
+			cTrials = cRoundEnd;
+			rCurrent = new Result( cTrials, dSum, dSumSquares, lCPUTime );
+		}
+		return rCurrent;
+	}
+
+	private void runTrial( PolicyStrategy policy, int iTrial, int cMaxStepsToGoal, double[] adRewards, long[] alCPUTimes ){
+		SplittableRandom rndPrevious = RandomGenerator.bindTrialStream( RandomGenerator.trialStream( m_lSeed, iTrial ) );
+		long lStartCPU = JProf.getCurrentThreadCpuTimeSafe();
+		LinearValueFunctionApproximation vGreedy = policy.getGreedyValueFunction();
+		TrialSimulator tsSimulator = ( vGreedy != null ) ? m_pPOMDP.getTrialSimulator() : null;
+		try{
+			if( tsSimulator != null )
+				adRewards[iTrial] = tsSimulator.simulate( vGreedy, cMaxStepsToGoal );
+			else
+				adRewards[iTrial] = m_pPOMDP.computeDiscountedReward( cMaxStepsToGoal, policy, null, false, null, null );
+		}
+		finally{
+			alCPUTimes[iTrial] = JProf.getCurrentThreadCpuTimeSafe() - lStartCPU;
+			RandomGenerator.bindTrialStream( rndPrevious );
+		}
+	}
+
+	/**
+	 * The estimate after a number of trials: ADR, sample standard deviation, standard error of the ADR,
+	 * and the CPU time of the trials summed over the threads that ran them.
+	 */
+	public static class Result {
+		private final int m_cTrials;
+		private final double m_dADR, m_dStdev, m_dStandardError;
+		private final long m_lCPUTime;
+
+		Result( int cTrials, double dSum, double dSumSquares, long lCPUTime ){
+			double dVariance = 0.0;
+			m_cTrials = cTrials;
+			m_dADR = cTrials > 0 ? dSum / cTrials : 0.0;
+			if( cTrials > 1 )
+				dVariance = Math.max( 0.0, ( dSumSquares - cTrials * m_dADR * m_dADR ) / ( cTrials - 1 ) );
+			m_dStdev = Math.sqrt( dVariance );
+			m_dStandardError = cTrials > 0 ? m_dStdev / Math.sqrt( cTrials ) : Double.POSITIVE_INFINITY;
+			m_lCPUTime = lCPUTime;
+		}
+
+		public double getADR(){
+			return m_dADR;
+		}
+
+		public double getStdev(){
+			return m_dStdev;
+		}
+
+		public double getStandardError(){
+			return m_dStandardError;
+		}
+
+		public int getTrialCount(){
+			return m_cTrials;
+		}
+
+		// in milliseconds
+		public long getCPUTime(){
+			return m_lCPUTime / 1000000;
+		}
+
+		// the stopping rule: a 95% confidence interval narrower than RELATIVE_ERROR of a positive ADR
+		public boolean isAccurate(){
+			return m_cTrials >= MIN_TRIALS && 2.0 * m_dStandardError <= RELATIVE_ERROR * m_dADR;
+		}
+
+		public String toString(){
+			return "ADR " + m_dADR + ", stdev " + m_dStdev + " SE " + m_dStandardError + " after " + m_cTrials + " trials, CPU time " + getCPUTime();
+		}
+	}
+}
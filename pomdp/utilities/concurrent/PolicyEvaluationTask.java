@@ -162,6 +162,11 @@ public class PolicyEvaluationTask extends Task implements Runnable {
 			return m_vValueFunction;
 		}
 
+		@Override
+		public LinearValueFunctionApproximation getGreedyValueFunction() {
+			return m_vValueFunction;
+		}
+
 		@Override
 		public boolean hasConverged() {
 			// TODO Auto-generated method stub
@@ -54,15 +54,24 @@ public class ThreadPool {
 		m_vAlgorithms = new Vector<ValueIterationTask>();
 	}
 
-	public static ThreadPool getInstance(){
+	public static synchronized ThreadPool getInstance(){
 		return g_tpPool;
 	}
-	public static void createInstance( POMDP pomdp ){
+	public static synchronized void createInstance( POMDP pomdp ){
 		if( g_tpPool != null ){
 			g_tpPool.killAll();
 		}
 		g_tpPool = new ThreadPool( ExecutionProperties.getThreadCount(), pomdp );
 	}
+	/**
+	 * Creates the shared pool only if there is none yet. 
+	 * Models that are created while other models are being solved use this, so that they do not kill the threads of the running solvers.
+	 */
+	public static synchronized void initInstance( POMDP pomdp ){
+		if( g_tpPool == null ){
+			g_tpPool = new ThreadPool( ExecutionProperties.getThreadCount(), pomdp );
+		}
+	}
 	
 	public void killAll() {
 		m_bTerminated = true;
@@ -85,13 +94,15 @@ public class ThreadPool {
 
 	public int addTask( Task t ){
 		String sTaskName = t.getName();
-		if( !m_mTaskStatistics.containsKey( sTaskName ) ){
-			Vector<Long> vStatistics = new Vector<Long>();
-			long l = 0;
-			vStatistics.add( l );
-			vStatistics.add( l );
-			vStatistics.add( l );
-			m_mTaskStatistics.put( sTaskName, vStatistics );
+		synchronized( m_mTaskStatistics ){
+			if( !m_mTaskStatistics.containsKey( sTaskName ) ){
+				Vector<Long> vStatistics = new Vector<Long>();
+				long l = 0;
+				vStatistics.add( l );
+				vStatistics.add( l );
+				vStatistics.add( l );
+				m_mTaskStatistics.put( sTaskName, vStatistics );
+			}
 		}
 		t.setStartWaitTime( System.currentTimeMillis() );
 		
@@ -99,7 +110,9 @@ public class ThreadPool {
 			m_vAlgorithms.add( (ValueIterationTask) t );
 		}
 		
-		t.setId( m_cTasks++ );
+		synchronized( g_oTasksLock ){
+			t.setId( m_cTasks++ );
+		}
 		t.init();
 		synchronized( g_oTasksLock ){
 			m_lTasks.addFirst( t );
@@ -0,0 +1,219 @@
+package pomdp.utilities.datastructures;
+
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+
+/**
+ * Insertion ordered list held in an immutable array that every change replaces with compareAndSet, without locks.
+ * Readers (iterators, get, size) work on the array current when they started and never wait for writers,
+ * and a writer whose compareAndSet fails retries against the array that won.
+ * Compound changes (e.g. dominance pruning followed by an add) read getArray, build the new array
+ * and publish it with compareAndSet, so they apply to the list as a whole or not at all.
+ * remove(Object) and contains use equals, as LinkedList does; iterator removal removes the element it returned.
+ */
+public class CopyOnWriteList<V> extends AbstractCollection<V> {
+	private static final Object[] EMPTY = new Object[0];
+
+	private final AtomicReference<Object[]> m_aElements;
+
+	public CopyOnWriteList(){
+		m_aElements = new AtomicReference<Object[]>( EMPTY );
+	}
+
+	public CopyOnWriteList( Iterable<? extends V> it ){
+		this();
+		for( V vData : it )
+			add( vData );
+	}
+
+	// the current elements in insertion order, shared - callers must not modify it
+	public Object[] getArray(){
+		return m_aElements.get();
+	}
+
+	public boolean compareAndSet( Object[] aExpected, Object[] aNew ){
+		return m_aElements.compareAndSet( aExpected, aNew );
+	}
+
+	public void set( Object[] aNew ){
+		m_aElements.set( aNew );
+	}
+
+	@Override
+	public boolean add( V vData ){
+		Object[] aCurrent = null, aNew = null;
+		do{
+			aCurrent = m_aElements.get();
+			aNew = new Object[aCurrent.length + 1];
+			System.arraycopy( aCurrent, 0, aNew, 0, aCurrent.length );
+			aNew[aCurrent.length] = vData;
+		}while( !m_aElements.compareAndSet( aCurrent, aNew ) );
+		return true;
+	}
+
+	@Override
+	public boolean remove( Object oData ){
+		Object[] aCurrent = null;
+		int idx = 0;
+		do{
+			aCurrent = m_aElements.get();
+			for( idx = 0 ; idx < aCurrent.length && !aCurrent[idx].equals( oData ) ; idx++ );
+			if( idx == aCurrent.length )
+				return false;
+		}while( !m_aElements.compareAndSet( aCurrent, without( aCurrent, idx ) ) );
+		return true;
+	}
+
+	// removes this very element (not an equal one), if it is still in the list
+	public boolean removeElement( V vData ){
+		Object[] aCurrent = null;
+		int idx = 0;
+		do{
+			aCurrent = m_aElements.get();
+			for( idx = 0 ; idx < aCurrent.length && aCurrent[idx] != vData ; idx++ );
+			if( idx == aCurrent.length )
+				return false;
+		}while( !m_aElements.compareAndSet( aCurrent, without( aCurrent, idx ) ) );
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V remove( int idx ){
+		Object[] aCurrent = null;
+		do{
+			aCurrent = m_aElements.get();
+			if( idx < 0 || idx >= aCurrent.length )
+				return null;
+		}while( !m_aElements.compareAndSet( aCurrent, without( aCurrent, idx ) ) );
+		return (V)aCurrent[idx];
+	}
+
+	public V removeFirst(){
+		return remove( 0 );
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public boolean removeIf( Predicate<? super V> pRemove ){
+		Object[] aCurrent = null, aKept = null;
+		int cKept = 0;
+		do{
+			aCurrent = m_aElements.get();
+			aKept = new Object[aCurrent.length];
+			cKept = 0;
+			for( Object oData : aCurrent ){
+				if( !pRemove.test( (V)oData ) )
+					aKept[cKept++] = oData;
+			}
+			if( cKept == aCurrent.length )
+				return false;
+		}while( !m_aElements.compareAndSet( aCurrent, trim( aKept, cKept ) ) );
+		return true;
+	}
+
+	@Override
+	public void clear(){
+		m_aElements.set( EMPTY );
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get( int idx ){
+		Object[] aCurrent = m_aElements.get();
+		if( idx < 0 || idx >= aCurrent.length )
+			return null;
+		return (V)aCurrent[idx];
+	}
+
+	public V getFirst(){
+		return get( 0 );
+	}
+
+	@SuppressWarnings("unchecked")
+	public V getLast(){
+		Object[] aCurrent = m_aElements.get();
+		if( aCurrent.length == 0 )
+			return null;
+		return (V)aCurrent[aCurrent.length - 1];
+	}
+
+	@Override
+	public int size(){
+		return m_aElements.get().length;
+	}
+
+	public int count(){
+		return size();
+	}
+
+	@Override
+	public boolean isEmpty(){
+		return size() == 0;
+	}
+
+	@Override
+	public Iterator<V> iterator(){
+		return new ArrayIterator( m_aElements.get(), true );
+	}
+
+	public Iterator<V> backwardIterator(){
+		return new ArrayIterator( m_aElements.get(), false );
+	}
+
+	private static Object[] without( Object[] aCurrent, int idx ){
+		Object[] aNew = new Object[aCurrent.length - 1];
+		System.arraycopy( aCurrent, 0, aNew, 0, idx );
+		System.arraycopy( aCurrent, idx + 1, aNew, idx, aCurrent.length - idx - 1 );
+		return aNew;
+	}
+
+	public static Object[] trim( Object[] aElements, int cElements ){
+		if( cElements == aElements.length )
+			return aElements;
+		Object[] aNew = new Object[cElements];
+		System.arraycopy( aElements, 0, aNew, 0, cElements );
+		return aNew;
+	}
+
+	private class ArrayIterator implements Iterator<V>{
+		private final Object[] m_aSnapshot;
+		private final boolean m_bForward;
+		private int m_iNext;
+		private V m_vLast;
+
+		public ArrayIterator( Object[] aSnapshot, boolean bForward ){
+			m_aSnapshot = aSnapshot;
+			m_bForward = bForward;
+			m_iNext = bForward ? 0 : aSnapshot.length - 1;
+			m_vLast = null;
+		}
+
+		@Override
+		public boolean hasNext(){
+			return m_iNext >= 0 && m_iNext < m_aSnapshot.length;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public V next(){
+			if( !hasNext() )
+				throw new NoSuchElementException();
+			m_vLast = (V)m_aSnapshot[m_iNext];
+			if( m_bForward )
+				m_iNext++;
+			else
+				m_iNext--;
+			return m_vLast;
+		}
+
+		@Override
+		public void remove(){
+			if( m_vLast != null ){
+				removeElement( m_vLast );
+				m_vLast = null;
+			}
+		}
+	}
+}
@@ -62,6 +62,18 @@ public abstract class Function implements Serializable {
 	public abstract Iterator getNonZeroEntries();
 	public abstract int countNonZeroEntries( int arg1, int arg2 );
 
+	/**
+	 * Visits the non zero entries of f(arg1,arg2,*). Implementations with primitive storage override this to avoid the iterator.
+	 */
+	public void forEachNonZero( int arg1, int arg2, NonZeroEntryVisitor visitor ){
+		Iterator<Entry<Integer,Double>> itNonZero = getNonZeroEntries( arg1, arg2 );
+		Entry<Integer,Double> e = null;
+		while( itNonZero.hasNext() ){
+			e = itNonZero.next();
+			visitor.visit( e.getKey(), e.getValue() );
+		}
+	}
+
 	protected void setAllValues( int iParam1, int iParam3, double dValue ){
 		int iParam2 = 0;
 		int cParam2 = m_aDims[1];
@@ -0,0 +1,109 @@
+package pomdp.utilities.datastructures;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded map that evicts the least recently used entry once it holds more than its capacity.
+ * The keys are split by hash over independently locked segments, each holding its share of the capacity and evicting
+ * its own least recently used entry, so planning threads that share a cache mostly take different locks.
+ * Recency is therefore tracked per segment rather than over the whole cache.
+ */
+public class LRUCache<K, V> {
+    private static final int MAX_SEGMENTS = 16;
+
+    private final int capacity;
+    private final Segment<K, V>[] segments;
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public LRUCache(int capacity) {
+        this.capacity = capacity;
+        int cSegments = 1;
+        while (cSegments * 2 <= Math.min(MAX_SEGMENTS, capacity)) {
+            cSegments *= 2;
+        }
+        segments = new Segment[cSegments];
+        for (int i = 0; i < cSegments; i++) {
+            segments[i] = new Segment<>(capacity / cSegments + (i < capacity % cSegments ? 1 : 0));
+        }
+        hits = new LongAdder();
+        misses = new LongAdder();
+    }
+
+    private Segment<K, V> segmentFor(Object key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return segments[(h >>> 16) & (segments.length - 1)];
+    }
+
+    public V get(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        V value;
+        synchronized (segment) {
+            value = segment.get(key);
+        }
+        if (value == null) {
+            misses.increment();
+        }
+        else {
+            hits.increment();
+        }
+        return value;
+    }
+
+    public void put(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, value);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+        hits.reset();
+        misses.reset();
+    }
+
+    private static final class Segment<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > capacity;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package pomdp.utilities.datastructures;
+
+/**
+ * Callback for Function.forEachNonZero - receives the last parameter and the value of every non zero entry.
+ */
+public interface NonZeroEntryVisitor {
+	void visit( int iIndex, double dValue );
+}
@@ -99,6 +99,16 @@ public class StaticMap implements Collection<Map.Entry<Integer,Double>>, Seriali
 	public int countEntries(){
 		return m_cNonZeroValues;	
 	}
+	
+	// sorted indexes of the entries, the first size() are valid - shared, do not modify
+	public int[] getIndexes(){
+		return m_aiIndexes;
+	}
+	
+	// values matching getIndexes() - shared, do not modify
+	public double[] getValues(){
+		return m_adValues;
+	}
 
 	public Iterator<Map.Entry<Integer,Double>> iterator() {
 		return new StaticMapIterator( m_aiIndexes, m_adValues, m_cNonZeroValues );
@@ -284,7 +284,6 @@ public class FactoredAlphaVector extends AlphaVector {
 		m_cActions = m_pPOMDP.getActionCount();
 		m_cObservations = m_pPOMDP.getObservationCount();
 		m_cStateVariables = m_pPOMDP.getStateVariablesCount();
-		m_aCachedG = new AlphaVector[m_cActions][m_cObservations];
 	}
 
 	public void translate( VariableTranslator vt ){
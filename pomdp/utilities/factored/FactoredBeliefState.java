@@ -151,7 +151,7 @@ public class FactoredBeliefState extends BeliefState{
 			}
 
 			m_mCachedProducts.put( sKey, addAbstracted );
-			m_aCachedObservationProbabilities[iAction][iObservation] = dPrOGivenAandB;
+			setProbabilityOGivenA( iAction, iObservation, dPrOGivenAandB );
 			
 			addProduct.release();
 			addProduct = addAbstracted;
@@ -210,10 +210,10 @@ public class FactoredBeliefState extends BeliefState{
 	}
 
 	public double getObservationProbability( int iAction, int iObservation ){
-		double d = m_aCachedObservationProbabilities[iAction][iObservation];
+		double d = getCachedProbabilityOGivenA( iAction, iObservation );
 		if( d < 0.0 ){
 			getActionObservationProduct( iAction, iObservation );
-			d = m_aCachedObservationProbabilities[iAction][iObservation];
+			d = getCachedProbabilityOGivenA( iAction, iObservation );
 		}
 		
 		return d;
@@ -159,14 +159,7 @@ public class NetworkBeliefStateFactory extends BeliefStateFactory {
 			}
 		}
 		if( m_bCacheBelifStates ){
-			BeliefState bsExisting = (BeliefState) m_hmCachedBeliefStates.get( nbsNext );
-			if( bsExisting == null ){
-				m_hmCachedBeliefStates.put( nbsNext, nbsNext );
-				m_cBeliefPoints++;
-			}
-			else{
-				nbsNext = (NetworkBeliefState)bsExisting;
-			}
+			nbsNext = (NetworkBeliefState)internBeliefState( nbsNext );
 					
 		}
 		
@@ -190,14 +183,7 @@ public class NetworkBeliefStateFactory extends BeliefStateFactory {
 				nbs.setMachineWorkingProb( iMachine, 0.0 );
 		}
 		
-		NetworkBeliefState nbsExisting = (NetworkBeliefState) m_hmCachedBeliefStates.get( nbs );
-		if( nbsExisting == null ){
-			m_hmCachedBeliefStates.put( nbs, nbs );
-			m_cBeliefPoints++;
-		}
-		else{
-			nbs = nbsExisting;
-		}
+		nbs = (NetworkBeliefState)internBeliefState( nbs );
 		m_abDeterministic[iState] = nbs;
 		return nbs;
 	}
@@ -212,7 +198,7 @@ public class NetworkBeliefStateFactory extends BeliefStateFactory {
 				dProbMachineWorkingAtStart = m_pPOMDP.probMachineWorkingAtStart( iMachine );
 				((NetworkBeliefState)m_bsInitialState).setMachineWorkingProb( iMachine, dProbMachineWorkingAtStart );
 			}
-			m_hmCachedBeliefStates.put( m_bsInitialState, m_bsInitialState );
+			m_hmCachedBeliefStates.putIfAbsent( m_bsInitialState );
 		}
 		return m_bsInitialState;
 	}
@@ -0,0 +1,179 @@
+package pomdp.valuefunction;
+
+import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import pomdp.utilities.AlphaVector;
+import pomdp.utilities.factored.FactoredAlphaVector;
+
+/**
+ * Summaries of the vectors of one array of a value function, in the order of the array, so that the dominance checks
+ * of an insertion compare a few numbers per vector instead of all the states.
+ * A summary is the min and max over the valid states and the sums of BLOCKS interleaved blocks of them (the i'th valid state
+ * in block i % BLOCKS). They are necessary conditions of AlphaVector.dominates and AlphaVector.equals: a vector that dominates
+ * another has a min, a max and block sums (summed in the same state order, so rounding keeps the order) at least as large,
+ * and a vector that equals another up to EQUALS_EPSILON in every state has its min and max within EQUALS_EPSILON too.
+ * Pairs that fail them are skipped and the others are checked in full, so pruning keeps exactly the vectors it kept before.
+ * Vectors whose class compares them differently (factored vectors) have no summary and are always checked in full.
+ * The summaries are written once per vector into an append only store shared by the indexes of later arrays, in insertion
+ * order, so that a scan reads them sequentially without touching the vectors and an insertion only copies the slot numbers.
+ * After a change other than an insertion the index is rebuilt from the slots of the vectors it had.
+ */
+class DominanceIndex {
+	private static final int BLOCKS = 8;
+	private static final int MIN = 0, MAX = 1, FIRST_BLOCK = 2, FIELDS = FIRST_BLOCK + BLOCKS;
+	private static final int NO_SLOT = -1;
+	//the tolerance of AlphaVector.equals
+	private static final double EQUALS_EPSILON = 0.001;
+
+	//the array of the vector list the summaries describe
+	final Object[] m_aSource;
+	private final int[] m_aiSlots;
+	private final SummaryStore m_ssStore;
+
+	private DominanceIndex( Object[] aSource, int[] aiSlots, SummaryStore ssStore ){
+		m_aSource = aSource;
+		m_aiSlots = aiSlots;
+		m_ssStore = ssStore;
+	}
+
+	static DominanceIndex build( Object[] aSource, DominanceIndex diPrevious ){
+		int[] aiSlots = new int[aSource.length];
+		IdentityHashMap<Object,Integer> mPrevious = new IdentityHashMap<Object,Integer>();
+		SummaryStore ssStore = null;
+		int iVector = 0;
+		//slots of dropped vectors are never reused, so a store that is mostly dead is replaced by a new one
+		if( diPrevious != null && !diPrevious.isSparse( aSource.length ) ){
+			ssStore = diPrevious.m_ssStore;
+			for( iVector = 0 ; iVector < diPrevious.m_aSource.length ; iVector++ )
+				mPrevious.put( diPrevious.m_aSource[iVector], diPrevious.m_aiSlots[iVector] );
+		}
+		else{
+			ssStore = new SummaryStore();
+		}
+		for( iVector = 0 ; iVector < aSource.length ; iVector++ ){
+			if( mPrevious.containsKey( aSource[iVector] ) )
+				aiSlots[iVector] = mPrevious.get( aSource[iVector] );
+			else
+				aiSlots[iVector] = ssStore.add( summarize( (AlphaVector)aSource[iVector] ) );
+		}
+		return new DominanceIndex( aSource, aiSlots, ssStore );
+	}
+
+	// null for vectors that must always be compared in full
+	static double[] summarize( AlphaVector av ){
+		if( av instanceof FactoredAlphaVector )
+			return null;
+		double[] adSummary = new double[FIELDS];
+		double dValue = 0.0;
+		int iPosition = 0;
+		adSummary[MIN] = Double.POSITIVE_INFINITY;
+		adSummary[MAX] = Double.NEGATIVE_INFINITY;
+		for( int iState : av.getPOMDP().getValidStates() ){
+			dValue = av.valueAt( iState );
+			if( dValue < adSummary[MIN] )
+				adSummary[MIN] = dValue;
+			if( dValue > adSummary[MAX] )
+				adSummary[MAX] = dValue;
+			adSummary[FIRST_BLOCK + iPosition % BLOCKS] += dValue;
+			iPosition++;
+		}
+		return adSummary;
+	}
+
+	int getSlot( int iVector ){
+		return m_aiSlots[iVector];
+	}
+
+	// stores the summary of a vector about to be published, for the index of the new array
+	int store( double[] adSummary ){
+		return m_ssStore.add( adSummary );
+	}
+
+	// the index of aSource, whose vectors have slots aiSlots in the store of this index (from getSlot or store)
+	DominanceIndex next( Object[] aSource, int[] aiSlots ){
+		return new DominanceIndex( aSource, aiSlots, m_ssStore );
+	}
+
+	// true when most of the store belongs to vectors that were dropped since
+	boolean isSparse( int cLive ){
+		return m_ssStore.size() > 2 * cLive + SummaryStore.CHUNK;
+	}
+
+	/**
+	 * False only if vector iVector and the vector with summary adOther can neither be equal nor dominate one another.
+	 * All the fields are compared without branching on them, as the outcome of each comparison is close to random
+	 * and only the combined answer is rarely true.
+	 */
+	boolean mayCompare( int iVector, double[] adOther ){
+		int iSlot = m_aiSlots[iVector];
+		if( iSlot == NO_SLOT || adOther == null )
+			return true;
+		return m_ssStore.mayCompare( iSlot, adOther );
+	}
+
+	/**
+	 * Append only summaries in chunks of CHUNK slots, the FIELDS values of a slot next to each other.
+	 * Slots are claimed atomically, and a summary is written before the array holding its vector is published,
+	 * so threads that read the array also read the summary.
+	 */
+	private static class SummaryStore {
+		static final int CHUNK_BITS = 12, CHUNK = 1 << CHUNK_BITS;
+
+		private final AtomicInteger m_cSlots;
+		private volatile double[][] m_aadChunks;
+
+		SummaryStore(){
+			m_cSlots = new AtomicInteger();
+			m_aadChunks = new double[0][];
+		}
+
+		int add( double[] adSummary ){
+			if( adSummary == null )
+				return NO_SLOT;
+			int iSlot = m_cSlots.getAndIncrement();
+			double[] adChunk = chunk( iSlot >>> CHUNK_BITS );
+			for( int iField = 0 ; iField < FIELDS ; iField++ )
+				adChunk[( iSlot & ( CHUNK - 1 ) ) * FIELDS + iField] = adSummary[iField];
+			return iSlot;
+		}
+
+		//written as negated comparisons, so that infinite or NaN entries never rule a pair out
+		boolean mayCompare( int iSlot, double[] adOther ){
+			double[] adChunk = m_aadChunks[iSlot >>> CHUNK_BITS];
+			int iOffset = ( iSlot & ( CHUNK - 1 ) ) * FIELDS, iField = 0;
+			double dValue = 0.0;
+			boolean bEqual = true, bDominates = true, bDominated = true;
+			bEqual = !( Math.abs( adChunk[iOffset + MIN] - adOther[MIN] ) > EQUALS_EPSILON ) &
+					!( Math.abs( adChunk[iOffset + MAX] - adOther[MAX] ) > EQUALS_EPSILON );
+			for( iField = 0 ; iField < FIELDS ; iField++ ){
+				dValue = adChunk[iOffset + iField];
+				bDominates &= !( dValue < adOther[iField] );
+				bDominated &= !( adOther[iField] < dValue );
+			}
+			return bEqual | bDominates | bDominated;
+		}
+
+		int size(){
+			return m_cSlots.get();
+		}
+
+		private double[] chunk( int iChunk ){
+			double[][] aadChunks = m_aadChunks;
+			if( iChunk < aadChunks.length )
+				return aadChunks[iChunk];
+			synchronized( this ){
+				aadChunks = m_aadChunks;
+				if( iChunk >= aadChunks.length ){
+					double[][] aadNew = new double[iChunk + 1][];
+					System.arraycopy( aadChunks, 0, aadNew, 0, aadChunks.length );
+					for( int i = aadChunks.length ; i <= iChunk ; i++ )
+						aadNew[i] = new double[FIELDS * CHUNK];
+					m_aadChunks = aadNew;
+					aadChunks = aadNew;
+				}
+				return aadChunks[iChunk];
+			}
+		}
+	}
+}
@@ -3,9 +3,14 @@ package pomdp.valuefunction;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -24,34 +29,46 @@ import pomdp.utilities.AlphaVector;
 import pomdp.utilities.BeliefState;
 import pomdp.utilities.BeliefStateFactory;
 import pomdp.utilities.ExecutionProperties;
+import pomdp.utilities.ForbiddenActionMasks;
 import pomdp.utilities.RandomGenerator;
 import pomdp.utilities.concurrent.DotProduct;
 import pomdp.utilities.concurrent.ThreadPool;
+import pomdp.utilities.datastructures.CopyOnWriteList;
 import pomdp.utilities.datastructures.LinkedList;
 import pomdp.utilities.skyline.SkylinePruning;
 
 //import lpsolve.*;
 
+/**
+ * A set of alpha vectors, max over their dot products. The vectors are kept in a CopyOnWriteList, so the solvers,
+ * the pruning task and the policy evaluation of ParallelSolver share one value function without locks:
+ * readers iterate the array current when they start, and every change (an add with its dominance pruning, a prune)
+ * publishes a new array with compareAndSet, retrying against the array of a concurrent change when it loses.
+ */
 public class LinearValueFunctionApproximation implements Serializable{
 	//protected Vector<AlphaVector> m_vAlphaVectors;
 	//protected ArrayList<AlphaVector> m_vAlphaVectorsRead, m_vAlphaVectorsWrite;
-	protected LinkedList<AlphaVector> m_vAlphaVectors;
+	protected CopyOnWriteList<AlphaVector> m_vAlphaVectors;
 	protected RandomGenerator m_rndGenerator;
-	protected int m_cValueFunctionChanges;
+	protected volatile int m_cValueFunctionChanges;
+	private static final AtomicIntegerFieldUpdater<LinearValueFunctionApproximation> g_aiuChanges =
+		AtomicIntegerFieldUpdater.newUpdater( LinearValueFunctionApproximation.class, "m_cValueFunctionChanges" );
 	protected double m_dEpsilon;
 	protected boolean m_bCacheValues;
 	protected double m_dMaxValue;
 	private static boolean g_bUseMultithreadInDotProducts = false;
-	private boolean m_bEvaluatingPolicy;
-	private boolean m_bPruned;
+	private volatile boolean m_bPruned;
+	private volatile ValueFunctionSnapshot m_vsSnapshot;
+	private long m_cSnapshots;
+	private volatile MaxAlphaIndex m_maiIndex;
+	private transient volatile DominanceIndex m_diIndex;
 	
 	public LinearValueFunctionApproximation( double dEpsilon, boolean bCacheValues ){
-		m_vAlphaVectors = new LinkedList<AlphaVector>();
+		m_vAlphaVectors = new CopyOnWriteList<AlphaVector>();
 		m_cValueFunctionChanges = 0;
 		m_dEpsilon = dEpsilon;
 		m_bCacheValues = false;
 		m_dMaxValue = 0.0;
-		m_bEvaluatingPolicy = false;
 		m_bPruned = false;
 		m_rndGenerator = RandomGenerator.getInstance();
 	}
@@ -96,17 +113,28 @@ public class LinearValueFunctionApproximation implements Serializable{
 		double dMaxValue = bs.getMaxValue(), dValue = 0.0;
 		int iBeliefStateLastCheckTime = bs.getMaxAlphaTime();
 		int iCurrentTime = m_cValueFunctionChanges;
+		POMDP pomdp = bs.getBeliefStateFactory().getPOMDP();
+		long[] alForbiddenActions = pomdp.getForbiddenActionMasks().getMask( bs );
 		
-		if( !m_vAlphaVectors.contains( avMaxAlpha ) || bs.getBeliefStateFactory().getPOMDP().isForbiddenAction(bs, avMaxAlpha.getAction()) ){
+		//the index returns the same vector as the scan below does without value caching
+		if( !m_bCacheValues && ExecutionProperties.useMaxAlphaIndex() ){
+			avMaxAlpha = getMaxAlphaIndex( pomdp.getStateCount() ).getMaxAlpha( bs, alForbiddenActions );
+			if( avMaxAlpha != null )
+				avMaxAlpha.incrementHitCount();
+			return avMaxAlpha;
+		}
+		
+		if( !m_vAlphaVectors.contains( avMaxAlpha ) || ForbiddenActionMasks.isSet( alForbiddenActions, avMaxAlpha.getAction() ) ){
 			avMaxAlpha = null;
 			dMaxValue = Double.NEGATIVE_INFINITY;
 			iBeliefStateLastCheckTime = -1;
 		}
 
 		if( g_bUseMultithreadInDotProducts  && ExecutionProperties.useMultiThread() ){
-			DotProduct[] m_dpTasks = new DotProduct[m_vAlphaVectors.size()];
+			AlphaVector[] aVectors = getSnapshot().getVectors();
+			DotProduct[] m_dpTasks = new DotProduct[aVectors.length];
 			int i = 0;
-			for( AlphaVector avCurrent : m_vAlphaVectors ){
+			for( AlphaVector avCurrent : aVectors ){
 				if( !m_bCacheValues || avCurrent.getInsertionTime() > iBeliefStateLastCheckTime ){
 					m_dpTasks[i] = new DotProduct( avCurrent, bs );
 					ThreadPool.getInstance().addTask( m_dpTasks[i] );
@@ -129,7 +157,7 @@ public class LinearValueFunctionApproximation implements Serializable{
 		boolean bDone = false;
 		while( itBackward.hasNext() && !bDone ){
 			AlphaVector avCurrent = itBackward.next();
-			if( avCurrent != null && (!bs.getBeliefStateFactory().getPOMDP().isForbiddenAction(bs, avCurrent.getAction()))){
+			if( avCurrent != null && !ForbiddenActionMasks.isSet( alForbiddenActions, avCurrent.getAction() ) ){
 				iInsertionTime = avCurrent.getInsertionTime();
 				if( m_bCacheValues && ( iBeliefStateLastCheckTime >= iInsertionTime ) )
 					bDone = true;
@@ -173,47 +201,82 @@ public class LinearValueFunctionApproximation implements Serializable{
 		return (AlphaVector) m_vAlphaVectors.get( iElement );
 	}
 	
+	//evaluations read a snapshot of the vectors, so changes no longer wait for them to end
 	public void startEvaluation(){
-		m_bEvaluatingPolicy = true;
 	}
 	public void endEvaluation(){
-		m_bEvaluatingPolicy = false;
 	}
 	
 	public boolean addPrunePointwiseDominated( AlphaVector avNew ){
+		return addPruneDominated( avNew, true );
+	}
+	
+	/**
+	 * Adds avNew unless an existing vector equals or dominates it, and with bPruneDominated removes the vectors avNew dominates,
+	 * as one change of the vector list. When another thread changed the list meanwhile, the scan is repeated over its array.
+	 * @return true if avNew was added.
+	 */
+	private boolean addPruneDominated( AlphaVector avNew, boolean bPruneDominated ){
+		Object[] aCurrent = null, aNew = null, aPublished = null;
+		double[] adNewSummary = null;
+		int[] aiSlots = null;
+		DominanceIndex diCurrent = null;
+		AlphaVector avExisting = null;
 		BeliefState bsWitness = null;
 		double dNewValue = 0.0;
-		
-		while( m_bEvaluatingPolicy ){
-			try {
-				wait( 100 );
-			} catch (Exception e) {
-			}
-		}
-
-		Iterator<AlphaVector> it = m_vAlphaVectors.iterator();
-		AlphaVector avExisting = null;
-		while( it.hasNext() ){
-			avExisting = it.next();
-			if( avExisting.equals( avNew ) || avExisting.dominates( avNew ) ){
-				return false;
+		int cKept = 0, iTime = 0, iVector = 0;
+		
+		if( m_bCacheValues )	//not older than any cached max alpha until its insertion time is known
+			avNew.setInsertionTime( Integer.MAX_VALUE );
+		if( bPruneDominated )
+			adNewSummary = DominanceIndex.summarize( avNew );
+		do{
+			aCurrent = m_vAlphaVectors.getArray();
+			aNew = new Object[aCurrent.length + 1];
+			cKept = 0;
+			if( bPruneDominated ){
+				//the summaries skip the full comparisons of the pairs that cannot be equal or dominate each other
+				diCurrent = getDominanceIndex( aCurrent );
+				aiSlots = new int[aNew.length];
+				for( iVector = 0 ; iVector < aCurrent.length ; iVector++ ){
+					//the vector itself is only read for the pairs the summaries do not rule out
+					if( diCurrent.mayCompare( iVector, adNewSummary ) ){
+						avExisting = (AlphaVector)aCurrent[iVector];
+						if( avExisting.equals( avNew ) || avExisting.dominates( avNew ) )
+							return false;
+						if( avNew.dominates( avExisting ) )
+							continue;
+					}
+					aiSlots[cKept] = diCurrent.getSlot( iVector );
+					aNew[cKept++] = aCurrent[iVector];
+				}
+				aiSlots[cKept] = diCurrent.store( adNewSummary );
+				if( cKept + 1 < aiSlots.length )
+					aiSlots = Arrays.copyOf( aiSlots, cKept + 1 );
 			}
-			else if( avNew.dominates( avExisting ) ){
-				it.remove();
+			else{
+				System.arraycopy( aCurrent, 0, aNew, 0, aCurrent.length );
+				cKept = aCurrent.length;
 			}
-		}		
+			aNew[cKept++] = avNew;
+			aPublished = CopyOnWriteList.trim( aNew, cKept );
+		}while( !m_vAlphaVectors.compareAndSet( aCurrent, aPublished ) );
 		
-		m_bPruned = false;
+		if( bPruneDominated ){
+			diCurrent = diCurrent.next( aPublished, aiSlots );
+			m_diIndex = diCurrent.isSparse( aPublished.length ) ? null : diCurrent;
+			m_bPruned = false;
+		}
 		
-		m_cValueFunctionChanges++;
-		addVector( avNew );
+		//counted after the vector is visible, so a reader that saw the new count also sees the vector
+		iTime = g_aiuChanges.incrementAndGet( this );
 		if( m_bCacheValues ){		
-			avNew.setInsertionTime( m_cValueFunctionChanges );
+			avNew.setInsertionTime( iTime );
 			bsWitness = avNew.getWitness();
 			if( bsWitness != null ){
 				dNewValue = avNew.dotProduct( bsWitness );
-				bsWitness.setMaxAlpha( avNew, m_cValueFunctionChanges );
-				bsWitness.setMaxValue( dNewValue, m_cValueFunctionChanges );
+				bsWitness.setMaxAlpha( avNew, iTime );
+				bsWitness.setMaxValue( dNewValue, iTime );
 			}
 		}
 		
@@ -223,8 +286,14 @@ public class LinearValueFunctionApproximation implements Serializable{
 		return true;
 	}
 	
-	private void addVector( AlphaVector avNew ){
-		m_vAlphaVectors.add( avNew );
+	//the dominance index of aCurrent, the array of the vector list, rebuilt when the list changed since the index was built
+	private DominanceIndex getDominanceIndex( Object[] aCurrent ){
+		DominanceIndex diCurrent = m_diIndex;
+		if( diCurrent == null || diCurrent.m_aSource != aCurrent ){
+			diCurrent = DominanceIndex.build( aCurrent, diCurrent );
+			m_diIndex = diCurrent;
+		}
+		return diCurrent;
 	}
 		
 	public void initHitCounts(){
@@ -245,30 +314,33 @@ public class LinearValueFunctionApproximation implements Serializable{
 	}
 	
 	public void pruneLowHitCountVectors( int cMinimalHitCount, int iMaximalTimeStamp ){
-		while( m_bEvaluatingPolicy ){
-			try {
-				wait( 100 );
-			} catch (Exception e) {
-			}
-		}
-		int cPruned = 0, cNew = 0;
-		LinkedList<AlphaVector> vAlphaVectorsWrite = new LinkedList<AlphaVector>();
-		for( AlphaVector av : m_vAlphaVectors ){
-			if( av.getInsertionTime() > iMaximalTimeStamp || av.getHitCount() > cMinimalHitCount ){
-				vAlphaVectorsWrite.add( av );
-			}
-			if( av.getInsertionTime() > iMaximalTimeStamp ){
-				cNew++;
-			}
-			if( av.getHitCount() <= cMinimalHitCount ){
-				cPruned++;
+		int cPruned = 0, cNew = 0, cKept = 0;
+		Object[] aCurrent = null, aKept = null;
+		AlphaVector av = null;
+		//repeated over the array of a concurrent change, so vectors added meanwhile are kept
+		do{
+			aCurrent = m_vAlphaVectors.getArray();
+			aKept = new Object[aCurrent.length];
+			cPruned = 0;
+			cNew = 0;
+			cKept = 0;
+			for( Object oVector : aCurrent ){
+				av = (AlphaVector)oVector;
+				if( av.getInsertionTime() > iMaximalTimeStamp || av.getHitCount() > cMinimalHitCount ){
+					aKept[cKept++] = av;
+				}
+				if( av.getInsertionTime() > iMaximalTimeStamp ){
+					cNew++;
+				}
+				if( av.getHitCount() <= cMinimalHitCount ){
+					cPruned++;
+				}
 			}
-		}
-		if( vAlphaVectorsWrite.size() > 0 ){
-			System.out.println( "Pruned from " + m_vAlphaVectors.size() + " to " + vAlphaVectorsWrite.size() + ". pruned " + cPruned + ", new vectors " + cNew );
-			m_bPruned = true;
-			m_vAlphaVectors = vAlphaVectorsWrite;
-		}
+			if( cKept == 0 )
+				return;
+		}while( !m_vAlphaVectors.compareAndSet( aCurrent, CopyOnWriteList.trim( aKept, cKept ) ) );
+		System.out.println( "Pruned from " + aCurrent.length + " to " + cKept + ". pruned " + cPruned + ", new vectors " + cNew );
+		m_bPruned = true;
 	}
 	
 	public boolean wasPruned(){
@@ -286,42 +358,7 @@ public class LinearValueFunctionApproximation implements Serializable{
 	}
 	
 	public void add( AlphaVector avNew, boolean bPruneDominated ){
-		AlphaVector avExisting = null;
-		BeliefState bsWitness = null;
-		boolean bDominated = false;
-		double dPreviousValue = 0.0, dNewValue = 0.0;
-		
-		m_cValueFunctionChanges++;
-		if( bPruneDominated ){
-			int iVector = 0;
-			for( iVector = 0 ; iVector < m_vAlphaVectors.size() && !bDominated ; iVector++ ){
-				avExisting = m_vAlphaVectors.get( iVector );
-				if( avNew.dominates( avExisting ) ){
-					m_vAlphaVectors.remove( avExisting );
-				}
-				else if( avExisting.dominates( avNew ) ){
-					bDominated = true;
-				}
-			}
-		}
-		
-		if( !bDominated ){
-			m_vAlphaVectors.add( avNew );
-		
-			if( m_bCacheValues ){		
-				avNew.setInsertionTime( m_cValueFunctionChanges );
-				bsWitness = avNew.getWitness();
-				if( bsWitness != null ){
-					dNewValue = avNew.dotProduct( bsWitness );
-					bsWitness.setMaxAlpha( avNew, m_cValueFunctionChanges );
-					bsWitness.setMaxValue( dNewValue, m_cValueFunctionChanges );
-				}
-			}
-	
-			if( avNew.getMaxValue() > m_dMaxValue )
-				m_dMaxValue = avNew.getMaxValue();
-		}
-		
+		addPruneDominated( avNew, bPruneDominated );
 	}
 
 
@@ -347,14 +384,11 @@ public class LinearValueFunctionApproximation implements Serializable{
 			m_vAlphaVectors.containsAll( vOther.m_vAlphaVectors );
 	}
 
+	//shares the current array of the other value function, later changes of either one do not affect the other
 	public void copy( LinearValueFunctionApproximation vOtherValueFunction ){
-		while( m_bEvaluatingPolicy ){
-			try {
-				wait( 100 );
-			} catch (Exception e) {
-			}
-		}
-		m_vAlphaVectors = new LinkedList<AlphaVector>( vOtherValueFunction.m_vAlphaVectors );
+		m_vAlphaVectors = new CopyOnWriteList<AlphaVector>();
+		m_vAlphaVectors.set( vOtherValueFunction.m_vAlphaVectors.getArray() );
+		m_diIndex = vOtherValueFunction.m_diIndex;
 		//m_cValueFunctionChanges = vOtherValueFunction.m_cValueFunctionChanges;
 		m_dEpsilon = vOtherValueFunction.m_dEpsilon;
 		m_rndGenerator = vOtherValueFunction.m_rndGenerator;
@@ -362,7 +396,6 @@ public class LinearValueFunctionApproximation implements Serializable{
 		m_dEpsilon = vOtherValueFunction.m_dEpsilon;
 		m_bCacheValues = vOtherValueFunction.m_bCacheValues;
 		m_dMaxValue = vOtherValueFunction.m_dMaxValue;
-		m_bEvaluatingPolicy = vOtherValueFunction.m_bEvaluatingPolicy;
 	}
 
 	public void add( AlphaVector avNew ){
@@ -502,8 +535,35 @@ public class LinearValueFunctionApproximation implements Serializable{
 		return m_vAlphaVectors;
 	}
 
+	/**
+	 * The current vectors as an immutable array. The array is rebuilt only after the vector list changes,
+	 * so repeated backups against an unchanged value function share it.
+	 */
+	public ValueFunctionSnapshot getSnapshot() {
+		Object[] aCurrent = m_vAlphaVectors.getArray();
+		ValueFunctionSnapshot vsCurrent = m_vsSnapshot;
+		if( vsCurrent == null || vsCurrent.m_aSource != aCurrent ){
+			vsCurrent = new ValueFunctionSnapshot( aCurrent, Arrays.copyOf( aCurrent, aCurrent.length, AlphaVector[].class ), ++m_cSnapshots );
+			m_vsSnapshot = vsCurrent;
+		}
+		return vsCurrent;
+	}
+
+	/**
+	 * Bounds over the current snapshot for getMaxAlpha, rebuilt with the snapshot.
+	 */
+	public MaxAlphaIndex getMaxAlphaIndex( int cStates ) {
+		ValueFunctionSnapshot vsCurrent = getSnapshot();
+		MaxAlphaIndex maiCurrent = m_maiIndex;
+		if( maiCurrent == null || maiCurrent.getSnapshot() != vsCurrent ){
+			maiCurrent = new MaxAlphaIndex( vsCurrent, cStates );
+			m_maiIndex = maiCurrent;
+		}
+		return maiCurrent;
+	}
+
 	public void setVectors( Vector<AlphaVector> v ) {
-		m_vAlphaVectors = new LinkedList<AlphaVector>( v );		
+		m_vAlphaVectors = new CopyOnWriteList<AlphaVector>( v );		
 	}
 
 	public int countEntries() {
@@ -655,6 +715,16 @@ public class LinearValueFunctionApproximation implements Serializable{
 		return null;
 	}
 
+	//removes the vectors of vBefore that are not in vKept, vectors that other threads added since vBefore was read stay
+	private void keepOnly( Collection<AlphaVector> vBefore, Collection<AlphaVector> vKept ){
+		Set<AlphaVector> sPruned = Collections.newSetFromMap( new IdentityHashMap<AlphaVector,Boolean>() );
+		sPruned.addAll( vBefore );
+		for( AlphaVector av : vKept )
+			sPruned.remove( av );
+		if( !sPruned.isEmpty() )
+			m_vAlphaVectors.removeIf( av -> sPruned.contains( av ) );
+	}
+
 	public void pruneLP( POMDP pPOMDP ) {
 		if( m_vAlphaVectors.size() < 2 )
 			return;
@@ -732,13 +802,14 @@ public class LinearValueFunctionApproximation implements Serializable{
 			}
 		}
 		System.out.println( "LP: Pruned the lower bound from " + m_vAlphaVectors.size() + " to " + vCleanList.size() + ", iterations = " + m_cLPIterations );
-		m_vAlphaVectors = vCleanList;
+		keepOnly( vDirtyList, vCleanList );
 	}
 	
 	public void pruneRandomSampling( BeliefStateFactory bsf, int cSamples ) {
 		if( m_vAlphaVectors.size() < 2 )
 			return;
 		LinkedList<AlphaVector> vDirtyList = new LinkedList<AlphaVector>( m_vAlphaVectors );
+		LinkedList<AlphaVector> vAllVectors = new LinkedList<AlphaVector>( vDirtyList );
 		LinkedList<AlphaVector> vCleanList = new LinkedList<AlphaVector>();
 		int iSample = 0;
 		BeliefState bsCurrent = null;
@@ -772,12 +843,13 @@ public class LinearValueFunctionApproximation implements Serializable{
 			}
 		}
 		System.out.println( "Pruned the lower bound from " + m_vAlphaVectors.size() + " to " + vCleanList.size() );
-		m_vAlphaVectors = vCleanList;
+		keepOnly( vAllVectors, vCleanList );
 	}
 	public void pruneRandomSampling( POMDP pPOMDP, int cSamples ) {
 		if( m_vAlphaVectors.size() < 2 )
 			return;
 		LinkedList<AlphaVector> vDirtyList = new LinkedList<AlphaVector>( m_vAlphaVectors );
+		LinkedList<AlphaVector> vAllVectors = new LinkedList<AlphaVector>( vDirtyList );
 		LinkedList<AlphaVector> vCleanList = new LinkedList<AlphaVector>();
 		int iState = 0, iSample = 0, cStates = pPOMDP.getStateCount();
 		BeliefState bsCurrent = null;
@@ -824,7 +896,7 @@ public class LinearValueFunctionApproximation implements Serializable{
 			}
 		}
 		System.out.println( "Pruned the lower bound from " + m_vAlphaVectors.size() + " to " + vCleanList.size() );
-		m_vAlphaVectors = vCleanList;
+		keepOnly( vAllVectors, vCleanList );
 	}
 	public void pruneTrials( POMDP pPOMDP, int cTrials, int cSteps, PolicyStrategy ps ){
 		initHitCounts();
@@ -834,22 +906,23 @@ public class LinearValueFunctionApproximation implements Serializable{
 		System.out.println( "Pruned the lower bound from " + cBefore + " to " + m_vAlphaVectors.size() );
 	}
 	public boolean pruneSkyline( POMDP pPOMDP ){
-		int cBefore = m_vAlphaVectors.size(), cPruned = 0;
+		LinkedList<AlphaVector> vAllVectors = new LinkedList<AlphaVector>( m_vAlphaVectors );
+		int cBefore = vAllVectors.size(), cPruned = 0;
 		LinkedList<AlphaVector> vCleanList = new LinkedList<AlphaVector>();
 		SkylinePruning sp = new SkylinePruning( this, pPOMDP.getStateCount() );
-		for( AlphaVector av : m_vAlphaVectors ){
+		for( AlphaVector av : vAllVectors ){
 			av.clearWitnesses();
 			av.setDominated( true );
 		}
 		sp.runSkylineWitness();
-		for( AlphaVector av : m_vAlphaVectors ){
+		for( AlphaVector av : vAllVectors ){
 			//if( !av.isDominated() && av.countWitnesses() > 1 )
 			if( !av.isDominated() )
 				vCleanList.add( av );
 			else
 				cPruned++;
 		}
-		m_vAlphaVectors = vCleanList;
+		keepOnly( vAllVectors, vCleanList );
 		System.out.println( "Skyline: Pruned the lower bound from " + cBefore + " to " + m_vAlphaVectors.size()
 				+ ", iterations = " + sp.getProcessedCount() );
 		return cBefore > m_vAlphaVectors.size();
@@ -0,0 +1,204 @@
+package pomdp.valuefunction;
+
+import java.util.IdentityHashMap;
+import java.util.Map.Entry;
+
+import pomdp.utilities.AlphaVector;
+import pomdp.utilities.BeliefState;
+import pomdp.utilities.ForbiddenActionMasks;
+
+/**
+ * Branch and bound search for the vector of a ValueFunctionSnapshot with the highest dot product with a belief.
+ * The states are split into BLOCKS ranges of consecutive states, and each vector keeps its maximal value in every range.
+ * A vector's bound at b is the sum over ranges of b's mass in the range times that maximum, and a vector whose bound is below
+ * the best dot product found so far is skipped. The search starts from the last vector it returned for the belief, or else
+ * from the vector with the highest bound.
+ * The result is the one the linear scan in LinearValueFunctionApproximation.getMaxAlpha returns when values are not cached:
+ * the highest dot product over the vectors whose action is not forbidden, and among equal ones the most recently added.
+ */
+public class MaxAlphaIndex {
+	private static final int BLOCKS = 32;
+	//relative slack on bounds, so that rounding in the dot products never skips the true maximum
+	private static final double BOUND_SLACK = 1e-9;
+
+	private final ValueFunctionSnapshot m_vsVectors;
+	private final IdentityHashMap<AlphaVector,Integer> m_mPositions;
+	private final int m_cBlockSize;
+	private final int m_cBlocks;
+	private final double[][] m_aadBlockBounds;	//by snapshot position, null for vectors that are always evaluated
+
+	MaxAlphaIndex( ValueFunctionSnapshot vsVectors, int cStates ){
+		int iVector = 0;
+		AlphaVector av = null;
+		double[] adBounds = null;
+		m_vsVectors = vsVectors;
+		m_cBlockSize = Math.max( 1, ( cStates + BLOCKS - 1 ) / BLOCKS );
+		m_cBlocks = ( cStates + m_cBlockSize - 1 ) / m_cBlockSize;
+		m_mPositions = new IdentityHashMap<AlphaVector,Integer>( vsVectors.size() );
+		m_aadBlockBounds = new double[vsVectors.size()][];
+		for( iVector = 0 ; iVector < vsVectors.size() ; iVector++ ){
+			av = vsVectors.get( iVector );
+			if( av != null ){
+				m_mPositions.put( av, iVector );	//a vector listed twice keeps its latest position, as in the backward scan
+				adBounds = av.getBlockUpperBounds( m_cBlockSize );
+				if( adBounds.length >= m_cBlocks )
+					m_aadBlockBounds[iVector] = adBounds;
+			}
+		}
+	}
+
+	public ValueFunctionSnapshot getSnapshot(){
+		return m_vsVectors;
+	}
+
+	public AlphaVector getMaxAlpha( BeliefState bs, long[] alForbiddenActions ){
+		Workspace wsSearch = new Workspace();
+		Integer iSeed = null;
+		AlphaVector av = null, avSeed = bs.getIndexedMaxAlpha();
+		wsSearch.reset( m_cBlocks, m_vsVectors.size() );
+		for( Entry<Integer,Double> e : bs.getNonZeroEntries() )
+			wsSearch.addMass( e.getKey() / m_cBlockSize, e.getValue() );
+		if( avSeed != null )
+			iSeed = m_mPositions.get( avSeed );
+		av = search( wsSearch, alForbiddenActions, iSeed == null ? -1 : iSeed, bs );
+		if( av != null )
+			bs.setIndexedMaxAlpha( av );
+		return av;
+	}
+
+	/**
+	 * The same search for a belief given by its values adBelief over the sorted states aiSupport, with the buffers of wsSearch.
+	 * The dot products sum over the support in ascending state order, which gives the values of AlphaVector.dotProduct.
+	 * wsSearch keeps the result as the seed of its next search.
+	 */
+	public AlphaVector getMaxAlpha( double[] adBelief, int[] aiSupport, int cSupport, long[] alForbiddenActions, Workspace wsSearch ){
+		Integer iSeed = null;
+		AlphaVector av = null;
+		int i = 0;
+		wsSearch.reset( m_cBlocks, m_vsVectors.size() );
+		wsSearch.m_adBelief = adBelief;
+		wsSearch.m_aiSupport = aiSupport;
+		wsSearch.m_cSupport = cSupport;
+		if( wsSearch.m_adValues.length < cSupport )
+			wsSearch.m_adValues = new double[aiSupport.length];
+		for( i = 0 ; i < cSupport ; i++ )
+			wsSearch.addMass( aiSupport[i] / m_cBlockSize, adBelief[aiSupport[i]] );
+		if( wsSearch.m_avSeed != null )
+			iSeed = m_mPositions.get( wsSearch.m_avSeed );
+		av = search( wsSearch, alForbiddenActions, iSeed == null ? -1 : iSeed, null );
+		wsSearch.m_avSeed = av;
+		return av;
+	}
+
+	//the block masses of the belief are in wsSearch, bs is null for a belief given by the arrays of wsSearch
+	private AlphaVector search( Workspace wsSearch, long[] alForbiddenActions, int iSeed, BeliefState bs ){
+		int cVectors = m_vsVectors.size(), iVector = 0, iBlock = 0, iBest = -1, iTouched = 0;
+		int cTouched = wsSearch.m_cTouched;
+		int[] aiTouched = wsSearch.m_aiTouched;
+		double[] adMass = wsSearch.m_adMass, adBounds = wsSearch.m_adBounds, adVectorBounds = null;
+		boolean[] abSkip = wsSearch.m_abSkip;
+		double dBest = Double.NEGATIVE_INFINITY, dValue = 0.0, dBound = 0.0;
+		AlphaVector av = null;
+
+		for( iVector = 0 ; iVector < cVectors ; iVector++ ){
+			av = m_vsVectors.get( iVector );
+			abSkip[iVector] = false;
+			if( av == null || ForbiddenActionMasks.isSet( alForbiddenActions, av.getAction() ) ){
+				abSkip[iVector] = true;
+				continue;
+			}
+			adVectorBounds = m_aadBlockBounds[iVector];
+			if( adVectorBounds == null ){
+				adBounds[iVector] = Double.POSITIVE_INFINITY;
+				continue;
+			}
+			dBound = 0.0;
+			for( iTouched = 0 ; iTouched < cTouched ; iTouched++ ){
+				iBlock = aiTouched[iTouched];
+				dBound += adMass[iBlock] * adVectorBounds[iBlock];
+			}
+			adBounds[iVector] = dBound;
+		}
+
+		if( iSeed >= 0 && !abSkip[iSeed] ){
+			iBest = iSeed;
+		}
+		else{
+			for( iVector = cVectors - 1 ; iVector >= 0 ; iVector-- ){
+				if( !abSkip[iVector] && ( iBest == -1 || adBounds[iVector] > adBounds[iBest] ) )
+					iBest = iVector;
+			}
+			if( iBest == -1 )
+				return null;
+		}
+		dBest = dotProduct( m_vsVectors.get( iBest ), bs, wsSearch );
+
+		for( iVector = cVectors - 1 ; iVector >= 0 ; iVector-- ){
+			if( abSkip[iVector] || iVector == iBest )
+				continue;
+			dBound = adBounds[iVector];
+			if( dBound + BOUND_SLACK * ( Math.abs( dBound ) + Math.abs( dBest ) ) < dBest )
+				continue;
+			dValue = dotProduct( m_vsVectors.get( iVector ), bs, wsSearch );
+			if( ( dValue > dBest ) || ( ( dValue == dBest ) && ( iVector > iBest ) ) ){
+				dBest = dValue;
+				iBest = iVector;
+			}
+		}
+
+		return m_vsVectors.get( iBest );
+	}
+
+	private static double dotProduct( AlphaVector av, BeliefState bs, Workspace wsSearch ){
+		if( bs != null )
+			return av.dotProduct( bs );
+		double dSum = 0.0;
+		av.valuesAt( wsSearch.m_aiSupport, wsSearch.m_cSupport, wsSearch.m_adValues, 0 );
+		for( int i = 0 ; i < wsSearch.m_cSupport ; i++ )
+			dSum += wsSearch.m_adValues[i] * wsSearch.m_adBelief[wsSearch.m_aiSupport[i]];
+		return dSum;
+	}
+
+	/**
+	 * The buffers of a search, grown to the largest index they served. A caller that searches repeatedly, such as
+	 * TrialSimulator, keeps one so that its searches allocate nothing. Not thread safe.
+	 */
+	public static class Workspace {
+		private double[] m_adMass = new double[0], m_adBounds = new double[0], m_adValues = new double[0];
+		private int[] m_aiTouched = new int[0];
+		private boolean[] m_abTouched = new boolean[0], m_abSkip = new boolean[0];
+		private int m_cTouched;
+		private double[] m_adBelief;
+		private int[] m_aiSupport;
+		private int m_cSupport;
+		private AlphaVector m_avSeed;
+
+		private void reset( int cBlocks, int cVectors ){
+			int iTouched = 0;
+			if( m_adMass.length < cBlocks ){
+				m_adMass = new double[cBlocks];
+				m_aiTouched = new int[cBlocks];
+				m_abTouched = new boolean[cBlocks];
+			}
+			else{
+				for( iTouched = 0 ; iTouched < m_cTouched ; iTouched++ ){
+					m_adMass[m_aiTouched[iTouched]] = 0.0;
+					m_abTouched[m_aiTouched[iTouched]] = false;
+				}
+			}
+			m_cTouched = 0;
+			if( m_adBounds.length < cVectors ){
+				m_adBounds = new double[cVectors];
+				m_abSkip = new boolean[cVectors];
+			}
+		}
+
+		private void addMass( int iBlock, double dProb ){
+			if( !m_abTouched[iBlock] ){
+				m_abTouched[iBlock] = true;
+				m_aiTouched[m_cTouched++] = iBlock;
+			}
+			m_adMass[iBlock] += dProb;
+		}
+	}
+}
@@ -58,7 +58,7 @@ public class UpperBoundValueFunctionApproximation {
 		double dMaxActionValue = Double.NEGATIVE_INFINITY, dPr = 0.0, dValueSum = 0.0;
 		BeliefState bsSuccessor = null;
 		
-		for( int iAction : m_pPOMDP.getRelevantActions(bs) ){
+		for( int iAction : m_pPOMDP.getRelevantActionArray( bs ) ){
 			dValueSum = 0.0;
 			for( iObservation = 0 ;iObservation < m_pPOMDP.getObservationCount() ; iObservation++ ){
 				bsSuccessor = bs.nextBeliefState( iAction, iObservation );
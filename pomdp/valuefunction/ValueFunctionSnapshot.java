@@ -0,0 +1,43 @@
+package pomdp.valuefunction;
+
+import pomdp.utilities.AlphaVector;
+
+/**
+ * Immutable array view of the alpha vectors of a LinearValueFunctionApproximation at one version.
+ * Backups iterate it instead of copying the vector list, and keep iterating the same vectors while other threads add or prune.
+ */
+public class ValueFunctionSnapshot {
+	private final AlphaVector[] m_aVectors;
+	private final long m_iVersion;
+	//the array of the vector list the vectors were read from, a snapshot is current while the list holds the same array
+	final Object[] m_aSource;
+
+	ValueFunctionSnapshot( Object[] aSource, AlphaVector[] aVectors, long iVersion ){
+		m_aSource = aSource;
+		m_aVectors = aVectors;
+		m_iVersion = iVersion;
+	}
+
+	// shared, callers must not modify it
+	public AlphaVector[] getVectors(){
+		return m_aVectors;
+	}
+
+	public int size(){
+		return m_aVectors.length;
+	}
+
+	public AlphaVector get( int iVector ){
+		return m_aVectors[iVector];
+	}
+
+	public AlphaVector getLast(){
+		if( m_aVectors.length == 0 )
+			return null;
+		return m_aVectors[m_aVectors.length - 1];
+	}
+
+	public long getVersion(){
+		return m_iVersion;
+	}
+}